@@ -0,0 +1,286 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2019, Robin Schulz
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkinsci.plugins.pipelineConfigHistory;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.jenkinsci.plugins.pipelineConfigHistory.model.PipelineHistoryCompression;
+
+/**
+ * Streaming access to the parts of a build.xml this plugin is interested in.
+ *
+ * <p>Build.xml files of long running pipelines can be large, so instead of parsing them into
+ * a DOM, they are read with StAX up to the element in question and not any further. The
+ * script is never materialized as a whole unless explicitly asked for.
+ */
+public final class BuildXmlReader implements AutoCloseable {
+
+  private static final int BUFFER_SIZE = 8192;
+
+  /**
+   * Creating a factory means a service lookup, so each thread keeps its own.
+   */
+  private static final ThreadLocal<XMLInputFactory> XML_INPUT_FACTORY =
+      ThreadLocal.withInitial(() -> {
+        XMLInputFactory factory = XMLInputFactory.newInstance();
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        factory.setProperty(XMLInputFactory.IS_COALESCING, false);
+        return factory;
+      });
+
+  private final File file;
+
+  private final InputStream in;
+
+  private final XMLStreamReader reader;
+
+  /**
+   * Depth below the script element, -1 while outside of it.
+   */
+  private int scriptDepth = -1;
+
+  private boolean scriptDone;
+
+  /**
+   * Text of the current text event which has not been consumed yet.
+   */
+  private char[] pending;
+  private int pendingStart;
+  private int pendingEnd;
+
+  private BuildXmlReader(File file) throws IOException {
+    if (!file.exists()) {
+      throw new FileNotFoundException("file not found: " + file.getPath());
+    }
+    this.file = file;
+    this.in = PipelineHistoryCompression.open(file);
+    try {
+      this.reader = XML_INPUT_FACTORY.get().createXMLStreamReader(in);
+    } catch (XMLStreamException e) {
+      in.close();
+      throw corrupt(e);
+    }
+  }
+
+  /**
+   * Open a build.xml for reading.
+   *
+   * @param buildXmlFile the build.xml.
+   * @return the reader, which must be closed.
+   * @throws FileNotFoundException if the file does not exist.
+   * @throws IOException if the file can't be opened.
+   */
+  public static BuildXmlReader open(File buildXmlFile) throws IOException {
+    return new BuildXmlReader(buildXmlFile);
+  }
+
+  /**
+   * Get the original number of a build which has been replayed from another build.
+   * Stops reading at the first originalNumber element.
+   *
+   * @param buildXmlFile the build.xml.
+   * @return the original number.
+   * @throws IOException if the file can't be read or contains no valid original number.
+   */
+  public static int getOriginalNumber(File buildXmlFile) throws IOException {
+    try (BuildXmlReader buildXml = open(buildXmlFile)) {
+      return buildXml.readOriginalNumber();
+    }
+  }
+
+  /**
+   * Get the text of the script element.
+   *
+   * @param buildXmlFile the build.xml.
+   * @return the script.
+   * @throws IOException if the file can't be read or contains no script.
+   */
+  public static String getScript(File buildXmlFile) throws IOException {
+    try (BuildXmlReader buildXml = open(buildXmlFile)) {
+      final StringBuilder script = new StringBuilder();
+      final char[] buffer = new char[BUFFER_SIZE];
+      int read;
+      while ((read = buildXml.readScript(buffer, 0, buffer.length)) != -1) {
+        script.append(buffer, 0, read);
+      }
+      return script.toString();
+    }
+  }
+
+  /**
+   * Compare the scripts of two build.xml files chunk by chunk, stopping at the first
+   * difference.
+   *
+   * @param buildXmlFile1 the first build.xml.
+   * @param buildXmlFile2 the second build.xml.
+   * @return whether both scripts are equal.
+   * @throws IOException if one of the files can't be read or contains no script.
+   */
+  public static boolean scriptsAreEqual(File buildXmlFile1, File buildXmlFile2)
+      throws IOException {
+    try (BuildXmlReader buildXml1 = open(buildXmlFile1);
+         BuildXmlReader buildXml2 = open(buildXmlFile2)) {
+      final char[] buffer1 = new char[BUFFER_SIZE];
+      final char[] buffer2 = new char[BUFFER_SIZE];
+      while (true) {
+        final int read1 = buildXml1.readScriptFully(buffer1);
+        final int read2 = buildXml2.readScriptFully(buffer2);
+        if (read1 != read2) {
+          return false;
+        }
+        for (int i = 0; i < read1; i++) {
+          if (buffer1[i] != buffer2[i]) {
+            return false;
+          }
+        }
+        if (read1 < buffer1.length) {
+          return true;
+        }
+      }
+    }
+  }
+
+  /**
+   * Read the next characters of the script. The first call skips everything up to the
+   * script element.
+   *
+   * @param buffer the buffer to read into.
+   * @param offset the first position to fill.
+   * @param length the maximum number of characters to read.
+   * @return the number of characters read, or -1 at the end of the script.
+   * @throws IOException if the file can't be read or contains no script.
+   */
+  public int readScript(char[] buffer, int offset, int length) throws IOException {
+    if (scriptDepth < 0 && !scriptDone) {
+      skipToScript();
+    }
+    while (pendingStart == pendingEnd) {
+      if (scriptDone || !nextScriptText()) {
+        return -1;
+      }
+    }
+    final int read = Math.min(length, pendingEnd - pendingStart);
+    System.arraycopy(pending, pendingStart, buffer, offset, read);
+    pendingStart += read;
+    return read;
+  }
+
+  private int readScriptFully(char[] buffer) throws IOException {
+    int filled = 0;
+    int read;
+    while (filled < buffer.length
+        && (read = readScript(buffer, filled, buffer.length - filled)) != -1) {
+      filled += read;
+    }
+    return filled;
+  }
+
+  private void skipToScript() throws IOException {
+    try {
+      while (reader.hasNext()) {
+        if (reader.next() == XMLStreamConstants.START_ELEMENT
+            && "script".equals(reader.getLocalName())) {
+          scriptDepth = 0;
+          return;
+        }
+      }
+    } catch (XMLStreamException e) {
+      throw corrupt(e);
+    }
+    throw new IOException("script not found: build.xml corrupt: " + file);
+  }
+
+  /**
+   * Advance to the next text event inside the script element.
+   *
+   * @return false at the end of the script element.
+   */
+  private boolean nextScriptText() throws IOException {
+    try {
+      while (reader.hasNext()) {
+        switch (reader.next()) {
+          case XMLStreamConstants.START_ELEMENT:
+            scriptDepth++;
+            break;
+          case XMLStreamConstants.END_ELEMENT:
+            if (scriptDepth-- == 0) {
+              scriptDone = true;
+              return false;
+            }
+            break;
+          case XMLStreamConstants.CHARACTERS:
+          case XMLStreamConstants.CDATA:
+          case XMLStreamConstants.SPACE:
+            // the reader may reuse its array on the next event, so it is consumed before that.
+            pending = reader.getTextCharacters();
+            pendingStart = reader.getTextStart();
+            pendingEnd = pendingStart + reader.getTextLength();
+            return true;
+          default:
+            break;
+        }
+      }
+    } catch (XMLStreamException e) {
+      throw corrupt(e);
+    }
+    throw new IOException("unexpected end of file: build.xml corrupt: " + file);
+  }
+
+  private int readOriginalNumber() throws IOException {
+    try {
+      while (reader.hasNext()) {
+        if (reader.next() == XMLStreamConstants.START_ELEMENT
+            && "originalNumber".equals(reader.getLocalName())) {
+          return Integer.parseInt(reader.getElementText().trim());
+        }
+      }
+    } catch (XMLStreamException | NumberFormatException e) {
+      throw new IOException("Original build number not found: build.xml corrupt.", e);
+    }
+    throw new IOException("Original build number not found: build.xml corrupt.");
+  }
+
+  private IOException corrupt(XMLStreamException e) {
+    return new IOException("build.xml corrupt: " + file, e);
+  }
+
+  @Override
+  public void close() throws IOException {
+    try {
+      reader.close();
+    } catch (XMLStreamException e) {
+      throw corrupt(e);
+    } finally {
+      in.close();
+    }
+  }
+}
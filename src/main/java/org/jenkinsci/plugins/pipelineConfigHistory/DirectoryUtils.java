@@ -43,11 +43,13 @@ public class DirectoryUtils {
 
 
   /**
-   * Get all files the given directory contains, except the history xml in the root dir.
+   * Get all files the given directory contains, except the history xml and the file manifest
+   * in the root dir.
    *
    * @param directory the directory.
    * @throws IOException if file walking fails.
-   * @return all files this directory contains, except the history xml in the root dir.
+   * @return all files this directory contains, except the history xml and the file manifest in
+   *     the root dir.
    */
   public static File[] getAllFilesExceptHistoryXmlFromDirectory(File directory) throws IOException {
     if (!directory.isDirectory()) {
@@ -58,7 +60,8 @@ public class DirectoryUtils {
           .filter(Files::isRegularFile)
           .map(Path::toFile)
           .filter(file ->
-              !(file.getName().equals(PipelineConfigHistoryConsts.HISTORY_XML_FILENAME)
+              !((file.getName().equals(PipelineConfigHistoryConsts.HISTORY_XML_FILENAME)
+                  || file.getName().equals(PipelineConfigHistoryConsts.FILE_MANIFEST_FILENAME))
                   && file.getParentFile().equals(directory))
           )
           .toArray(File[]::new);
@@ -64,6 +64,45 @@ public final class PipelineConfigHistoryConsts {
    */
   public static final String HISTORY_XML_FILENAME = "history.xml";
 
+  /**
+   * single configuration's file manifest filename, listing the files the configuration consists of.
+   */
+  public static final String FILE_MANIFEST_FILENAME = "files.index";
+
+  /**
+   * per-job revision index's filename, located next to the timestamped revision directories.
+   */
+  public static final String INDEX_FILENAME = "revisions.index";
+
+  /**
+   * Directory below the history base holding the deduplicated library files.
+   * Job names can't contain an "@", so it can't clash with a job's history.
+   */
+  public static final String BLOB_DIR = "@blobs";
+
+  /**
+   * Directory below the history base holding diffs spilled from the diff cache.
+   */
+  public static final String DIFF_CACHE_DIR = "@diffcache";
+
+  /**
+   * Global, time-ordered log of all revisions below the history base, used to find expired
+   * revisions without visiting every job.
+   */
+  public static final String EXPIRY_LOG_FILENAME = "@expiry.log";
+
+  /**
+   * Marker file below the history base, present once the replay origins of all revisions
+   * have been recorded in their history xml.
+   */
+  public static final String REPLAY_BACKFILL_MARKER = "@replayOrigins.backfilled";
+
+  /**
+   * Directory below the history base where new revisions are written before they are renamed
+   * into their job's history. Anything left in it has been interrupted by a crash.
+   */
+  public static final String STAGING_DIR = "@staging";
+
   /**
    * build xml's filename.
    */
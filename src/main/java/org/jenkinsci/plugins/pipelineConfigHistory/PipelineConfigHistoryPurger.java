@@ -2,12 +2,34 @@ package org.jenkinsci.plugins.pipelineConfigHistory;
 
 import hudson.Extension;
 import hudson.model.PeriodicWork;
+import hudson.security.ACL;
+import hudson.security.ACLContext;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
 import jenkins.model.Jenkins;
+import jenkins.util.SystemProperties;
+import org.jenkinsci.plugins.pipelineConfigHistory.model.FilePipelineItemHistoryDao;
 import org.jenkinsci.plugins.pipelineConfigHistory.model.PipelineConfigHistoryGlobalConfiguration;
+import org.jenkinsci.plugins.pipelineConfigHistory.model.PipelineHistoryExpiryLog;
+import org.jenkinsci.plugins.pipelineConfigHistory.model.PipelineHistoryJobLocks;
+import org.jenkinsci.plugins.pipelineConfigHistory.model.PipelineHistoryPurgeBudget;
+import org.jenkinsci.plugins.pipelineConfigHistory.model.PipelineHistoryPurgeSummary;
 import org.jenkinsci.plugins.pipelineConfigHistory.model.PipelineItemHistoryDao;
 import org.jenkinsci.plugins.workflow.job.WorkflowJob;
 
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -21,6 +43,26 @@ public class PipelineConfigHistoryPurger extends PeriodicWork {
   private static final Logger LOG =
       Logger.getLogger(PipelineConfigHistoryPurger.class.getName());
 
+  private static final String PROPERTY_PREFIX = PipelineConfigHistoryPurger.class.getName();
+
+  /**
+   * Number of jobs purged in parallel.
+   */
+  static final int THREADS = Math.max(1,
+      SystemProperties.getInteger(PROPERTY_PREFIX + ".threads", 2));
+
+  /**
+   * Maximum number of revisions deleted per second by a run, 0 for no limit.
+   */
+  static final long MAX_ENTRIES_PER_SECOND =
+      SystemProperties.getLong(PROPERTY_PREFIX + ".maxEntriesPerSecond", 0L);
+
+  /**
+   * Maximum number of bytes deleted per second by a run, 0 for no limit.
+   */
+  static final long MAX_BYTES_PER_SECOND =
+      SystemProperties.getLong(PROPERTY_PREFIX + ".maxBytesPerSecond", 0L);
+
   @Override
   public long getRecurrencePeriod() {
     //purge on a daily basis
@@ -31,21 +73,120 @@ public class PipelineConfigHistoryPurger extends PeriodicWork {
   protected void doRun() throws Exception {
     //stateless, maxAge always comes from the global config.
     Optional<Integer> maxAgeOptional = PipelineConfigHistoryGlobalConfiguration.get().getMaxDaysToKeepEntriesOptional();
-    if (!maxAgeOptional.isPresent()) return;
-
-    int maxAge = maxAgeOptional.get();
-    if (maxAge > 0) {
+    if (maxAgeOptional.isPresent() && maxAgeOptional.get() > 0) {
+      int maxAge = maxAgeOptional.get();
       LOG.log(Level.FINE,
           "checking for history files to purge (max age of {0} days allowed)",
           maxAge);
       purgeHistoryByAge(maxAge);
     }
+    collectUnreferencedBlobs();
+    LOG.log(Level.FINE, "history updates {0}", PipelineHistoryJobLocks.get());
   }
 
-  private void purgeHistoryByAge(int maxAge) {
+  private void collectUnreferencedBlobs() {
     PipelineItemHistoryDao pipelineItemHistoryDao = PluginUtils.getHistoryDao();
-    Jenkins.get().getAllItems(WorkflowJob.class).forEach( workflowJob ->
-        pipelineItemHistoryDao.purgeEntriesByAge(maxAge, workflowJob)
-    );
+    if (pipelineItemHistoryDao instanceof FilePipelineItemHistoryDao) {
+      final long start = System.currentTimeMillis();
+      try {
+        ((FilePipelineItemHistoryDao) pipelineItemHistoryDao).getBlobStore().collectGarbage();
+      } catch (IOException e) {
+        LOG.log(Level.WARNING, "unable to delete unreferenced blobs: {0}", e.getMessage());
+      }
+      LOG.log(Level.FINE, "blob garbage collection took {0} ms",
+          System.currentTimeMillis() - start);
+    }
+  }
+
+  private void purgeHistoryByAge(int maxAge) throws InterruptedException {
+    PipelineItemHistoryDao pipelineItemHistoryDao = PluginUtils.getHistoryDao();
+    if (!(pipelineItemHistoryDao instanceof FilePipelineItemHistoryDao)) {
+      Jenkins.get().getAllItems(WorkflowJob.class).forEach( workflowJob ->
+          pipelineItemHistoryDao.purgeEntriesByAge(maxAge, workflowJob)
+      );
+      return;
+    }
+    final long start = System.currentTimeMillis();
+    final PipelineHistoryPurgeSummary summary = purgeHistoryByAge(
+        (FilePipelineItemHistoryDao) pipelineItemHistoryDao, maxAge,
+        new PipelineHistoryPurgeBudget(MAX_ENTRIES_PER_SECOND, MAX_BYTES_PER_SECOND), THREADS);
+    LOG.log(summary.getPurgedCount() > 0 || summary.getFailedCount() > 0 ? Level.INFO : Level.FINE,
+        "purged history in {0} ms: {1}",
+        new Object[]{System.currentTimeMillis() - start, summary});
+  }
+
+  /**
+   * Purge the histories which have expired revisions according to the expiry log, including
+   * the histories of deleted jobs, on a fixed number of threads sharing one budget.
+   * Jobs without expired revisions are not visited at all.
+   *
+   * @return what has been purged.
+   * @throws InterruptedException if interrupted, the jobs which have not been purged yet are
+   *     skipped and stay in the expiry log.
+   */
+  static PipelineHistoryPurgeSummary purgeHistoryByAge(FilePipelineItemHistoryDao historyDao,
+                                                       int maxAge,
+                                                       PipelineHistoryPurgeBudget budget,
+                                                       int threads)
+      throws InterruptedException {
+    // the same cutoff for all jobs, however long the run takes.
+    final String cutoff = historyDao.getPurgeCutoff(maxAge);
+    final PipelineHistoryPurgeSummary summary = new PipelineHistoryPurgeSummary();
+    final PipelineHistoryExpiryLog expiryLog = historyDao.getExpiryLog();
+
+    final long readStart = System.nanoTime();
+    final List<PipelineHistoryExpiryLog.Entry> expired;
+    try {
+      expired = expiryLog.readExpired(cutoff);
+    } catch (IOException e) {
+      LOG.log(Level.WARNING, "unable to read the expiry log: {0}", e.getMessage());
+      return summary;
+    }
+    final Set<String> jobFullNames = new LinkedHashSet<>();
+    expired.forEach(entry -> jobFullNames.add(entry.getJobFullName()));
+    summary.addLogRead(expired.size(), System.nanoTime() - readStart);
+    if (expired.isEmpty()) {
+      return summary;
+    }
+
+    final Set<String> purgedJobs = ConcurrentHashMap.newKeySet();
+    final ExecutorService executor = Executors.newFixedThreadPool(threads,
+        new NamingThreadFactory(new DaemonThreadFactory(), "PipelineConfigHistoryPurger"));
+    try {
+      final List<Future<?>> futures = new ArrayList<>(jobFullNames.size());
+      for (String jobFullName : jobFullNames) {
+        futures.add(executor.submit(() -> {
+          // jobs must not look deleted just because this thread can't see them.
+          try (ACLContext ignored = ACL.as(ACL.SYSTEM)) {
+            if (historyDao.purgeEntriesBefore(cutoff, jobFullName, budget, summary)) {
+              purgedJobs.add(jobFullName);
+              if (Jenkins.get().getItemByFullName(jobFullName) == null) {
+                // the history of a deleted job, nothing left to restore.
+                historyDao.deleteHistoryIfEmpty(jobFullName);
+              }
+            }
+          }
+          return null;
+        }));
+      }
+      for (Future<?> future : futures) {
+        try {
+          future.get();
+        } catch (ExecutionException e) {
+          LOG.log(Level.WARNING, "purging history failed", e.getCause());
+        }
+      }
+    } finally {
+      executor.shutdownNow();
+      executor.awaitTermination(1, TimeUnit.MINUTES);
+      final Set<String> remainingJobs = new HashSet<>(jobFullNames);
+      remainingJobs.removeAll(purgedJobs);
+      try {
+        expiryLog.removeHead(expired, remainingJobs);
+      } catch (IOException e) {
+        LOG.log(Level.WARNING, "unable to update the expiry log: {0}", e.getMessage());
+      }
+    }
+    return summary;
   }
 }
@@ -28,15 +28,16 @@ import hudson.XmlFile;
 import hudson.model.Item;
 import jenkins.model.Jenkins;
 import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
 import org.jenkinsci.plugins.pipelineConfigHistory.model.FilePipelineItemHistoryDao;
 import org.jenkinsci.plugins.pipelineConfigHistory.model.PipelineConfigHistoryGlobalConfiguration;
+import org.jenkinsci.plugins.pipelineConfigHistory.model.PipelineHistoryCompression;
+import org.jenkinsci.plugins.pipelineConfigHistory.model.PipelineHistoryIdAllocator;
 import org.jenkinsci.plugins.pipelineConfigHistory.model.PipelineItemHistoryDao;
 import org.jenkinsci.plugins.workflow.cps.CpsFlowDefinition;
 import org.jenkinsci.plugins.workflow.cps.CpsScmFlowDefinition;
 import org.jenkinsci.plugins.workflow.flow.FlowDefinition;
 import org.jenkinsci.plugins.workflow.job.WorkflowJob;
-import org.w3c.dom.Document;
-import org.w3c.dom.NodeList;
 import org.xml.sax.SAXException;
 import org.xmlunit.builder.DiffBuilder;
 import org.xmlunit.builder.Input;
@@ -44,14 +45,13 @@ import org.xmlunit.diff.Diff;
 
 import java.io.File;
 import java.io.IOException;
-import java.text.ParseException;
-import java.text.SimpleDateFormat;
+import java.io.InputStream;
+import java.nio.charset.Charset;
 import java.util.Arrays;
 import java.util.Date;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Optional;
-import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.ParserConfigurationException;
 
 public final class PluginUtils {
@@ -66,17 +66,16 @@ public final class PluginUtils {
    * @return the currently used history dao.
    */
   public static PipelineItemHistoryDao getHistoryDao() {
-    Optional<Integer> maxHistoryEntriesOptional = PipelineConfigHistoryGlobalConfiguration.get().getMaxHistoryEntriesOptional();
-    if (maxHistoryEntriesOptional.isPresent()) {
-      return new FilePipelineItemHistoryDao(
-          new File(Jenkins.get().getRootDir(), PipelineConfigHistoryConsts.DEFAULT_HISTORY_DIR),
-          maxHistoryEntriesOptional.get()
-      );
-    } else {
-      return new FilePipelineItemHistoryDao(
-          new File(Jenkins.get().getRootDir(), PipelineConfigHistoryConsts.DEFAULT_HISTORY_DIR)
-      );
-    }
+    PipelineConfigHistoryGlobalConfiguration configuration =
+        PipelineConfigHistoryGlobalConfiguration.get();
+    Optional<Integer> maxHistoryEntriesOptional = configuration.getMaxHistoryEntriesOptional();
+    return new FilePipelineItemHistoryDao(
+        new File(Jenkins.get().getRootDir(), PipelineConfigHistoryConsts.DEFAULT_HISTORY_DIR),
+        maxHistoryEntriesOptional.orElse(-1),
+        configuration.isDeduplicateLibraries(),
+        configuration.isCompressRevisions(),
+        configuration.getMaxDaysToKeepEntriesOptional().filter(maxAge -> maxAge > 0).isPresent()
+    );
 
   }
 
@@ -102,35 +101,22 @@ public final class PluginUtils {
 
   /**
    * Get the original number for builds which are replays from other builds.
+   * The file is only read up to the originalNumber element.
    *
    * @param buildXmlFile the build xml file
    * @return the original number.
-   * @throws ParserConfigurationException if something goes wrong creating a document parser.
+   * @throws ParserConfigurationException never, the file is streamed. Kept for compatibility.
    * @throws IOException                  if something IO related goes wrong int the parsing
    *                                      process.
-   * @throws SAXException                 if something goes wrong parsing the xml file.
+   * @throws SAXException                 never, the file is streamed. Kept for compatibility.
    */
   public static int getOriginalNumberFromBuildXml(File buildXmlFile)
       throws ParserConfigurationException, IOException, SAXException {
-    DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
-    factory.setIgnoringElementContentWhitespace(true);
-    Document document = factory.newDocumentBuilder().parse(buildXmlFile);
-
-    NodeList originalNumberElements = document.getElementsByTagName("originalNumber");
-
-    if (originalNumberElements.getLength() != 1) {
-      throw new IOException("Original build number not found: build.xml corrupt.");
-    }
-
-    try {
-      return Integer.parseInt(originalNumberElements.item(0).getTextContent());
-    } catch (NumberFormatException e) {
-      throw new IOException("Original build number not found: build.xml corrupt.");
-    }
+    return BuildXmlReader.getOriginalNumber(buildXmlFile);
   }
 
   /**
-   * Get a file's content as String.
+   * Get a file's content as String. Compressed revision files are decompressed.
    *
    * @param file the file to read
    * @return the file's content as \n-separated String.
@@ -140,11 +126,42 @@ public final class PluginUtils {
     if (file == null) {
       return "";
     } else {
-      return FileUtils.readFileToString(file);
+      try (InputStream in = PipelineHistoryCompression.open(file)) {
+        return IOUtils.toString(in, Charset.defaultCharset());
+      }
     }
 
   }
 
+  /**
+   * Get a file's lines. Compressed revision files are decompressed.
+   *
+   * @param file the file to read
+   * @return the file's lines, without line terminators.
+   * @throws IOException if the file could not be read.
+   */
+  public static List<String> fileToLines(File file) throws IOException {
+    try (InputStream in = PipelineHistoryCompression.open(file)) {
+      return IOUtils.readLines(in, Charset.defaultCharset());
+    }
+  }
+
+  /**
+   * Compare two files' contents. Compressed revision files are decompressed, so a compressed
+   * file equals its uncompressed original.
+   *
+   * @param file1 the first file
+   * @param file2 the second file
+   * @return whether both files have the same content.
+   * @throws IOException if a file could not be read.
+   */
+  public static boolean fileContentEquals(File file1, File file2) throws IOException {
+    try (InputStream in1 = PipelineHistoryCompression.open(file1);
+         InputStream in2 = PipelineHistoryCompression.open(file2)) {
+      return IOUtils.contentEquals(in1, in2);
+    }
+  }
+
   /**
    * get the workflowJob associated with the given fullName.
    *
@@ -201,48 +218,27 @@ public final class PluginUtils {
 
   /**
    * Test if the scripts contained in the two files are equal.
+   * Both scripts are streamed and compared chunk by chunk up to the first difference.
    *
    * @param xmlFile1 file1
    * @param xmlFile2 file2
-   * @throws ParserConfigurationException if creating a parser fails
+   * @throws ParserConfigurationException never, the files are streamed. Kept for compatibility.
    * @throws IOException if one of the two files is corrupt.
-   * @throws SAXException if parsing one xml file fails
+   * @throws SAXException never, the files are streamed. Kept for compatibility.
    * @return whether the scripts contained in the two files are equal.
    */
   public static boolean scriptInXmlFileIsEqual(XmlFile xmlFile1, XmlFile xmlFile2) throws ParserConfigurationException, IOException, SAXException {
-
-    DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
-    factory.setIgnoringElementContentWhitespace(true);
-    Document document1 = factory.newDocumentBuilder().parse(xmlFile1.getFile());
-    Document document2 = factory.newDocumentBuilder().parse(xmlFile2.getFile());
-
-    NodeList scriptElements1 = document1.getElementsByTagName("script");
-    NodeList scriptElements2 = document2.getElementsByTagName("script");
-    if (scriptElements1.getLength() != 1) {
-      throw new IOException("Original build number not found: first build.xml corrupt.");
-    }
-    if (scriptElements2.getLength() != 1) {
-      throw new IOException("Original build number not found: second build.xml corrupt.");
-    }
-
-    return scriptElements1.item(0).getTextContent()
-        .equals(scriptElements2.item(0).getTextContent());
+    return BuildXmlReader.scriptsAreEqual(xmlFile1.getFile(), xmlFile2.getFile());
   }
 
   /**
    * Returns a {@link Date}.
    *
-   * @param timeStamp date as string.
+   * @param timeStamp date as string, a revision identifier with or without sequence suffix.
    * @return The parsed date as a java.util.Date.
    */
   public static Date parsedDate(final String timeStamp) {
-    try {
-      return new SimpleDateFormat(PipelineConfigHistoryConsts.ID_FORMATTER)
-          .parse(timeStamp);
-    } catch (ParseException ex) {
-      throw new IllegalArgumentException(
-          "Could not parse Date" + timeStamp, ex);
-    }
+    return PipelineHistoryIdAllocator.parseTimestamp(timeStamp);
   }
 
   /**
@@ -0,0 +1,45 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2019, Robin Schulz
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkinsci.plugins.pipelineConfigHistory.diff;
+
+import java.util.List;
+
+/**
+ * A line diff algorithm working on interned lines.
+ *
+ * <p>Lines are compared by their ids only, equal lines must have equal ids.
+ */
+public interface DiffAlgorithm {
+
+  /**
+   * Compute the edits turning sequence a into sequence b.
+   *
+   * @param a      the ids of the original lines.
+   * @param b      the ids of the revised lines.
+   * @param budget limits the time spent.
+   * @return the edits, ordered by position and never adjacent to each other.
+   * @throws DiffBudgetExceededException if the budget is used up before the diff is complete.
+   */
+  List<Edit> diff(int[] a, int[] b, DiffBudget budget);
+}
@@ -0,0 +1,83 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2019, Robin Schulz
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkinsci.plugins.pipelineConfigHistory.diff;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time and size limits of a diff. The clock starts when the budget is created, so several
+ * diffs sharing a budget share its time, while the size limit applies to each of them.
+ */
+public final class DiffBudget {
+
+  private final long timeoutNanos;
+
+  private final long deadline;
+
+  private final int maxLines;
+
+  /**
+   * Get a budget.
+   *
+   * @param timeoutMillis the maximum time the diff may take, 0 for no limit.
+   * @param maxLines      the maximum number of lines of both sequences together, which bounds
+   *                      the memory needed, 0 for no limit.
+   */
+  public DiffBudget(long timeoutMillis, int maxLines) {
+    this.timeoutNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, timeoutMillis));
+    this.deadline = System.nanoTime() + timeoutNanos;
+    this.maxLines = Math.max(0, maxLines);
+  }
+
+  /**
+   * Get a budget without any limits.
+   *
+   * @return the budget.
+   */
+  public static DiffBudget unlimited() {
+    return new DiffBudget(0, 0);
+  }
+
+  /**
+   * Whether sequences of the given size may be diffed at all.
+   *
+   * @param lines the number of lines of both sequences together.
+   * @return true if the size is within the budget.
+   */
+  public boolean allows(int lines) {
+    return maxLines == 0 || lines <= maxLines;
+  }
+
+  /**
+   * Called by the algorithms regularly.
+   *
+   * @throws DiffBudgetExceededException if the time is up.
+   */
+  void check() {
+    if (timeoutNanos > 0 && System.nanoTime() - deadline > 0) {
+      throw new DiffBudgetExceededException(
+          "diff took longer than " + TimeUnit.NANOSECONDS.toMillis(timeoutNanos) + "ms");
+    }
+  }
+}
@@ -0,0 +1,97 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2019, Robin Schulz
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkinsci.plugins.pipelineConfigHistory.diff;
+
+/**
+ * Replacement of the lines [beginA, endA) of the original by the lines [beginB, endB) of the
+ * revised sequence. Either range may be empty, but not both.
+ */
+public final class Edit {
+
+  private final int beginA;
+  private final int endA;
+  private final int beginB;
+  private final int endB;
+
+  public Edit(int beginA, int endA, int beginB, int endB) {
+    this.beginA = beginA;
+    this.endA = endA;
+    this.beginB = beginB;
+    this.endB = endB;
+  }
+
+  public int getBeginA() {
+    return beginA;
+  }
+
+  public int getEndA() {
+    return endA;
+  }
+
+  public int getBeginB() {
+    return beginB;
+  }
+
+  public int getEndB() {
+    return endB;
+  }
+
+  /**
+   * Whether lines are only inserted.
+   *
+   * @return true if the original range is empty.
+   */
+  public boolean isInsert() {
+    return beginA == endA;
+  }
+
+  /**
+   * Whether lines are only deleted.
+   *
+   * @return true if the revised range is empty.
+   */
+  public boolean isDelete() {
+    return beginB == endB;
+  }
+
+  @Override
+  public boolean equals(Object other) {
+    if (!(other instanceof Edit)) {
+      return false;
+    }
+    Edit edit = (Edit) other;
+    return beginA == edit.beginA && endA == edit.endA
+        && beginB == edit.beginB && endB == edit.endB;
+  }
+
+  @Override
+  public int hashCode() {
+    return ((beginA * 31 + endA) * 31 + beginB) * 31 + endB;
+  }
+
+  @Override
+  public String toString() {
+    return "Edit[" + beginA + "-" + endA + "," + beginB + "-" + endB + "]";
+  }
+}
@@ -0,0 +1,53 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2019, Robin Schulz
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkinsci.plugins.pipelineConfigHistory.diff;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Collects edits in order, merging edits which touch each other.
+ */
+final class EditList {
+
+  private final List<Edit> edits = new ArrayList<>();
+
+  void add(int beginA, int endA, int beginB, int endB) {
+    if (beginA == endA && beginB == endB) {
+      return;
+    }
+    if (!edits.isEmpty()) {
+      final Edit last = edits.get(edits.size() - 1);
+      if (last.getEndA() == beginA && last.getEndB() == beginB) {
+        edits.set(edits.size() - 1, new Edit(last.getBeginA(), endA, last.getBeginB(), endB));
+        return;
+      }
+    }
+    edits.add(new Edit(beginA, endA, beginB, endB));
+  }
+
+  List<Edit> toList() {
+    return edits;
+  }
+}
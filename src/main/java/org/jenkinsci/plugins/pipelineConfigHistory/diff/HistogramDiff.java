@@ -0,0 +1,204 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2019, Robin Schulz
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkinsci.plugins.pipelineConfigHistory.diff;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+
+/**
+ * Histogram diff, an extension of patience diff: each region is split at the longest common
+ * run of lines containing the least frequent lines of the original, and the parts before and
+ * after it are diffed on their own. Unique lines like method signatures anchor the diff, so
+ * the result tends to be more readable than Myers' for source code, and it's usually faster.
+ *
+ * <p>Lines occurring more than {@value #MAX_CHAIN_LENGTH} times in a region are not used as
+ * anchors. Regions without any anchor but with common lines are diffed with {@link MyersDiff}.
+ */
+public final class HistogramDiff implements DiffAlgorithm {
+
+  static final int MAX_CHAIN_LENGTH = 64;
+
+  private final DiffAlgorithm fallback = new MyersDiff();
+
+  @Override
+  public List<Edit> diff(int[] a, int[] b, DiffBudget budget) {
+    return new State(a, b, budget).diff();
+  }
+
+  private final class State {
+
+    private final int[] a;
+    private final int[] b;
+    private final DiffBudget budget;
+
+    /** Occurrences of each line id in the current region of a. */
+    private final int[] count;
+    /** First occurrence of each line id in the current region of a. */
+    private final int[] head;
+    /** Next occurrence of the line at each position of a. */
+    private final int[] next;
+
+    private final EditList edits = new EditList();
+
+    // the best common run of the current region.
+    private int runBeginA;
+    private int runEndA;
+    private int runBeginB;
+    private int runEndB;
+    private int runCount;
+
+    State(int[] a, int[] b, DiffBudget budget) {
+      this.a = a;
+      this.b = b;
+      this.budget = budget;
+      int maxId = -1;
+      for (int id : a) {
+        maxId = Math.max(maxId, id);
+      }
+      for (int id : b) {
+        maxId = Math.max(maxId, id);
+      }
+      this.count = new int[maxId + 1];
+      this.head = new int[maxId + 1];
+      this.next = new int[a.length];
+    }
+
+    List<Edit> diff() {
+      // regions still to diff, the leftmost on top so the edits are found in order.
+      final Deque<int[]> regions = new ArrayDeque<>();
+      regions.push(new int[]{0, a.length, 0, b.length});
+      while (!regions.isEmpty()) {
+        budget.check();
+        final int[] region = regions.pop();
+        int beginA = region[0];
+        int endA = region[1];
+        int beginB = region[2];
+        int endB = region[3];
+        while (beginA < endA && beginB < endB && a[beginA] == b[beginB]) {
+          beginA++;
+          beginB++;
+        }
+        while (beginA < endA && beginB < endB && a[endA - 1] == b[endB - 1]) {
+          endA--;
+          endB--;
+        }
+        if (beginA == endA || beginB == endB) {
+          edits.add(beginA, endA, beginB, endB);
+          continue;
+        }
+
+        final boolean hasCommon = findRun(beginA, endA, beginB, endB);
+        if (runCount <= MAX_CHAIN_LENGTH) {
+          regions.push(new int[]{runEndA, endA, runEndB, endB});
+          regions.push(new int[]{beginA, runBeginA, beginB, runBeginB});
+        } else if (hasCommon) {
+          addFallback(beginA, endA, beginB, endB);
+        } else {
+          edits.add(beginA, endA, beginB, endB);
+        }
+      }
+      return edits.toList();
+    }
+
+    /**
+     * Find the common run with the least frequent lines in the region.
+     *
+     * @return whether the region has any common lines at all.
+     */
+    private boolean findRun(int beginA, int endA, int beginB, int endB) {
+      for (int i = endA - 1; i >= beginA; i--) {
+        final int id = a[i];
+        next[i] = count[id] == 0 ? -1 : head[id];
+        head[id] = i;
+        count[id]++;
+      }
+
+      boolean hasCommon = false;
+      runCount = MAX_CHAIN_LENGTH + 1;
+      int runLength = 0;
+      int posB = beginB;
+      while (posB < endB) {
+        final int occurrences = count[b[posB]];
+        if (occurrences == 0) {
+          posB++;
+          continue;
+        }
+        hasCommon = true;
+        if (occurrences > MAX_CHAIN_LENGTH || occurrences > runCount) {
+          posB++;
+          continue;
+        }
+
+        int nextB = posB + 1;
+        for (int posA = head[b[posB]]; posA != -1; posA = next[posA]) {
+          int candidateCount = occurrences;
+          int candidateBeginA = posA;
+          int candidateBeginB = posB;
+          while (candidateBeginA > beginA && candidateBeginB > beginB
+              && a[candidateBeginA - 1] == b[candidateBeginB - 1]) {
+            candidateBeginA--;
+            candidateBeginB--;
+            candidateCount = Math.min(candidateCount, count[a[candidateBeginA]]);
+          }
+          int candidateEndA = posA + 1;
+          int candidateEndB = posB + 1;
+          while (candidateEndA < endA && candidateEndB < endB
+              && a[candidateEndA] == b[candidateEndB]) {
+            candidateCount = Math.min(candidateCount, count[a[candidateEndA]]);
+            candidateEndA++;
+            candidateEndB++;
+          }
+          final int candidateLength = candidateEndA - candidateBeginA;
+          if (candidateCount < runCount
+              || (candidateCount == runCount && candidateLength > runLength)) {
+            runBeginA = candidateBeginA;
+            runEndA = candidateEndA;
+            runBeginB = candidateBeginB;
+            runEndB = candidateEndB;
+            runCount = candidateCount;
+            runLength = candidateLength;
+          }
+          nextB = Math.max(nextB, candidateEndB);
+        }
+        posB = nextB;
+      }
+
+      for (int i = beginA; i < endA; i++) {
+        count[a[i]] = 0;
+      }
+      return hasCommon;
+    }
+
+    private void addFallback(int beginA, int endA, int beginB, int endB) {
+      final List<Edit> regionEdits = fallback.diff(
+          Arrays.copyOfRange(a, beginA, endA), Arrays.copyOfRange(b, beginB, endB), budget);
+      for (Edit edit : regionEdits) {
+        edits.add(beginA + edit.getBeginA(), beginA + edit.getEndA(),
+            beginB + edit.getBeginB(), beginB + edit.getEndB());
+      }
+    }
+  }
+}
@@ -0,0 +1,320 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2019, Robin Schulz
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkinsci.plugins.pipelineConfigHistory.diff;
+
+import difflib.ChangeDelta;
+import difflib.Chunk;
+import difflib.DeleteDelta;
+import difflib.Delta;
+import difflib.InsertDelta;
+import difflib.Patch;
+import jenkins.util.SystemProperties;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * The line-wise diff of two files.
+ *
+ * <p>The lines are interned to int ids first, so the algorithms compare primitives only.
+ * If the diff exceeds its budget, the result is a coarse one instead: everything between the
+ * common prefix and the common suffix is reported as changed, and {@link #isApproximate()}
+ * tells so.
+ *
+ * <p>Configured by system properties prefixed with this class's name:
+ * {@code .algorithm} ({@code histogram} or {@code myers}), {@code .timeoutMillis} and
+ * {@code .maxLines} (both 0 for no limit).
+ */
+public final class LineDiff {
+
+  private static final Logger LOG = Logger.getLogger(LineDiff.class.getName());
+
+  private static final String PROPERTY_PREFIX = LineDiff.class.getName();
+
+  /**
+   * Name of the default algorithm.
+   */
+  static final String ALGORITHM =
+      SystemProperties.getString(PROPERTY_PREFIX + ".algorithm", "histogram");
+
+  /**
+   * Maximum time a single diff may take.
+   */
+  static final long TIMEOUT_MILLIS =
+      SystemProperties.getLong(PROPERTY_PREFIX + ".timeoutMillis", 2000L);
+
+  /**
+   * Maximum number of lines of both files together.
+   */
+  static final int MAX_LINES =
+      SystemProperties.getInteger(PROPERTY_PREFIX + ".maxLines", 1000000);
+
+  private final List<String> original;
+
+  private final List<String> revised;
+
+  private final List<Edit> edits;
+
+  private final boolean approximate;
+
+  private LineDiff(List<String> original, List<String> revised, List<Edit> edits,
+                   boolean approximate) {
+    this.original = original;
+    this.revised = revised;
+    this.edits = edits;
+    this.approximate = approximate;
+  }
+
+  /**
+   * Diff two files with the configured algorithm and budget.
+   *
+   * @param original the lines of the original file.
+   * @param revised  the lines of the revised file.
+   * @return the diff.
+   */
+  public static LineDiff compute(List<String> original, List<String> revised) {
+    return compute(original, revised, newBudget());
+  }
+
+  /**
+   * Get a budget with the configured limits. The time starts now.
+   *
+   * @return the budget.
+   */
+  public static DiffBudget newBudget() {
+    return new DiffBudget(TIMEOUT_MILLIS, MAX_LINES);
+  }
+
+  /**
+   * Diff two files with the configured algorithm, but the given budget.
+   *
+   * @param original the lines of the original file.
+   * @param revised  the lines of the revised file.
+   * @param budget   the budget, it may be shared by several diffs.
+   * @return the diff.
+   */
+  public static LineDiff compute(List<String> original, List<String> revised,
+                                 DiffBudget budget) {
+    return compute(original, revised, getAlgorithm(ALGORITHM), budget);
+  }
+
+  /**
+   * Diff two files.
+   *
+   * @param original  the lines of the original file.
+   * @param revised   the lines of the revised file.
+   * @param algorithm the algorithm.
+   * @param budget    the budget.
+   * @return the diff.
+   */
+  public static LineDiff compute(List<String> original, List<String> revised,
+                                 DiffAlgorithm algorithm, DiffBudget budget) {
+    final Map<String, Integer> ids = new HashMap<>();
+    final int[] a = intern(original, ids);
+    final int[] b = intern(revised, ids);
+    if (budget.allows(a.length + b.length)) {
+      try {
+        return new LineDiff(original, revised, algorithm.diff(a, b, budget), false);
+      } catch (DiffBudgetExceededException e) {
+        LOG.log(Level.INFO, "Approximating diff of {0} and {1} lines: {2}",
+            new Object[]{a.length, b.length, e.getMessage()});
+      }
+    } else {
+      LOG.log(Level.INFO, "Approximating diff of {0} and {1} lines: too many lines",
+          new Object[]{a.length, b.length});
+    }
+    return new LineDiff(original, revised, coarse(a, b), true);
+  }
+
+  /**
+   * Split a file into its lines. An empty file has no lines at all (instead of a single empty
+   * one), so diffs against it consist of inserted or deleted lines only.
+   *
+   * @param fileContent the file as a string.
+   * @return the lines.
+   */
+  public static List<String> splitLines(String fileContent) {
+    return fileContent.isEmpty()
+        ? Collections.<String>emptyList()
+        : Arrays.asList(fileContent.split("\n"));
+  }
+
+  /**
+   * Read a file's lines lazily, the same ones {@link #splitLines(String)} returns.
+   *
+   * @param reader the file's content, buffered.
+   * @return the lines, reading them fails with an {@link UncheckedIOException}.
+   */
+  public static Iterator<String> readLines(Reader reader) {
+    return new Iterator<String>() {
+
+      /**
+       * Empty lines read, only returned if a non-empty line follows.
+       */
+      private int emptyLines;
+
+      private String nextLine;
+
+      @Override
+      public boolean hasNext() {
+        while (nextLine == null) {
+          final String line = readLine();
+          if (line == null) {
+            return false;
+          }
+          if (line.isEmpty()) {
+            emptyLines++;
+          } else {
+            nextLine = line;
+          }
+        }
+        return true;
+      }
+
+      @Override
+      public String next() {
+        if (!hasNext()) {
+          throw new NoSuchElementException();
+        }
+        if (emptyLines > 0) {
+          emptyLines--;
+          return "";
+        }
+        final String line = nextLine;
+        nextLine = null;
+        return line;
+      }
+
+      private String readLine() {
+        final StringBuilder line = new StringBuilder();
+        try {
+          int c;
+          while ((c = reader.read()) != -1) {
+            if (c == '\n') {
+              return line.toString();
+            }
+            line.append((char) c);
+          }
+        } catch (IOException e) {
+          throw new UncheckedIOException(e);
+        }
+        return line.length() > 0 ? line.toString() : null;
+      }
+    };
+  }
+
+  /**
+   * Get an algorithm by its name.
+   *
+   * @param name {@code histogram} or {@code myers}.
+   * @return the algorithm, histogram diff for unknown names.
+   */
+  public static DiffAlgorithm getAlgorithm(String name) {
+    if ("myers".equalsIgnoreCase(name)) {
+      return new MyersDiff();
+    }
+    if (!"histogram".equalsIgnoreCase(name)) {
+      LOG.log(Level.WARNING, "Unknown diff algorithm {0}, using histogram", name);
+    }
+    return new HistogramDiff();
+  }
+
+  private static int[] intern(List<String> lines, Map<String, Integer> ids) {
+    final int[] interned = new int[lines.size()];
+    int i = 0;
+    for (String line : lines) {
+      Integer id = ids.get(line);
+      if (id == null) {
+        id = ids.size();
+        ids.put(line, id);
+      }
+      interned[i++] = id;
+    }
+    return interned;
+  }
+
+  private static List<Edit> coarse(int[] a, int[] b) {
+    int begin = 0;
+    while (begin < a.length && begin < b.length && a[begin] == b[begin]) {
+      begin++;
+    }
+    int endA = a.length;
+    int endB = b.length;
+    while (endA > begin && endB > begin && a[endA - 1] == b[endB - 1]) {
+      endA--;
+      endB--;
+    }
+    final EditList edits = new EditList();
+    edits.add(begin, endA, begin, endB);
+    return edits.toList();
+  }
+
+  public List<Edit> getEdits() {
+    return Collections.unmodifiableList(edits);
+  }
+
+  /**
+   * Whether the diff is a coarse one because the budget has been exceeded.
+   *
+   * @return true if the changes might be reported larger than they are.
+   */
+  public boolean isApproximate() {
+    return approximate;
+  }
+
+  /**
+   * Get the diff as a java-diff-utils patch, e.g. for rendering it.
+   *
+   * @return the patch.
+   */
+  public Patch getPatch() {
+    final Patch patch = new Patch();
+    for (Edit edit : edits) {
+      final Chunk originalChunk = new Chunk(edit.getBeginA(),
+          original.subList(edit.getBeginA(), edit.getEndA()));
+      final Chunk revisedChunk = new Chunk(edit.getBeginB(),
+          revised.subList(edit.getBeginB(), edit.getEndB()));
+      final Delta delta;
+      if (edit.isInsert()) {
+        delta = new InsertDelta(originalChunk, revisedChunk);
+      } else if (edit.isDelete()) {
+        delta = new DeleteDelta(originalChunk, revisedChunk);
+      } else {
+        delta = new ChangeDelta(originalChunk, revisedChunk);
+      }
+      patch.addDelta(delta);
+    }
+    return patch;
+  }
+}
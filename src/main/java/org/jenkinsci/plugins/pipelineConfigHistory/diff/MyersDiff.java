@@ -0,0 +1,171 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2019, Robin Schulz
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkinsci.plugins.pipelineConfigHistory.diff;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+
+/**
+ * Myers' O(ND) diff in its linear space variant: each region is split at the middle snake of
+ * its shortest edit script, found by searching from both ends at once, and the halves are diffed
+ * on their own. Only two vectors of the length of the input are needed, regardless of the number
+ * of differences.
+ */
+public final class MyersDiff implements DiffAlgorithm {
+
+  @Override
+  public List<Edit> diff(int[] a, int[] b, DiffBudget budget) {
+    final EditList edits = new EditList();
+    final int maxD = (a.length + b.length + 1) / 2 + 1;
+    final int[] forward = new int[2 * maxD + 2];
+    final int[] backward = new int[2 * maxD + 2];
+
+    // regions still to diff, the leftmost on top so the edits are found in order.
+    final Deque<int[]> regions = new ArrayDeque<>();
+    regions.push(new int[]{0, a.length, 0, b.length});
+    while (!regions.isEmpty()) {
+      final int[] region = regions.pop();
+      int beginA = region[0];
+      int endA = region[1];
+      int beginB = region[2];
+      int endB = region[3];
+      while (beginA < endA && beginB < endB && a[beginA] == b[beginB]) {
+        beginA++;
+        beginB++;
+      }
+      while (beginA < endA && beginB < endB && a[endA - 1] == b[endB - 1]) {
+        endA--;
+        endB--;
+      }
+      if (beginA == endA || beginB == endB) {
+        edits.add(beginA, endA, beginB, endB);
+        continue;
+      }
+
+      final long split = middleSnake(a, beginA, endA, b, beginB, endB, forward, backward, budget);
+      final int splitA = split < 0 ? -1 : (int) (split >>> 32);
+      final int splitB = (int) split;
+      if (split < 0 || (splitA == beginA && splitB == beginB)
+          || (splitA == endA && splitB == endB)) {
+        // can't happen for trimmed regions, but never loop forever. A single replace edit
+        // would look like an exact diff, so let the caller approximate it instead.
+        throw new DiffBudgetExceededException("no middle snake found between lines "
+            + beginA + "-" + endA + " and " + beginB + "-" + endB);
+      }
+      regions.push(new int[]{splitA, endA, splitB, endB});
+      regions.push(new int[]{beginA, splitA, beginB, splitB});
+    }
+    return edits.toList();
+  }
+
+  /**
+   * Find the point where the paths from the start and from the end of the region meet.
+   *
+   * @return the point as {@code (x << 32) | y}, or -1 if there is none.
+   */
+  private static long middleSnake(int[] a, int beginA, int endA, int[] b, int beginB, int endB,
+                                  int[] forward, int[] backward, DiffBudget budget) {
+    final int n = endA - beginA;
+    final int m = endB - beginB;
+    final int maxD = (n + m + 1) / 2;
+    final int offset = maxD;
+    final int length = 2 * maxD + 2;
+    Arrays.fill(forward, 0, length, -1);
+    Arrays.fill(backward, 0, length, -1);
+    forward[offset + 1] = 0;
+    backward[offset + 1] = 0;
+    final int delta = n - m;
+    // if the delta is odd, the forward path is the one to run into the other.
+    final boolean front = (delta & 1) != 0;
+    // diagonals which left the region on the right or at the bottom aren't searched anymore.
+    int forwardStart = 0;
+    int forwardEnd = 0;
+    int backwardStart = 0;
+    int backwardEnd = 0;
+
+    for (int d = 0; d < maxD + 1; d++) {
+      budget.check();
+
+      for (int k = -d + forwardStart; k <= d - forwardEnd; k += 2) {
+        final int kOffset = offset + k;
+        int x;
+        if (k == -d || (k != d && forward[kOffset - 1] < forward[kOffset + 1])) {
+          x = forward[kOffset + 1];
+        } else {
+          x = forward[kOffset - 1] + 1;
+        }
+        int y = x - k;
+        while (x < n && y < m && a[beginA + x] == b[beginB + y]) {
+          x++;
+          y++;
+        }
+        forward[kOffset] = x;
+        if (x > n) {
+          forwardEnd += 2;
+        } else if (y > m) {
+          forwardStart += 2;
+        } else if (front) {
+          final int backwardOffset = offset + delta - k;
+          if (backwardOffset >= 0 && backwardOffset < length && backward[backwardOffset] != -1
+              && x >= n - backward[backwardOffset]) {
+            return ((long) (beginA + x) << 32) | (beginB + y);
+          }
+        }
+      }
+
+      for (int k = -d + backwardStart; k <= d - backwardEnd; k += 2) {
+        final int kOffset = offset + k;
+        int x;
+        if (k == -d || (k != d && backward[kOffset - 1] < backward[kOffset + 1])) {
+          x = backward[kOffset + 1];
+        } else {
+          x = backward[kOffset - 1] + 1;
+        }
+        int y = x - k;
+        while (x < n && y < m && a[endA - x - 1] == b[endB - y - 1]) {
+          x++;
+          y++;
+        }
+        backward[kOffset] = x;
+        if (x > n) {
+          backwardEnd += 2;
+        } else if (y > m) {
+          backwardStart += 2;
+        } else if (!front) {
+          final int forwardOffset = offset + delta - k;
+          if (forwardOffset >= 0 && forwardOffset < length && forward[forwardOffset] != -1) {
+            final int forwardX = forward[forwardOffset];
+            final int forwardY = forwardX - (forwardOffset - offset);
+            if (forwardX >= n - x) {
+              return ((long) (beginA + forwardX) << 32) | (beginB + forwardY);
+            }
+          }
+        }
+      }
+    }
+    return -1;
+  }
+}
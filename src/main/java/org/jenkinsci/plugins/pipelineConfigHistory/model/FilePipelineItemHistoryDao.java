@@ -25,32 +25,41 @@ package org.jenkinsci.plugins.pipelineConfigHistory.model;
 
 import hudson.FilePath;
 import hudson.XmlFile;
+import hudson.init.InitMilestone;
+import hudson.init.Initializer;
 
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileVisitResult;
 import java.nio.file.Files;
-import java.text.ParseException;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.text.SimpleDateFormat;
-import java.util.Arrays;
-import java.util.Calendar;
+import java.util.ArrayList;
 import java.util.Collections;
-import java.util.Date;
+import java.util.Calendar;
+import java.util.Comparator;
 import java.util.GregorianCalendar;
 import java.util.List;
-import java.util.Optional;
+import java.util.Set;
 import java.util.SortedMap;
 import java.util.TreeMap;
-import java.util.concurrent.atomic.AtomicReference;
+import java.util.TreeSet;
+import java.util.UUID;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import javax.xml.parsers.ParserConfigurationException;
 
 import org.apache.commons.io.FileUtils;
-import org.jenkinsci.plugins.pipelineConfigHistory.DirectoryUtils;
 import org.jenkinsci.plugins.pipelineConfigHistory.PipelineConfigHistoryConsts;
 import org.jenkinsci.plugins.pipelineConfigHistory.PluginUtils;
 import org.jenkinsci.plugins.workflow.cps.CpsScmFlowDefinition;
+import org.jenkinsci.plugins.workflow.cps.replay.ReplayCause;
 import org.jenkinsci.plugins.workflow.flow.FlowDefinition;
 import org.jenkinsci.plugins.workflow.job.WorkflowJob;
 import org.jenkinsci.plugins.workflow.job.WorkflowRun;
@@ -74,27 +83,61 @@ public class FilePipelineItemHistoryDao implements PipelineItemHistoryDao {
 
   private final File historyRootDir;
   private final int maxHistoryEntries;
-  private static final long CLASH_SLEEP_TIME = 500;
+  private final boolean deduplicateLibraries;
+  private final boolean compressRevisions;
+  private final boolean purgeByAge;
+  private static final PipelineHistoryIdAllocator ID_ALLOCATOR = new PipelineHistoryIdAllocator();
 
   public FilePipelineItemHistoryDao(final File historyRootDir) {
-    this.historyRootDir = historyRootDir;
-    this.maxHistoryEntries = -1;
+    this(historyRootDir, -1);
   }
 
   public FilePipelineItemHistoryDao(final File historyRootDir, int maxHistoryEntries) {
+    this(historyRootDir, maxHistoryEntries, false);
+  }
+
+  public FilePipelineItemHistoryDao(final File historyRootDir, int maxHistoryEntries,
+                                    boolean deduplicateLibraries) {
+    this(historyRootDir, maxHistoryEntries, deduplicateLibraries, false);
+  }
+
+  public FilePipelineItemHistoryDao(final File historyRootDir, int maxHistoryEntries,
+                                    boolean deduplicateLibraries, boolean compressRevisions) {
+    this(historyRootDir, maxHistoryEntries, deduplicateLibraries, compressRevisions, true);
+  }
+
+  /**
+   * Get a history dao.
+   *
+   * @param historyRootDir the history base directory.
+   * @param maxHistoryEntries the maximum number of revisions per job, -1 for no limit.
+   * @param deduplicateLibraries whether new revisions store their libraries in the blob store.
+   * @param compressRevisions whether new revisions are stored gzip compressed. Libraries in
+   *     the blob store are not compressed.
+   * @param purgeByAge whether revisions are purged by age, otherwise new revisions are not
+   *     added to the expiry log and it is dropped instead, to be rebuilt when needed.
+   */
+  public FilePipelineItemHistoryDao(final File historyRootDir, int maxHistoryEntries,
+                                    boolean deduplicateLibraries, boolean compressRevisions,
+                                    boolean purgeByAge) {
     this.historyRootDir = historyRootDir;
     // 0+ is allowed
     this.maxHistoryEntries = maxHistoryEntries >= 0 ? maxHistoryEntries : -1;
+    this.deduplicateLibraries = deduplicateLibraries;
+    this.compressRevisions = compressRevisions;
+    this.purgeByAge = purgeByAge;
   }
 
   @Override
   public void createHistory(WorkflowJob workflowJob, int buildNumber) throws IOException {
-    boolean isHistoryPresent = isHistoryPresent(workflowJob);
-    if (!isHistoryPresent) {
-      writeUpdateToDisk(workflowJob, buildNumber);
+    try (PipelineHistoryJobLocks.Held ignored = getJobLocks().lock(workflowJob.getFullName())) {
+      boolean isHistoryPresent = isHistoryPresent(workflowJob);
+      if (!isHistoryPresent) {
+        writeUpdateToDisk(workflowJob, buildNumber, null);
+      }
+      LOG.log(Level.FINEST,
+          !isHistoryPresent ? "Pipeline history was updated" : "Pipeline history was not updated.");
     }
-    LOG.log(Level.FINEST,
-        !isHistoryPresent ? "Pipeline history was updated" : "Pipeline history was not updated.");
   }
 
   public File getRootDirectory() {
@@ -103,16 +146,29 @@ public class FilePipelineItemHistoryDao implements PipelineItemHistoryDao {
 
   @Override
   public boolean updateHistory(WorkflowJob workflowJob, int buildNumber) throws IOException {
+    try (PipelineHistoryJobLocks.Held ignored = getJobLocks().lock(workflowJob.getFullName())) {
+      return updateHistoryLocked(workflowJob, buildNumber);
+    }
+  }
+
+  private boolean updateHistoryLocked(WorkflowJob workflowJob, int buildNumber) throws IOException {
     //only create new entry if something has changed.
     boolean hasSomethingChanged = false;
+    PipelineConfigDigest buildDigest;
     try {
-      hasSomethingChanged = hasSomethingChanged(workflowJob, buildNumber);
-    } catch (FileNotFoundException e) {
+      buildDigest = getBuildDigest(workflowJob, buildNumber);
+      hasSomethingChanged = hasSomethingChanged(workflowJob, buildDigest);
+    } catch (FileNotFoundException | NoSuchFileException e) {
       LOG.log(Level.SEVERE, "history could not be updated: {0}", e.getMessage());
       return false;
+    } catch (IOException e) {
+      // not a missing file, but a disk or permission failure: nothing is captured this time.
+      LOG.log(Level.WARNING, "history of " + workflowJob.getFullName()
+          + " could not be compared with build #" + buildNumber, e);
+      return false;
     }
     if (hasSomethingChanged) {
-      writeUpdateToDisk(workflowJob, buildNumber);
+      writeUpdateToDisk(workflowJob, buildNumber, buildDigest);
     }
 
     LOG.log(Level.FINEST,
@@ -127,12 +183,21 @@ public class FilePipelineItemHistoryDao implements PipelineItemHistoryDao {
 
   @Override
   public void deleteHistory(WorkflowJob workflowJob) throws IOException {
-    FileUtils.deleteDirectory(getHistoryRootDirectory(workflowJob));
+    try (PipelineHistoryJobLocks.Held ignored = getJobLocks().lock(workflowJob.getFullName())) {
+      FileUtils.deleteDirectory(getHistoryRootDirectory(workflowJob));
+    }
   }
 
   @Override
   public void changeHistoryLocation(WorkflowJob workflowJob, String oldFullName,
                                     String newFullName) {
+    try (PipelineHistoryJobLocks.Held ignored = getJobLocks().lock(oldFullName, newFullName)) {
+      changeHistoryLocationLocked(workflowJob, oldFullName, newFullName);
+    }
+  }
+
+  private void changeHistoryLocationLocked(WorkflowJob workflowJob, String oldFullName,
+                                           String newFullName) {
     final String onLocationChangedDescription = "old full name: " + oldFullName
         + ", new full name: " + newFullName;
 
@@ -140,13 +205,15 @@ public class FilePipelineItemHistoryDao implements PipelineItemHistoryDao {
     final File newDir = getHistoryRootDirectory(newFullName);
 
     if (oldDir.exists()) {
-      FilePath oldDirFilePath = new FilePath(oldDir);
-      FilePath newDirFilePath = new FilePath(newDir);
       try {
-        oldDirFilePath.copyRecursiveTo(newDirFilePath);
-        updateHistoryXmls(workflowJob);
-
-        oldDirFilePath.deleteRecursive();
+        if (!renameHistory(oldDir, newDir)) {
+          copyHistory(oldDir, newDir);
+        }
+        try {
+          getExpiryLog().rename(oldFullName, newFullName);
+        } catch (IOException e) {
+          LOG.log(Level.WARNING, "Unable to update the expiry log: {0}", e.getMessage());
+        }
 
         LOG.log(Level.FINEST,
             "completed move of old history files on location change {0}",
@@ -169,52 +236,148 @@ public class FilePipelineItemHistoryDao implements PipelineItemHistoryDao {
     }
   }
 
-  private void updateHistoryXmls(WorkflowJob workflowJob) throws IOException {
-    final IOException[] exception = new IOException[1];
+  @Override
+  public boolean changeFolderHistoryLocation(String oldFullName, String newFullName) {
+    final File oldDir = getHistoryRootDirectory(oldFullName);
+    final File newDir = getHistoryRootDirectory(newFullName);
+    if (!oldDir.isDirectory()) {
+      LOG.log(Level.FINEST, "No pipeline history below folder {0}", oldFullName);
+      return false;
+    }
+    final String[] existing = newDir.list();
+    if (existing != null && existing.length > 0) {
+      LOG.log(Level.FINE, "{0} exists, moving the history below {1} job by job",
+          new Object[]{newDir, oldFullName});
+      return false;
+    }
+    final List<String> jobs;
+    try {
+      jobs = getJobsBelow(oldDir);
+    } catch (IOException e) {
+      LOG.log(Level.FINE, "Unable to list the jobs below {0}, moving them one by one: {1}",
+          new Object[]{oldDir, e.getMessage()});
+      return false;
+    }
+    // captures lock the jobs by their new names already, purges by the old ones.
+    final List<String> lockedNames = new ArrayList<>();
+    for (String job : jobs) {
+      lockedNames.add(oldFullName + "/" + job);
+      lockedNames.add(newFullName + "/" + job);
+    }
+    try (PipelineHistoryJobLocks.Held ignored =
+             getJobLocks().lock(lockedNames.toArray(new String[0]))) {
+      try {
+        Files.createDirectories(newDir.getParentFile().toPath());
+        Files.move(oldDir.toPath(), newDir.toPath(), StandardCopyOption.ATOMIC_MOVE);
+      } catch (IOException e) {
+        LOG.log(Level.FINE, "Unable to rename {0}, moving its history job by job: {1}",
+            new Object[]{oldDir, e.getMessage()});
+        return false;
+      }
+      try {
+        getExpiryLog().rename(oldFullName, newFullName);
+      } catch (IOException e) {
+        LOG.log(Level.WARNING, "Unable to update the expiry log: {0}", e.getMessage());
+      }
+    }
+    LOG.log(Level.FINEST, "Moved pipeline history below folder {0} to {1}",
+        new Object[]{oldFullName, newFullName});
+    return true;
+  }
 
-    Arrays.stream(getHistoryRootDirectory(workflowJob).listFiles())
-        .filter(File::isDirectory)
-        .filter(file -> new File(file, PipelineConfigHistoryConsts.HISTORY_XML_FILENAME).exists())
-        .forEach(file -> {
-          XmlFile historyXml = new XmlFile(
-              new File(file, PipelineConfigHistoryConsts.HISTORY_XML_FILENAME)
-          );
-          PipelineHistoryDescription oldDescr =
-              getPipelineHistoryDescriptionFromHistoryXml(historyXml);
-          try {
-            savePipelineHistoryDescriptionToXmlFile(
-                new PipelineHistoryDescription(oldDescr.getTimestamp(),
-                    workflowJob.getFullName(), oldDescr.getRootScriptName(), oldDescr.getBuildNumber()
-                ),
-                historyXml
-            );
-          } catch (IOException e) {
-            exception[0] = e;
-          }
-        });
-    if (exception[0] != null) {
-      throw exception[0];
+  /**
+   * Find the jobs with history below a folder's history directory.
+   *
+   * @return the jobs' names relative to the folder.
+   */
+  private static List<String> getJobsBelow(File folderDir) throws IOException {
+    final Path folderPath = folderDir.toPath();
+    final Set<String> jobs = new TreeSet<>();
+    Files.walkFileTree(folderPath, new SimpleFileVisitor<Path>() {
+      @Override
+      public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+        if (dir.equals(folderPath)) {
+          return FileVisitResult.CONTINUE;
+        }
+        if (dir.getFileName().toString().startsWith("@")) {
+          return FileVisitResult.SKIP_SUBTREE;
+        }
+        if (PipelineHistoryFileFilter.getInstance().accept(dir.toFile())) {
+          jobs.add(folderPath.relativize(dir.getParent()).toString()
+              .replace(File.separatorChar, '/'));
+          return FileVisitResult.SKIP_SUBTREE;
+        }
+        return FileVisitResult.CONTINUE;
+      }
+    });
+    return new ArrayList<>(jobs);
+  }
+
+  /**
+   * Move a job's history by renaming its directory. The history.xml files are left as they are,
+   * the full name they were captured with is never read back, descriptions get the job's
+   * current one.
+   *
+   * @return false, if the history has to be copied instead.
+   */
+  private boolean renameHistory(File oldDir, File newDir) throws IOException {
+    final String[] existing = newDir.list();
+    if (existing != null && existing.length > 0) {
+      // e.g. the history of a former job by that name, merge both.
+      return false;
+    }
+    try {
+      new PipelineHistoryIndex(oldDir).moveTo(newDir);
+      return true;
+    } catch (AtomicMoveNotSupportedException e) {
+      LOG.log(Level.FINE, "Unable to rename {0}, copying it: {1}",
+          new Object[]{oldDir, e.getMessage()});
+      return false;
     }
   }
 
+  private void copyHistory(File oldDir, File newDir) throws IOException, InterruptedException {
+    final FilePath oldDirFilePath = new FilePath(oldDir);
+    final boolean merge = newDir.exists();
+    final List<PipelineHistoryIndex.Entry> entries = new PipelineHistoryIndex(oldDir).getEntries();
+    oldDirFilePath.copyRecursiveTo(new FilePath(newDir));
+    final PipelineHistoryIndex newIndex = new PipelineHistoryIndex(newDir);
+    if (merge) {
+      // holds the revisions of both, let it be rebuilt.
+      Files.deleteIfExists(newIndex.getIndexFile().toPath());
+    } else {
+      newIndex.write(entries);
+    }
+    oldDirFilePath.deleteRecursive();
+  }
+
   @Override
   public File getMostRecentRevision(WorkflowJob workflowJob) {
-
-    List<File> currentEntriesSorted = getCurrentEntriesSorted(workflowJob);
-    return currentEntriesSorted.get(currentEntriesSorted.size() - 1);
+    try {
+      SortedMap<String, PipelineHistoryDescription> revisions = getRevisions(workflowJob);
+      if (!revisions.isEmpty()) {
+        return new File(getHistoryRootDirectory(workflowJob), revisions.lastKey());
+      }
+    } catch (IOException e) {
+      LOG.log(Level.WARNING, "Unable to read history index: {0}", e.getMessage());
+    }
+    LOG.log(Level.WARNING, getHistoryRootDirectory(workflowJob).getPath() + " has no revisions.");
+    return null;
   }
 
   @Override
   public File getRevision(WorkflowJob workflowJob, String identifier) throws FileNotFoundException {
-
-    List<File> currentEntriesSorted = getCurrentEntriesSorted(workflowJob);
-    Optional<File> optionalFile = currentEntriesSorted.stream()
-        .filter(entry -> entry.getName().equals(identifier))
-        .findAny();
-    if (!optionalFile.isPresent()) {
+    boolean found;
+    try {
+      found = identifier != null && getRevisions(workflowJob).containsKey(identifier);
+    } catch (IOException e) {
+      LOG.log(Level.WARNING, "Unable to read history index: {0}", e.getMessage());
+      found = false;
+    }
+    if (!found) {
       throw new FileNotFoundException("File with identifier " + identifier + " not found.");
     }
-    return optionalFile.get();
+    return new File(getHistoryRootDirectory(workflowJob), identifier);
   }
 
   @Override
@@ -229,17 +392,71 @@ public class FilePipelineItemHistoryDao implements PipelineItemHistoryDao {
   @Override
   public boolean isBuiltfromReplay(PipelineHistoryDescription pipelineHistoryDescription)
       throws IOException {
-    File buildXmlFile =
-        PluginUtils.getBuildXml(getRevision(pipelineHistoryDescription)).getFile();
-    return FileUtils.readFileToString(buildXmlFile).contains("ReplayCause");
+    return getReplayOrigin(pipelineHistoryDescription) != PipelineHistoryIndex.Entry.NO_REPLAY;
   }
 
   @Override
   public int getOriginalBuildNumberFromReplay(PipelineHistoryDescription pipelineHistoryDescription)
       throws IOException, SAXException, ParserConfigurationException {
-    File buildXmlFile =
-        PluginUtils.getBuildXml(getRevision(pipelineHistoryDescription)).getFile();
-    return PluginUtils.getOriginalNumberFromBuildXml(buildXmlFile);
+    return getReplayOrigin(pipelineHistoryDescription);
+  }
+
+  /**
+   * Get the replay origin recorded in the description or, for revisions which have not been
+   * backfilled yet, in the index.
+   */
+  private int getReplayOrigin(PipelineHistoryDescription pipelineHistoryDescription)
+      throws IOException {
+    if (pipelineHistoryDescription.hasReplayOrigin()) {
+      return pipelineHistoryDescription.getReplayOrigin();
+    }
+    final PipelineHistoryRow row = getRow(pipelineHistoryDescription.getWorkflowJob(),
+        pipelineHistoryDescription.getTimestamp());
+    if (row == null) {
+      throw new FileNotFoundException(
+          "Revision not found: " + pipelineHistoryDescription.getTimestamp());
+    }
+    return row.getOriginalNumber();
+  }
+
+  /**
+   * Record the replay origin in the history.xml of all revisions of a job which have been
+   * captured before it was stored. The replay origins are taken from the index, so build.xml
+   * is only read if the index has to be rebuilt.
+   *
+   * @param workflowJob the pipeline job
+   * @return the number of updated revisions.
+   * @throws IOException if the index can't be read.
+   */
+  public int backfillReplayOrigins(WorkflowJob workflowJob) throws IOException {
+    try (PipelineHistoryJobLocks.Held ignored = getJobLocks().lock(workflowJob.getFullName())) {
+      return backfillReplayOriginsLocked(workflowJob);
+    }
+  }
+
+  private int backfillReplayOriginsLocked(WorkflowJob workflowJob) throws IOException {
+    final File historyRootDirectory = getHistoryRootDirectory(workflowJob);
+    int updated = 0;
+    for (PipelineHistoryIndex.Entry entry : getIndex(workflowJob).getEntries()) {
+      final XmlFile historyXml = getHistoryXmlFile(new File(historyRootDirectory,
+          entry.getTimestamp()));
+      try {
+        final PipelineHistoryDescription description =
+            getPipelineHistoryDescriptionFromHistoryXml(historyXml);
+        if (!description.hasReplayOrigin()) {
+          // the full name is the one it was captured with, fix it while rewriting anyway.
+          savePipelineHistoryDescriptionToXmlFile(description
+              .withFullName(workflowJob.getFullName())
+              .withReplayOrigin(entry.getReplayOrigin()), historyXml);
+          updated++;
+        }
+      } catch (IOException | RuntimeException e) {
+        // purged concurrently or unreadable, the index fallback still works.
+        LOG.log(Level.WARNING, "Unable to backfill the replay origin of {0}: {1}",
+            new Object[]{historyXml, e.getMessage()});
+      }
+    }
+    return updated;
   }
 
   private PipelineHistoryDescription getPipelineHistoryDescriptionFromHistoryXml(
@@ -259,33 +476,100 @@ public class FilePipelineItemHistoryDao implements PipelineItemHistoryDao {
   @Override
   public SortedMap<String, PipelineHistoryDescription> getRevisions(WorkflowJob workflowJob)
       throws IOException {
-    //get all dirs containing a build.xml.
+    // the index keeps its entries cached, so this reads no files once the index is known.
     final TreeMap<String, PipelineHistoryDescription> map = new TreeMap<>();
-    final File[] files =
-        getHistoryRootDirectory(workflowJob).listFiles(PipelineHistoryFileFilter.getInstance());
-    if (files == null) {
-      return map;
-    } else {
-      for (File historyDir : files) {
-        map.put(historyDir.getName(),
-            getPipelineHistoryDescriptionFromHistoryXml(getHistoryXmlFile(historyDir)));
-      }
+    for (PipelineHistoryIndex.Entry entry : getIndex(workflowJob).getEntries()) {
+      map.put(entry.getTimestamp(), entry.toDescription(workflowJob.getFullName()));
     }
+    return Collections.unmodifiableSortedMap(map);
+  }
 
-    return map;
+  @Override
+  public List<PipelineHistoryRow> getRows(WorkflowJob workflowJob) throws IOException {
+    final List<PipelineHistoryIndex.Entry> entries = getIndex(workflowJob).getEntries();
+    final List<PipelineHistoryRow> rows = new ArrayList<>(entries.size());
+    PipelineHistoryIndex.Entry previous = null;
+    for (PipelineHistoryIndex.Entry entry : entries) {
+      rows.add(toRow(entry, previous));
+      previous = entry;
+    }
+    return rows;
+  }
+
+  @Override
+  public PipelineHistoryRow getRow(WorkflowJob workflowJob, String identifier)
+      throws IOException {
+    final List<PipelineHistoryIndex.Entry> entries = getIndex(workflowJob).getEntries();
+    final int position = identifier != null
+        ? PipelineHistoryIndex.indexOf(entries, identifier)
+        : -1;
+    if (position < 0) {
+      return null;
+    }
+    return toRow(entries.get(position), position > 0 ? entries.get(position - 1) : null);
+  }
+
+  @Override
+  public PipelineHistoryPage getPage(WorkflowJob workflowJob, String before, int pageSize)
+      throws IOException {
+    if (pageSize < 1) {
+      throw new IllegalArgumentException("pageSize must be positive: " + pageSize);
+    }
+    final List<PipelineHistoryIndex.Entry> entries = getIndex(workflowJob).getEntries();
+    final int end = before != null
+        ? PipelineHistoryIndex.countBefore(entries, before)
+        : entries.size();
+    final int start = Math.max(0, end - pageSize);
+    final List<PipelineHistoryRow> rows = new ArrayList<>(end - start);
+    for (int i = end - 1; i >= start; i--) {
+      rows.add(toRow(entries.get(i), i > 0 ? entries.get(i - 1) : null));
+    }
+    return new PipelineHistoryPage(rows, start > 0 ? entries.get(start).getTimestamp() : null);
+  }
+
+  private static PipelineHistoryRow toRow(PipelineHistoryIndex.Entry entry,
+                                          PipelineHistoryIndex.Entry previous) {
+    PipelineConfigDiffSummary diffSummary = entry.getDiffSummary();
+    if (diffSummary != null && (previous == null
+        || !previous.getTimestamp().equals(diffSummary.getPreviousTimestamp()))) {
+      // the revision it compares to has been purged.
+      diffSummary = null;
+    }
+    return new PipelineHistoryRow(entry.getTimestamp(), entry.getBuildNumber(),
+        entry.getReplayOrigin(), entry.getRootScriptName(), diffSummary);
+  }
+
+  /**
+   * Get the blob store holding the deduplicated library files.
+   *
+   * @return the blob store below the history root.
+   */
+  public PipelineHistoryBlobStore getBlobStore() {
+    return new PipelineHistoryBlobStore(historyRootDir);
   }
 
   @Override
   public boolean isHistoryPresent(WorkflowJob workflowJob) {
-    File historyJobDir = getHistoryRootDirectory(workflowJob);
-    File[] historyJobDirChildren = historyJobDir.listFiles();
+    try {
+      return !getIndex(workflowJob).getEntries().isEmpty();
+    } catch (IOException e) {
+      LOG.log(Level.WARNING, "Unable to read history index: {0}", e.getMessage());
+      return false;
+    }
+  }
 
-    return historyJobDir.exists()
-        && historyJobDirChildren != null
-        && historyJobDirChildren.length != 0;
+  /**
+   * Get the revision index of a job.
+   *
+   * @param workflowJob the pipeline job
+   * @return the index stored in the job's history directory.
+   */
+  PipelineHistoryIndex getIndex(WorkflowJob workflowJob) {
+    return new PipelineHistoryIndex(getHistoryRootDirectory(workflowJob));
   }
 
-  private void writeUpdateToDisk(WorkflowJob workflowJob, int buildNumber) throws IOException {
+  private void writeUpdateToDisk(WorkflowJob workflowJob, int buildNumber,
+                                 PipelineConfigDigest buildDigest) throws IOException {
     //get source and create target direction
     WorkflowRun workflowRun = workflowJob.getBuildByNumber(buildNumber);
     if (workflowRun == null) {
@@ -294,81 +578,154 @@ public class FilePipelineItemHistoryDao implements PipelineItemHistoryDao {
       return;
     }
     File buildRootDir = workflowJob.getBuildByNumber(buildNumber).getRootDir();
-    File timestampedRootDir = createNextTimestampedHistoryDir(workflowJob);
+    final PipelineConfigDigest digest =
+        buildDigest != null ? buildDigest : PipelineConfigDigest.of(buildRootDir);
+
+    //write the revision to a staging directory, so a crash never leaves a partial revision
+    File stagingDir = createStagingDir();
+    try {
+      final String timestamp =
+          writeRevision(workflowJob, workflowRun, buildNumber, digest, stagingDir);
+
+      //log the revision for the age purge
+      if (!purgeByAge) {
+        // it would grow forever, and a log missing revisions must not be kept.
+        getExpiryLog().invalidate();
+        return;
+      }
+      try {
+        getExpiryLog().append(timestamp, workflowJob.getFullName());
+      } catch (IOException e) {
+        // a revision missing from the log would never be purged, rebuild it instead.
+        LOG.log(WARNING, "Unable to update the expiry log, dropping it: {0}", e.getMessage());
+        getExpiryLog().invalidate();
+      }
+    } finally {
+      // only left if writing or publishing the revision failed.
+      FileUtils.deleteQuietly(stagingDir);
+    }
+  }
+
+  private String writeRevision(WorkflowJob workflowJob, WorkflowRun workflowRun, int buildNumber,
+                               PipelineConfigDigest digest, File stagingDir) throws IOException {
+    File buildRootDir = workflowRun.getRootDir();
 
     //save build.xml
     XmlFile buildDotXml = PluginUtils.getBuildXml(buildRootDir);
     if (buildDotXml.exists()) {
-      copySingleFileToDestination(buildDotXml.getFile(), timestampedRootDir);
+      copySingleFileToDestination(buildDotXml.getFile(), stagingDir);
     }
 
     //save libs folder (pipeline script libraries formerly pulled from scm)
     File buildLibDir = PluginUtils.getLibDir(buildRootDir);
-    if (buildLibDir.exists()) {
-      copyRecursively(buildLibDir, new File(timestampedRootDir, "libs"));
+    SortedMap<String, String> libsManifest = null;
+    if (deduplicateLibraries) {
+      libsManifest = new TreeMap<>();
+      if (buildLibDir.exists()) {
+        // the digest has read the files already.
+        final SortedMap<String, String> libHashes = digest.getLibHashes();
+        libsManifest.putAll(getBlobStore().storeDirectory(
+            buildLibDir, PluginUtils.getLibDir(stagingDir), buildLibDir.getName(),
+            libHashes != null ? libHashes : Collections.emptyMap()));
+      }
+    } else if (buildLibDir.exists()) {
+      copyRecursively(buildLibDir, new File(stagingDir, "libs"));
     }
 
+    //record the files, so that they can be looked up and listed without walking the revision,
+    //and which of them are compressed. Libraries in the blob store are not.
+    final SortedMap<String, String> blobs = libsManifest;
+    PipelineHistoryFileManifest.write(stagingDir,
+        id -> compressRevisions && (blobs == null || !blobs.containsKey(id)));
+
     //get root script name
     FlowDefinition flowDefinition = workflowJob.getDefinition();
     String rootScriptName = (flowDefinition instanceof CpsScmFlowDefinition)
         ? ((CpsScmFlowDefinition) flowDefinition).getScriptPath()
         : "Jenkinsfile";
 
-    //save history xml
-    savePipelineHistoryDescriptionToXmlFile(
-        new PipelineHistoryDescription(
-            timestampedRootDir.getName(),
-            workflowJob.getFullName(),
-            rootScriptName,
-            buildNumber
-        ),
-        getHistoryXmlFile(timestampedRootDir)
-    );
-  }
-
-  private boolean hasSomethingChanged(WorkflowJob workflowJob, int buildNumber)
-      throws FileNotFoundException {
-    File mostRecentHistoryEntryRootDir = getMostRecentRevision(workflowJob);
-    File buildRootDir = workflowJob.getBuildByNumber(buildNumber).getRootDir();
-
-    File mostRecentHistoryEntryLibDir = PluginUtils.getLibDir(mostRecentHistoryEntryRootDir);
-    File buildLibDir = PluginUtils.getLibDir(buildRootDir);
-
-    XmlFile buildLibBuildXml = new XmlFile(new File(buildRootDir, "build.xml"));
-    XmlFile mostRecentHistoryEntryBuildXml =
-        new XmlFile(new File(mostRecentHistoryEntryRootDir, "build.xml"));
-
-    if (!buildLibBuildXml.exists()) {
-      throw new FileNotFoundException("file not found: " + buildLibBuildXml.getFile().getPath());
-    } else if (!mostRecentHistoryEntryBuildXml.exists()) {
-      throw new FileNotFoundException("file not found: "
-          + mostRecentHistoryEntryBuildXml.getFile().getPath());
+    //summarize the changes against the previous revision
+    PipelineConfigDiffSummary diffSummary = computeDiffSummary(workflowJob, stagingDir);
+
+    //get the replayed build, if any
+    ReplayCause replayCause = workflowRun.getCause(ReplayCause.class);
+    int replayOrigin = replayCause != null
+        ? replayCause.getOriginalNumber()
+        : PipelineHistoryIndex.Entry.NO_REPLAY;
+
+    //save history xml and publish the complete revision under the next free timestamp
+    final PipelineHistoryIndex index = getIndex(workflowJob);
+    while (true) {
+      final String timestamp =
+          ID_ALLOCATOR.next(getHistoryRootDirectory(workflowJob).getAbsolutePath());
+      savePipelineHistoryDescriptionToXmlFile(
+          new PipelineHistoryDescription(
+              timestamp,
+              workflowJob.getFullName(),
+              rootScriptName,
+              buildNumber,
+              libsManifest
+          ).withDigest(digest).withDiffSummary(diffSummary).withReplayOrigin(replayOrigin),
+          getHistoryXmlFile(stagingDir)
+      );
+      if (index.publish(stagingDir, new PipelineHistoryIndex.Entry(
+          timestamp,
+          buildNumber,
+          rootScriptName,
+          replayOrigin,
+          digest,
+          diffSummary
+      ))) {
+        return timestamp;
+      }
+      // e.g. a revision captured before a restart, the allocator moves past it.
+      LOG.log(Level.FINE, "clash on {0}, retrying", timestamp);
     }
+  }
 
+  /**
+   * Summarize the changes of a new revision against the most recent one in the index.
+   * A failure only costs the summary, the diff pages compute the diffs anyway.
+   */
+  private PipelineConfigDiffSummary computeDiffSummary(WorkflowJob workflowJob,
+                                                       File revisionDir) {
     try {
-      return (
-        !PluginUtils.scriptInXmlFileIsEqual(buildLibBuildXml, mostRecentHistoryEntryBuildXml)
-          || !DirectoryUtils.isEqual(
-          mostRecentHistoryEntryLibDir.toPath(), buildLibDir.toPath(), true));
-    } catch (IOException | ParserConfigurationException | SAXException e) {
-      LOG.log(Level.SEVERE,
-          "comparison between current build and most recent history entry failed.");
-      return false;
+      PipelineHistoryIndex.Entry previous = getIndex(workflowJob).getMostRecent();
+      if (previous == null) {
+        return null;
+      }
+      return PipelineConfigDiffSummary.compute(
+          new File(getHistoryRootDirectory(workflowJob), previous.getTimestamp()), revisionDir);
+    } catch (IOException | RuntimeException e) {
+      LOG.log(Level.WARNING, "Unable to summarize the changes of {0}: {1}",
+          new Object[]{revisionDir, e.getMessage()});
+      return null;
     }
   }
 
-  private List<File> getCurrentEntriesSorted(WorkflowJob workflowJob) {
-    final File timestampDirectory = getHistoryRootDirectory(workflowJob);
+  /**
+   * Compute the digests of the configuration a build ran with.
+   */
+  private PipelineConfigDigest getBuildDigest(WorkflowJob workflowJob, int buildNumber)
+      throws IOException {
+    WorkflowRun workflowRun = workflowJob.getBuildByNumber(buildNumber);
+    if (workflowRun == null) {
+      throw new FileNotFoundException("build not found: " + buildNumber);
+    }
+    return PipelineConfigDigest.of(workflowRun.getRootDir());
+  }
 
-    File[] filesArr = timestampDirectory.listFiles();
-    if (filesArr != null) {
-      List<File> files = Arrays.asList(filesArr);
-      files.sort((File::compareTo));
-      return files;
-    } else {
-      LOG.log(Level.WARNING, timestampDirectory.getPath() + " has no children.");
-      return Collections.emptyList();
+  /**
+   * Compare a build's configuration to the most recent revision by their digests, so neither
+   * the revision's build.xml nor its libraries have to be read.
+   */
+  private boolean hasSomethingChanged(WorkflowJob workflowJob, PipelineConfigDigest buildDigest)
+      throws IOException {
+    PipelineHistoryIndex.Entry mostRecentEntry = getIndex(workflowJob).getMostRecent();
+    if (mostRecentEntry == null) {
+      throw new FileNotFoundException("no revision found for " + workflowJob.getFullName());
     }
+    return !buildDigest.getContentHash().equals(mostRecentEntry.getContentHash());
   }
 
   public final File getHistoryRootDirectory(WorkflowJob workflowJob) {
@@ -379,11 +736,104 @@ public class FilePipelineItemHistoryDao implements PipelineItemHistoryDao {
 
   @Override
   public void purgeEntriesByAge(int maxAge, WorkflowJob workflowJob) {
-    File historyRootDirectory = getHistoryRootDirectory(workflowJob);
-    final File[] configurationDirectories = historyRootDirectory.listFiles(PipelineHistoryFileFilter.getInstance());
+    try {
+      purgeEntriesBefore(getPurgeCutoff(maxAge), workflowJob,
+          PipelineHistoryPurgeBudget.unlimited(), new PipelineHistoryPurgeSummary());
+    } catch (InterruptedException e) {
+      LOG.log(WARNING, "Interrupted while purging {0}", workflowJob.getFullName());
+      Thread.currentThread().interrupt();
+    }
+  }
 
-    Arrays.stream(configurationDirectories).forEach( timestampedHistoryDir ->  {
-      if (isTooOld(maxAge, timestampedHistoryDir)) {
+  /**
+   * Get the identifier of the oldest revision which is not too old.
+   *
+   * @param maxAge the maximum age in days.
+   * @return a timestamp, all revisions ordered before it are too old.
+   */
+  public String getPurgeCutoff(int maxAge) {
+    final Calendar oldestAllowedDate = new GregorianCalendar();
+    oldestAllowedDate.add(Calendar.DAY_OF_YEAR, - maxAge);
+    return getIdFormatter().format(oldestAllowedDate.getTime());
+  }
+
+  /**
+   * Delete the revisions of a job which are older than the cutoff. As revision identifiers
+   * sort chronologically, the expired revisions are found by a binary search in the index,
+   * without looking at the revision directories.
+   *
+   * @param cutoff      the identifier of the oldest revision to keep, see
+   *                    {@link #getPurgeCutoff(int)}.
+   * @param workflowJob the pipeline job.
+   * @param budget      paces the deletions.
+   * @param summary     collects what has been purged.
+   * @return whether all expired revisions have been deleted.
+   * @throws InterruptedException if interrupted while waiting for the budget. The index is
+   *     updated with the deletions done so far.
+   */
+  public boolean purgeEntriesBefore(String cutoff, WorkflowJob workflowJob,
+                                    PipelineHistoryPurgeBudget budget,
+                                    PipelineHistoryPurgeSummary summary)
+      throws InterruptedException {
+    return purgeEntriesBefore(cutoff, workflowJob.getFullName(), budget, summary);
+  }
+
+  /**
+   * Delete the revisions of a job history which are older than the cutoff.
+   * The job doesn't need to exist anymore.
+   *
+   * @param cutoff      the identifier of the oldest revision to keep, see
+   *                    {@link #getPurgeCutoff(int)}.
+   * @param jobFullName the full name of the job the history belongs to.
+   * @param budget      paces the deletions.
+   * @param summary     collects what has been purged.
+   * @return whether all expired revisions have been deleted.
+   * @throws InterruptedException if interrupted while waiting for the budget. The index is
+   *     updated with the deletions done so far.
+   */
+  public boolean purgeEntriesBefore(String cutoff, String jobFullName,
+                                    PipelineHistoryPurgeBudget budget,
+                                    PipelineHistoryPurgeSummary summary)
+      throws InterruptedException {
+    try (PipelineHistoryJobLocks.Held ignored = getJobLocks().lock(jobFullName)) {
+      return purgeEntriesBeforeLocked(cutoff, jobFullName, budget, summary);
+    }
+  }
+
+  private boolean purgeEntriesBeforeLocked(String cutoff, String jobFullName,
+                                           PipelineHistoryPurgeBudget budget,
+                                           PipelineHistoryPurgeSummary summary)
+      throws InterruptedException {
+    final long scanStart = System.nanoTime();
+    File historyRootDirectory = getHistoryRootDirectory(jobFullName);
+    final PipelineHistoryIndex index = new PipelineHistoryIndex(historyRootDirectory);
+    final List<PipelineHistoryIndex.Entry> entries;
+    try {
+      entries = index.getEntries();
+    } catch (IOException e) {
+      LOG.log(WARNING, "Unable to read history index of {0}: {1}",
+          new Object[] {historyRootDirectory, e.getMessage()});
+      return false;
+    }
+    final int expired = PipelineHistoryIndex.countBefore(entries, cutoff);
+    summary.addJob(System.nanoTime() - scanStart);
+    if (expired == 0) {
+      return true;
+    }
+
+    // failed deletions first, they are older than the revisions which have not been touched.
+    final List<PipelineHistoryIndex.Entry> remaining = new ArrayList<>();
+    int processed = 0;
+    try {
+      for (; processed < expired; processed++) {
+        final PipelineHistoryIndex.Entry entry = entries.get(processed);
+        File timestampedHistoryDir = new File(historyRootDirectory, entry.getTimestamp());
+        final long bytes = budget.isLimitingBytes() && timestampedHistoryDir.isDirectory()
+            ? FileUtils.sizeOfDirectory(timestampedHistoryDir)
+            : 0;
+        final long throttleStart = System.nanoTime();
+        budget.acquire(1, bytes);
+        final long deleteStart = System.nanoTime();
         LOG.log(
             FINEST,
             "Deleting: {0}",
@@ -391,85 +841,170 @@ public class FilePipelineItemHistoryDao implements PipelineItemHistoryDao {
 
         try {
           FileUtils.deleteDirectory(timestampedHistoryDir);
+          summary.addPurged(bytes, deleteStart - throttleStart, System.nanoTime() - deleteStart);
         } catch (IOException e) {
           LOG.log(WARNING, "Deleting {0} failed: {1}",
               new Object[] {timestampedHistoryDir, e.getMessage()});
+          summary.addFailed(deleteStart - throttleStart, System.nanoTime() - deleteStart);
+          remaining.add(entry);
         }
       }
-    });
-
+    } finally {
+      remaining.addAll(entries.subList(processed, entries.size()));
+      writeIndexIfChanged(index, entries, remaining);
+    }
+    return remaining.size() == entries.size() - expired;
   }
 
   /**
-   * Checks if the history directory is too old by parsing its name as a date
-   * and comparing it to the current date minus the maximal allowed age in
-   * days.
+   * Delete the history directory of a job which has no revisions left, e.g. after the
+   * revisions of a deleted job have been purged.
    *
-   * @param historyDir
-   *            The history directory, e.g. 2013-01-18_17-33-51
-   * @return True if it is too old.
+   * @param jobFullName the full name of the job the history belongs to.
+   * @return whether the directory has been deleted.
    */
-  boolean isTooOld(int maxAge, File historyDir) {
-    Date parsedDate = null;
-    final SimpleDateFormat dateParser = new SimpleDateFormat(
-        PipelineConfigHistoryConsts.ID_FORMATTER);
-    try {
-      parsedDate = dateParser.parse(historyDir.getName());
-    } catch (ParseException ex) {
-      LOG.log(WARNING, "Unable to parse Date: {0}", ex);
-    }
-    final Calendar historyDate = new GregorianCalendar();
-    if (parsedDate != null) {
-      historyDate.setTime(parsedDate);
-      final Calendar oldestAllowedDate = new GregorianCalendar();
-      oldestAllowedDate.add(Calendar.DAY_OF_YEAR, - maxAge);
-      if (historyDate.before(oldestAllowedDate)) {
+  public boolean deleteHistoryIfEmpty(String jobFullName) {
+    try (PipelineHistoryJobLocks.Held ignored = getJobLocks().lock(jobFullName)) {
+      final File historyRootDirectory = getHistoryRootDirectory(jobFullName);
+      final File[] revisionDirs =
+          historyRootDirectory.listFiles(PipelineHistoryFileFilter.getInstance());
+      if (revisionDirs == null || revisionDirs.length > 0) {
+        return false;
+      }
+      try {
+        FileUtils.deleteDirectory(historyRootDirectory);
         return true;
+      } catch (IOException e) {
+        LOG.log(WARNING, "Deleting {0} failed: {1}",
+            new Object[] {historyRootDirectory, e.getMessage()});
+        return false;
+      }
+    }
+  }
+
+  /**
+   * Get the locks which serialize the changes to a job's history, e.g. two builds of the same
+   * job completing at once comparing against the same most recent revision.
+   *
+   * @return the job locks.
+   */
+  public PipelineHistoryJobLocks getJobLocks() {
+    return PipelineHistoryJobLocks.get();
+  }
+
+  /**
+   * Get the log of all revisions, in the order they were captured.
+   *
+   * @return the expiry log below the history root.
+   */
+  public PipelineHistoryExpiryLog getExpiryLog() {
+    return new PipelineHistoryExpiryLog(historyRootDir);
+  }
+
+  /**
+   * Delete the revisions whose writing has been interrupted, e.g. by a crash. They have never
+   * been published, so they are not part of any job's history.
+   *
+   * @return the number of deleted staging directories.
+   * @throws IOException if a staging directory can't be deleted.
+   */
+  public int deleteStagedRevisions() throws IOException {
+    final File[] stagedRevisions = getStagingDir().listFiles();
+    if (stagedRevisions == null) {
+      return 0;
+    }
+    for (File stagedRevision : stagedRevisions) {
+      FileUtils.forceDelete(stagedRevision);
+    }
+    return stagedRevisions.length;
+  }
+
+  /**
+   * Clean up revisions left by an interrupted write, before any build can write new ones.
+   */
+  @Initializer(after = InitMilestone.EXTENSIONS_AUGMENTED, before = InitMilestone.JOB_LOADED)
+  public static void recoverStagedRevisions() {
+    final PipelineItemHistoryDao historyDao = PluginUtils.getHistoryDao();
+    if (historyDao instanceof FilePipelineItemHistoryDao) {
+      try {
+        int deleted = ((FilePipelineItemHistoryDao) historyDao).deleteStagedRevisions();
+        if (deleted > 0) {
+          LOG.log(Level.INFO, "Deleted {0} incompletely written revisions.", deleted);
+        }
+      } catch (IOException e) {
+        LOG.log(Level.WARNING, "Unable to delete incompletely written revisions: {0}",
+            e.getMessage());
+      }
+    }
+  }
+
+  private void writeIndexIfChanged(PipelineHistoryIndex index,
+                                   List<PipelineHistoryIndex.Entry> entries,
+                                   List<PipelineHistoryIndex.Entry> remaining) {
+    if (remaining.size() != entries.size()) {
+      try {
+        index.write(remaining);
+      } catch (IOException e) {
+        LOG.log(WARNING, "Unable to update history index, dropping it: {0}", e.getMessage());
+        index.invalidate();
       }
     }
-    return false;
   }
 
   private void purgeOldEntries(WorkflowJob workflowJob) {
+    if (!this.hasMaxHistoryEntries()) {
+      return;
+    }
     File historyRootDirectory = getHistoryRootDirectory(workflowJob);
-    final File[] configurationDirectories = historyRootDirectory.listFiles(PipelineHistoryFileFilter.getInstance());
-    if (configurationDirectories == null) return;
-    int entryCount = configurationDirectories.length;
-    if (this.hasMaxHistoryEntries()) {
-      String purgingStr =
-          entryCount > maxHistoryEntries
-              ? ", purging " + (entryCount - maxHistoryEntries) + " entries."
-              : "";
-      LOG.log(
-          //Level.FINE,
-          Level.INFO,
-          "checking for history files to purge ({0} entries existing, {1} max allowed)"
-              + purgingStr,
-          new Object[]{configurationDirectories.length, this.maxHistoryEntries}
-          //this.maxHistoryEntries
-      );
-      if (configurationDirectories.length > this.maxHistoryEntries) {
-        Arrays.sort(configurationDirectories, Collections.reverseOrder());
-        for (int i = this.maxHistoryEntries; i < configurationDirectories.length; ++i) {
+    final PipelineHistoryIndex index = getIndex(workflowJob);
+    final List<PipelineHistoryIndex.Entry> entries;
+    try {
+      entries = index.getEntries();
+    } catch (IOException e) {
+      LOG.log(WARNING, "Unable to read history index of {0}: {1}",
+          new Object[] {historyRootDirectory, e.getMessage()});
+      return;
+    }
+    int entryCount = entries.size();
+    String purgingStr =
+        entryCount > maxHistoryEntries
+            ? ", purging " + (entryCount - maxHistoryEntries) + " entries."
+            : "";
+    LOG.log(
+        //Level.FINE,
+        Level.INFO,
+        "checking for history files to purge ({0} entries existing, {1} max allowed)"
+            + purgingStr,
+        new Object[]{entryCount, this.maxHistoryEntries}
+        //this.maxHistoryEntries
+    );
+    if (entryCount > this.maxHistoryEntries) {
+      // entries are sorted oldest first, keep the newest ones.
+      final List<PipelineHistoryIndex.Entry> remaining =
+          new ArrayList<>(entries.subList(entryCount - this.maxHistoryEntries, entryCount));
+      for (int i = 0; i < entryCount - this.maxHistoryEntries; ++i) {
+        File configurationDirectory =
+            new File(historyRootDirectory, entries.get(i).getTimestamp());
+        LOG.log(
+            //Level.FINE,
+            Level.INFO,
+            "purging old directory from history logs: {0}",
+            configurationDirectory
+        );
+        try {
+          FileUtils.deleteDirectory(configurationDirectory);
+        } catch (IOException e) {
           LOG.log(
-              //Level.FINE,
-              Level.INFO,
-              "purging old directory from history logs: {0}",
-              configurationDirectories[i]
+              Level.WARNING,
+              "{0} could not be deleted: {1}",
+              new Object[]{configurationDirectory, e.getMessage()}
           );
-          try {
-            FileUtils.deleteDirectory(configurationDirectories[i]);
-          } catch (IOException e) {
-            LOG.log(
-                Level.WARNING,
-                "{0} could not be deleted: {1}",
-                new Object[]{configurationDirectories[i], e.getMessage()}
-            );
-          }
+          remaining.add(entries.get(i));
         }
       }
+      remaining.sort(Comparator.comparing(PipelineHistoryIndex.Entry::getTimestamp));
+      writeIndexIfChanged(index, entries, remaining);
     }
-
   }
 
   private boolean hasMaxHistoryEntries() {
@@ -481,57 +1016,42 @@ public class FilePipelineItemHistoryDao implements PipelineItemHistoryDao {
     return new File(historyRootDir, jobName);
   }
 
-  private void copyRecursively(File source, File destinationParent) {
+  private void copyRecursively(File source, File destinationParent) throws IOException {
     try {
-      FileUtils.copyDirectory(source, destinationParent);
+      if (compressRevisions) {
+        PipelineHistoryCompression.compressDirectory(source.toPath(), destinationParent.toPath());
+      } else {
+        FileUtils.copyDirectory(source, destinationParent);
+      }
     } catch (IOException e) {
-      LOG.log(Level.SEVERE,
-          "Unable to copy " + source.toPath() + ": " + e.getLocalizedMessage());
+      // an incomplete revision must not be published.
+      throw new IOException("Unable to copy " + source.toPath() + ": " + e.getMessage(), e);
     }
   }
 
-  private void copySingleFileToDestination(File sourceFile, File destinationFile) {
+  private void copySingleFileToDestination(File sourceFile, File destinationFile)
+      throws IOException {
+    final File target = new File(destinationFile, sourceFile.getName());
     try {
-      Files.copy(sourceFile.toPath(), new File(destinationFile, sourceFile.getName()).toPath());
+      if (compressRevisions) {
+        PipelineHistoryCompression.compress(sourceFile.toPath(), target.toPath());
+      } else {
+        Files.copy(sourceFile.toPath(), target.toPath());
+      }
     } catch (IOException e) {
-      LOG.log(Level.SEVERE,
-          "Unable to copy " + sourceFile.toPath() + ": " + e.getLocalizedMessage());
+      // an incomplete revision must not be published.
+      throw new IOException("Unable to copy " + sourceFile.toPath() + ": " + e.getMessage(), e);
     }
   }
 
-  private File createNextTimestampedHistoryDir(WorkflowJob workflowJob) throws IOException {
-
-    final File timestampDirectory = getHistoryRootDirectory(workflowJob);
-    final AtomicReference<Calendar> timestampHolder = new AtomicReference<>();
-
-    Calendar timestamp;
-    File file = null;
-    boolean continueLoop = true;
-    while (continueLoop) {
-      timestamp = new GregorianCalendar();
-      file = new File(timestampDirectory, getIdFormatter().format(timestamp.getTime()));
-      if (file.isDirectory()) {
-        LOG.log(Level.FINE, "clash on {0}, will wait a moment", file);
-        try {
-          Thread.sleep(CLASH_SLEEP_TIME);
-        } catch (InterruptedException x) {
-          LOG.log(Level.WARNING, "Interrupted while creating a timestamp.");
-          Thread.currentThread().interrupt();
-        }
-      } else {
-        //no clash!
-        timestampHolder.set(timestamp);
-        continueLoop = false;
-      }
-    }
-    // mkdirs sometimes fails although the directory exists afterwards,
-    // so check for existence as well and just be happy if it does.
-    if (!(file.mkdirs() || file.exists())) {
-      LOG.log(Level.SEVERE, "Could not create rootDir: {0}", file);
+  private File createStagingDir() throws IOException {
+    final File stagingDir = new File(getStagingDir(), UUID.randomUUID().toString());
+    Files.createDirectories(stagingDir.toPath());
+    return stagingDir;
+  }
 
-      throw new IOException("Could not create rootDir " + file);
-    }
-    return file;
+  private File getStagingDir() {
+    return new File(historyRootDir, PipelineConfigHistoryConsts.STAGING_DIR);
   }
 
   private SimpleDateFormat getIdFormatter() {
@@ -0,0 +1,276 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2019, Robin Schulz
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkinsci.plugins.pipelineConfigHistory.model;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import jenkins.util.SystemProperties;
+import org.apache.commons.io.FileUtils;
+import org.jenkinsci.plugins.pipelineConfigHistory.BuildXmlReader;
+import org.jenkinsci.plugins.pipelineConfigHistory.PipelineConfigHistoryConsts;
+import org.jenkinsci.plugins.pipelineConfigHistory.PluginUtils;
+import org.jenkinsci.plugins.pipelineConfigHistory.diff.DiffBudget;
+import org.jenkinsci.plugins.pipelineConfigHistory.diff.Edit;
+import org.jenkinsci.plugins.pipelineConfigHistory.diff.LineDiff;
+
+/**
+ * Summary of the changes of a revision against the revision before it, computed once when the
+ * revision is captured, so the badge and the list pages don't need to run any diff.
+ *
+ * <p>A file counts as changed if its line-wise diff, as shown on the diff pages, is not empty.
+ * For build.xml only the script is compared.
+ *
+ * <p>All diffs of a summary share a single budget, configured by the system properties
+ * {@code .timeoutMillis} and {@code .maxLines} prefixed with this class's name, because the
+ * summary is computed while the build's capture holds the job's lock. Diffs exceeding it are
+ * approximated, so the changed files are still exact, but their line counts might be too high.
+ */
+public final class PipelineConfigDiffSummary {
+
+  private static final String SEPARATOR = ",";
+
+  private static final String PROPERTY_PREFIX = PipelineConfigDiffSummary.class.getName();
+
+  /**
+   * Maximum time all diffs of a summary may take together.
+   */
+  static final long TIMEOUT_MILLIS =
+      SystemProperties.getLong(PROPERTY_PREFIX + ".timeoutMillis", 1000L);
+
+  /**
+   * Maximum number of lines of both versions of a single file.
+   */
+  static final int MAX_LINES =
+      SystemProperties.getInteger(PROPERTY_PREFIX + ".maxLines", 200000);
+
+  private final String previousTimestamp;
+
+  /**
+   * Paths of the changed files, null if only their number is known.
+   */
+  private final List<String> changedFiles;
+
+  private final int changedFileCount;
+
+  private final int addedLines;
+
+  private final int removedLines;
+
+  private final boolean scriptChanged;
+
+  private final boolean libsChanged;
+
+  public PipelineConfigDiffSummary(String previousTimestamp, List<String> changedFiles,
+                                   int addedLines, int removedLines, boolean scriptChanged,
+                                   boolean libsChanged) {
+    this(previousTimestamp, new ArrayList<>(changedFiles), changedFiles.size(), addedLines,
+        removedLines, scriptChanged, libsChanged);
+  }
+
+  private PipelineConfigDiffSummary(String previousTimestamp, List<String> changedFiles,
+                                    int changedFileCount, int addedLines, int removedLines,
+                                    boolean scriptChanged, boolean libsChanged) {
+    this.previousTimestamp = previousTimestamp;
+    this.changedFiles = changedFiles;
+    this.changedFileCount = changedFileCount;
+    this.addedLines = addedLines;
+    this.removedLines = removedLines;
+    this.scriptChanged = scriptChanged;
+    this.libsChanged = libsChanged;
+  }
+
+  /**
+   * Compute the summary of a revision against the one before it.
+   *
+   * @param previousRevisionDir the previous revision's directory.
+   * @param revisionDir         the revision's directory.
+   * @return the summary.
+   * @throws IOException if reading the revisions fails.
+   */
+  public static PipelineConfigDiffSummary compute(File previousRevisionDir, File revisionDir)
+      throws IOException {
+    return compute(previousRevisionDir, revisionDir, new DiffBudget(TIMEOUT_MILLIS, MAX_LINES));
+  }
+
+  /**
+   * Compute the summary of a revision against the one before it.
+   *
+   * @param previousRevisionDir the previous revision's directory.
+   * @param revisionDir         the revision's directory.
+   * @param budget              the budget shared by the diffs of all files.
+   * @return the summary.
+   * @throws IOException if reading the revisions fails.
+   */
+  static PipelineConfigDiffSummary compute(File previousRevisionDir, File revisionDir,
+                                           DiffBudget budget) throws IOException {
+    final SortedMap<String, File[]> files = new TreeMap<>();
+    PipelineHistoryFileManifest.getFiles(previousRevisionDir).forEach((path, file) ->
+        files.computeIfAbsent(path, p -> new File[2])[0] = file);
+    PipelineHistoryFileManifest.getFiles(revisionDir).forEach((path, file) ->
+        files.computeIfAbsent(path, p -> new File[2])[1] = file);
+
+    final List<String> changedFiles = new ArrayList<>();
+    int addedLines = 0;
+    int removedLines = 0;
+    boolean scriptChanged = false;
+    boolean libsChanged = false;
+    for (SortedMap.Entry<String, File[]> entry : files.entrySet()) {
+      final String path = entry.getKey();
+      final boolean isBuildXml = path.equals(PipelineConfigHistoryConsts.BUILD_XML_FILENAME);
+      if (!isBuildXml && isSameContent(entry.getValue()[0], entry.getValue()[1])) {
+        // most library files don't change, don't spend the budget on them.
+        continue;
+      }
+      final List<Edit> edits = LineDiff.compute(
+          LineDiff.splitLines(read(entry.getValue()[0], isBuildXml)),
+          LineDiff.splitLines(read(entry.getValue()[1], isBuildXml)),
+          budget
+      ).getEdits();
+      if (edits.isEmpty()) {
+        continue;
+      }
+      changedFiles.add(path);
+      for (Edit edit : edits) {
+        addedLines += edit.getEndB() - edit.getBeginB();
+        removedLines += edit.getEndA() - edit.getBeginA();
+      }
+      if (isBuildXml) {
+        scriptChanged = true;
+      } else {
+        libsChanged = true;
+      }
+    }
+    return new PipelineConfigDiffSummary(previousRevisionDir.getName(), changedFiles,
+        addedLines, removedLines, scriptChanged, libsChanged);
+  }
+
+  private static boolean isSameContent(File file1, File file2) throws IOException {
+    if (file1 == null || file2 == null) {
+      return false;
+    }
+    // deduplicated libraries are links to the same blob.
+    return Files.isSameFile(file1.toPath(), file2.toPath())
+        || FileUtils.contentEquals(file1, file2);
+  }
+
+  private static String read(File file, boolean isBuildXml) throws IOException {
+    if (file == null) {
+      return "";
+    }
+    return isBuildXml ? BuildXmlReader.getScript(file) : PluginUtils.fileToString(file);
+  }
+
+  /**
+   * Get the timestamp of the revision this summary compares to.
+   *
+   * @return the previous revision's identifier.
+   */
+  public String getPreviousTimestamp() {
+    return previousTimestamp;
+  }
+
+  /**
+   * Get the changed files.
+   *
+   * @return the paths, relative to the revision, of all added, removed or changed files, or
+   *     null if the summary has been read from the revision index, which only holds their
+   *     number.
+   */
+  public List<String> getChangedFiles() {
+    return changedFiles != null ? Collections.unmodifiableList(changedFiles) : null;
+  }
+
+  public int getChangedFileCount() {
+    return changedFileCount;
+  }
+
+  public int getAddedLines() {
+    return addedLines;
+  }
+
+  public int getRemovedLines() {
+    return removedLines;
+  }
+
+  public boolean isScriptChanged() {
+    return scriptChanged;
+  }
+
+  public boolean isLibsChanged() {
+    return libsChanged;
+  }
+
+  /**
+   * Whether the diff pages would show any difference.
+   *
+   * @return true if any file changed.
+   */
+  public boolean hasChanges() {
+    return getChangedFileCount() > 0;
+  }
+
+  /**
+   * Get the compact form stored in the revision index, without the paths of the changed files.
+   *
+   * @return the summary as a single line.
+   */
+  String toIndexField() {
+    return previousTimestamp + SEPARATOR
+        + getChangedFileCount() + SEPARATOR
+        + addedLines + SEPARATOR
+        + removedLines + SEPARATOR
+        + (scriptChanged ? 1 : 0) + SEPARATOR
+        + (libsChanged ? 1 : 0);
+  }
+
+  /**
+   * Read the compact form stored in the revision index.
+   *
+   * @param field the summary as written by {@link #toIndexField()}.
+   * @return the summary.
+   * @throws IllegalArgumentException if the field is corrupt.
+   */
+  static PipelineConfigDiffSummary fromIndexField(String field) {
+    final String[] values = field.split(SEPARATOR, -1);
+    if (values.length != 6 || values[0].isEmpty()) {
+      throw new IllegalArgumentException("corrupt diff summary: " + field);
+    }
+    return new PipelineConfigDiffSummary(
+        values[0],
+        null,
+        Integer.parseInt(values[1]),
+        Integer.parseInt(values[2]),
+        Integer.parseInt(values[3]),
+        "1".equals(values[4]),
+        "1".equals(values[5])
+    );
+  }
+}
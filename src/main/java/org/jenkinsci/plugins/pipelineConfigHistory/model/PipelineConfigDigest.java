@@ -0,0 +1,247 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2019, Robin Schulz
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkinsci.plugins.pipelineConfigHistory.model;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collections;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.stream.Stream;
+
+import org.jenkinsci.plugins.pipelineConfigHistory.BuildXmlReader;
+import org.jenkinsci.plugins.pipelineConfigHistory.PipelineConfigHistoryConsts;
+import org.jenkinsci.plugins.pipelineConfigHistory.PluginUtils;
+
+/**
+ * Digests of the pipeline configuration captured from a build: the pipeline script and the
+ * libraries. Two captures with equal digests contain the same configuration.
+ *
+ * <p>The script digest is computed while streaming through build.xml, the libs digest is
+ * computed from a canonical manifest of the library files (sorted relative paths and their
+ * content digests), so every input file is read exactly once. The library file digests are
+ * kept, so that storing the files in the blob store doesn't read them again.
+ */
+public final class PipelineConfigDigest {
+
+  private static final String ALGORITHM = "SHA-256";
+
+  private final String scriptDigest;
+
+  private final String libsDigest;
+
+  /**
+   * The library paths, relative to the libs directory, mapped to their digests. Only known
+   * for digests computed from files, it is not stored with the revision.
+   */
+  private final transient SortedMap<String, String> libHashes;
+
+  public PipelineConfigDigest(String scriptDigest, String libsDigest) {
+    this(scriptDigest, libsDigest, null);
+  }
+
+  private PipelineConfigDigest(String scriptDigest, String libsDigest,
+                               SortedMap<String, String> libHashes) {
+    this.scriptDigest = scriptDigest;
+    this.libsDigest = libsDigest;
+    this.libHashes = libHashes;
+  }
+
+  /**
+   * Compute the digests of a build or revision directory. The files of a revision which are
+   * stored compressed are hashed uncompressed.
+   *
+   * @param rootDir the build or revision directory.
+   * @return the digests.
+   * @throws FileNotFoundException if the directory contains no build.xml.
+   * @throws IOException if reading the files fails.
+   */
+  public static PipelineConfigDigest of(File rootDir) throws IOException {
+    final Set<String> compressedIds = PipelineHistoryFileManifest.getCompressedIds(rootDir);
+    final String scriptDigest = computeScriptDigest(PipelineHistoryFileManifest.getFile(rootDir,
+        PipelineConfigHistoryConsts.BUILD_XML_FILENAME, compressedIds));
+    final SortedMap<String, String> libHashes =
+        hashLibs(PluginUtils.getLibDir(rootDir), compressedIds);
+    return new PipelineConfigDigest(scriptDigest, computeLibsDigest(libHashes),
+        Collections.unmodifiableSortedMap(libHashes));
+  }
+
+  public String getScriptDigest() {
+    return scriptDigest;
+  }
+
+  public String getLibsDigest() {
+    return libsDigest;
+  }
+
+  /**
+   * Get the digests of the single library files these digests have been computed from.
+   *
+   * @return the library paths, relative to the libs directory, mapped to their hex encoded
+   *     digests, or null if they are not known.
+   */
+  public SortedMap<String, String> getLibHashes() {
+    return libHashes;
+  }
+
+  /**
+   * Get a single digest over script and libraries.
+   *
+   * @return the hex encoded digest.
+   */
+  public String getContentHash() {
+    final MessageDigest digest = newDigest();
+    digest.update(scriptDigest.getBytes(StandardCharsets.US_ASCII));
+    digest.update((byte) '\n');
+    digest.update(libsDigest.getBytes(StandardCharsets.US_ASCII));
+    return toHex(digest.digest());
+  }
+
+  /**
+   * Compute the digest of the text of the script element in a build.xml without building a
+   * DOM or a String of the whole script.
+   *
+   * @param buildXmlFile the build.xml.
+   * @return the hex encoded digest.
+   * @throws FileNotFoundException if the file does not exist.
+   * @throws IOException if the file can't be read or parsed.
+   */
+  public static String computeScriptDigest(File buildXmlFile) throws IOException {
+    final MessageDigest digest = newDigest();
+    final char[] chars = new char[4096];
+    final byte[] bytes = new byte[chars.length * 2];
+    try (BuildXmlReader buildXml = BuildXmlReader.open(buildXmlFile)) {
+      int read;
+      while ((read = buildXml.readScript(chars, 0, chars.length)) != -1) {
+        // hash UTF-16 code units, that doesn't depend on how the parser chunks the text.
+        for (int i = 0; i < read; i++) {
+          bytes[2 * i] = (byte) (chars[i] >> 8);
+          bytes[2 * i + 1] = (byte) chars[i];
+        }
+        digest.update(bytes, 0, 2 * read);
+      }
+    }
+    return toHex(digest.digest());
+  }
+
+  /**
+   * Compute the digest of the canonical manifest of a library directory.
+   *
+   * @param libDir the library directory, which might not exist.
+   * @return the hex encoded digest.
+   * @throws IOException if reading the files fails.
+   */
+  public static String computeLibsDigest(File libDir) throws IOException {
+    return computeLibsDigest(hashLibs(libDir, Collections.emptySet()));
+  }
+
+  /**
+   * Hash the files of a library directory.
+   *
+   * @param compressedIds the identifiers of the compressed files of the revision containing
+   *                      the library directory.
+   */
+  private static SortedMap<String, String> hashLibs(File libDir, Set<String> compressedIds)
+      throws IOException {
+    final SortedMap<String, String> manifest = new TreeMap<>();
+    if (libDir.isDirectory()) {
+      final Path libPath = libDir.toPath();
+      try (Stream<Path> paths = Files.walk(libPath)) {
+        for (Path libFile : (Iterable<Path>) paths.filter(Files::isRegularFile)::iterator) {
+          final String path =
+              libPath.relativize(libFile).toString().replace(File.separatorChar, '/');
+          final String id = libDir.getName() + "/" + path;
+          if (compressedIds.contains(id)) {
+            try (InputStream in = PipelineHistoryCompression.open(PipelineHistoryFileManifest
+                .getFile(libDir.getParentFile(), id, compressedIds))) {
+              manifest.put(path, hash(in));
+            }
+          } else {
+            manifest.put(path, hash(libFile));
+          }
+        }
+      }
+    }
+    return manifest;
+  }
+
+  private static String computeLibsDigest(SortedMap<String, String> manifest) {
+    final MessageDigest digest = newDigest();
+    manifest.forEach((path, hash) -> {
+      digest.update(path.getBytes(StandardCharsets.UTF_8));
+      digest.update((byte) 0);
+      digest.update(hash.getBytes(StandardCharsets.US_ASCII));
+      digest.update((byte) '\n');
+    });
+    return toHex(digest.digest());
+  }
+
+  /**
+   * Compute the digest of a file's content.
+   *
+   * @param file the file.
+   * @return the hex encoded digest.
+   * @throws IOException if reading the file fails.
+   */
+  static String hash(Path file) throws IOException {
+    try (InputStream in = Files.newInputStream(file)) {
+      return hash(in);
+    }
+  }
+
+  private static String hash(InputStream in) throws IOException {
+    final MessageDigest digest = newDigest();
+    final byte[] buffer = new byte[8192];
+    int read;
+    while ((read = in.read(buffer)) != -1) {
+      digest.update(buffer, 0, read);
+    }
+    return toHex(digest.digest());
+  }
+
+  private static MessageDigest newDigest() {
+    try {
+      return MessageDigest.getInstance(ALGORITHM);
+    } catch (NoSuchAlgorithmException e) {
+      // every java platform supports SHA-256
+      throw new IllegalStateException(e);
+    }
+  }
+
+  private static String toHex(byte[] bytes) {
+    final StringBuilder hex = new StringBuilder(bytes.length * 2);
+    for (byte b : bytes) {
+      hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+    }
+    return hex.toString();
+  }
+}
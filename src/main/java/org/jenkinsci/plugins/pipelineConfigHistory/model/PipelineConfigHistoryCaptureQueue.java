@@ -0,0 +1,338 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2019, Robin Schulz
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkinsci.plugins.pipelineConfigHistory.model;
+
+import hudson.init.Terminator;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+import jenkins.util.SystemProperties;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Bounded work queue running the history captures off the threads completing the builds.
+ *
+ * <p>Captures of the same job are run one after another in submission order, captures of
+ * different jobs run in parallel on a fixed number of workers. If the queue is full, the
+ * submitting thread waits for room a limited time, then runs the capture itself. Pending
+ * captures are run before Jenkins shuts down, captures submitted after that are run by the
+ * submitting thread. The next Jenkins instance started in the same JVM, e.g. by a test, gets a
+ * new queue.
+ */
+public final class PipelineConfigHistoryCaptureQueue {
+
+  private static final Logger LOG =
+      Logger.getLogger(PipelineConfigHistoryCaptureQueue.class.getName());
+
+  private static final String PROPERTY_PREFIX = PipelineConfigHistoryCaptureQueue.class.getName();
+
+  /**
+   * Number of worker threads.
+   */
+  static final int WORKERS = Math.max(1,
+      SystemProperties.getInteger(PROPERTY_PREFIX + ".workers", 2));
+
+  /**
+   * Maximum number of captures which are queued or running.
+   */
+  static final int CAPACITY = Math.max(1,
+      SystemProperties.getInteger(PROPERTY_PREFIX + ".capacity", 1000));
+
+  /**
+   * How long a submitting thread waits for room in a full queue before running the capture
+   * itself.
+   */
+  static final long SUBMIT_TIMEOUT_MILLIS =
+      SystemProperties.getLong(PROPERTY_PREFIX + ".submitTimeoutMillis", 10000L);
+
+  /**
+   * How long to wait for pending captures on shutdown.
+   */
+  static final long SHUTDOWN_TIMEOUT_SECONDS =
+      SystemProperties.getLong(PROPERTY_PREFIX + ".shutdownTimeoutSeconds", 300L);
+
+  private static PipelineConfigHistoryCaptureQueue instance;
+
+  private final ExecutorService executor;
+
+  private final Semaphore capacity;
+
+  private final long submitTimeoutMillis;
+
+  /**
+   * Captures per job. The head of each deque is the one currently running.
+   */
+  private final Map<String, Deque<Runnable>> pendingByJob = new HashMap<>();
+
+  private boolean shutdown;
+
+  private final AtomicLong submittedCount = new AtomicLong();
+  private final AtomicLong completedCount = new AtomicLong();
+  private final AtomicLong failedCount = new AtomicLong();
+  private final AtomicLong throttledCount = new AtomicLong();
+  private final AtomicLong throttledMillis = new AtomicLong();
+
+  PipelineConfigHistoryCaptureQueue(int workers, int capacity) {
+    this(workers, capacity, SUBMIT_TIMEOUT_MILLIS);
+  }
+
+  PipelineConfigHistoryCaptureQueue(int workers, int capacity, long submitTimeoutMillis) {
+    this.executor = Executors.newFixedThreadPool(workers,
+        new NamingThreadFactory(new DaemonThreadFactory(), "PipelineConfigHistoryCapture"));
+    this.capacity = new Semaphore(capacity);
+    this.submitTimeoutMillis = submitTimeoutMillis;
+  }
+
+  /**
+   * Get the queue of the running Jenkins instance.
+   *
+   * @return the capture queue.
+   */
+  public static synchronized PipelineConfigHistoryCaptureQueue get() {
+    if (instance == null) {
+      instance = new PipelineConfigHistoryCaptureQueue(WORKERS, CAPACITY);
+    }
+    return instance;
+  }
+
+  /**
+   * Run all pending captures before Jenkins shuts down. Captures submitted meanwhile are run by
+   * the submitting thread, afterwards the queue is dropped.
+   *
+   * @throws InterruptedException if interrupted while waiting for the captures.
+   */
+  @Terminator
+  public static void drainOnShutdown() throws InterruptedException {
+    final PipelineConfigHistoryCaptureQueue queue;
+    synchronized (PipelineConfigHistoryCaptureQueue.class) {
+      queue = instance;
+    }
+    if (queue == null) {
+      return;
+    }
+    try {
+      queue.shutdown(SHUTDOWN_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+    } finally {
+      synchronized (PipelineConfigHistoryCaptureQueue.class) {
+        if (instance == queue) {
+          instance = null;
+        }
+      }
+    }
+  }
+
+  /**
+   * Queue a capture, waiting for room if the queue is full. If there is no room in time, the
+   * capture is run right away.
+   *
+   * @param jobFullName the full name of the job the capture belongs to.
+   * @param capture     the capture.
+   */
+  public void submit(String jobFullName, Runnable capture) {
+    submittedCount.incrementAndGet();
+    if (!capacity.tryAcquire()) {
+      throttledCount.incrementAndGet();
+      final long start = System.currentTimeMillis();
+      LOG.log(Level.FINE, "capture queue full, waiting to queue capture of {0}", jobFullName);
+      boolean acquired = false;
+      try {
+        acquired = capacity.tryAcquire(submitTimeoutMillis, TimeUnit.MILLISECONDS);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      throttledMillis.addAndGet(System.currentTimeMillis() - start);
+      if (!acquired) {
+        LOG.log(Level.WARNING, "capture queue full, capturing {0} right away",
+            jobFullName);
+        try {
+          run(jobFullName, capture);
+        } finally {
+          completedCount.incrementAndGet();
+        }
+        return;
+      }
+    }
+
+    synchronized (this) {
+      if (!shutdown) {
+        Deque<Runnable> pending = pendingByJob.computeIfAbsent(jobFullName,
+            key -> new ArrayDeque<>());
+        pending.add(capture);
+        if (pending.size() == 1) {
+          executor.execute(() -> drain(jobFullName));
+        }
+        return;
+      }
+    }
+    // too late for the workers, don't lose it.
+    runQueued(jobFullName, capture);
+  }
+
+  private void drain(String jobFullName) {
+    boolean more = true;
+    while (more) {
+      final Runnable capture;
+      synchronized (this) {
+        capture = pendingByJob.get(jobFullName).peek();
+      }
+      boolean completed = false;
+      try {
+        runQueued(jobFullName, capture);
+        completed = true;
+      } finally {
+        more = removeHead(jobFullName);
+        if (more && !completed) {
+          // this worker dies with the error, the job's other captures must not wait forever.
+          resume(jobFullName);
+        }
+      }
+    }
+  }
+
+  /**
+   * Remove the capture which has just run.
+   *
+   * @return whether there are more captures of the job.
+   */
+  private synchronized boolean removeHead(String jobFullName) {
+    final Deque<Runnable> pending = pendingByJob.get(jobFullName);
+    pending.poll();
+    if (pending.isEmpty()) {
+      pendingByJob.remove(jobFullName);
+      notifyAll();
+      return false;
+    }
+    return true;
+  }
+
+  private void resume(String jobFullName) {
+    try {
+      executor.execute(() -> drain(jobFullName));
+    } catch (RejectedExecutionException e) {
+      // shutting down, run them here.
+      drain(jobFullName);
+    }
+  }
+
+  private void runQueued(String jobFullName, Runnable capture) {
+    try {
+      run(jobFullName, capture);
+    } finally {
+      completedCount.incrementAndGet();
+      capacity.release();
+    }
+  }
+
+  private void run(String jobFullName, Runnable capture) {
+    try {
+      capture.run();
+    } catch (RuntimeException e) {
+      failedCount.incrementAndGet();
+      LOG.log(Level.WARNING, "capturing the pipeline config of " + jobFullName + " failed", e);
+    } catch (Error e) {
+      failedCount.incrementAndGet();
+      LOG.log(Level.SEVERE, "capturing the pipeline config of " + jobFullName + " failed", e);
+      throw e;
+    }
+  }
+
+  /**
+   * Wait until all queued captures are done.
+   *
+   * @param timeout the maximum time to wait.
+   * @param unit    the timeout's unit.
+   * @return whether the queue is idle.
+   * @throws InterruptedException if interrupted while waiting.
+   */
+  public synchronized boolean awaitIdle(long timeout, TimeUnit unit) throws InterruptedException {
+    final long deadline = System.currentTimeMillis() + unit.toMillis(timeout);
+    long remaining;
+    while (!pendingByJob.isEmpty()
+        && (remaining = deadline - System.currentTimeMillis()) > 0) {
+      wait(remaining);
+    }
+    return pendingByJob.isEmpty();
+  }
+
+  void shutdown(long timeout, TimeUnit unit) throws InterruptedException {
+    synchronized (this) {
+      shutdown = true;
+    }
+    executor.shutdown();
+    if (!executor.awaitTermination(timeout, unit)) {
+      LOG.log(Level.WARNING, "{0} pipeline config captures not completed on shutdown.",
+          getPendingCount());
+    }
+  }
+
+  /**
+   * Get the number of captures which are queued or running.
+   *
+   * @return the number of pending captures.
+   */
+  public synchronized int getPendingCount() {
+    return pendingByJob.values().stream().mapToInt(Deque::size).sum();
+  }
+
+  public long getSubmittedCount() {
+    return submittedCount.get();
+  }
+
+  public long getCompletedCount() {
+    return completedCount.get();
+  }
+
+  public long getFailedCount() {
+    return failedCount.get();
+  }
+
+  /**
+   * Get the number of submissions which had to wait because the queue was full.
+   *
+   * @return the number of throttled submissions.
+   */
+  public long getThrottledCount() {
+    return throttledCount.get();
+  }
+
+  /**
+   * Get the total time submitting threads have waited because the queue was full.
+   *
+   * @return the time in milliseconds.
+   */
+  public long getThrottledMillis() {
+    return throttledMillis.get();
+  }
+}
@@ -36,9 +36,7 @@ import org.jenkinsci.plugins.workflow.job.WorkflowRun;
 
 import java.io.File;
 import java.io.IOException;
-import java.util.ArrayList;
-import java.util.Collection;
-import java.util.List;
+import java.util.SortedMap;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import javax.annotation.Nonnull;
@@ -67,52 +65,63 @@ public class PipelineConfigHistoryFlowExecutionListener extends FlowExecutionLis
 
       WorkflowRun run = (WorkflowRun) executable;
       WorkflowJob workflowJob = run.getParent();
+      int buildNumber = getBuildNumber(execution, workflowJob);
 
-      //do the I/O
-      PipelineItemHistoryDao historyDao = PluginUtils.getHistoryDao();
-
-      if (!historyDao.isHistoryPresent(workflowJob)) {
-          createHistory(historyDao, execution, workflowJob);
-      } else {
-          boolean isHistoryUpdated = updateHistory(historyDao, execution, workflowJob);
-          if(isHistoryUpdated) {
-            addBuildBadge(workflowJob, run);
-          }
-      }
+      //do the I/O off the thread completing the build
+      PipelineConfigHistoryCaptureQueue.get().submit(workflowJob.getFullName(),
+          () -> capture(workflowJob, run, buildNumber));
     } catch (IOException e) {
         LOG.log(Level.WARNING, "Failed to get execution: {0}", e.getMessage());
     }
   }
 
+  private void capture(WorkflowJob workflowJob, WorkflowRun run, int buildNumber) {
+    PipelineItemHistoryDao historyDao = PluginUtils.getHistoryDao();
+
+    if (!historyDao.isHistoryPresent(workflowJob)) {
+        createHistory(historyDao, buildNumber, workflowJob);
+    } else {
+        boolean isHistoryUpdated = updateHistory(historyDao, buildNumber, workflowJob);
+        if(isHistoryUpdated) {
+          addBuildBadge(workflowJob, run);
+        }
+    }
+  }
+
   private void addBuildBadge(WorkflowJob job, WorkflowRun run) {
     try {
-      Collection<PipelineHistoryDescription> historyDescriptionsCollection = PluginUtils.getHistoryDao().getRevisions(job).values();
-      if(historyDescriptionsCollection.size() < 2) {
+      SortedMap<String, PipelineHistoryDescription> revisions = PluginUtils.getHistoryDao().getRevisions(job);
+      if(revisions.size() < 2) {
     	  return;
       }
-      List<PipelineHistoryDescription> historyDescriptions = new ArrayList<>(historyDescriptionsCollection.size());
-      historyDescriptions.addAll(historyDescriptionsCollection);
-      String timestamp1 = historyDescriptions.get(historyDescriptions.size()-2).getTimestamp();
-      String timestamp2 = historyDescriptions.get(historyDescriptions.size()-1).getTimestamp();
-      String url = PipelineConfigHistoryConsts.PLUGIN_BASE_PATH + "/showAllDiffs?timestamp1=" + timestamp1 + "&timestamp2=" + timestamp2 + "&anyDiffExists=true";
+      String timestamp2 = revisions.lastKey();
+      String timestamp1 = revisions.headMap(timestamp2).lastKey();
+      // the summary was computed while capturing, no need to diff again.
+      PipelineConfigDiffSummary diffSummary = revisions.get(timestamp2).getDiffSummary();
+      boolean anyDiffExists = diffSummary == null
+          || !diffSummary.getPreviousTimestamp().equals(timestamp1)
+          || diffSummary.hasChanges();
+      String url = PipelineConfigHistoryConsts.PLUGIN_BASE_PATH + "/showAllDiffs?timestamp1=" + timestamp1 + "&timestamp2=" + timestamp2 + "&anyDiffExists=" + anyDiffExists;
       BadgeAction action = new BadgeAction(url);
       run.addAction(action);
+      // the build has been completed and saved already.
+      run.save();
     } catch (IOException e) {
-      LOG.log(Level.WARNING, "Failed to get history descriptions: {0}", e.getMessage());
+      LOG.log(Level.WARNING, "Failed to add build badge: {0}", e.getMessage());
     }
   }
   
-  private void createHistory(PipelineItemHistoryDao historyDao, FlowExecution execution, WorkflowJob workflowJob) {
+  private void createHistory(PipelineItemHistoryDao historyDao, int buildNumber, WorkflowJob workflowJob) {
     try {
-      historyDao.createHistory(workflowJob, getBuildNumber(execution, workflowJob));
+      historyDao.createHistory(workflowJob, buildNumber);
     } catch (IOException e) {
       LOG.log(Level.WARNING, "pipeline config could not be created: {0}", e.getMessage());
     }
   }
   
-  private boolean updateHistory(PipelineItemHistoryDao historyDao, FlowExecution execution, WorkflowJob workflowJob) {
+  private boolean updateHistory(PipelineItemHistoryDao historyDao, int buildNumber, WorkflowJob workflowJob) {
     try {
-      return historyDao.updateHistory(workflowJob, getBuildNumber(execution, workflowJob));
+      return historyDao.updateHistory(workflowJob, buildNumber);
     } catch (IOException e) {
       LOG.log(Level.WARNING, "pipeline config could not be updated: {0}", e.getMessage());
     }
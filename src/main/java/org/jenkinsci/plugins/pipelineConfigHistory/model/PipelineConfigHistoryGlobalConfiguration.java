@@ -22,6 +22,12 @@ public class PipelineConfigHistoryGlobalConfiguration extends GlobalConfiguratio
   /** Maximum number of days to keep entries. */
   private String maxDaysToKeepEntries;
 
+  /** Store identical library files only once. */
+  private boolean deduplicateLibraries;
+
+  /** Store new revisions gzip compressed. */
+  private boolean compressRevisions;
+
 
   public PipelineConfigHistoryGlobalConfiguration() {
     load();
@@ -36,6 +42,8 @@ public class PipelineConfigHistoryGlobalConfiguration extends GlobalConfiguratio
 
     maxHistoryEntries = formData.getString("maxHistoryEntries").trim();
     maxDaysToKeepEntries = formData.getString("maxDaysToKeepEntries").trim();
+    deduplicateLibraries = formData.optBoolean("deduplicateLibraries");
+    compressRevisions = formData.optBoolean("compressRevisions");
 
     save();
     return true;
@@ -45,6 +53,10 @@ public class PipelineConfigHistoryGlobalConfiguration extends GlobalConfiguratio
 
   public String getMaxDaysToKeepEntries() { return  maxDaysToKeepEntries;}
 
+  public boolean isDeduplicateLibraries() { return deduplicateLibraries;}
+
+  public boolean isCompressRevisions() { return compressRevisions;}
+
 
   public Optional<Integer> getMaxHistoryEntriesOptional() {
     try {
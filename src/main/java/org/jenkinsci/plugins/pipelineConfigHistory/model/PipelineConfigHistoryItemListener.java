@@ -25,6 +25,7 @@ package org.jenkinsci.plugins.pipelineConfigHistory.model;
 
 import hudson.Extension;
 import hudson.model.Item;
+import hudson.model.ItemGroup;
 import hudson.model.listeners.ItemListener;
 import org.jenkinsci.plugins.pipelineConfigHistory.PluginUtils;
 import org.jenkinsci.plugins.workflow.job.WorkflowJob;
@@ -48,8 +49,17 @@ public class PipelineConfigHistoryItemListener extends ItemListener {
     //do nothing! the pipeline has not been fetched, yet!
   }
 
+  /**
+   * Jenkins reports the location change of a folder first, followed by one for every item below
+   * it. The history below a folder mirrors its path, so it is moved with a single rename, and the
+   * pipelines below the folder find nothing left to move.
+   */
   @Override
   public void onLocationChanged(Item item, String oldFullName, String newFullName) {
+    if (item instanceof ItemGroup) {
+      LOG.log(FINEST, "In onLocationChanged for folder {0}", item);
+      PluginUtils.getHistoryDao().changeFolderHistoryLocation(oldFullName, newFullName);
+    }
     if (isWorkflowJob(item)) {
       final String onLocationChangedDescription = "old full name: " + oldFullName
           + ", new full name: " + newFullName;
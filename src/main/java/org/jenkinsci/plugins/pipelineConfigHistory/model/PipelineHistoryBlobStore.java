@@ -0,0 +1,350 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2019, Robin Schulz
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkinsci.plugins.pipelineConfigHistory.model;
+
+import hudson.XmlFile;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.jenkinsci.plugins.pipelineConfigHistory.PipelineConfigHistoryConsts;
+import org.jenkinsci.plugins.pipelineConfigHistory.PluginUtils;
+
+/**
+ * Content-addressed storage for the library files captured in the history.
+ *
+ * <p>Each distinct file content is stored once as {@code @blobs/ab/abcdef...} below the
+ * history root, named by its SHA-256 digest. The revisions refer to the blobs by hard links,
+ * so they still contain ordinary files and can be read like any other revision. If the file
+ * system does not support hard links, the blob is copied into the revision instead.
+ * The revision's history.xml holds a manifest mapping each library path to its digest.
+ */
+public class PipelineHistoryBlobStore {
+
+  private static final Logger LOG = Logger.getLogger(PipelineHistoryBlobStore.class.getName());
+
+  /**
+   * Blobs younger than this are never collected, they might be about to be linked.
+   */
+  private static final long GC_GRACE_PERIOD_MILLIS = TimeUnit.HOURS.toMillis(1);
+
+  private final File historyRootDir;
+
+  public PipelineHistoryBlobStore(File historyRootDir) {
+    this.historyRootDir = historyRootDir;
+  }
+
+  public File getBlobDir() {
+    return new File(historyRootDir, PipelineConfigHistoryConsts.BLOB_DIR);
+  }
+
+  /**
+   * Get the blob file of the given digest.
+   *
+   * @param hash the hex encoded SHA-256 digest.
+   * @return the blob file, which might not exist.
+   */
+  public File getBlob(String hash) {
+    return new File(new File(getBlobDir(), hash.substring(0, 2)), hash);
+  }
+
+  /**
+   * Store all files of a directory and link them into the target directory.
+   *
+   * @param sourceDir    the directory to store, e.g. a build's libs directory.
+   * @param targetDir    the directory to link the files into, e.g. a revision's libs
+   *                     directory.
+   * @param manifestPath the path of the target directory relative to its revision, used as
+   *                     prefix of the manifest paths.
+   * @return the manifest, mapping the relative paths of all files to their digests.
+   * @throws IOException if storing a file fails.
+   */
+  public SortedMap<String, String> storeDirectory(File sourceDir, File targetDir,
+                                                  String manifestPath) throws IOException {
+    return storeDirectory(sourceDir, targetDir, manifestPath, Collections.emptyMap());
+  }
+
+  /**
+   * Store all files of a directory whose digests are known already, e.g. from
+   * {@link PipelineConfigDigest#getLibHashes()}, and link them into the target directory.
+   * Files without a known digest are hashed.
+   *
+   * @param sourceDir    the directory to store, e.g. a build's libs directory.
+   * @param targetDir    the directory to link the files into, e.g. a revision's libs
+   *                     directory.
+   * @param manifestPath the path of the target directory relative to its revision, used as
+   *                     prefix of the manifest paths.
+   * @param knownHashes  the paths relative to the source directory mapped to their digests.
+   * @return the manifest, mapping the relative paths of all files to their digests.
+   * @throws IOException if storing a file fails.
+   */
+  public SortedMap<String, String> storeDirectory(File sourceDir, File targetDir,
+                                                  String manifestPath,
+                                                  Map<String, String> knownHashes)
+      throws IOException {
+    final SortedMap<String, String> manifest = new TreeMap<>();
+    final Path sourcePath = sourceDir.toPath();
+    final List<Path> sourceFiles;
+    try (Stream<Path> paths = Files.walk(sourcePath)) {
+      sourceFiles = paths.filter(Files::isRegularFile).collect(Collectors.toList());
+    }
+    for (Path sourceFile : sourceFiles) {
+      final String relativePath = sourcePath.relativize(sourceFile).toString();
+      final String path = relativePath.replace(File.separatorChar, '/');
+      final File targetFile = new File(targetDir, relativePath);
+      final String knownHash = knownHashes.get(path);
+      manifest.put(manifestPath + "/" + path, knownHash != null
+          ? store(sourceFile.toFile(), targetFile, knownHash)
+          : store(sourceFile.toFile(), targetFile));
+    }
+    return manifest;
+  }
+
+  /**
+   * Store a single file and link it to the target.
+   *
+   * @param source the file to store.
+   * @param target the file to create.
+   * @return the hex encoded digest of the file's content.
+   * @throws IOException if storing the file fails.
+   */
+  public String store(File source, File target) throws IOException {
+    return store(source, target, PipelineConfigDigest.hash(source.toPath()));
+  }
+
+  private String store(File source, File target, String hash) throws IOException {
+    final File blob = getBlob(hash);
+    if (!blob.exists()) {
+      storeBlob(source, blob, hash);
+    }
+    try {
+      link(blob.toPath(), target.toPath());
+    } catch (NoSuchFileException e) {
+      // an old unreferenced blob, collected after the check above. The stored one is
+      // younger than the grace period.
+      LOG.log(Level.FINE, "Blob {0} collected concurrently, storing it again.", blob);
+      storeBlob(source, blob, hash);
+      link(blob.toPath(), target.toPath());
+    }
+    return hash;
+  }
+
+  private static void storeBlob(File source, File blob, String hash) throws IOException {
+    final File blobParent = blob.getParentFile();
+    if (!(blobParent.mkdirs() || blobParent.isDirectory())) {
+      throw new IOException("Could not create blob directory " + blobParent);
+    }
+    final Path tmp = new File(blobParent, hash + "." + UUID.randomUUID() + ".tmp").toPath();
+    Files.copy(source.toPath(), tmp);
+    moveOrDiscard(tmp, blob.toPath());
+  }
+
+  /**
+   * Turn an existing revision file into a link to its blob, storing the blob if needed.
+   *
+   * @param file a file of a revision.
+   * @return the hex encoded digest of the file's content.
+   * @throws IOException if storing the file fails.
+   */
+  String adopt(File file) throws IOException {
+    final String hash = PipelineConfigDigest.hash(file.toPath());
+    final File blob = getBlob(hash);
+    final File blobParent = blob.getParentFile();
+    if (!(blobParent.mkdirs() || blobParent.isDirectory())) {
+      throw new IOException("Could not create blob directory " + blobParent);
+    }
+    if (!blob.exists()) {
+      try {
+        // the file itself becomes the blob, nothing to copy.
+        Files.createLink(blob.toPath(), file.toPath());
+        return hash;
+      } catch (FileAlreadyExistsException e) {
+        // stored concurrently, link to that one.
+      } catch (IOException | UnsupportedOperationException e) {
+        LOG.log(Level.FINE, "Hard links not supported, copying {0}", file);
+        final Path tmp = new File(blobParent, hash + "." + UUID.randomUUID() + ".tmp").toPath();
+        Files.copy(file.toPath(), tmp);
+        moveOrDiscard(tmp, blob.toPath());
+        return hash;
+      }
+    }
+    if (!Files.isSameFile(blob.toPath(), file.toPath())) {
+      final Path tmp = new File(file.getParentFile(), file.getName() + ".tmp").toPath();
+      Files.deleteIfExists(tmp);
+      try {
+        Files.createLink(tmp, blob.toPath());
+        Files.move(tmp, file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+      } catch (IOException | UnsupportedOperationException e) {
+        Files.deleteIfExists(tmp);
+        LOG.log(Level.FINE, "Hard links not supported, keeping {0}", file);
+      }
+    }
+    return hash;
+  }
+
+  private static void moveOrDiscard(Path tmp, Path blob) throws IOException {
+    try {
+      Files.move(tmp, blob, StandardCopyOption.ATOMIC_MOVE);
+    } catch (FileAlreadyExistsException e) {
+      // same content stored concurrently.
+      LOG.log(Level.FINEST, "Blob {0} stored concurrently.", blob);
+    } finally {
+      Files.deleteIfExists(tmp);
+    }
+  }
+
+  /**
+   * Link the target to a blob, or copy the blob if hard links are not supported.
+   *
+   * @throws NoSuchFileException if the blob does not exist (anymore).
+   */
+  void link(Path blob, Path target) throws IOException {
+    final Path targetParent = target.getParent();
+    if (targetParent != null) {
+      Files.createDirectories(targetParent);
+    }
+    try {
+      Files.createLink(target, blob);
+    } catch (FileAlreadyExistsException | NoSuchFileException e) {
+      throw e;
+    } catch (IOException | UnsupportedOperationException e) {
+      LOG.log(Level.FINE, "Hard link to {0} failed, copying: {1}",
+          new Object[]{blob, e.getMessage()});
+      Files.copy(blob, target);
+    }
+  }
+
+  /**
+   * Delete all blobs which are not linked into any revision anymore.
+   * Only works on file systems which report the number of links of a file.
+   *
+   * @return the number of deleted blobs.
+   * @throws IOException if walking the blob directory fails.
+   */
+  public int collectGarbage() throws IOException {
+    final File blobDir = getBlobDir();
+    if (!blobDir.isDirectory()) {
+      return 0;
+    }
+    final long youngest = System.currentTimeMillis() - GC_GRACE_PERIOD_MILLIS;
+    final List<Path> blobs;
+    try (Stream<Path> paths = Files.walk(blobDir.toPath(), 2)) {
+      blobs = paths.filter(Files::isRegularFile).collect(Collectors.toList());
+    }
+    int deleted = 0;
+    for (Path blob : blobs) {
+      final Integer links;
+      try {
+        links = (Integer) Files.getAttribute(blob, "unix:nlink");
+      } catch (UnsupportedOperationException | IllegalArgumentException e) {
+        LOG.log(Level.FINE, "Link count not supported, not collecting blobs.");
+        return deleted;
+      }
+      if (links != null && links <= 1 && blob.toFile().lastModified() < youngest) {
+        Files.deleteIfExists(blob);
+        deleted++;
+      }
+    }
+    LOG.log(Level.FINE, "Deleted {0} unreferenced blobs.", deleted);
+    return deleted;
+  }
+
+  /**
+   * Move the library files of all existing revisions below the history root into the blob
+   * store and record their manifests. Revisions which have been migrated already are skipped,
+   * so this can be run repeatedly, e.g. from the script console:
+   * <pre>
+   * new org.jenkinsci.plugins.pipelineConfigHistory.model.PipelineHistoryBlobStore(
+   *     new File(Jenkins.get().rootDir, "pipeline-config-history")).migrate()
+   * </pre>
+   *
+   * @return the number of migrated revisions.
+   * @throws IOException if walking the history fails.
+   */
+  public int migrate() throws IOException {
+    final List<Path> revisionDirs;
+    final Path stagingDir =
+        new File(historyRootDir, PipelineConfigHistoryConsts.STAGING_DIR).toPath();
+    try (Stream<Path> paths = Files.walk(historyRootDir.toPath())) {
+      revisionDirs = paths
+          .filter(path -> !path.startsWith(getBlobDir().toPath()))
+          .filter(path -> !path.startsWith(stagingDir))
+          .filter(path -> PipelineHistoryFileFilter.getInstance().accept(path.toFile()))
+          .filter(path -> path.resolve(PipelineConfigHistoryConsts.HISTORY_XML_FILENAME)
+              .toFile().exists())
+          .collect(Collectors.toList());
+    }
+
+    int migrated = 0;
+    for (Path revisionDir : revisionDirs) {
+      final XmlFile historyXml = new XmlFile(
+          revisionDir.resolve(PipelineConfigHistoryConsts.HISTORY_XML_FILENAME).toFile());
+      try {
+        final PipelineHistoryDescription description =
+            (PipelineHistoryDescription) historyXml.read();
+        if (description.getLibsManifest() != null) {
+          continue;
+        }
+        final SortedMap<String, String> manifest = new TreeMap<>();
+        final File libDir = PluginUtils.getLibDir(revisionDir.toFile());
+        if (libDir.isDirectory()) {
+          final List<Path> libFiles;
+          try (Stream<Path> paths = Files.walk(libDir.toPath())) {
+            libFiles = paths.filter(Files::isRegularFile).collect(Collectors.toList());
+          }
+          for (Path libFile : libFiles) {
+            manifest.put(
+                revisionDir.relativize(libFile).toString().replace(File.separatorChar, '/'),
+                adopt(libFile.toFile()));
+          }
+        }
+        historyXml.write(description.withLibsManifest(manifest));
+        migrated++;
+      } catch (IOException | RuntimeException e) {
+        LOG.log(Level.WARNING, "Unable to migrate revision {0}: {1}",
+            new Object[]{revisionDir, e.getMessage()});
+      }
+    }
+    LOG.log(Level.INFO, "Migrated {0} of {1} revisions to the blob store.",
+        new Object[]{migrated, revisionDirs.size()});
+    return migrated;
+  }
+
+}
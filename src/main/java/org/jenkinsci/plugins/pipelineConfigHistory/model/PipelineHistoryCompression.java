@@ -0,0 +1,150 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2019, Robin Schulz
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkinsci.plugins.pipelineConfigHistory.model;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.stream.Stream;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import jenkins.util.SystemProperties;
+
+/**
+ * Gzip compression of revision files.
+ *
+ * <p>A compressed revision keeps its file names, each file is compressed on its own. Which files
+ * are compressed is recorded in the revision's {@link PipelineHistoryFileManifest}, which hands
+ * them out as {@link CompressedFile}s. Only those are decompressed, so a library file which
+ * happens to be gzip compressed itself is read as it is. Compressed and uncompressed revisions
+ * can be mixed in a history and compared with each other.
+ */
+public final class PipelineHistoryCompression {
+
+  private static final String PROPERTY_PREFIX = PipelineHistoryCompression.class.getName();
+
+  /**
+   * Deflate level of newly compressed files, from 1 (fastest) to 9 (smallest).
+   */
+  static final int LEVEL = Math.max(Deflater.BEST_SPEED, Math.min(Deflater.BEST_COMPRESSION,
+      SystemProperties.getInteger(PROPERTY_PREFIX + ".level", 6)));
+
+  private static final int BUFFER_SIZE = 8192;
+
+  private PipelineHistoryCompression() {
+  }
+
+  /**
+   * Open a revision file for reading, decompressing it on the fly if it is a
+   * {@link CompressedFile}.
+   *
+   * @param file the file.
+   * @return the file's uncompressed content.
+   * @throws IOException if the file can't be opened.
+   */
+  public static InputStream open(File file) throws IOException {
+    final InputStream in = new BufferedInputStream(Files.newInputStream(file.toPath()),
+        BUFFER_SIZE);
+    if (!(file instanceof CompressedFile)) {
+      return in;
+    }
+    try {
+      return new GZIPInputStream(in, BUFFER_SIZE);
+    } catch (IOException e) {
+      in.close();
+      throw e;
+    }
+  }
+
+  /**
+   * Write a compressed copy of a file.
+   *
+   * @param source the file to copy.
+   * @param target the compressed copy, which must not exist.
+   * @throws IOException if copying fails.
+   */
+  public static void compress(Path source, Path target) throws IOException {
+    compress(source, target, LEVEL);
+  }
+
+  /**
+   * Write a compressed copy of a file with the given deflate level.
+   *
+   * @param source the file to copy.
+   * @param target the compressed copy, which must not exist.
+   * @param level  the deflate level, from 1 (fastest) to 9 (smallest).
+   * @throws IOException if copying fails.
+   */
+  public static void compress(Path source, Path target, int level) throws IOException {
+    try (OutputStream out = new LeveledGzipOutputStream(Files.newOutputStream(target), level)) {
+      Files.copy(source, out);
+    }
+  }
+
+  /**
+   * Write a compressed copy of a directory tree.
+   *
+   * @param source the directory to copy.
+   * @param target the copy, which must not exist.
+   * @throws IOException if copying fails.
+   */
+  public static void compressDirectory(Path source, Path target) throws IOException {
+    try (Stream<Path> paths = Files.walk(source)) {
+      for (Path path : (Iterable<Path>) paths::iterator) {
+        final Path copy = target.resolve(source.relativize(path).toString());
+        if (Files.isDirectory(path)) {
+          Files.createDirectories(copy);
+        } else {
+          compress(path, copy);
+        }
+      }
+    }
+  }
+
+  /**
+   * A revision file which has been stored compressed.
+   */
+  public static final class CompressedFile extends File {
+
+    private static final long serialVersionUID = 1L;
+
+    public CompressedFile(File parent, String child) {
+      super(parent, child);
+    }
+  }
+
+  private static final class LeveledGzipOutputStream extends GZIPOutputStream {
+
+    LeveledGzipOutputStream(OutputStream out, int level) throws IOException {
+      super(out, BUFFER_SIZE);
+      def.setLevel(level);
+    }
+  }
+}
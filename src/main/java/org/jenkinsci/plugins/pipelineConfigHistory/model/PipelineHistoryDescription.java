@@ -27,7 +27,11 @@ import org.jenkinsci.plugins.pipelineConfigHistory.PluginUtils;
 import org.jenkinsci.plugins.workflow.job.WorkflowJob;
 
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
 import java.util.Objects;
+import java.util.SortedMap;
+import java.util.TreeMap;
 
 public class PipelineHistoryDescription {
 
@@ -39,6 +43,33 @@ public class PipelineHistoryDescription {
 
   private final String rootScriptName;
 
+  /**
+   * Library paths mapped to their content digests, only present if the libraries are stored
+   * deduplicated.
+   */
+  private final TreeMap<String, String> libsManifest;
+
+  /**
+   * Digests of the captured script and libraries, absent in revisions captured before
+   * digests were stored.
+   */
+  private final String scriptDigest;
+
+  private final String libsDigest;
+
+  /**
+   * Changes against the previous revision, absent in the first revision and in revisions
+   * captured before summaries were stored.
+   */
+  private final PipelineConfigDiffSummary diffSummary;
+
+  /**
+   * Number of the build this revision's build was replayed from, or
+   * {@link PipelineHistoryIndex.Entry#NO_REPLAY}. Absent in revisions captured before the
+   * replay origin was stored and not backfilled yet.
+   */
+  private final Integer replayOrigin;
+
   /**
    * Get a PipelineHistoryDescription encapsulating the given information.
    * @param timestamp the config revision identifier
@@ -46,10 +77,91 @@ public class PipelineHistoryDescription {
    * @param buildNumber the build number associated to this config revision
    */
   public PipelineHistoryDescription(String timestamp, String fullName, String rootScript, int buildNumber) {
+    this(timestamp, fullName, rootScript, buildNumber, null);
+  }
+
+  /**
+   * Get a PipelineHistoryDescription encapsulating the given information.
+   * @param timestamp the config revision identifier
+   * @param fullName the pipeline's full Name (jenkins convention)
+   * @param buildNumber the build number associated to this config revision
+   * @param libsManifest the library paths mapped to their content digests, may be null.
+   */
+  public PipelineHistoryDescription(String timestamp, String fullName, String rootScript,
+                                    int buildNumber, Map<String, String> libsManifest) {
+    this(timestamp, fullName, rootScript, buildNumber, libsManifest, null, null, null);
+  }
+
+  private PipelineHistoryDescription(String timestamp, String fullName, String rootScript,
+                                     int buildNumber, Map<String, String> libsManifest,
+                                     PipelineConfigDigest digest,
+                                     PipelineConfigDiffSummary diffSummary,
+                                     Integer replayOrigin) {
     this.timestamp = timestamp;
     this.fullName = fullName;
     this.buildNumber = buildNumber;
     this.rootScriptName = rootScript;
+    this.libsManifest = libsManifest != null ? new TreeMap<>(libsManifest) : null;
+    this.scriptDigest = digest != null ? digest.getScriptDigest() : null;
+    this.libsDigest = digest != null ? digest.getLibsDigest() : null;
+    this.diffSummary = diffSummary;
+    this.replayOrigin = replayOrigin;
+  }
+
+  /**
+   * Get a copy of this description with another full name, e.g. after the job has been moved.
+   * @param fullName the pipeline's new full name
+   * @return the copy
+   */
+  public PipelineHistoryDescription withFullName(String fullName) {
+    return new PipelineHistoryDescription(
+        timestamp, fullName, rootScriptName, buildNumber, libsManifest, getDigest(),
+        diffSummary, replayOrigin);
+  }
+
+  /**
+   * Get a copy of this description with the given library manifest.
+   * @param libsManifest the library paths mapped to their content digests
+   * @return the copy
+   */
+  public PipelineHistoryDescription withLibsManifest(Map<String, String> libsManifest) {
+    return new PipelineHistoryDescription(
+        timestamp, fullName, rootScriptName, buildNumber, libsManifest, getDigest(),
+        diffSummary, replayOrigin);
+  }
+
+  /**
+   * Get a copy of this description with the given digests.
+   * @param digest the digests of the captured script and libraries
+   * @return the copy
+   */
+  public PipelineHistoryDescription withDigest(PipelineConfigDigest digest) {
+    return new PipelineHistoryDescription(
+        timestamp, fullName, rootScriptName, buildNumber, libsManifest, digest, diffSummary,
+        replayOrigin);
+  }
+
+  /**
+   * Get a copy of this description with the given diff summary.
+   * @param diffSummary the changes against the previous revision
+   * @return the copy
+   */
+  public PipelineHistoryDescription withDiffSummary(PipelineConfigDiffSummary diffSummary) {
+    return new PipelineHistoryDescription(
+        timestamp, fullName, rootScriptName, buildNumber, libsManifest, getDigest(),
+        diffSummary, replayOrigin);
+  }
+
+  /**
+   * Get a copy of this description with the given replay origin.
+   * @param replayOrigin the number of the build this revision's build was replayed from, or
+   *     {@link PipelineHistoryIndex.Entry#NO_REPLAY}
+   * @return the copy
+   */
+  public PipelineHistoryDescription withReplayOrigin(int replayOrigin) {
+    return new PipelineHistoryDescription(
+        timestamp, fullName, rootScriptName, buildNumber, libsManifest, getDigest(),
+        diffSummary, replayOrigin);
   }
 
   public int getBuildNumber() {
@@ -64,6 +176,52 @@ public class PipelineHistoryDescription {
     return fullName;
   }
 
+  /**
+   * Get the library manifest.
+   * @return the library paths (relative to the revision) mapped to their content digests,
+   *     or null if the libraries of this revision are not stored deduplicated.
+   */
+  public SortedMap<String, String> getLibsManifest() {
+    return libsManifest != null ? Collections.unmodifiableSortedMap(libsManifest) : null;
+  }
+
+  /**
+   * Get the digests of the captured script and libraries.
+   * @return the digests, or null if this revision was captured before digests were stored.
+   */
+  public PipelineConfigDigest getDigest() {
+    return scriptDigest != null && libsDigest != null
+        ? new PipelineConfigDigest(scriptDigest, libsDigest)
+        : null;
+  }
+
+  /**
+   * Get the changes against the previous revision.
+   * @return the summary, or null if this is the first revision or it was captured before
+   *     summaries were stored.
+   */
+  public PipelineConfigDiffSummary getDiffSummary() {
+    return diffSummary;
+  }
+
+  /**
+   * Whether the replay origin of this revision has been recorded.
+   * @return false if this revision was captured before the replay origin was stored and has not
+   *     been backfilled yet.
+   */
+  public boolean hasReplayOrigin() {
+    return replayOrigin != null;
+  }
+
+  /**
+   * Get the number of the build this revision's build was replayed from.
+   * @return the original build number, or {@link PipelineHistoryIndex.Entry#NO_REPLAY} if it's
+   *     no replay or the replay origin has not been recorded.
+   */
+  public int getReplayOrigin() {
+    return replayOrigin != null ? replayOrigin : PipelineHistoryIndex.Entry.NO_REPLAY;
+  }
+
   public String getRootScriptName() {
     return rootScriptName != null ? rootScriptName : "Jenkinsfile";
   }
@@ -0,0 +1,459 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2019, Robin Schulz
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkinsci.plugins.pipelineConfigHistory.model;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Objects;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.apache.commons.io.FileUtils;
+import org.jenkinsci.plugins.pipelineConfigHistory.PipelineConfigHistoryConsts;
+
+/**
+ * Append-only log of all revisions below the history root, in the order they were captured.
+ *
+ * <p>Each line names a revision and the job history it belongs to, so the expired revisions
+ * of all jobs are found by reading the head of the log, without visiting jobs which have
+ * nothing to purge. This includes the histories of deleted jobs, which are kept on disk.
+ * Concurrent captures might append their revisions slightly out of order, such a revision is
+ * purged one run later. The log is rebuilt from the history directories if it is missing.
+ * It is not kept while no maximum age is configured, since nothing is ever purged then.
+ *
+ * <p>Moving a job or folder appends a move record, which applies to all lines above it. The
+ * records are resolved while reading and folded into the lines when the head is removed.
+ */
+public class PipelineHistoryExpiryLog {
+
+  private static final Logger LOG = Logger.getLogger(PipelineHistoryExpiryLog.class.getName());
+
+  private static final String HEADER = "# pipeline-config-history expiry log v2";
+
+  private static final String SEPARATOR = "\t";
+
+  /**
+   * Prefix of the move records, revision identifiers never start with it.
+   */
+  private static final String MOVED = "@moved";
+
+  private static final Object LOCK = new Object();
+
+  private final File historyRootDir;
+
+  public PipelineHistoryExpiryLog(File historyRootDir) {
+    this.historyRootDir = historyRootDir;
+  }
+
+  public File getLogFile() {
+    return new File(historyRootDir, PipelineConfigHistoryConsts.EXPIRY_LOG_FILENAME);
+  }
+
+  /**
+   * Append a freshly written revision.
+   *
+   * @param timestamp   the revision identifier.
+   * @param jobFullName the full name of the job the revision belongs to.
+   * @throws IOException if writing the log fails.
+   */
+  public void append(String timestamp, String jobFullName) throws IOException {
+    synchronized (LOCK) {
+      if (!getLogFile().isFile()) {
+        // the new revision directory exists already and is picked up by the rebuild.
+        rebuild();
+        return;
+      }
+      try (Writer writer = new OutputStreamWriter(
+          Files.newOutputStream(getLogFile().toPath(), StandardOpenOption.APPEND),
+          StandardCharsets.UTF_8)) {
+        writer.write(new Entry(timestamp, jobFullName).toLine());
+      }
+    }
+  }
+
+  /**
+   * Read the head of the log up to the first revision which is not older than the cutoff.
+   *
+   * @param cutoff the identifier of the oldest revision to keep.
+   * @return the expired revisions, in the order they have been logged.
+   * @throws IOException if neither the log nor the history directories can be read.
+   */
+  public List<Entry> readExpired(String cutoff) throws IOException {
+    synchronized (LOCK) {
+      if (!getLogFile().isFile()) {
+        rebuild();
+      }
+      List<Entry> expired = read(cutoff);
+      if (expired == null) {
+        rebuild();
+        expired = read(cutoff);
+      }
+      if (expired == null) {
+        throw new IOException("Unable to read rebuilt expiry log " + getLogFile());
+      }
+      return expired;
+    }
+  }
+
+  private List<Entry> read(String cutoff) throws IOException {
+    final List<Entry> expired = new ArrayList<>();
+    final List<Integer> positions = new ArrayList<>();
+    final List<Move> moves;
+    try (BufferedReader reader =
+             Files.newBufferedReader(getLogFile().toPath(), StandardCharsets.UTF_8)) {
+      if (!HEADER.equals(reader.readLine())) {
+        LOG.log(Level.WARNING, "Unknown expiry log format, rebuilding {0}", getLogFile());
+        return null;
+      }
+      moves = new ArrayList<>();
+      boolean expiring = true;
+      int position = 0;
+      String line;
+      while ((line = reader.readLine()) != null) {
+        if (line.isEmpty()) {
+          continue;
+        }
+        if (line.startsWith(MOVED + SEPARATOR)) {
+          moves.add(Move.fromLine(line, position++));
+          continue;
+        }
+        if (!expiring) {
+          // only the moves of the expired lines are left to be read.
+          continue;
+        }
+        final Entry entry = Entry.fromLine(line);
+        if (entry.getTimestamp().compareTo(cutoff) >= 0) {
+          expiring = false;
+          continue;
+        }
+        expired.add(entry);
+        positions.add(position++);
+      }
+    } catch (IllegalArgumentException e) {
+      LOG.log(Level.WARNING, "Unable to read expiry log {0}, rebuilding: {1}",
+          new Object[]{getLogFile(), e.getMessage()});
+      return null;
+    }
+    if (!moves.isEmpty()) {
+      for (int i = 0; i < expired.size(); i++) {
+        expired.set(i, Move.resolve(expired.get(i), positions.get(i), moves));
+      }
+    }
+    return expired;
+  }
+
+  /**
+   * Drop the head of the log after its revisions have been purged.
+   *
+   * <p>Only entries which are unchanged since they have been read are dropped. The entries of
+   * a job which has been renamed in the meantime stay, since they have been purged by the old
+   * name, if at all. They are purged by the new name one run later.
+   *
+   * @param expired    the entries returned by {@link #readExpired(String)}.
+   * @param failedJobs the jobs whose expired revisions have not all been purged, their entries
+   *                   stay at the head of the log.
+   * @throws IOException if rewriting the log fails.
+   */
+  public void removeHead(List<Entry> expired, Collection<String> failedJobs)
+      throws IOException {
+    rewrite(expired, failedJobs);
+  }
+
+  /**
+   * Record that a job's history, including the histories of the jobs inside it if it is a
+   * folder, has moved. Only a move record is appended, the lines above it are left as they
+   * are until the head of the log is removed.
+   *
+   * @param oldFullName the old full name.
+   * @param newFullName the new full name.
+   * @throws IOException if writing the log fails.
+   */
+  public void rename(String oldFullName, String newFullName) throws IOException {
+    synchronized (LOCK) {
+      if (!getLogFile().isFile()) {
+        // rebuilt from the history directories as they are now on the next access.
+        return;
+      }
+      try (Writer writer = new OutputStreamWriter(
+          Files.newOutputStream(getLogFile().toPath(), StandardOpenOption.APPEND),
+          StandardCharsets.UTF_8)) {
+        writer.write(new Move(-1, oldFullName, newFullName).toLine());
+      }
+    }
+  }
+
+  private void rewrite(List<Entry> drop, Collection<String> keepJobs) throws IOException {
+    synchronized (LOCK) {
+      final File logFile = getLogFile();
+      if (!logFile.isFile()) {
+        // rebuilt from the history directories as they are now on the next access.
+        return;
+      }
+      final File tmpFile = new File(historyRootDir, logFile.getName() + ".tmp");
+      try {
+        final List<Move> moves = readMoves(logFile);
+        try (BufferedReader reader =
+                 Files.newBufferedReader(logFile.toPath(), StandardCharsets.UTF_8);
+             BufferedWriter writer =
+                 Files.newBufferedWriter(tmpFile.toPath(), StandardCharsets.UTF_8)) {
+          if (!HEADER.equals(reader.readLine())) {
+            throw new IOException("Unknown expiry log format: " + logFile);
+          }
+          writer.write(HEADER);
+          writer.write('\n');
+          int lineNumber = 0;
+          int position = 0;
+          String line;
+          while ((line = reader.readLine()) != null) {
+            if (line.isEmpty()) {
+              continue;
+            }
+            if (line.startsWith(MOVED + SEPARATOR)) {
+              // folded into the lines above.
+              position++;
+              continue;
+            }
+            final Entry entry = Move.resolve(Entry.fromLine(line), position++, moves);
+            if (lineNumber < drop.size() && entry.equals(drop.get(lineNumber++))
+                && !keepJobs.contains(entry.getJobFullName())) {
+              continue;
+            }
+            writer.write(entry.toLine());
+          }
+        }
+      } catch (IOException | IllegalArgumentException e) {
+        FileUtils.deleteQuietly(tmpFile);
+        invalidate();
+        throw new IOException("Unable to rewrite expiry log, dropping it: " + e.getMessage(), e);
+      }
+      Files.move(tmpFile.toPath(), logFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+  }
+
+  private static List<Move> readMoves(File logFile) throws IOException {
+    final List<Move> moves = new ArrayList<>();
+    try (BufferedReader reader =
+             Files.newBufferedReader(logFile.toPath(), StandardCharsets.UTF_8)) {
+      if (!HEADER.equals(reader.readLine())) {
+        throw new IOException("Unknown expiry log format: " + logFile);
+      }
+      int position = 0;
+      String line;
+      while ((line = reader.readLine()) != null) {
+        if (line.isEmpty()) {
+          continue;
+        }
+        if (line.startsWith(MOVED + SEPARATOR)) {
+          moves.add(Move.fromLine(line, position));
+        }
+        position++;
+      }
+    }
+    return moves;
+  }
+
+  /**
+   * Drop the log, it gets rebuilt on the next access.
+   */
+  public void invalidate() {
+    synchronized (LOCK) {
+      FileUtils.deleteQuietly(getLogFile());
+    }
+  }
+
+  private void rebuild() throws IOException {
+    final List<Entry> entries = new ArrayList<>();
+    if (historyRootDir.isDirectory()) {
+      final Path rootPath = historyRootDir.toPath();
+      Files.walkFileTree(rootPath, new SimpleFileVisitor<Path>() {
+        @Override
+        public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+          if (dir.equals(rootPath)) {
+            return FileVisitResult.CONTINUE;
+          }
+          if (dir.getFileName().toString().startsWith("@")) {
+            // blobs, diff cache and the like.
+            return FileVisitResult.SKIP_SUBTREE;
+          }
+          if (PipelineHistoryFileFilter.getInstance().accept(dir.toFile())) {
+            entries.add(new Entry(dir.getFileName().toString(),
+                rootPath.relativize(dir.getParent()).toString().replace(File.separatorChar, '/')));
+            return FileVisitResult.SKIP_SUBTREE;
+          }
+          return FileVisitResult.CONTINUE;
+        }
+      });
+    }
+    LOG.log(Level.INFO, "Rebuilding expiry log of {0} ({1} revisions)",
+        new Object[]{historyRootDir, entries.size()});
+    entries.sort(Comparator.comparing(Entry::getTimestamp));
+
+    Files.createDirectories(historyRootDir.toPath());
+    final File logFile = getLogFile();
+    final File tmpFile = new File(historyRootDir, logFile.getName() + ".tmp");
+    try (BufferedWriter writer = Files.newBufferedWriter(tmpFile.toPath(),
+        StandardCharsets.UTF_8)) {
+      writer.write(HEADER);
+      writer.write('\n');
+      for (Entry entry : entries) {
+        writer.write(entry.toLine());
+      }
+    }
+    Files.move(tmpFile.toPath(), logFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+  }
+
+  /**
+   * A move record, applying to the lines above it.
+   */
+  private static final class Move {
+
+    private final int position;
+
+    private final String oldFullName;
+
+    private final String newFullName;
+
+    Move(int position, String oldFullName, String newFullName) {
+      this.position = position;
+      this.oldFullName = oldFullName;
+      this.newFullName = newFullName;
+    }
+
+    /**
+     * Apply the moves logged after a line to its entry.
+     *
+     * @param entry    the entry as logged.
+     * @param position the position of its line.
+     * @param moves    all moves, in the order they have been logged.
+     * @return the entry with the job's current full name.
+     */
+    static Entry resolve(Entry entry, int position, List<Move> moves) {
+      Entry resolved = entry;
+      for (Move move : moves) {
+        if (move.position > position) {
+          resolved = resolved.moved(move.oldFullName, move.newFullName);
+        }
+      }
+      return resolved;
+    }
+
+    String toLine() {
+      return MOVED + SEPARATOR + oldFullName + SEPARATOR + newFullName + "\n";
+    }
+
+    static Move fromLine(String line, int position) {
+      final int start = MOVED.length() + SEPARATOR.length();
+      final int separator = line.indexOf(SEPARATOR, start);
+      if (separator <= start || separator == line.length() - 1) {
+        throw new IllegalArgumentException("Malformed expiry log line: " + line);
+      }
+      return new Move(position, line.substring(start, separator),
+          line.substring(separator + 1));
+    }
+  }
+
+  /**
+   * A single line of the log.
+   */
+  public static class Entry {
+
+    private final String timestamp;
+
+    private final String jobFullName;
+
+    public Entry(String timestamp, String jobFullName) {
+      this.timestamp = timestamp;
+      this.jobFullName = jobFullName;
+    }
+
+    public String getTimestamp() {
+      return timestamp;
+    }
+
+    /**
+     * Get the full name of the job, which is also the path of its history relative to the
+     * history root. The job might not exist anymore.
+     *
+     * @return the job's full name.
+     */
+    public String getJobFullName() {
+      return jobFullName;
+    }
+
+    Entry moved(String oldFullName, String newFullName) {
+      if (jobFullName.equals(oldFullName)) {
+        return new Entry(timestamp, newFullName);
+      }
+      if (jobFullName.startsWith(oldFullName + "/")) {
+        return new Entry(timestamp, newFullName + jobFullName.substring(oldFullName.length()));
+      }
+      return this;
+    }
+
+    String toLine() {
+      return timestamp + SEPARATOR + jobFullName + "\n";
+    }
+
+    @Override
+    public boolean equals(Object other) {
+      if (this == other) {
+        return true;
+      }
+      if (!(other instanceof Entry)) {
+        return false;
+      }
+      final Entry entry = (Entry) other;
+      return timestamp.equals(entry.timestamp) && jobFullName.equals(entry.jobFullName);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(timestamp, jobFullName);
+    }
+
+    static Entry fromLine(String line) {
+      final int separator = line.indexOf(SEPARATOR);
+      if (separator <= 0 || separator == line.length() - 1) {
+        throw new IllegalArgumentException("Malformed expiry log line: " + line);
+      }
+      return new Entry(line.substring(0, separator), line.substring(separator + 1));
+    }
+  }
+}
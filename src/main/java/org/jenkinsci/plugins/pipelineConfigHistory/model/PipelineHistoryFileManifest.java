@@ -0,0 +1,252 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2019, Robin Schulz
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkinsci.plugins.pipelineConfigHistory.model;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.function.Predicate;
+import javax.annotation.CheckForNull;
+
+import org.jenkinsci.plugins.pipelineConfigHistory.DirectoryUtils;
+import org.jenkinsci.plugins.pipelineConfigHistory.PipelineConfigHistoryConsts;
+
+/**
+ * List of the files a single revision consists of, written when the revision is captured.
+ *
+ * <p>Files are identified by their path relative to the revision directory, using '/' as
+ * separator. Unlike the absolute path, that identifier survives moving JENKINS_HOME or renaming
+ * the job, and it can be resolved without walking the revision directory. Revisions captured
+ * before the manifest was introduced have none and are walked instead.
+ *
+ * <p>The manifest also records which files are stored compressed, those are returned as
+ * {@link PipelineHistoryCompression.CompressedFile}s. Such manifests have a new header, so
+ * older versions walk the revision instead.
+ */
+public final class PipelineHistoryFileManifest {
+
+  private static final String HEADER = "# pipeline-config-history file manifest v1";
+
+  private static final String HEADER_COMPRESSED = "# pipeline-config-history file manifest v2";
+
+  /**
+   * Prefix of the identifiers of compressed files.
+   */
+  private static final String COMPRESSED_PREFIX = "gzip\t";
+
+  private PipelineHistoryFileManifest() {
+  }
+
+  public static File getManifestFile(File revisionDir) {
+    return new File(revisionDir, PipelineConfigHistoryConsts.FILE_MANIFEST_FILENAME);
+  }
+
+  /**
+   * Record all files of a revision directory in its manifest.
+   *
+   * @param revisionDir the revision directory, usually still in staging.
+   * @throws IOException if listing the revision or writing the manifest fails.
+   */
+  public static void write(File revisionDir) throws IOException {
+    write(revisionDir, id -> false);
+  }
+
+  /**
+   * Record all files of a revision directory in its manifest, along with which of them are
+   * stored compressed.
+   *
+   * @param revisionDir  the revision directory, usually still in staging.
+   * @param isCompressed tells whether the file with the given identifier is stored compressed.
+   * @throws IOException if listing the revision or writing the manifest fails.
+   */
+  public static void write(File revisionDir, Predicate<String> isCompressed)
+      throws IOException {
+    final List<String> lines = new ArrayList<>();
+    lines.add(HEADER);
+    for (String id : walk(revisionDir).keySet()) {
+      if (isCompressed.test(id)) {
+        lines.set(0, HEADER_COMPRESSED);
+        lines.add(COMPRESSED_PREFIX + id);
+      } else {
+        lines.add(id);
+      }
+    }
+    Files.write(getManifestFile(revisionDir).toPath(), lines, StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Get all files of a revision, except its history xml and the manifest itself.
+   *
+   * @param revisionDir the revision directory.
+   * @return the files by their identifier, in identifier order.
+   * @throws IOException if neither the manifest nor the revision directory can be read.
+   */
+  public static SortedMap<String, File> getFiles(File revisionDir) throws IOException {
+    final List<String> lines;
+    try {
+      lines = Files.readAllLines(getManifestFile(revisionDir).toPath(), StandardCharsets.UTF_8);
+    } catch (NoSuchFileException e) {
+      return walk(revisionDir);
+    }
+    if (lines.isEmpty()
+        || !HEADER.equals(lines.get(0)) && !HEADER_COMPRESSED.equals(lines.get(0))) {
+      return walk(revisionDir);
+    }
+    final boolean hasCompressed = HEADER_COMPRESSED.equals(lines.get(0));
+    final SortedMap<String, File> files = new TreeMap<>();
+    for (String line : lines.subList(1, lines.size())) {
+      if (hasCompressed && line.startsWith(COMPRESSED_PREFIX)) {
+        final String id = line.substring(COMPRESSED_PREFIX.length());
+        files.put(id, new PipelineHistoryCompression.CompressedFile(revisionDir, id));
+      } else if (!line.isEmpty()) {
+        files.put(line, new File(revisionDir, line));
+      }
+    }
+    return files;
+  }
+
+  /**
+   * Get the identifier of a file of a revision.
+   *
+   * @param revisionDir the revision directory.
+   * @param file        a file below the revision directory.
+   * @return its path relative to the revision directory.
+   */
+  public static String getId(File revisionDir, File file) {
+    return revisionDir.toPath().relativize(file.toPath()).toString()
+        .replace(File.separatorChar, '/');
+  }
+
+  /**
+   * Resolve a file identifier without walking the revision directory. Only the manifest of
+   * revisions with compressed files is read.
+   *
+   * @param revisionDir the revision directory.
+   * @param id          the file identifier.
+   * @return the file, or null if the identifier does not denote a file of this revision.
+   */
+  @CheckForNull
+  public static File resolve(File revisionDir, String id) {
+    if (id == null || id.isEmpty()) {
+      return null;
+    }
+    final Path root = revisionDir.toPath().normalize();
+    final Path path = root.resolve(id.replace('/', File.separatorChar)).normalize();
+    if (!path.startsWith(root) || path.equals(root) || isMetadata(root, path)) {
+      return null;
+    }
+    final File file = path.toFile();
+    if (!file.isFile()) {
+      return null;
+    }
+    final String normalizedId = root.relativize(path).toString().replace(File.separatorChar, '/');
+    return getCompressedIds(revisionDir).contains(normalizedId)
+        ? new PipelineHistoryCompression.CompressedFile(file.getParentFile(), file.getName())
+        : file;
+  }
+
+  /**
+   * Get a file of a revision without checking that it exists, as a
+   * {@link PipelineHistoryCompression.CompressedFile} if the manifest records it as compressed.
+   * Any file read from a revision should be obtained this way, or from {@link #getFiles(File)}.
+   *
+   * @param revisionDir the revision directory, or a build directory which has no manifest.
+   * @param id          the file identifier.
+   * @return the file.
+   */
+  public static File getFile(File revisionDir, String id) {
+    return getFile(revisionDir, id, getCompressedIds(revisionDir));
+  }
+
+  static File getFile(File revisionDir, String id, Set<String> compressedIds) {
+    return compressedIds.contains(id)
+        ? new PipelineHistoryCompression.CompressedFile(revisionDir, id)
+        : new File(revisionDir, id);
+  }
+
+  /**
+   * Open a file of a revision for reading, decompressing it if the manifest records it as
+   * compressed.
+   *
+   * @param revisionDir the revision directory, or a build directory which has no manifest.
+   * @param id          the file identifier.
+   * @return the file's uncompressed content.
+   * @throws IOException if the file can't be opened.
+   */
+  public static InputStream open(File revisionDir, String id) throws IOException {
+    return PipelineHistoryCompression.open(getFile(revisionDir, id));
+  }
+
+  /**
+   * Get the identifiers of the files the manifest records as compressed.
+   *
+   * @param revisionDir the revision directory.
+   * @return the identifiers, empty if there is no manifest.
+   */
+  static Set<String> getCompressedIds(File revisionDir) {
+    try (BufferedReader reader = Files.newBufferedReader(getManifestFile(revisionDir).toPath(),
+        StandardCharsets.UTF_8)) {
+      if (!HEADER_COMPRESSED.equals(reader.readLine())) {
+        return Collections.emptySet();
+      }
+      final Set<String> ids = new HashSet<>();
+      String line;
+      while ((line = reader.readLine()) != null) {
+        if (line.startsWith(COMPRESSED_PREFIX)) {
+          ids.add(line.substring(COMPRESSED_PREFIX.length()));
+        }
+      }
+      return ids;
+    } catch (IOException e) {
+      // no manifest, so nothing has been compressed.
+      return Collections.emptySet();
+    }
+  }
+
+  private static boolean isMetadata(Path root, Path path) {
+    return root.equals(path.getParent())
+        && (path.endsWith(PipelineConfigHistoryConsts.HISTORY_XML_FILENAME)
+            || path.endsWith(PipelineConfigHistoryConsts.FILE_MANIFEST_FILENAME));
+  }
+
+  private static SortedMap<String, File> walk(File revisionDir) throws IOException {
+    final SortedMap<String, File> files = new TreeMap<>();
+    for (File file : DirectoryUtils.getAllFilesExceptHistoryXmlFromDirectory(revisionDir)) {
+      files.put(getId(revisionDir, file), file);
+    }
+    return files;
+  }
+}
@@ -0,0 +1,185 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2019, Robin Schulz
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkinsci.plugins.pipelineConfigHistory.model;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+import org.jenkinsci.plugins.pipelineConfigHistory.PipelineConfigHistoryConsts;
+
+/**
+ * Hands out revision identifiers without waiting for the clock.
+ *
+ * <p>An identifier is the capture time in {@link PipelineConfigHistoryConsts#ID_FORMATTER}
+ * format. Further revisions of the same job within the same second get a sequence suffix,
+ * e.g. {@code 2019-06-01_12-00-00_001}, so identifiers still sort by capture order. Each job's
+ * last identifier is advanced atomically, there is no lock shared between jobs.
+ *
+ * <p>A job's last identifier is only needed until the clock has moved past its second, so
+ * older ones are dropped, at most once a second. Otherwise every job ever captured, including
+ * deleted and renamed ones, would be kept.
+ */
+public final class PipelineHistoryIdAllocator {
+
+  /**
+   * The highest sequence number within a second, the next identifier moves on to the next
+   * second instead.
+   */
+  static final int MAX_SEQUENCE = 999;
+
+  private static final char SEQUENCE_SEPARATOR = '_';
+
+  private static final int TIMESTAMP_LENGTH = PipelineConfigHistoryConsts.ID_FORMATTER.length();
+
+  private final ConcurrentMap<String, String> lastIds = new ConcurrentHashMap<>();
+
+  /**
+   * The second of the last eviction.
+   */
+  private final AtomicLong lastEviction = new AtomicLong();
+
+  private final LongSupplier clock;
+
+  public PipelineHistoryIdAllocator() {
+    this(System::currentTimeMillis);
+  }
+
+  PipelineHistoryIdAllocator(LongSupplier clock) {
+    this.clock = clock;
+  }
+
+  /**
+   * Get the next identifier of a job, greater than all identifiers handed out for it before.
+   *
+   * @param key identifies the job, e.g. its history directory.
+   * @return the identifier.
+   */
+  public String next(String key) {
+    final long millis = clock.getAsLong();
+    final String now = format(millis);
+    evictOlderThan(now, TimeUnit.MILLISECONDS.toSeconds(millis));
+    return lastIds.compute(key, (k, previous) -> following(previous, now));
+  }
+
+  private void evictOlderThan(String now, long second) {
+    final long last = lastEviction.get();
+    if (second != last && lastEviction.compareAndSet(last, second)) {
+      // conditional removals, so an identifier handed out meanwhile is kept.
+      lastIds.entrySet().removeIf(entry -> entry.getValue().compareTo(now) < 0);
+    }
+  }
+
+  /**
+   * Get the number of jobs whose last identifier is kept.
+   *
+   * @return the number of jobs.
+   */
+  int size() {
+    return lastIds.size();
+  }
+
+  private static String following(String previous, String now) {
+    if (previous == null || now.compareTo(previous) > 0) {
+      return now;
+    }
+    // same second, or the clock went backwards.
+    final int sequence = getSequence(previous);
+    if (sequence < MAX_SEQUENCE) {
+      return getTimestamp(previous) + SEQUENCE_SEPARATOR + String.format("%03d", sequence + 1);
+    }
+    return format(parseTimestamp(previous).getTime() + TimeUnit.SECONDS.toMillis(1));
+  }
+
+  /**
+   * Get the capture time part of an identifier.
+   *
+   * @param id a revision identifier, with or without sequence suffix.
+   * @return the identifier without its sequence suffix.
+   */
+  public static String getTimestamp(String id) {
+    return id.length() > TIMESTAMP_LENGTH ? id.substring(0, TIMESTAMP_LENGTH) : id;
+  }
+
+  /**
+   * Get the sequence number of an identifier.
+   *
+   * @param id a revision identifier.
+   * @return the sequence number, 0 for identifiers without suffix.
+   * @throws IllegalArgumentException if the suffix is not a sequence number.
+   */
+  public static int getSequence(String id) {
+    if (id.length() <= TIMESTAMP_LENGTH) {
+      return 0;
+    }
+    if (id.charAt(TIMESTAMP_LENGTH) != SEQUENCE_SEPARATOR) {
+      throw new IllegalArgumentException("Not a revision identifier: " + id);
+    }
+    try {
+      return Integer.parseInt(id.substring(TIMESTAMP_LENGTH + 1));
+    } catch (NumberFormatException e) {
+      throw new IllegalArgumentException("Not a revision identifier: " + id, e);
+    }
+  }
+
+  /**
+   * Parse the capture time of an identifier.
+   *
+   * @param id a revision identifier, with or without sequence suffix.
+   * @return the capture time, to the second.
+   * @throws IllegalArgumentException if the identifier can't be parsed.
+   */
+  public static Date parseTimestamp(String id) {
+    getSequence(id);
+    try {
+      return new SimpleDateFormat(PipelineConfigHistoryConsts.ID_FORMATTER)
+          .parse(getTimestamp(id));
+    } catch (ParseException e) {
+      throw new IllegalArgumentException("Could not parse Date" + id, e);
+    }
+  }
+
+  /**
+   * Compare two identifiers by their capture order.
+   *
+   * @param id1 a revision identifier.
+   * @param id2 another revision identifier.
+   * @return a negative number, zero or a positive number if id1 has been captured before, at
+   *     the same time as or after id2.
+   * @throws IllegalArgumentException if an identifier can't be parsed.
+   */
+  public static int compare(String id1, String id2) {
+    final int byTime = parseTimestamp(id1).compareTo(parseTimestamp(id2));
+    return byTime != 0 ? byTime : Integer.compare(getSequence(id1), getSequence(id2));
+  }
+
+  private static String format(long millis) {
+    return new SimpleDateFormat(PipelineConfigHistoryConsts.ID_FORMATTER).format(new Date(millis));
+  }
+}
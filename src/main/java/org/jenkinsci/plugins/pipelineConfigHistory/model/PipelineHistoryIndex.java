@@ -0,0 +1,614 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2019, Robin Schulz
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkinsci.plugins.pipelineConfigHistory.model;
+
+import hudson.XmlFile;
+import jenkins.util.SystemProperties;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.xml.parsers.ParserConfigurationException;
+
+import org.apache.commons.io.FileUtils;
+import org.jenkinsci.plugins.pipelineConfigHistory.PipelineConfigHistoryConsts;
+import org.jenkinsci.plugins.pipelineConfigHistory.PluginUtils;
+import org.xml.sax.SAXException;
+
+/**
+ * Append-only index of all revisions of a single job's history.
+ *
+ * <p>The index lives next to the timestamped revision directories and holds one line per
+ * revision, so that listing or looking up revisions does not need to stat every revision
+ * directory or parse every history.xml. It is considered stale (and rebuilt from the
+ * revision directories) if it is missing, unreadable or older than the job's history
+ * directory, e.g. because revisions have been deleted by hand.
+ *
+ * <p>The parsed entries of recently used indexes are kept in memory as long as the index
+ * file's modification time and length don't change, so that a lookup doesn't read the file.
+ */
+public class PipelineHistoryIndex {
+
+  private static final Logger LOG = Logger.getLogger(PipelineHistoryIndex.class.getName());
+
+  private static final String HEADER = "# pipeline-config-history revision index v3";
+
+  private static final String SEPARATOR = "\t";
+
+  private static final int FIELD_COUNT = 7;
+
+  /**
+   * Maximum number of indexes whose entries are kept in memory, 0 disables the cache.
+   */
+  static final int CACHE_SIZE = SystemProperties.getInteger(
+      PipelineHistoryIndex.class.getName() + ".cacheSize", 256);
+
+  /**
+   * Reads and writes of the same index are serialized. Directories are hashed onto as many
+   * locks as there are job lock stripes, so that rebuilding one job's index doesn't make the
+   * other jobs wait. Index locks are taken last, after any job lock.
+   */
+  private static final Object[] LOCKS = new Object[PipelineHistoryJobLocks.STRIPES];
+
+  static {
+    for (int i = 0; i < LOCKS.length; i++) {
+      LOCKS[i] = new Object();
+    }
+  }
+
+  private static final Map<String, CachedEntries> CACHE =
+      new LinkedHashMap<String, CachedEntries>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, CachedEntries> eldest) {
+          return size() > CACHE_SIZE;
+        }
+      };
+
+  private final File jobHistoryDir;
+
+  /**
+   * Get the index of the given job history directory.
+   *
+   * @param jobHistoryDir the directory containing the job's timestamped revision directories.
+   */
+  public PipelineHistoryIndex(File jobHistoryDir) {
+    this.jobHistoryDir = jobHistoryDir;
+  }
+
+  public File getJobHistoryDir() {
+    return jobHistoryDir;
+  }
+
+  public File getIndexFile() {
+    return new File(jobHistoryDir, PipelineConfigHistoryConsts.INDEX_FILENAME);
+  }
+
+  /**
+   * Get all indexed revisions, oldest first. Rebuilds the index if it is stale.
+   *
+   * @return all revisions of this job's history.
+   * @throws IOException if neither the index nor the revision directories can be read.
+   */
+  public List<Entry> getEntries() throws IOException {
+    synchronized (getLock()) {
+      List<Entry> entries = isFresh() ? getCachedOrRead() : null;
+      if (entries == null) {
+        entries = rebuild();
+      }
+      return entries;
+    }
+  }
+
+  /**
+   * Look up a single revision by binary search, in the cached entries unless the index has
+   * changed.
+   *
+   * @param timestamp the revision identifier.
+   * @return the entry or null, if there is no such revision.
+   * @throws IOException if the index can't be read.
+   */
+  public Entry find(String timestamp) throws IOException {
+    final List<Entry> entries = getEntries();
+    final int position = indexOf(entries, timestamp);
+    return position >= 0 ? entries.get(position) : null;
+  }
+
+  /**
+   * Look up a single revision by binary search.
+   *
+   * @param entries   the entries as returned by {@link #getEntries()}.
+   * @param timestamp the revision identifier.
+   * @return the position of the entry or -1, if there is no such revision.
+   */
+  static int indexOf(List<Entry> entries, String timestamp) {
+    int low = 0;
+    int high = entries.size() - 1;
+    while (low <= high) {
+      final int mid = (low + high) >>> 1;
+      final int cmp = entries.get(mid).getTimestamp().compareTo(timestamp);
+      if (cmp < 0) {
+        low = mid + 1;
+      } else if (cmp > 0) {
+        high = mid - 1;
+      } else {
+        return mid;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * Count the revisions older than a timestamp by binary search.
+   *
+   * @param entries   the entries as returned by {@link #getEntries()}.
+   * @param timestamp the timestamp, which doesn't need to be a revision identifier.
+   * @return the number of entries before the timestamp.
+   */
+  static int countBefore(List<Entry> entries, String timestamp) {
+    int low = 0;
+    int high = entries.size();
+    while (low < high) {
+      final int mid = (low + high) >>> 1;
+      if (entries.get(mid).getTimestamp().compareTo(timestamp) < 0) {
+        low = mid + 1;
+      } else {
+        high = mid;
+      }
+    }
+    return low;
+  }
+
+  /**
+   * Get the most recent revision.
+   *
+   * @return the entry or null, if there is no revision.
+   * @throws IOException if the index can't be read.
+   */
+  public Entry getMostRecent() throws IOException {
+    List<Entry> entries = getEntries();
+    return entries.isEmpty() ? null : entries.get(entries.size() - 1);
+  }
+
+  /**
+   * Move the job's history, including this index, to another directory by renaming it. A fresh
+   * index stays fresh, so nothing below the directory needs to be read or rewritten.
+   *
+   * @param newJobHistoryDir the new directory, it must not exist or be empty.
+   * @return the index at the new location.
+   * @throws java.nio.file.AtomicMoveNotSupportedException if the directories are on different
+   *     file systems.
+   * @throws IOException if renaming fails otherwise, e.g. because the new directory is in use.
+   */
+  public PipelineHistoryIndex moveTo(File newJobHistoryDir) throws IOException {
+    synchronized (getLock()) {
+      final boolean fresh = isFresh();
+      uncache();
+      Files.createDirectories(newJobHistoryDir.getParentFile().toPath());
+      Files.move(jobHistoryDir.toPath(), newJobHistoryDir.toPath(),
+          StandardCopyOption.ATOMIC_MOVE);
+      final PipelineHistoryIndex moved = new PipelineHistoryIndex(newJobHistoryDir);
+      if (fresh) {
+        // moving a directory to another parent may modify it.
+        moved.touch();
+      }
+      return moved;
+    }
+  }
+
+  /**
+   * Replace the whole index, e.g. after revisions have been purged or moved.
+   *
+   * @param entries the revisions which remain.
+   * @throws IOException if writing the index fails.
+   */
+  public void write(Collection<Entry> entries) throws IOException {
+    synchronized (getLock()) {
+      final File indexFile = getIndexFile();
+      final File tmpFile = new File(jobHistoryDir, indexFile.getName() + ".tmp");
+      try (BufferedWriter writer = Files.newBufferedWriter(tmpFile.toPath(),
+          StandardCharsets.UTF_8)) {
+        writer.write(HEADER);
+        writer.write('\n');
+        for (Entry entry : entries) {
+          writer.write(entry.toLine());
+        }
+      }
+      Files.move(tmpFile.toPath(), indexFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+      touch();
+      // the same entries read() would return.
+      final TreeMap<String, Entry> sorted = new TreeMap<>();
+      for (Entry entry : entries) {
+        sorted.put(entry.getTimestamp(), entry);
+      }
+      cache(Collections.unmodifiableList(new ArrayList<>(sorted.values())));
+    }
+  }
+
+  /**
+   * Publish a revision which has been written to a staging directory by renaming the staging
+   * directory to the revision directory, and append it to the index. A crash leaves either no
+   * revision or a complete one; if it happens before the index has been written, the index
+   * looks stale and picks the revision up when it is rebuilt.
+   *
+   * @param stagingDir the complete revision, on the same file system as the job history.
+   * @param entry the revision's index entry, its timestamp names the revision directory.
+   * @return false if the revision directory exists already, the staging directory is left
+   *     untouched then.
+   * @throws IOException if renaming the staging directory or writing the index fails.
+   */
+  public boolean publish(File stagingDir, Entry entry) throws IOException {
+    synchronized (getLock()) {
+      final File revisionDir = new File(jobHistoryDir, entry.getTimestamp());
+      if (revisionDir.exists()) {
+        return false;
+      }
+      Files.createDirectories(jobHistoryDir.toPath());
+      final boolean fresh = isFresh();
+      final List<Entry> cached = fresh ? getCached() : null;
+      Files.move(stagingDir.toPath(), revisionDir.toPath(), StandardCopyOption.ATOMIC_MOVE);
+      if (fresh) {
+        appendLine(entry);
+        if (cached != null) {
+          final List<Entry> entries = new ArrayList<>(cached);
+          entries.add(countBefore(cached, entry.getTimestamp()), entry);
+          cache(Collections.unmodifiableList(entries));
+        }
+      } else {
+        rebuild();
+      }
+      return true;
+    }
+  }
+
+  /**
+   * Drop the index, it gets rebuilt on the next read.
+   */
+  public void invalidate() {
+    synchronized (getLock()) {
+      uncache();
+      FileUtils.deleteQuietly(getIndexFile());
+    }
+  }
+
+  /**
+   * Get the monitor guarding this index. It is shared with the indexes of other directories
+   * hashed onto the same stripe only.
+   *
+   * @return the monitor.
+   */
+  Object getLock() {
+    final int hash = jobHistoryDir.getAbsolutePath().hashCode();
+    return LOCKS[Math.floorMod(hash ^ (hash >>> 16), LOCKS.length)];
+  }
+
+  private String getCacheKey() {
+    return getIndexFile().getAbsolutePath();
+  }
+
+  private List<Entry> getCached() {
+    final File indexFile = getIndexFile();
+    final long lastModified = indexFile.lastModified();
+    final long length = indexFile.length();
+    synchronized (CACHE) {
+      final CachedEntries cached = CACHE.get(getCacheKey());
+      return cached != null && cached.lastModified == lastModified && cached.length == length
+          ? cached.entries
+          : null;
+    }
+  }
+
+  private List<Entry> getCachedOrRead() {
+    List<Entry> entries = getCached();
+    if (entries == null) {
+      final File indexFile = getIndexFile();
+      final long lastModified = indexFile.lastModified();
+      final long length = indexFile.length();
+      entries = read();
+      if (entries != null) {
+        cache(entries, lastModified, length);
+      }
+    }
+    return entries;
+  }
+
+  /**
+   * Remember the entries of the index file as it is now. Only called with the index locked,
+   * right after writing the file.
+   */
+  private void cache(List<Entry> entries) {
+    final File indexFile = getIndexFile();
+    cache(entries, indexFile.lastModified(), indexFile.length());
+  }
+
+  private void cache(List<Entry> entries, long lastModified, long length) {
+    if (CACHE_SIZE <= 0) {
+      return;
+    }
+    synchronized (CACHE) {
+      CACHE.put(getCacheKey(), new CachedEntries(entries, lastModified, length));
+    }
+  }
+
+  private void uncache() {
+    synchronized (CACHE) {
+      CACHE.remove(getCacheKey());
+    }
+  }
+
+  private void appendLine(Entry entry) throws IOException {
+    try (Writer writer = new OutputStreamWriter(
+        Files.newOutputStream(getIndexFile().toPath(), StandardOpenOption.APPEND),
+        StandardCharsets.UTF_8)) {
+      writer.write(entry.toLine());
+    }
+    touch();
+  }
+
+  private boolean isFresh() {
+    final File indexFile = getIndexFile();
+    return indexFile.isFile() && indexFile.lastModified() >= jobHistoryDir.lastModified();
+  }
+
+  /**
+   * Make sure the index is not older than its directory. Creating or renaming the index
+   * modifies the directory itself.
+   */
+  private void touch() throws IOException {
+    final long now = Math.max(System.currentTimeMillis(), jobHistoryDir.lastModified());
+    Files.setLastModifiedTime(getIndexFile().toPath(), FileTime.fromMillis(now));
+  }
+
+  private List<Entry> read() {
+    final TreeMap<String, Entry> entries = new TreeMap<>();
+    try (BufferedReader reader =
+             Files.newBufferedReader(getIndexFile().toPath(), StandardCharsets.UTF_8)) {
+      if (!HEADER.equals(reader.readLine())) {
+        LOG.log(Level.FINE, "Unknown index format, rebuilding {0}", getIndexFile());
+        return null;
+      }
+      String line;
+      while ((line = reader.readLine()) != null) {
+        if (!line.isEmpty()) {
+          Entry entry = Entry.fromLine(line);
+          entries.put(entry.getTimestamp(), entry);
+        }
+      }
+    } catch (IOException | IllegalArgumentException e) {
+      LOG.log(Level.WARNING, "Unable to read history index {0}, rebuilding: {1}",
+          new Object[]{getIndexFile(), e.getMessage()});
+      return null;
+    }
+    return Collections.unmodifiableList(new ArrayList<>(entries.values()));
+  }
+
+  private List<Entry> rebuild() throws IOException {
+    final File[] revisionDirs = jobHistoryDir.listFiles(PipelineHistoryFileFilter.getInstance());
+    if (revisionDirs == null) {
+      return Collections.emptyList();
+    }
+    LOG.log(Level.FINE, "Rebuilding history index of {0} ({1} revisions)",
+        new Object[]{jobHistoryDir, revisionDirs.length});
+
+    final TreeMap<String, Entry> entries = new TreeMap<>();
+    for (File revisionDir : revisionDirs) {
+      Entry entry = readEntryFromRevisionDir(revisionDir);
+      if (entry != null) {
+        entries.put(entry.getTimestamp(), entry);
+      }
+    }
+    write(entries.values());
+    return Collections.unmodifiableList(new ArrayList<>(entries.values()));
+  }
+
+  private static Entry readEntryFromRevisionDir(File revisionDir) {
+    final XmlFile historyXml =
+        new XmlFile(new File(revisionDir, PipelineConfigHistoryConsts.HISTORY_XML_FILENAME));
+    if (!historyXml.exists()) {
+      // still being written, it will be appended as soon as it is complete.
+      LOG.log(Level.FINE, "Skipping incomplete revision {0}", revisionDir);
+      return null;
+    }
+    try {
+      PipelineHistoryDescription description = (PipelineHistoryDescription) historyXml.read();
+      PipelineConfigDigest digest = description.getDigest();
+      if (digest == null) {
+        // captured before digests were stored.
+        digest = PipelineConfigDigest.of(revisionDir);
+      }
+      return new Entry(
+          revisionDir.getName(),
+          description.getBuildNumber(),
+          description.getRootScriptName(),
+          description.hasReplayOrigin()
+              ? description.getReplayOrigin()
+              : readReplayOrigin(revisionDir),
+          digest,
+          description.getDiffSummary()
+      );
+    } catch (IOException | RuntimeException e) {
+      LOG.log(Level.WARNING, "Skipping unreadable revision {0}: {1}",
+          new Object[]{revisionDir, e.getMessage()});
+      return null;
+    }
+  }
+
+  private static int readReplayOrigin(File revisionDir) throws IOException {
+    File buildXmlFile = PipelineHistoryFileManifest.getFile(revisionDir,
+        PipelineConfigHistoryConsts.BUILD_XML_FILENAME);
+    if (!PluginUtils.fileToString(buildXmlFile)
+        .contains("ReplayCause")) {
+      return Entry.NO_REPLAY;
+    }
+    try {
+      return PluginUtils.getOriginalNumberFromBuildXml(buildXmlFile);
+    } catch (ParserConfigurationException | SAXException e) {
+      throw new IOException(e);
+    }
+  }
+
+  private static final class CachedEntries {
+    private final List<Entry> entries;
+    private final long lastModified;
+    private final long length;
+
+    private CachedEntries(List<Entry> entries, long lastModified, long length) {
+      this.entries = entries;
+      this.lastModified = lastModified;
+      this.length = length;
+    }
+  }
+
+  /**
+   * A single line of the index.
+   */
+  public static class Entry {
+
+    /**
+     * Replay origin of revisions which have not been built from a replay.
+     */
+    public static final int NO_REPLAY = -1;
+
+    private final String timestamp;
+    private final int buildNumber;
+    private final String rootScriptName;
+    private final int replayOrigin;
+    private final PipelineConfigDigest digest;
+    private final PipelineConfigDiffSummary diffSummary;
+
+    public Entry(String timestamp, int buildNumber, String rootScriptName, int replayOrigin,
+                 PipelineConfigDigest digest) {
+      this(timestamp, buildNumber, rootScriptName, replayOrigin, digest, null);
+    }
+
+    public Entry(String timestamp, int buildNumber, String rootScriptName, int replayOrigin,
+                 PipelineConfigDigest digest, PipelineConfigDiffSummary diffSummary) {
+      this.timestamp = timestamp;
+      this.buildNumber = buildNumber;
+      this.rootScriptName = rootScriptName;
+      this.replayOrigin = replayOrigin;
+      this.digest = digest;
+      this.diffSummary = diffSummary;
+    }
+
+    public String getTimestamp() {
+      return timestamp;
+    }
+
+    public int getBuildNumber() {
+      return buildNumber;
+    }
+
+    public String getRootScriptName() {
+      return rootScriptName;
+    }
+
+    /**
+     * Get the number of the build this revision's build was replayed from.
+     *
+     * @return the original build number or {@link #NO_REPLAY}.
+     */
+    public int getReplayOrigin() {
+      return replayOrigin;
+    }
+
+    /**
+     * Get the digests of the script and the libraries captured in this revision.
+     *
+     * @return the digests.
+     */
+    public PipelineConfigDigest getDigest() {
+      return digest;
+    }
+
+    public String getContentHash() {
+      return digest.getContentHash();
+    }
+
+    /**
+     * Get the changes against the previous revision, without the paths of the changed files.
+     *
+     * @return the summary or null, if there is none.
+     */
+    public PipelineConfigDiffSummary getDiffSummary() {
+      return diffSummary;
+    }
+
+    /**
+     * Get the description of this revision.
+     *
+     * @param fullName the job's current full name.
+     * @return the description.
+     */
+    public PipelineHistoryDescription toDescription(String fullName) {
+      return new PipelineHistoryDescription(timestamp, fullName, rootScriptName, buildNumber)
+          .withDigest(digest)
+          .withDiffSummary(diffSummary)
+          .withReplayOrigin(replayOrigin);
+    }
+
+    private String toLine() {
+      return timestamp + SEPARATOR
+          + buildNumber + SEPARATOR
+          + replayOrigin + SEPARATOR
+          + digest.getScriptDigest() + SEPARATOR
+          + digest.getLibsDigest() + SEPARATOR
+          + (diffSummary != null ? diffSummary.toIndexField() : "") + SEPARATOR
+          // last field, so it may contain the separator.
+          + (rootScriptName != null ? rootScriptName.replace('\n', ' ') : "")
+          + '\n';
+    }
+
+    private static Entry fromLine(String line) {
+      String[] fields = line.split(SEPARATOR, FIELD_COUNT);
+      if (fields.length != FIELD_COUNT || fields[3].isEmpty() || fields[4].isEmpty()) {
+        throw new IllegalArgumentException("corrupt line: " + line);
+      }
+      return new Entry(
+          fields[0],
+          Integer.parseInt(fields[1]),
+          fields[6].isEmpty() ? null : fields[6],
+          Integer.parseInt(fields[2]),
+          new PipelineConfigDigest(fields[3], fields[4]),
+          fields[5].isEmpty() ? null : PipelineConfigDiffSummary.fromIndexField(fields[5])
+      );
+    }
+  }
+}
@@ -0,0 +1,162 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2019, Robin Schulz
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkinsci.plugins.pipelineConfigHistory.model;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+import jenkins.util.SystemProperties;
+
+/**
+ * Serializes the changes to a job's history, without making unrelated jobs wait for each other.
+ *
+ * <p>Job names are hashed onto a fixed number of lock stripes, so jobs only contend if they
+ * share a stripe. Waiting for a lock is counted, to tell whether there are enough stripes.
+ */
+public final class PipelineHistoryJobLocks {
+
+  private static final String PROPERTY_PREFIX = PipelineHistoryJobLocks.class.getName();
+
+  /**
+   * Number of lock stripes, rounded up to a power of two.
+   */
+  static final int STRIPES = Math.max(1,
+      SystemProperties.getInteger(PROPERTY_PREFIX + ".stripes", 64));
+
+  private static final PipelineHistoryJobLocks INSTANCE = new PipelineHistoryJobLocks(STRIPES);
+
+  private final ReentrantLock[] locks;
+
+  private final AtomicLong acquiredCount = new AtomicLong();
+  private final AtomicLong contendedCount = new AtomicLong();
+  private final AtomicLong waitNanos = new AtomicLong();
+  private final AtomicLong maxWaitNanos = new AtomicLong();
+
+  PipelineHistoryJobLocks(int stripes) {
+    int size = Integer.highestOneBit(Math.max(1, stripes));
+    if (size < stripes) {
+      size <<= 1;
+    }
+    locks = new ReentrantLock[size];
+    for (int i = 0; i < size; i++) {
+      locks[i] = new ReentrantLock();
+    }
+  }
+
+  /**
+   * Get the locks shared by all history daos.
+   *
+   * @return the job locks.
+   */
+  public static PipelineHistoryJobLocks get() {
+    return INSTANCE;
+  }
+
+  /**
+   * Lock the histories of some jobs, waiting until no one else changes them. Locks are
+   * reentrant, and several jobs are always locked in the same order, so this can't deadlock.
+   *
+   * @param jobFullNames the full names of the jobs.
+   * @return the lock, to be closed when the changes are done.
+   */
+  public Held lock(String... jobFullNames) {
+    final int[] stripes = Arrays.stream(jobFullNames).mapToInt(this::getStripe)
+        .distinct().sorted().toArray();
+    for (int stripe : stripes) {
+      acquire(locks[stripe]);
+    }
+    return new Held(stripes);
+  }
+
+  private void acquire(ReentrantLock lock) {
+    acquiredCount.incrementAndGet();
+    if (lock.tryLock()) {
+      return;
+    }
+    contendedCount.incrementAndGet();
+    final long start = System.nanoTime();
+    lock.lock();
+    final long waited = System.nanoTime() - start;
+    waitNanos.addAndGet(waited);
+    maxWaitNanos.accumulateAndGet(waited, Math::max);
+  }
+
+  int getStripe(String jobFullName) {
+    final int hash = jobFullName.hashCode();
+    // spread the high bits, as String hashes of similar names differ in the low ones only.
+    return (hash ^ (hash >>> 16)) & (locks.length - 1);
+  }
+
+  int getStripeCount() {
+    return locks.length;
+  }
+
+  public long getAcquiredCount() {
+    return acquiredCount.get();
+  }
+
+  /**
+   * Number of times a lock was held by someone else.
+   *
+   * @return the number of lock acquisitions which had to wait.
+   */
+  public long getContendedCount() {
+    return contendedCount.get();
+  }
+
+  public long getWaitMillis() {
+    return TimeUnit.NANOSECONDS.toMillis(waitNanos.get());
+  }
+
+  public long getMaxWaitMillis() {
+    return TimeUnit.NANOSECONDS.toMillis(maxWaitNanos.get());
+  }
+
+  @Override
+  public String toString() {
+    return "acquired " + getAcquiredCount() + " job locks, " + getContendedCount()
+        + " contended, waited " + getWaitMillis() + " ms (max " + getMaxWaitMillis() + " ms)";
+  }
+
+  /**
+   * The locks of some jobs, held by the current thread.
+   */
+  public final class Held implements AutoCloseable {
+
+    private final int[] stripes;
+
+    private Held(int[] stripes) {
+      this.stripes = stripes;
+    }
+
+    @Override
+    public void close() {
+      for (int i = stripes.length - 1; i >= 0; i--) {
+        locks[stripes[i]].unlock();
+      }
+    }
+  }
+}
@@ -0,0 +1,69 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2019, Robin Schulz
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkinsci.plugins.pipelineConfigHistory.model;
+
+import java.util.Collections;
+import java.util.List;
+import javax.annotation.CheckForNull;
+
+/**
+ * A page of the revision history, newest first. The next page starts before the oldest
+ * revision of this one, so pages stay stable while new revisions are captured.
+ */
+public final class PipelineHistoryPage {
+
+  private final List<PipelineHistoryRow> rows;
+
+  private final String nextCursor;
+
+  public PipelineHistoryPage(List<PipelineHistoryRow> rows, @CheckForNull String nextCursor) {
+    this.rows = Collections.unmodifiableList(rows);
+    this.nextCursor = nextCursor;
+  }
+
+  /**
+   * Get the rows of this page.
+   *
+   * @return the rows, newest first.
+   */
+  public List<PipelineHistoryRow> getRows() {
+    return rows;
+  }
+
+  /**
+   * Get the cursor to pass as "before" to get the next page.
+   *
+   * @return the timestamp of the oldest revision on this page, or null if there are no older
+   *     revisions.
+   */
+  @CheckForNull
+  public String getNextCursor() {
+    return nextCursor;
+  }
+
+  public boolean hasMore() {
+    return nextCursor != null;
+  }
+
+}
@@ -0,0 +1,98 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2019, Robin Schulz
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkinsci.plugins.pipelineConfigHistory.model;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Paces the deletions of a purge run, so a large purge doesn't saturate the disk.
+ *
+ * <p>Each deletion reserves the time its entries and bytes take at the configured rates,
+ * callers wait until their reservation starts. The budget is shared by all threads of a run.
+ */
+public final class PipelineHistoryPurgeBudget {
+
+  private static final long NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1);
+
+  private final long entriesPerSecond;
+
+  private final long bytesPerSecond;
+
+  private long nextFreeNanos = System.nanoTime();
+
+  /**
+   * Get a budget.
+   *
+   * @param entriesPerSecond the maximum number of deleted revisions per second, 0 for no limit.
+   * @param bytesPerSecond   the maximum number of deleted bytes per second, 0 for no limit.
+   */
+  public PipelineHistoryPurgeBudget(long entriesPerSecond, long bytesPerSecond) {
+    this.entriesPerSecond = Math.max(0, entriesPerSecond);
+    this.bytesPerSecond = Math.max(0, bytesPerSecond);
+  }
+
+  public static PipelineHistoryPurgeBudget unlimited() {
+    return new PipelineHistoryPurgeBudget(0, 0);
+  }
+
+  /**
+   * Whether deletions are limited by their size, i.e. whether callers need to pass it.
+   *
+   * @return true if there is a limit on bytes per second.
+   */
+  public boolean isLimitingBytes() {
+    return bytesPerSecond > 0;
+  }
+
+  /**
+   * Wait until the given amount of work fits into the budget.
+   *
+   * @param entries the number of revisions about to be deleted.
+   * @param bytes   their size, only needed if {@link #isLimitingBytes()}.
+   * @throws InterruptedException if interrupted while waiting.
+   */
+  public void acquire(long entries, long bytes) throws InterruptedException {
+    if (entriesPerSecond == 0 && bytesPerSecond == 0) {
+      return;
+    }
+    long cost = 0;
+    if (entriesPerSecond > 0) {
+      cost = Math.max(cost, entries * NANOS_PER_SECOND / entriesPerSecond);
+    }
+    if (bytesPerSecond > 0) {
+      // bytes * NANOS_PER_SECOND might overflow for huge revisions.
+      cost = Math.max(cost, (long) ((double) bytes * NANOS_PER_SECOND / bytesPerSecond));
+    }
+    final long waitNanos;
+    synchronized (this) {
+      final long now = System.nanoTime();
+      final long start = Math.max(now, nextFreeNanos);
+      nextFreeNanos = start + cost;
+      waitNanos = start - now;
+    }
+    if (waitNanos > 0) {
+      TimeUnit.NANOSECONDS.sleep(waitNanos);
+    }
+  }
+}
@@ -0,0 +1,130 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2019, Robin Schulz
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkinsci.plugins.pipelineConfigHistory.model;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * What a purge run did, collected from all of its threads.
+ *
+ * <p>The phase durations are summed over the threads, so they can exceed the run's wall time.
+ */
+public final class PipelineHistoryPurgeSummary {
+
+  private final AtomicLong expiredCount = new AtomicLong();
+  private final AtomicLong logReadNanos = new AtomicLong();
+  private final AtomicLong jobCount = new AtomicLong();
+  private final AtomicLong purgedCount = new AtomicLong();
+  private final AtomicLong purgedBytes = new AtomicLong();
+  private final AtomicLong failedCount = new AtomicLong();
+  private final AtomicLong scanNanos = new AtomicLong();
+  private final AtomicLong throttleNanos = new AtomicLong();
+  private final AtomicLong deleteNanos = new AtomicLong();
+
+  /**
+   * Record reading the expiry log.
+   *
+   * @param expiredCount the number of expired revisions found in the log.
+   * @param nanos        the time it took.
+   */
+  public void addLogRead(long expiredCount, long nanos) {
+    this.expiredCount.addAndGet(expiredCount);
+    this.logReadNanos.addAndGet(nanos);
+  }
+
+  void addJob(long scanNanos) {
+    jobCount.incrementAndGet();
+    this.scanNanos.addAndGet(scanNanos);
+  }
+
+  void addPurged(long bytes, long throttleNanos, long deleteNanos) {
+    purgedCount.incrementAndGet();
+    purgedBytes.addAndGet(bytes);
+    this.throttleNanos.addAndGet(throttleNanos);
+    this.deleteNanos.addAndGet(deleteNanos);
+  }
+
+  void addFailed(long throttleNanos, long deleteNanos) {
+    failedCount.incrementAndGet();
+    this.throttleNanos.addAndGet(throttleNanos);
+    this.deleteNanos.addAndGet(deleteNanos);
+  }
+
+  /**
+   * Get the number of expired revisions found in the expiry log. Revisions which have been
+   * deleted before, e.g. because of the maximum number of revisions, are counted as well.
+   *
+   * @return the number of expired log entries.
+   */
+  public long getExpiredCount() {
+    return expiredCount.get();
+  }
+
+  public long getLogReadMillis() {
+    return TimeUnit.NANOSECONDS.toMillis(logReadNanos.get());
+  }
+
+  public long getJobCount() {
+    return jobCount.get();
+  }
+
+  public long getPurgedCount() {
+    return purgedCount.get();
+  }
+
+  /**
+   * Get the size of the purged revisions.
+   *
+   * @return the size in bytes, 0 if the purge was not limited by bytes and didn't measure it.
+   */
+  public long getPurgedBytes() {
+    return purgedBytes.get();
+  }
+
+  public long getFailedCount() {
+    return failedCount.get();
+  }
+
+  public long getScanMillis() {
+    return TimeUnit.NANOSECONDS.toMillis(scanNanos.get());
+  }
+
+  public long getThrottleMillis() {
+    return TimeUnit.NANOSECONDS.toMillis(throttleNanos.get());
+  }
+
+  public long getDeleteMillis() {
+    return TimeUnit.NANOSECONDS.toMillis(deleteNanos.get());
+  }
+
+  @Override
+  public String toString() {
+    return getExpiredCount() + " expired log entries, checked " + getJobCount()
+        + " jobs, purged " + getPurgedCount() + " revisions (" + getPurgedBytes() + " bytes), "
+        + getFailedCount() + " failed; log read " + getLogReadMillis() + " ms, scan "
+        + getScanMillis() + " ms, throttled " + getThrottleMillis() + " ms, delete "
+        + getDeleteMillis() + " ms";
+  }
+}
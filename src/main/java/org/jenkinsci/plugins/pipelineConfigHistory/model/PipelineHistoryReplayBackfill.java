@@ -0,0 +1,104 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2019, Robin Schulz
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkinsci.plugins.pipelineConfigHistory.model;
+
+import hudson.init.InitMilestone;
+import hudson.init.Initializer;
+import jenkins.model.Jenkins;
+import jenkins.util.Timer;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.jenkinsci.plugins.pipelineConfigHistory.PipelineConfigHistoryConsts;
+import org.jenkinsci.plugins.pipelineConfigHistory.PluginUtils;
+import org.jenkinsci.plugins.workflow.job.WorkflowJob;
+
+/**
+ * Records the replay origin in the history.xml of revisions captured before it was stored,
+ * so the history pages never have to look into a revision's build.xml for it.
+ *
+ * <p>Runs once in the background after the jobs have been loaded. Once all jobs have been
+ * backfilled, a marker file in the history base prevents further runs.
+ */
+public final class PipelineHistoryReplayBackfill {
+
+  private static final Logger LOG =
+      Logger.getLogger(PipelineHistoryReplayBackfill.class.getName());
+
+  private PipelineHistoryReplayBackfill() {
+  }
+
+  /**
+   * Schedule the backfill, unless it has been completed before.
+   */
+  @Initializer(after = InitMilestone.JOB_LOADED)
+  public static void schedule() {
+    final PipelineItemHistoryDao historyDao = PluginUtils.getHistoryDao();
+    if (historyDao instanceof FilePipelineItemHistoryDao
+        && !getMarker((FilePipelineItemHistoryDao) historyDao).exists()) {
+      Timer.get().submit(() -> run((FilePipelineItemHistoryDao) historyDao));
+    }
+  }
+
+  /**
+   * Backfill the replay origins of all jobs' revisions.
+   *
+   * @param historyDao the history to backfill.
+   * @return the number of updated revisions.
+   */
+  static int run(FilePipelineItemHistoryDao historyDao) {
+    int updated = 0;
+    boolean complete = true;
+    for (WorkflowJob workflowJob : Jenkins.get().getAllItems(WorkflowJob.class)) {
+      try {
+        updated += historyDao.backfillReplayOrigins(workflowJob);
+      } catch (IOException | RuntimeException e) {
+        complete = false;
+        LOG.log(Level.WARNING, "Unable to backfill the replay origins of {0}: {1}",
+            new Object[]{workflowJob.getFullName(), e.getMessage()});
+      }
+    }
+    LOG.log(Level.INFO, "Recorded the replay origin of {0} revisions.", updated);
+    if (complete) {
+      try {
+        final File marker = getMarker(historyDao);
+        if (historyDao.getRootDirectory().isDirectory() && !marker.createNewFile()
+            && !marker.exists()) {
+          LOG.log(Level.WARNING, "Unable to create {0}", marker);
+        }
+      } catch (IOException e) {
+        LOG.log(Level.WARNING, "Unable to create the backfill marker: {0}", e.getMessage());
+      }
+    }
+    return updated;
+  }
+
+  private static File getMarker(FilePipelineItemHistoryDao historyDao) {
+    return new File(historyDao.getRootDirectory(),
+        PipelineConfigHistoryConsts.REPLAY_BACKFILL_MARKER);
+  }
+}
@@ -0,0 +1,108 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2019, Robin Schulz
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkinsci.plugins.pipelineConfigHistory.model;
+
+/**
+ * Everything the history pages show about a single revision, read from the revision index
+ * without touching the revision itself.
+ */
+public final class PipelineHistoryRow {
+
+  private final String timestamp;
+
+  private final int buildNumber;
+
+  private final int replayOrigin;
+
+  private final String rootScriptName;
+
+  private final PipelineConfigDiffSummary diffSummary;
+
+  public PipelineHistoryRow(String timestamp, int buildNumber, int replayOrigin,
+                            String rootScriptName, PipelineConfigDiffSummary diffSummary) {
+    this.timestamp = timestamp;
+    this.buildNumber = buildNumber;
+    this.replayOrigin = replayOrigin;
+    this.rootScriptName = rootScriptName;
+    this.diffSummary = diffSummary;
+  }
+
+  /**
+   * Get the row of a revision from its description.
+   *
+   * @param description the revision's description.
+   * @param previous    the description of the revision before it, or null if it's the first.
+   * @return the row.
+   */
+  static PipelineHistoryRow of(PipelineHistoryDescription description,
+                               PipelineHistoryDescription previous) {
+    PipelineConfigDiffSummary diffSummary = description.getDiffSummary();
+    if (diffSummary != null && (previous == null
+        || !previous.getTimestamp().equals(diffSummary.getPreviousTimestamp()))) {
+      // the revision it compares to has been purged.
+      diffSummary = null;
+    }
+    return new PipelineHistoryRow(description.getTimestamp(), description.getBuildNumber(),
+        description.getReplayOrigin(), description.getRootScriptName(), diffSummary);
+  }
+
+  public String getTimestamp() {
+    return timestamp;
+  }
+
+  public int getBuildNumber() {
+    return buildNumber;
+  }
+
+  /**
+   * Determine whether this revision's build is a replay of another build.
+   *
+   * @return true or false
+   */
+  public boolean isBuiltFromReplay() {
+    return replayOrigin != PipelineHistoryIndex.Entry.NO_REPLAY;
+  }
+
+  /**
+   * Get the number of the build this revision's build is a replay of.
+   *
+   * @return the original build number, or -1 if it's no replay.
+   */
+  public int getOriginalNumber() {
+    return replayOrigin;
+  }
+
+  public String getRootScriptName() {
+    return rootScriptName != null ? rootScriptName : "Jenkinsfile";
+  }
+
+  /**
+   * Get the changes against the previous revision.
+   *
+   * @return the summary, or null if there is none or the revision it compares to is gone.
+   */
+  public PipelineConfigDiffSummary getDiffSummary() {
+    return diffSummary;
+  }
+}
@@ -29,6 +29,8 @@ import org.xml.sax.SAXException;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.SortedMap;
 import javax.xml.parsers.ParserConfigurationException;
 
@@ -73,6 +75,19 @@ public interface PipelineItemHistoryDao {
    */
   void changeHistoryLocation(WorkflowJob workflowJob, String oldFullName, String newFullName);
 
+  /**
+   * Change the history of all pipelines below a folder at once, if present. The location
+   * changes of the single pipelines which follow find their history moved already. By default
+   * nothing is moved here.
+   *
+   * @param oldFullName the folder's old full name
+   * @param newFullName the folder's new full name
+   * @return whether the history has been moved, otherwise it is left to the single pipelines.
+   */
+  default boolean changeFolderHistoryLocation(String oldFullName, String newFullName) {
+    return false;
+  }
+
   /**
    * Returns an old revision.
    *
@@ -104,6 +119,76 @@ public interface PipelineItemHistoryDao {
   SortedMap<String, PipelineHistoryDescription> getRevisions(final WorkflowJob workflowJob)
       throws IOException;
 
+  /**
+   * For a given Pipeline Job, return what the history pages show about all revisions, read in
+   * a single pass.
+   *
+   * @param workflowJob the pipeline job
+   * @throws IOException if retrieving the history revisions fails on IO level.
+   * @return one row per revision, oldest first.
+   */
+  default List<PipelineHistoryRow> getRows(WorkflowJob workflowJob) throws IOException {
+    final List<PipelineHistoryRow> rows = new ArrayList<>();
+    PipelineHistoryDescription previous = null;
+    for (PipelineHistoryDescription description : getRevisions(workflowJob).values()) {
+      rows.add(PipelineHistoryRow.of(description, previous));
+      previous = description;
+    }
+    return rows;
+  }
+
+  /**
+   * Return what the history pages show about a single revision.
+   *
+   * @param workflowJob the pipeline job
+   * @param identifier the revision identifier
+   * @throws IOException if retrieving the history revisions fails on IO level.
+   * @return the row, or null if there is no such revision.
+   */
+  default PipelineHistoryRow getRow(WorkflowJob workflowJob, String identifier)
+      throws IOException {
+    if (identifier == null) {
+      return null;
+    }
+    final SortedMap<String, PipelineHistoryDescription> revisions = getRevisions(workflowJob);
+    final PipelineHistoryDescription description = revisions.get(identifier);
+    if (description == null) {
+      return null;
+    }
+    final SortedMap<String, PipelineHistoryDescription> earlier = revisions.headMap(identifier);
+    return PipelineHistoryRow.of(description,
+        earlier.isEmpty() ? null : earlier.get(earlier.lastKey()));
+  }
+
+  /**
+   * Return a page of the history rows, newest first.
+   *
+   * @param workflowJob the pipeline job
+   * @param before only return revisions older than this timestamp, or null to start with the
+   *     most recent revision. Usually the previous page's next cursor.
+   * @param pageSize the maximum number of rows.
+   * @throws IOException if retrieving the history revisions fails on IO level.
+   * @return the page.
+   */
+  default PipelineHistoryPage getPage(WorkflowJob workflowJob, String before, int pageSize)
+      throws IOException {
+    if (pageSize < 1) {
+      throw new IllegalArgumentException("pageSize must be positive: " + pageSize);
+    }
+    final SortedMap<String, PipelineHistoryDescription> revisions = getRevisions(workflowJob);
+    final List<PipelineHistoryDescription> descriptions = new ArrayList<>(
+        (before != null ? revisions.headMap(before) : revisions).values());
+    final int end = descriptions.size();
+    final int start = Math.max(0, end - pageSize);
+    final List<PipelineHistoryRow> rows = new ArrayList<>(end - start);
+    for (int i = end - 1; i >= start; i--) {
+      rows.add(PipelineHistoryRow.of(descriptions.get(i),
+          i > 0 ? descriptions.get(i - 1) : null));
+    }
+    return new PipelineHistoryPage(rows,
+        start > 0 ? descriptions.get(start).getTimestamp() : null);
+  }
+
   /**
    * Determines whether there are history entries present or not.
    *
@@ -0,0 +1,697 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2019, Robin Schulz
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkinsci.plugins.pipelineConfigHistory.view;
+
+import difflib.DiffRow;
+import hudson.Util;
+import jenkins.model.Jenkins;
+import jenkins.util.SystemProperties;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.apache.commons.io.FileUtils;
+import org.jenkinsci.plugins.pipelineConfigHistory.PipelineConfigHistoryConsts;
+import org.jenkinsci.plugins.pipelineConfigHistory.diff.Edit;
+
+/**
+ * Bounded cache of computed diffs.
+ *
+ * <p>Revisions never change once written, so the diff of a file between two revisions can be
+ * kept as long as there is room. The cache is weighed by the estimated memory of the diff lines
+ * and evicts the least recently used diffs first. Evicted diffs can be spilled to disk, below
+ * {@code JENKINS_HOME/pipeline-config-history/@diffcache}, and are read back from there instead
+ * of being computed again. Concurrent requests for the same diff compute it only once.
+ *
+ * <p>A diff is kept either as its rendered lines or, for {@link Key#edits()}, as its edits
+ * only. Approximate edits are not kept, they are computed with a budget shared by the other
+ * files of a request and might be exact next time.
+ *
+ * <p>Configured by system properties prefixed with this class's name: {@code .maxWeightBytes},
+ * {@code .spillToDisk} and {@code .maxSpillBytes}.
+ */
+public final class DiffCache {
+
+  private static final Logger LOG = Logger.getLogger(DiffCache.class.getName());
+
+  private static final String PROPERTY_PREFIX = DiffCache.class.getName();
+
+  /**
+   * Maximum estimated memory of the diffs kept in memory.
+   */
+  static final long MAX_WEIGHT_BYTES =
+      SystemProperties.getLong(PROPERTY_PREFIX + ".maxWeightBytes", 64L * 1024 * 1024);
+
+  /**
+   * Whether diffs evicted from memory are written to disk.
+   */
+  static final boolean SPILL_TO_DISK =
+      SystemProperties.getBoolean(PROPERTY_PREFIX + ".spillToDisk", false);
+
+  /**
+   * Maximum size of the diffs kept on disk.
+   */
+  static final long MAX_SPILL_BYTES =
+      SystemProperties.getLong(PROPERTY_PREFIX + ".maxSpillBytes", 256L * 1024 * 1024);
+
+  private static final int SPILL_FORMAT_VERSION = 4;
+
+  private static DiffCache instance;
+
+  private final long maxWeight;
+
+  private final File spillDir;
+
+  private final long maxSpillBytes;
+
+  /**
+   * The diffs in memory, least recently used first.
+   */
+  private final LinkedHashMap<Key, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+  private long weight;
+
+  /**
+   * The diffs on disk with their file sizes, oldest first.
+   */
+  private final LinkedHashMap<Key, Long> spilled = new LinkedHashMap<>();
+
+  private long spilledBytes;
+
+  private final ConcurrentMap<Key, FutureTask<Diff>> inFlight =
+      new ConcurrentHashMap<>();
+
+  private final AtomicLong hitCount = new AtomicLong();
+  private final AtomicLong spillHitCount = new AtomicLong();
+  private final AtomicLong missCount = new AtomicLong();
+
+  /**
+   * Get a cache.
+   *
+   * @param maxWeight     the maximum estimated memory of the diffs in memory.
+   * @param spillDir      the directory to spill evicted diffs to, null to drop them. Anything
+   *                      in there is deleted.
+   * @param maxSpillBytes the maximum size of the diffs on disk.
+   */
+  DiffCache(long maxWeight, File spillDir, long maxSpillBytes) {
+    this.maxWeight = maxWeight;
+    this.spillDir = spillDir;
+    this.maxSpillBytes = maxSpillBytes;
+    if (spillDir != null) {
+      // left over from the last run, not tracked.
+      try {
+        FileUtils.deleteDirectory(spillDir);
+      } catch (IOException e) {
+        LOG.log(Level.WARNING, "Could not clear diff cache directory {0}: {1}",
+            new Object[]{spillDir, e.getMessage()});
+      }
+    }
+  }
+
+  /**
+   * Get the cache of the running Jenkins instance.
+   *
+   * @return the diff cache.
+   */
+  public static synchronized DiffCache get() {
+    if (instance == null) {
+      instance = new DiffCache(MAX_WEIGHT_BYTES,
+          SPILL_TO_DISK
+              ? new File(new File(Jenkins.get().getRootDir(),
+                  PipelineConfigHistoryConsts.DEFAULT_HISTORY_DIR),
+                  PipelineConfigHistoryConsts.DIFF_CACHE_DIR)
+              : null,
+          MAX_SPILL_BYTES);
+    }
+    return instance;
+  }
+
+  /**
+   * Get a diff, computing it if it's neither in memory nor on disk.
+   * The returned lines are shared and must not be modified.
+   *
+   * @param key     the diff's key.
+   * @param compute computes the diff.
+   * @return the diff lines.
+   */
+  public List<SideBySideView.Line> get(Key key, Supplier<List<SideBySideView.Line>> compute) {
+    return getDiff(key, () -> new Diff(compute.get(), false)).getLines();
+  }
+
+  /**
+   * Get a diff, computing it if it's neither in memory nor on disk.
+   * The returned lines are shared and must not be modified.
+   *
+   * @param key     the diff's key.
+   * @param compute computes the diff.
+   * @return the diff.
+   */
+  public Diff getDiff(Key key, Supplier<Diff> compute) {
+    synchronized (this) {
+      final Entry entry = entries.get(key);
+      if (entry != null) {
+        hitCount.incrementAndGet();
+        return entry.diff;
+      }
+    }
+
+    final FutureTask<Diff> task = new FutureTask<>(() -> load(key, compute));
+    FutureTask<Diff> running = inFlight.putIfAbsent(key, task);
+    if (running == null) {
+      running = task;
+      try {
+        task.run();
+      } finally {
+        inFlight.remove(key, task);
+      }
+    }
+    try {
+      return running.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return compute.get();
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) e.getCause();
+      }
+      throw new IllegalStateException(e.getCause());
+    }
+  }
+
+  private Diff load(Key key, Supplier<Diff> compute) {
+    Diff diff = readSpilled(key);
+    if (diff != null) {
+      spillHitCount.incrementAndGet();
+    } else {
+      missCount.incrementAndGet();
+      final Diff computed = compute.get();
+      diff = new Diff(Collections.unmodifiableList(new ArrayList<>(computed.getLines())),
+          computed.getSingleLineViewLines() == null ? null
+              : Collections.unmodifiableList(new ArrayList<>(computed.getSingleLineViewLines())),
+          computed.getEdits() == null
+              ? null : Collections.unmodifiableList(new ArrayList<>(computed.getEdits())),
+          computed.isApproximate());
+      if (diff.getEdits() != null && diff.isApproximate()) {
+        return diff;
+      }
+    }
+    put(key, diff);
+    return diff;
+  }
+
+  private void put(Key key, Diff diff) {
+    final long entryWeight = weigh(diff.getLines())
+        + (diff.getSingleLineViewLines() == null ? 0 : weighSingle(diff.getSingleLineViewLines()))
+        + (diff.getEdits() == null ? 0 : 64 + 32L * diff.getEdits().size());
+    final Map<Key, Diff> evicted = new LinkedHashMap<>();
+    synchronized (this) {
+      if (entryWeight > maxWeight) {
+        evicted.put(key, diff);
+      } else {
+        final Entry previous = entries.put(key, new Entry(diff, entryWeight));
+        weight += entryWeight - (previous == null ? 0 : previous.weight);
+        final Iterator<Map.Entry<Key, Entry>> eldest = entries.entrySet().iterator();
+        while (weight > maxWeight && eldest.hasNext()) {
+          final Map.Entry<Key, Entry> entry = eldest.next();
+          eldest.remove();
+          weight -= entry.getValue().weight;
+          evicted.put(entry.getKey(), entry.getValue().diff);
+        }
+      }
+    }
+    if (spillDir != null) {
+      evicted.forEach(this::spill);
+    }
+  }
+
+  /**
+   * Remove all diffs from memory and disk.
+   */
+  public void clear() {
+    synchronized (this) {
+      entries.clear();
+      weight = 0;
+      spilled.clear();
+      spilledBytes = 0;
+    }
+    if (spillDir != null) {
+      try {
+        FileUtils.deleteDirectory(spillDir);
+      } catch (IOException e) {
+        LOG.log(Level.WARNING, "Could not clear diff cache directory {0}: {1}",
+            new Object[]{spillDir, e.getMessage()});
+      }
+    }
+  }
+
+  /**
+   * Estimate the memory used by diff lines.
+   *
+   * @param lines the lines.
+   * @return the estimated size in bytes.
+   */
+  static long weigh(List<SideBySideView.Line> lines) {
+    // the list, per line the line, two items, two strings and two line numbers.
+    long lineWeight = 64 + 8L * lines.size();
+    for (SideBySideView.Line line : lines) {
+      lineWeight += 224 + 2L * (length(line.getLeft().getText()) + length(line.getRight().getText()));
+    }
+    return lineWeight;
+  }
+
+  /**
+   * Estimate the memory used by single line view lines.
+   *
+   * @param lines the lines.
+   * @return the estimated size in bytes.
+   */
+  static long weighSingle(List<SingleLineView.Line> lines) {
+    // the list, per line the line, its css class and three strings, the class is shared.
+    long lineWeight = 64 + 8L * lines.size();
+    for (SingleLineView.Line line : lines) {
+      lineWeight += 224 + 2L * length(line.getContent());
+    }
+    return lineWeight;
+  }
+
+  private static int length(String text) {
+    return text == null ? 0 : text.length();
+  }
+
+  private File getSpillFile(Key key) {
+    return new File(spillDir, Util.getDigestOf(key.toString()) + ".diff");
+  }
+
+  private void spill(Key key, Diff diff) {
+    final List<SideBySideView.Line> lines = diff.getLines();
+    final File spillFile = getSpillFile(key);
+    final File tmp = new File(spillDir, spillFile.getName() + "." + UUID.randomUUID() + ".tmp");
+    try {
+      Files.createDirectories(spillDir.toPath());
+      try (DataOutputStream out = new DataOutputStream(
+          new BufferedOutputStream(Files.newOutputStream(tmp.toPath())))) {
+        out.writeInt(SPILL_FORMAT_VERSION);
+        writeString(out, key.toString());
+        out.writeBoolean(diff.isApproximate());
+        out.writeBoolean(diff.getEdits() != null);
+        if (diff.getEdits() != null) {
+          out.writeInt(diff.getEdits().size());
+          for (Edit edit : diff.getEdits()) {
+            out.writeInt(edit.getBeginA());
+            out.writeInt(edit.getEndA());
+            out.writeInt(edit.getBeginB());
+            out.writeInt(edit.getEndB());
+          }
+        }
+        out.writeInt(lines.size());
+        for (SideBySideView.Line line : lines) {
+          out.writeBoolean(line.isSkipping());
+          out.writeByte(line.getTag() == null ? -1 : line.getTag().ordinal());
+          writeItem(out, line.getLeft());
+          writeItem(out, line.getRight());
+        }
+        final List<SingleLineView.Line> singleLines = diff.getSingleLineViewLines();
+        out.writeInt(singleLines == null ? -1 : singleLines.size());
+        if (singleLines != null) {
+          for (SingleLineView.Line line : singleLines) {
+            out.writeByte(line.getKind().ordinal());
+            writeString(out, line.getContent());
+            writeString(out, line.getLineNumLeft());
+            writeString(out, line.getLineNumRight());
+          }
+        }
+      }
+      Files.move(tmp.toPath(), spillFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    } catch (IOException e) {
+      LOG.log(Level.FINE, "Could not spill diff {0}: {1}", new Object[]{key, e.getMessage()});
+      FileUtils.deleteQuietly(tmp);
+      return;
+    }
+
+    final List<Key> dropped = new ArrayList<>();
+    synchronized (this) {
+      final Long previous = spilled.put(key, spillFile.length());
+      spilledBytes += spillFile.length() - (previous == null ? 0 : previous);
+      final Iterator<Map.Entry<Key, Long>> oldest = spilled.entrySet().iterator();
+      while (spilledBytes > maxSpillBytes && oldest.hasNext()) {
+        final Map.Entry<Key, Long> entry = oldest.next();
+        oldest.remove();
+        spilledBytes -= entry.getValue();
+        dropped.add(entry.getKey());
+      }
+    }
+    for (Key droppedKey : dropped) {
+      FileUtils.deleteQuietly(getSpillFile(droppedKey));
+    }
+  }
+
+  private Diff readSpilled(Key key) {
+    if (spillDir == null) {
+      return null;
+    }
+    synchronized (this) {
+      final Long size = spilled.remove(key);
+      if (size == null) {
+        return null;
+      }
+      spilledBytes -= size;
+    }
+    final File spillFile = getSpillFile(key);
+    try (DataInputStream in = new DataInputStream(
+        new BufferedInputStream(Files.newInputStream(spillFile.toPath())))) {
+      if (in.readInt() != SPILL_FORMAT_VERSION || !key.toString().equals(readString(in))) {
+        return null;
+      }
+      final boolean approximate = in.readBoolean();
+      List<Edit> edits = null;
+      if (in.readBoolean()) {
+        final int count = in.readInt();
+        edits = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+          edits.add(new Edit(in.readInt(), in.readInt(), in.readInt(), in.readInt()));
+        }
+        edits = Collections.unmodifiableList(edits);
+      }
+      final int size = in.readInt();
+      final List<SideBySideView.Line> lines = new ArrayList<>(size);
+      for (int i = 0; i < size; i++) {
+        final SideBySideView.Line line = new SideBySideView.Line();
+        line.setSkipping(in.readBoolean());
+        final byte tag = in.readByte();
+        line.setTag(tag == -1 ? null : DiffRow.Tag.values()[tag]);
+        readItem(in, line.getLeft());
+        readItem(in, line.getRight());
+        lines.add(line);
+      }
+      final int singleSize = in.readInt();
+      List<SingleLineView.Line> singleLines = null;
+      if (singleSize != -1) {
+        singleLines = new ArrayList<>(singleSize);
+        for (int i = 0; i < singleSize; i++) {
+          final SingleLineView.Line.Kind kind = SingleLineView.Line.Kind.values()[in.readByte()];
+          singleLines.add(
+              new SingleLineView.Line(kind, readString(in), readString(in), readString(in)));
+        }
+        singleLines = Collections.unmodifiableList(singleLines);
+      }
+      return new Diff(Collections.unmodifiableList(lines), singleLines, edits, approximate);
+    } catch (IOException | RuntimeException e) {
+      LOG.log(Level.FINE, "Could not read spilled diff {0}: {1}",
+          new Object[]{key, e.getMessage()});
+      return null;
+    } finally {
+      FileUtils.deleteQuietly(spillFile);
+    }
+  }
+
+  private static void writeItem(DataOutputStream out, SideBySideView.Line.Item item)
+      throws IOException {
+    final String lineNumber = item.getLineNumber();
+    out.writeInt(lineNumber.isEmpty() ? -1 : Integer.parseInt(lineNumber));
+    writeString(out, item.getText());
+    writeString(out, item.getCssClass());
+  }
+
+  private static void readItem(DataInputStream in, SideBySideView.Line.Item item)
+      throws IOException {
+    final int lineNumber = in.readInt();
+    item.setLineNumber(lineNumber == -1 ? null : lineNumber);
+    item.setText(readString(in));
+    item.setCssClass(readString(in));
+  }
+
+  private static void writeString(DataOutputStream out, String string) throws IOException {
+    if (string == null) {
+      out.writeInt(-1);
+    } else {
+      final byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+      out.writeInt(bytes.length);
+      out.write(bytes);
+    }
+  }
+
+  private static String readString(DataInputStream in) throws IOException {
+    final int length = in.readInt();
+    if (length == -1) {
+      return null;
+    }
+    final byte[] bytes = new byte[length];
+    in.readFully(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Get the number of diffs found in memory.
+   *
+   * @return the number of hits.
+   */
+  public long getHitCount() {
+    return hitCount.get();
+  }
+
+  /**
+   * Get the number of diffs read back from disk.
+   *
+   * @return the number of hits on disk.
+   */
+  public long getSpillHitCount() {
+    return spillHitCount.get();
+  }
+
+  /**
+   * Get the number of diffs which had to be computed.
+   *
+   * @return the number of misses.
+   */
+  public long getMissCount() {
+    return missCount.get();
+  }
+
+  /**
+   * Get the estimated memory of the diffs in memory.
+   *
+   * @return the weight in bytes.
+   */
+  public synchronized long getWeight() {
+    return weight;
+  }
+
+  private static final class Entry {
+
+    private final Diff diff;
+
+    private final long weight;
+
+    Entry(Diff diff, long weight) {
+      this.diff = diff;
+      this.weight = weight;
+    }
+  }
+
+  /**
+   * The lines or the edits of a diff, and whether it is a coarse one.
+   */
+  public static final class Diff {
+
+    private final List<SideBySideView.Line> lines;
+
+    private final List<SingleLineView.Line> singleLineViewLines;
+
+    private final List<Edit> edits;
+
+    private final boolean approximate;
+
+    /**
+     * Get a diff.
+     *
+     * @param lines       the diff lines.
+     * @param approximate whether the files were too large to be diffed exactly.
+     */
+    public Diff(List<SideBySideView.Line> lines, boolean approximate) {
+      this(lines, null, null, approximate);
+    }
+
+    /**
+     * Get a diff along with its single line view.
+     *
+     * @param lines               the diff lines.
+     * @param singleLineViewLines the single line view lines of the same diff.
+     * @param approximate         whether the files were too large to be diffed exactly.
+     */
+    public Diff(List<SideBySideView.Line> lines, List<SingleLineView.Line> singleLineViewLines,
+                boolean approximate) {
+      this(lines, singleLineViewLines, null, approximate);
+    }
+
+    private Diff(List<SideBySideView.Line> lines, List<SingleLineView.Line> singleLineViewLines,
+                 List<Edit> edits, boolean approximate) {
+      this.lines = lines;
+      this.singleLineViewLines = singleLineViewLines;
+      this.edits = edits;
+      this.approximate = approximate;
+    }
+
+    /**
+     * Get a diff consisting of its edits only.
+     *
+     * @param edits       the edits.
+     * @param approximate whether the files were too large to be diffed exactly.
+     * @return the diff.
+     */
+    public static Diff ofEdits(List<Edit> edits, boolean approximate) {
+      return new Diff(Collections.emptyList(), null, edits, approximate);
+    }
+
+    public List<SideBySideView.Line> getLines() {
+      return lines;
+    }
+
+    /**
+     * Get the single line view lines, if they were built along with the diff lines.
+     *
+     * @return the lines, null if the diff has none.
+     */
+    public List<SingleLineView.Line> getSingleLineViewLines() {
+      return singleLineViewLines;
+    }
+
+    /**
+     * Get the edits of a diff created by {@link #ofEdits(List, boolean)}.
+     *
+     * @return the edits, null for a diff of lines.
+     */
+    public List<Edit> getEdits() {
+      return edits;
+    }
+
+    /**
+     * Whether the diff might show more changed lines than there are, because the files were
+     * too large to be diffed within the configured budget.
+     *
+     * @return true if the diff is approximate.
+     */
+    public boolean isApproximate() {
+      return approximate;
+    }
+  }
+
+  /**
+   * Identifies the diff of a file between two revisions of a job.
+   */
+  public static final class Key {
+
+    private final String jobFullName;
+
+    private final String timestamp1;
+
+    private final String timestamp2;
+
+    private final String path;
+
+    private final boolean scriptOnly;
+
+    private final boolean editsOnly;
+
+    /**
+     * Get a key.
+     *
+     * @param jobFullName the job's full name.
+     * @param timestamp1  the first revision's timestamp.
+     * @param timestamp2  the second revision's timestamp.
+     * @param path        the file's path relative to the revisions.
+     * @param scriptOnly  whether only the script of a build.xml is diffed.
+     */
+    public Key(String jobFullName, String timestamp1, String timestamp2, String path,
+               boolean scriptOnly) {
+      this(jobFullName, timestamp1, timestamp2, path, scriptOnly, false);
+    }
+
+    private Key(String jobFullName, String timestamp1, String timestamp2, String path,
+                boolean scriptOnly, boolean editsOnly) {
+      this.jobFullName = jobFullName;
+      this.timestamp1 = timestamp1;
+      this.timestamp2 = timestamp2;
+      this.path = path;
+      this.scriptOnly = scriptOnly;
+      this.editsOnly = editsOnly;
+    }
+
+    /**
+     * Get the key of the same diff's edits only.
+     *
+     * @return the key.
+     */
+    public Key edits() {
+      return new Key(jobFullName, timestamp1, timestamp2, path, scriptOnly, true);
+    }
+
+    @Override
+    public boolean equals(Object other) {
+      if (!(other instanceof Key)) {
+        return false;
+      }
+      final Key key = (Key) other;
+      return scriptOnly == key.scriptOnly
+          && editsOnly == key.editsOnly
+          && jobFullName.equals(key.jobFullName)
+          && timestamp1.equals(key.timestamp1)
+          && timestamp2.equals(key.timestamp2)
+          && path.equals(key.path);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(jobFullName, timestamp1, timestamp2, path, scriptOnly, editsOnly);
+    }
+
+    @Override
+    public String toString() {
+      return jobFullName + "@" + timestamp1 + ".." + timestamp2 + ":" + path
+          + (scriptOnly ? "#script" : "") + (editsOnly ? "#edits" : "");
+    }
+  }
+}
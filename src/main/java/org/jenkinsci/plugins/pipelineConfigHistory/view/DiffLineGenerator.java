@@ -23,15 +23,10 @@
  */
 package org.jenkinsci.plugins.pipelineConfigHistory.view;
 
-import difflib.DiffRow;
-import difflib.DiffUtils;
-import difflib.Patch;
-import difflib.StringUtills;
-
-import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
-import java.util.stream.Collectors;
+
+import org.jenkinsci.plugins.pipelineConfigHistory.diff.LineDiff;
 
 public class DiffLineGenerator {
 
@@ -39,6 +34,10 @@ public class DiffLineGenerator {
 
   private String file2Content;
 
+  private boolean approximate;
+
+  private List<SingleLineView.Line> singleLineViewLines = Collections.emptyList();
+
   public DiffLineGenerator(String file1Content, String file2Content) {
     this.file1Content = file1Content;
     this.file2Content = file2Content;
@@ -49,48 +48,38 @@ public class DiffLineGenerator {
    * @return the lines representing the diff
    */
   public List<SideBySideView.Line> getLines() {
-    List<String> stringDiffLines =
-        Arrays.asList(getDiffAsString(
-            preProcessFileString(this.file1Content),
-            preProcessFileString(this.file2Content))
-            .split("\\n"));
+    List<String> file1Lines = LineDiff.splitLines(this.file1Content);
+    List<String> file2Lines = LineDiff.splitLines(this.file2Content);
 
-    List<SideBySideView.Line> lines = new GetDiffLines(stringDiffLines).get();
+    LineDiff diff = LineDiff.compute(file1Lines, file2Lines);
+    this.approximate = diff.isApproximate();
+    GetDiffLines getDiffLines = new GetDiffLines(file1Lines, file2Lines, diff.getPatch());
+    List<SideBySideView.Line> lines = getDiffLines.get();
 
-    //if one file is empty, all lines must be either INSERT or DELETE, depending on which file is empty
-    //this is necessary because GetDiffLines always sneaks in a ghost line in these cases.
-    if (file1Content.isEmpty() || file2Content.isEmpty()) {
-      lines.stream().forEach(line -> {
-        if (line.isEqual()) {
-          line.setTag(file1Content.isEmpty() ? DiffRow.Tag.INSERT : DiffRow.Tag.DELETE);
-        }
-      });
+    if (lines.stream().anyMatch(line -> !line.isEmpty())) {
+      this.singleLineViewLines = getDiffLines.getSingleLineViewLines();
+      return lines;
     }
-
-    return (lines.stream().anyMatch(line -> !line.isEmpty())) ? lines : Collections.emptyList();
+    this.singleLineViewLines = Collections.emptyList();
+    return Collections.emptyList();
   }
 
-  private final String getDiffAsString(String file1Str, String file2Str) {
-
-    List<String> file1Lines = Arrays.asList(file1Str.split("\n"));
-    List<String> file2Lines = Arrays.asList(file2Str.split("\n"));
-
-    Patch patch = DiffUtils.diff(file1Lines, file2Lines);
-
-    final List<String> unifiedDiff = DiffUtils.generateUnifiedDiff("", "",
-        file1Lines, patch, 3);
-
-    return StringUtills.join(unifiedDiff, "\n") + "\n";
+  /**
+   * The @link{SingleLineView} representation of the last calculated diff, built along with the
+   * lines returned by @link{#getLines()}.
+   * @return the lines representing the diff
+   */
+  public List<SingleLineView.Line> getSingleLineViewLines() {
+    return singleLineViewLines;
   }
 
   /**
-   * Replaces empty lines with " ".
-   * This is needed because DiffUtils can't tell empty lines from non-existing ones.
-   * @param fileString the file as a string
-   * @return the preprocessed file string
+   * Whether the last calculated diff is a coarse one, because the files were too large to be
+   * diffed within the configured budget.
+   * @return true if the diff might show more changed lines than there are.
    */
-  private String preProcessFileString(String fileString) {
-    return fileString.replaceAll("\\n\\n", "\n \n");
+  public boolean isApproximate() {
+    return approximate;
   }
 
 }
@@ -0,0 +1,275 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2019, Robin Schulz
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkinsci.plugins.pipelineConfigHistory.view;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import org.jenkinsci.plugins.pipelineConfigHistory.diff.Edit;
+import org.jenkinsci.plugins.pipelineConfigHistory.diff.LineDiff;
+
+/**
+ * Writes the diff of two revisions as newline delimited JSON, one record per line, flushing
+ * after every hunk so that the client can render it while the remaining files are diffed.
+ *
+ * <p>The records are:
+ * <ul>
+ *   <li>{@code {"type":"file","path":...,"name":...,"kind":...,"approximate":...}} for every
+ *   file, followed by its hunks,</li>
+ *   <li>{@code {"type":"hunk","oldStart":...,"oldLines":...,"newStart":...,"newLines":...,
+ *   "lines":[[op,text],...]}} with op being one of " ", "-" and "+",</li>
+ *   <li>{@code {"type":"end","files":...}} once everything has been written.</li>
+ * </ul>
+ *
+ * <p>The lines of both files are read once, in order, while walking the edits. Only the lines of
+ * the hunk currently written are held, so the files can be read lazily, e.g. when the edits
+ * come from the diff cache.
+ */
+public class DiffStreamWriter {
+
+  private final Writer writer;
+
+  private final int context;
+
+  private int files;
+
+  /**
+   * Get a new writer.
+   *
+   * @param writer  the writer, usually the response's.
+   * @param context the number of unchanged lines around each change.
+   */
+  public DiffStreamWriter(Writer writer, int context) {
+    this.writer = writer;
+    this.context = Math.max(0, context);
+  }
+
+  /**
+   * Write a file which is equal in both revisions, or only present in one of them, without
+   * hunks.
+   *
+   * @param path the file's path relative to the revision.
+   * @param name the name to display.
+   * @param kind the match kind.
+   * @throws IOException if writing fails, e.g. because the client went away.
+   */
+  public void writeFile(String path, String name, Match.Kind kind) throws IOException {
+    writeFileRecord(path, name, kind, false);
+    writer.flush();
+  }
+
+  /**
+   * Write a file and the hunks of its diff.
+   *
+   * @param path     the file's path relative to the revision.
+   * @param name     the name to display.
+   * @param kind     the match kind.
+   * @param original the lines of the file in the older revision.
+   * @param revised  the lines of the file in the newer revision.
+   * @param diff     the diff of both.
+   * @throws IOException if writing fails, e.g. because the client went away.
+   */
+  public void writeFile(String path, String name, Match.Kind kind, List<String> original,
+                        List<String> revised, LineDiff diff) throws IOException {
+    writeFile(path, name, kind, original.iterator(), revised.iterator(), diff.getEdits(),
+        diff.isApproximate());
+  }
+
+  /**
+   * Write a file and the hunks of its diff, reading the lines of both files as needed.
+   *
+   * @param path        the file's path relative to the revision.
+   * @param name        the name to display.
+   * @param kind        the match kind.
+   * @param original    the lines of the file in the older revision.
+   * @param revised     the lines of the file in the newer revision.
+   * @param edits       the edits of the diff of both.
+   * @param approximate whether the diff is a coarse one.
+   * @throws IOException if writing fails, e.g. because the client went away.
+   */
+  public void writeFile(String path, String name, Match.Kind kind, Iterator<String> original,
+                        Iterator<String> revised, List<Edit> edits, boolean approximate)
+      throws IOException {
+    writeFileRecord(path, name, kind, approximate);
+    final Cursor originalCursor = new Cursor(original);
+    final Cursor revisedCursor = new Cursor(revised);
+    int first = 0;
+    while (first < edits.size()) {
+      // join changes whose context would overlap into a single hunk.
+      int last = first;
+      while (last + 1 < edits.size()
+          && edits.get(last + 1).getBeginA() - edits.get(last).getEndA() <= 2 * context) {
+        last++;
+      }
+      writeHunk(edits.subList(first, last + 1), originalCursor, revisedCursor);
+      first = last + 1;
+    }
+    writer.flush();
+  }
+
+  /**
+   * Write the closing record.
+   *
+   * @throws IOException if writing fails.
+   */
+  public void writeEnd() throws IOException {
+    writer.write("{\"type\":\"end\",\"files\":" + files + "}\n");
+    writer.flush();
+  }
+
+  private void writeFileRecord(String path, String name, Match.Kind kind, boolean approximate)
+      throws IOException {
+    files++;
+    writer.write("{\"type\":\"file\",\"path\":");
+    writeString(path);
+    writer.write(",\"name\":");
+    writeString(name);
+    writer.write(",\"kind\":\"" + kind + "\",\"approximate\":" + approximate + "}\n");
+  }
+
+  private void writeHunk(List<Edit> edits, Cursor original, Cursor revised)
+      throws IOException {
+    final Edit firstEdit = edits.get(0);
+    final int leading = Math.min(context, Math.min(firstEdit.getBeginA(), firstEdit.getBeginB()));
+    final int beginA = firstEdit.getBeginA() - leading;
+    final int beginB = firstEdit.getBeginB() - leading;
+
+    // the trailing context is only known once read, so the hunk's lines are collected first.
+    final StringBuilder ops = new StringBuilder();
+    final List<String> lines = new ArrayList<>();
+    original.skipTo(beginA);
+    for (Edit edit : edits) {
+      while (original.getPosition() < edit.getBeginA()) {
+        ops.append(' ');
+        lines.add(original.next());
+      }
+      while (original.getPosition() < edit.getEndA()) {
+        ops.append('-');
+        lines.add(original.next());
+      }
+      revised.skipTo(edit.getBeginB());
+      while (revised.getPosition() < edit.getEndB()) {
+        ops.append('+');
+        lines.add(revised.next());
+      }
+    }
+    final int endA = original.getPosition() + context;
+    while (original.getPosition() < endA && original.hasNext()) {
+      ops.append(' ');
+      lines.add(original.next());
+    }
+    final int trailing = original.getPosition() - edits.get(edits.size() - 1).getEndA();
+    final int endB = edits.get(edits.size() - 1).getEndB() + trailing;
+
+    writer.write("{\"type\":\"hunk\",\"oldStart\":" + (beginA + 1)
+        + ",\"oldLines\":" + (original.getPosition() - beginA)
+        + ",\"newStart\":" + (beginB + 1)
+        + ",\"newLines\":" + (endB - beginB)
+        + ",\"lines\":[");
+    for (int i = 0; i < lines.size(); i++) {
+      if (i > 0) {
+        writer.write(',');
+      }
+      writer.write("[\"");
+      writer.write(ops.charAt(i));
+      writer.write("\",");
+      writeString(lines.get(i));
+      writer.write(']');
+    }
+    writer.write("]}\n");
+    writer.flush();
+  }
+
+  private void writeString(String value) throws IOException {
+    if (value == null) {
+      writer.write("null");
+      return;
+    }
+    writer.write('"');
+    for (int i = 0; i < value.length(); i++) {
+      final char c = value.charAt(i);
+      switch (c) {
+        case '"':
+          writer.write("\\\"");
+          break;
+        case '\\':
+          writer.write("\\\\");
+          break;
+        case '\n':
+          writer.write("\\n");
+          break;
+        case '\r':
+          writer.write("\\r");
+          break;
+        case '\t':
+          writer.write("\\t");
+          break;
+        default:
+          if (c < 0x20 || c == '\u2028' || c == '\u2029') {
+            writer.write(String.format("\\u%04x", (int) c));
+          } else {
+            writer.write(c);
+          }
+          break;
+      }
+    }
+    writer.write('"');
+  }
+
+  /**
+   * Reads the lines of a file in order, keeping track of the position.
+   */
+  private static final class Cursor {
+
+    private final Iterator<String> lines;
+
+    private int position;
+
+    Cursor(Iterator<String> lines) {
+      this.lines = lines;
+    }
+
+    int getPosition() {
+      return position;
+    }
+
+    boolean hasNext() {
+      return lines.hasNext();
+    }
+
+    String next() {
+      position++;
+      return lines.next();
+    }
+
+    void skipTo(int target) {
+      while (position < target) {
+        next();
+      }
+    }
+  }
+}
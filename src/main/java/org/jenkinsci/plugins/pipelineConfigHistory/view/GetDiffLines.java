@@ -23,13 +23,16 @@
  */
 package org.jenkinsci.plugins.pipelineConfigHistory.view;
 
+import difflib.ChangeDelta;
 import difflib.Chunk;
 import difflib.Delta;
 import difflib.DiffRow;
 import difflib.DiffRowGenerator;
 import difflib.DiffUtils;
 import difflib.Patch;
+import difflib.StringUtills;
 
+import java.util.ArrayList;
 import java.util.List;
 
 import org.apache.commons.lang.StringUtils;
@@ -43,9 +46,26 @@ import org.apache.commons.lang.StringUtils;
 public class GetDiffLines {
 
   /**
-   * Lines.
+   * Lines of context shown around each change.
+   */
+  private static final int CONTEXT_SIZE = 3;
+
+  /**
+   * Lines of a unified diff, if the view is built by parsing one.
    */
   private final List<String> diffLines;
+  /**
+   * Lines of the original file, if the view is built from a computed patch.
+   */
+  private final List<String> original;
+  /**
+   * Lines of the revised file, if the view is built from a computed patch.
+   */
+  private final List<String> revised;
+  /**
+   * The computed patch between original and revised.
+   */
+  private final Patch patch;
   /**
    * View.
    */
@@ -54,6 +74,10 @@ public class GetDiffLines {
    * Generator for diff rows.
    */
   private final DiffRowGenerator dfg;
+  /**
+   * Lines of the single line view, built along with the side-by-side lines of a computed patch.
+   */
+  private List<SingleLineView.Line> singleLineViewLines;
 
   /**
    * CSS Class for new-line inline diffs.
@@ -71,14 +95,38 @@ public class GetDiffLines {
    * @param diffLines to construct the {@link SideBySideView} for.
    */
   public GetDiffLines(List<String> diffLines) {
-    this.dfg = new DiffRowGenerator.Builder()
+    this.dfg = createDiffRowGenerator();
+    this.diffLines = diffLines;
+    this.original = null;
+    this.revised = null;
+    this.patch = null;
+    this.view = new SideBySideView();
+  }
+
+  /**
+   * Constructor for a patch which has been computed already, the view is built directly from
+   * its deltas without going through unified diff text.
+   *
+   * @param original the lines of the original file.
+   * @param revised  the lines of the revised file.
+   * @param patch    the patch between original and revised.
+   */
+  public GetDiffLines(List<String> original, List<String> revised, Patch patch) {
+    this.dfg = createDiffRowGenerator();
+    this.diffLines = null;
+    this.original = original;
+    this.revised = revised;
+    this.patch = patch;
+    this.view = new SideBySideView();
+  }
+
+  private static DiffRowGenerator createDiffRowGenerator() {
+    return new DiffRowGenerator.Builder()
         .showInlineDiffs(true)
         .InlineNewCssClass(INLINE_NEW_CSS_CLASS)
         .InlineOldCssClass(INLINE_OLD_CSS_CLASS)
         .columnWidth(Integer.MAX_VALUE)
         .build();
-    this.diffLines = diffLines;
-    this.view = new SideBySideView();
   }
 
   /**
@@ -87,6 +135,12 @@ public class GetDiffLines {
    * @return list of {@link SideBySideView} lines.
    */
   public List<SideBySideView.Line> get() {
+    if (patch != null) {
+      final HunkLoop hunkLoop = new HunkLoop(view, dfg, original, revised);
+      final List<SideBySideView.Line> lines = hunkLoop.loop(patch.getDeltas());
+      singleLineViewLines = hunkLoop.getSingleLineViewLines();
+      return lines;
+    }
     final Patch diff = DiffUtils.parseUnifiedDiff(diffLines);
     int previousLeftPos = 0;
     for (final Delta delta : diff.getDeltas()) {
@@ -96,6 +150,17 @@ public class GetDiffLines {
     return view.getLines();
   }
 
+  /**
+   * Returns the lines of the {@link SingleLineView}, which {@link #get()} builds along with the
+   * side-by-side lines of a computed patch.
+   *
+   * @return list of {@link SingleLineView} lines, null if {@link #get()} hasn't been called or
+   *     the view was built from a unified diff.
+   */
+  public List<SingleLineView.Line> getSingleLineViewLines() {
+    return singleLineViewLines;
+  }
+
   /**
    * DeltaLoop.
    */
@@ -227,6 +292,173 @@ public class GetDiffLines {
 
   }
 
+  /**
+   * Builds the view from the deltas of a computed patch. Deltas are grouped into hunks with
+   * {@value #CONTEXT_SIZE} lines of context just like a unified diff, but each line is taken
+   * from the original line lists, so nothing is serialized, parsed or diffed a second time.
+   * The lines of the single line view are built in the same pass, with the deleted lines of a
+   * change ahead of its inserted ones.
+   */
+  static class HunkLoop {
+
+    private static final String DIFF_ORIGINAL = "diff_original";
+    private static final String DIFF_REVISED = "diff_revised";
+
+    private final SideBySideView view;
+    private final DiffRowGenerator dfg;
+    private final List<String> original;
+    private final List<String> revised;
+    private final List<SingleLineView.Line> singleLineViewLines = new ArrayList<>();
+
+    /**
+     * Next line of the original file, 0-origin.
+     */
+    private int leftPos;
+    /**
+     * Next line of the revised file, 0-origin.
+     */
+    private int rightPos;
+
+    HunkLoop(SideBySideView view, DiffRowGenerator dfg,
+             List<String> original, List<String> revised) {
+      this.view = view;
+      this.dfg = dfg;
+      this.original = original;
+      this.revised = revised;
+    }
+
+    List<SideBySideView.Line> loop(List<Delta> deltas) {
+      int first = 0;
+      while (first < deltas.size()) {
+        int last = first;
+        while (last + 1 < deltas.size()
+            && isInSameHunk(deltas.get(last), deltas.get(last + 1))) {
+          last++;
+        }
+        addHunk(deltas.subList(first, last + 1));
+        first = last + 1;
+      }
+      return view.getLines();
+    }
+
+    List<SingleLineView.Line> getSingleLineViewLines() {
+      return singleLineViewLines;
+    }
+
+    private static boolean isInSameHunk(Delta delta, Delta next) {
+      final Chunk original = delta.getOriginal();
+      return original.getPosition() + original.size() + CONTEXT_SIZE
+          >= next.getOriginal().getPosition() - CONTEXT_SIZE;
+    }
+
+    private void addHunk(List<Delta> hunk) {
+      final Delta firstDelta = hunk.get(0);
+      final int hunkStart = Math.max(0, firstDelta.getOriginal().getPosition() - CONTEXT_SIZE);
+      // like the unified diff view, mark gaps of more than a single line.
+      if (!view.getLines().isEmpty() && hunkStart - leftPos > 1) {
+        final SideBySideView.Line skippingLine = new SideBySideView.Line();
+        skippingLine.setSkipping(true);
+        view.addLine(skippingLine);
+        singleLineViewLines.add(toSingleLine(SingleLineView.Line.Kind.SKIPPING, "", skippingLine));
+      }
+      // everything before the first delta is equal on both sides.
+      rightPos = firstDelta.getRevised().getPosition()
+          - (firstDelta.getOriginal().getPosition() - hunkStart);
+      leftPos = hunkStart;
+
+      for (final Delta delta : hunk) {
+        addEqualLines(delta.getOriginal().getPosition());
+        switch (delta.getType()) {
+          case INSERT:
+            for (final Object line : delta.getRevised().getLines()) {
+              final String text = StringUtills.normalize((String) line);
+              singleLineViewLines.add(toSingleLine(SingleLineView.Line.Kind.INSERT, text,
+                  addLine(DiffRow.Tag.INSERT, null, text)));
+            }
+            break;
+          case DELETE:
+            for (final Object line : delta.getOriginal().getLines()) {
+              final String text = StringUtills.normalize((String) line);
+              singleLineViewLines.add(toSingleLine(SingleLineView.Line.Kind.DELETE, text,
+                  addLine(DiffRow.Tag.DELETE, text, null)));
+            }
+            break;
+          default:
+            addChangedLines(delta);
+            break;
+        }
+      }
+      addEqualLines(Math.min(leftPos + CONTEXT_SIZE, original.size()));
+    }
+
+    private void addEqualLines(int end) {
+      while (leftPos < end) {
+        final String text = StringUtills.normalize(original.get(leftPos));
+        singleLineViewLines.add(toSingleLine(SingleLineView.Line.Kind.EQUAL, text,
+            addLine(DiffRow.Tag.EQUAL, text, text)));
+      }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void addChangedLines(Delta delta) {
+      final List<String> originalLines = (List<String>) delta.getOriginal().getLines();
+      final List<String> revisedLines = (List<String>) delta.getRevised().getLines();
+      // only used for the inline highlighting, which rewrites the chunks it is given.
+      final Patch inlinePatch = new Patch();
+      inlinePatch.addDelta(new ChangeDelta(
+          new Chunk(0, originalLines), new Chunk(0, revisedLines)));
+      final List<DiffRow> rows = dfg.generateDiffRows(originalLines, revisedLines, inlinePatch);
+
+      // the rows can't tell trailing empty lines from missing ones, the chunk sizes can.
+      final List<SingleLineView.Line> insertedLines = new ArrayList<>(revisedLines.size());
+      for (int i = 0; i < Math.max(originalLines.size(), revisedLines.size()); i++) {
+        final DiffRow row = i < rows.size() ? rows.get(i) : null;
+        final String oldLine =
+            i < originalLines.size() ? (row != null ? row.getOldLine() : "") : null;
+        final String newLine =
+            i < revisedLines.size() ? (row != null ? row.getNewLine() : "") : null;
+        final SideBySideView.Line line = addLine(DiffRow.Tag.CHANGE, oldLine, newLine);
+        if (oldLine != null) {
+          singleLineViewLines.add(toSingleLine(SingleLineView.Line.Kind.DELETE, oldLine, line));
+        }
+        if (newLine != null) {
+          insertedLines.add(toSingleLine(SingleLineView.Line.Kind.INSERT, newLine, line));
+        }
+      }
+      singleLineViewLines.addAll(insertedLines);
+    }
+
+    private static SingleLineView.Line toSingleLine(SingleLineView.Line.Kind kind, String text,
+                                                    SideBySideView.Line line) {
+      return new SingleLineView.Line(kind, text,
+          line.getLeft().getLineNumber(), line.getRight().getLineNumber());
+    }
+
+    /**
+     * Add a line, a null text means the line does not exist on that side.
+     */
+    private SideBySideView.Line addLine(DiffRow.Tag tag, String leftText, String rightText) {
+      final SideBySideView.Line line = new SideBySideView.Line();
+      final SideBySideView.Line.Item left = line.getLeft();
+      final SideBySideView.Line.Item right = line.getRight();
+      if (leftText != null) {
+        left.setLineNumber(++leftPos);
+        left.setText(leftText);
+      }
+      if (rightText != null) {
+        right.setLineNumber(++rightPos);
+        right.setText(rightText);
+      }
+      if (tag != DiffRow.Tag.EQUAL) {
+        left.setCssClass(DIFF_ORIGINAL);
+        right.setCssClass(DIFF_REVISED);
+      }
+      line.setTag(tag);
+      view.addLine(line);
+      return line;
+    }
+  }
+
   /**
    * Extends view with lines of a single delta.
    *
@@ -49,6 +49,8 @@ public class Match {
 
   private File file2;
 
+  private String relativePath;
+
   /**
    * Get a new file match. At least one of the files must not be null.
    *
@@ -57,7 +59,20 @@ public class Match {
    * @param kind  this matches Kind
    */
   public Match(File file1, File file2, Kind kind) {
+    this(file1, file2, kind, null);
+  }
+
+  /**
+   * Get a new file match. At least one of the files must not be null.
+   *
+   * @param file1        the first file.
+   * @param file2        the second file
+   * @param kind         this matches Kind
+   * @param relativePath the files' path relative to their revision directory, might be null.
+   */
+  public Match(File file1, File file2, Kind kind, String relativePath) {
     this.kind = kind;
+    this.relativePath = relativePath;
     this.file1 = file1;
     this.file2 = file2;
     if (file1 != null && file2 != null && !file1.getName().equals(file2.getName())) {
@@ -93,6 +108,15 @@ public class Match {
     return (kind.equals(Kind.SINGLE_1)) ? getFile1().getName() : getFile2().getName();
   }
 
+  /**
+   * Get the files' path relative to their revision directory, using '/' as separator.
+   *
+   * @return the relative path, or the full file name if the match was created without one.
+   */
+  public String getRelativePath() {
+    return (relativePath != null) ? relativePath : getFullFileName();
+  }
+
   /**
    * Get the full file name (largest common suffix).
    *
@@ -27,19 +27,34 @@ import difflib.DiffRow;
 import hudson.XmlFile;
 import hudson.model.AbstractItem;
 import hudson.model.Action;
-import org.apache.commons.io.FileUtils;
+import jenkins.util.SystemProperties;
 import org.apache.commons.lang.StringEscapeUtils;
-import org.jenkinsci.plugins.pipelineConfigHistory.DirectoryUtils;
 import org.jenkinsci.plugins.pipelineConfigHistory.PipelineConfigHistoryConsts;
 import org.jenkinsci.plugins.pipelineConfigHistory.PluginUtils;
+import org.jenkinsci.plugins.pipelineConfigHistory.diff.DiffBudget;
+import org.jenkinsci.plugins.pipelineConfigHistory.diff.LineDiff;
+import org.jenkinsci.plugins.pipelineConfigHistory.model.PipelineConfigDiffSummary;
+import org.jenkinsci.plugins.pipelineConfigHistory.model.PipelineHistoryCompression;
 import org.jenkinsci.plugins.pipelineConfigHistory.model.PipelineHistoryDescription;
+import org.jenkinsci.plugins.pipelineConfigHistory.model.PipelineHistoryFileFilter;
+import org.jenkinsci.plugins.pipelineConfigHistory.model.PipelineHistoryFileManifest;
+import org.jenkinsci.plugins.pipelineConfigHistory.model.PipelineHistoryIdAllocator;
+import org.jenkinsci.plugins.pipelineConfigHistory.model.PipelineHistoryPage;
+import org.jenkinsci.plugins.pipelineConfigHistory.model.PipelineHistoryRow;
 import org.jenkinsci.plugins.workflow.job.WorkflowJob;
+import org.kohsuke.stapler.Stapler;
 import org.kohsuke.stapler.StaplerRequest;
 import org.kohsuke.stapler.StaplerResponse;
 import org.xml.sax.SAXException;
 
+import java.io.BufferedReader;
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.UncheckedIOException;
+import java.nio.charset.Charset;
 import java.text.DateFormat;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
@@ -48,15 +63,18 @@ import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.Date;
-import java.util.HashSet;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.ListIterator;
+import java.util.Map;
 import java.util.Optional;
-import java.util.Set;
+import java.util.SortedMap;
+import java.util.function.Supplier;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 import javax.annotation.CheckForNull;
 import javax.xml.parsers.ParserConfigurationException;
@@ -67,6 +85,37 @@ public class PipelineConfigHistoryProjectAction implements Action {
   private static final Logger LOG = Logger
       .getLogger(PipelineConfigHistoryProjectAction.class.getName());
 
+  /**
+   * Number of revisions the history list renders at once, further pages are loaded on demand.
+   */
+  static final int PAGE_SIZE = Math.max(2, SystemProperties.getInteger(
+      PipelineConfigHistoryProjectAction.class.getName() + ".pageSize", 50));
+
+  /**
+   * Default number of unchanged lines the diff stream shows around each change.
+   */
+  static final int DIFF_STREAM_CONTEXT = Math.max(0, SystemProperties.getInteger(
+      PipelineConfigHistoryProjectAction.class.getName() + ".diffStreamContext", 3));
+
+  private static final int MAX_DIFF_STREAM_CONTEXT = 1000;
+
+  /**
+   * File identifiers of older links, the hashcode of the file's absolute path.
+   */
+  private static final Pattern LEGACY_FILE_ID = Pattern.compile("-?\\d+");
+
+  /**
+   * Prefix of the request attributes the match manifests are shared through.
+   */
+  private static final String MATCHES_ATTRIBUTE =
+      PipelineConfigHistoryProjectAction.class.getName() + ".matches:";
+
+  /**
+   * Prefix of the request attributes the history rows are shared through.
+   */
+  private static final String ROWS_ATTRIBUTE =
+      PipelineConfigHistoryProjectAction.class.getName() + ".rows:";
+
   private final WorkflowJob project;
 
   public PipelineConfigHistoryProjectAction(WorkflowJob project) {
@@ -99,12 +148,10 @@ public class PipelineConfigHistoryProjectAction implements Action {
   public PipelineHistoryDescription getPipelineHistoryDescription(String timestamp)
       throws IOException {
 
-    Optional<PipelineHistoryDescription> pipelineHistoryDescriptionOptional =
-        getPipelineHistoryDescriptions().stream().filter(pipelineHistoryDescription ->
-            pipelineHistoryDescription.getTimestamp().equals(timestamp)
-        ).findAny();
-    if (pipelineHistoryDescriptionOptional.isPresent()) {
-      return pipelineHistoryDescriptionOptional.get();
+    PipelineHistoryDescription pipelineHistoryDescription =
+        timestamp != null ? PluginUtils.getHistoryDao().getRevisions(project).get(timestamp) : null;
+    if (pipelineHistoryDescription != null) {
+      return pipelineHistoryDescription;
     } else {
       throw new IOException("Pipeline history for " + timestamp + " not found");
     }
@@ -112,7 +159,7 @@ public class PipelineConfigHistoryProjectAction implements Action {
 
   public String getFileNameDisplayable(String timestamp, File file) {
 
-    return getRevision(timestamp).toPath().relativize(file.toPath()).toString();
+    return PipelineHistoryFileManifest.getId(getRevision(timestamp), file);
   }
 
   public String getJenkinsfilePath() {
@@ -120,7 +167,28 @@ public class PipelineConfigHistoryProjectAction implements Action {
   }
 
   /**
-   * Return a file from a given config by its hashcode.
+   * Return a file from a given config by its identifier, its path relative to the revision.
+   * Falls back to the hashcode of its absolute path, as used by older links.
+   *
+   * @param timestamp the config identifier
+   * @param fileId    the file identifier
+   * @return the wanted file, or null if the config has no such file.
+   */
+  public File getFileById(String timestamp, String fileId) {
+    final File revisionDir = getRevision(timestamp);
+    if (revisionDir == null) {
+      return null;
+    }
+    final File file = PipelineHistoryFileManifest.resolve(revisionDir, fileId);
+    if (file == null && fileId != null && LEGACY_FILE_ID.matcher(fileId).matches()) {
+      return getFileByHashCode(timestamp, fileId);
+    }
+    return file;
+  }
+
+  /**
+   * Return a file from a given config by its hashcode. This walks the whole revision,
+   * {@link #getFileById(String, String)} should be preferred.
    *
    * @param timestamp the config identifier
    * @param hashCode  the file identifier
@@ -130,7 +198,8 @@ public class PipelineConfigHistoryProjectAction implements Action {
     int hashCodeInt = Integer.parseInt(hashCode);
     Optional<File> fileOptional = null;
     try {
-      fileOptional = Arrays.stream(DirectoryUtils.getAllFilesExceptHistoryXmlFromDirectory(getRevision(timestamp)))
+      fileOptional = PipelineHistoryFileManifest.getFiles(getRevision(timestamp)).values()
+          .stream()
           .filter(file -> file.hashCode() == hashCodeInt)
           .findAny();
     } catch (IOException e) {
@@ -156,7 +225,7 @@ public class PipelineConfigHistoryProjectAction implements Action {
   @SuppressWarnings("unused")
   public File[] getAllFilesExceptHistoryXmlFromDirectory(File directory) {
     try {
-      return DirectoryUtils.getAllFilesExceptHistoryXmlFromDirectory(directory);
+      return PipelineHistoryFileManifest.getFiles(directory).values().toArray(new File[0]);
     } catch (IOException e) {
       LOG.log(
           Level.SEVERE,
@@ -167,20 +236,20 @@ public class PipelineConfigHistoryProjectAction implements Action {
   }
 
   /**
-   * Return a file's content from a given config by its hashcode.
+   * Return a file's content from a given config by its identifier.
    *
    * @param timestamp         the config identifier
-   * @param hashCode          the file identifier
+   * @param fileId            the file identifier
    * @param syntaxHighlighted whether syntax highlighting html tags should be included or not
    * @return the wanted file.
    */
-  public String getFileContentByHashCode(String timestamp, String hashCode,
-                                         boolean syntaxHighlighted) {
+  public String getFileContentById(String timestamp, String fileId,
+                                   boolean syntaxHighlighted) {
     List<String> lines =
         null;
-    File file = getFileByHashCode(timestamp, hashCode);
+    File file = getFileById(timestamp, fileId);
     try {
-      lines = new ArrayList<>(FileUtils.readLines(file));
+      lines = new ArrayList<>(PluginUtils.fileToLines(file));
     } catch (IOException e) {
       LOG.log(Level.SEVERE, "IOException occured while trying to read file {0}:{1}",
           new Object[] {file, e.getMessage()});
@@ -193,6 +262,19 @@ public class PipelineConfigHistoryProjectAction implements Action {
     }
   }
 
+  /**
+   * Return a file's content from a given config by its hashcode.
+   *
+   * @param timestamp         the config identifier
+   * @param hashCode          the file identifier
+   * @param syntaxHighlighted whether syntax highlighting html tags should be included or not
+   * @return the wanted file.
+   */
+  public String getFileContentByHashCode(String timestamp, String hashCode,
+                                         boolean syntaxHighlighted) {
+    return getFileContentById(timestamp, hashCode, syntaxHighlighted);
+  }
+
   /**
    * Return a file's content from a given config by its hashcode.
    *
@@ -201,7 +283,7 @@ public class PipelineConfigHistoryProjectAction implements Action {
    * @return the wanted file.
    */
   public String getFileContentByHashCode(String timestamp, String hashCode) {
-    return getFileContentByHashCode(timestamp, hashCode, false);
+    return getFileContentById(timestamp, hashCode, false);
   }
 
   /**
@@ -214,7 +296,7 @@ public class PipelineConfigHistoryProjectAction implements Action {
   public String getScriptFromXmlFile(File file, boolean syntaxHighlighted) {
     List<String> lines = null;
     try {
-      lines = new ArrayList<>(FileUtils.readLines(file));
+      lines = new ArrayList<>(PluginUtils.fileToLines(file));
     } catch (IOException e) {
       LOG.log(Level.SEVERE, "File {0} could not be read correctly: {1}",
           new Object[] {file, e.getMessage()});
@@ -251,13 +333,13 @@ public class PipelineConfigHistoryProjectAction implements Action {
    * Return the content of the script-Tag in the given xml file.
    *
    * @param timestamp         the config identifier
-   * @param hashCode          the file identifier
+   * @param fileId            the file identifier
    * @param syntaxHighlighted whether syntax highlighting html tags should be included or not
    * @return the wanted script
    */
-  public String getScriptFromXmlFile(String timestamp, String hashCode,
+  public String getScriptFromXmlFile(String timestamp, String fileId,
                                      boolean syntaxHighlighted) {
-    return getScriptFromXmlFile(getFileByHashCode(timestamp, hashCode), syntaxHighlighted);
+    return getScriptFromXmlFile(getFileById(timestamp, fileId), syntaxHighlighted);
   }
 
   /**
@@ -310,18 +392,8 @@ public class PipelineConfigHistoryProjectAction implements Action {
    * @return true or false
    */
   public boolean isBuiltfromReplay(String timestamp) {
-    try {
-      return PluginUtils
-          .getHistoryDao()
-          .isBuiltfromReplay(getPipelineHistoryDescription(timestamp));
-    } catch (IOException e) {
-      LOG.log(
-          Level.SEVERE,
-          "Error trying to obtain replay status: build.xml could not be read: {0}",
-          e.getMessage()
-      );
-      return false;
-    }
+    final PipelineHistoryRow row = getRow(timestamp);
+    return row != null && row.isBuiltFromReplay();
   }
 
   /**
@@ -332,15 +404,8 @@ public class PipelineConfigHistoryProjectAction implements Action {
    * @return true or false
    */
   public int getOriginalNumberFromReplayBuild(String timestamp) {
-    try {
-      return PluginUtils
-          .getHistoryDao()
-          .getOriginalBuildNumberFromReplay(getPipelineHistoryDescription(timestamp));
-    } catch (IOException | SAXException | ParserConfigurationException e) {
-      LOG.log(Level.SEVERE,
-          "Original build number could not be acquired: {0}", e.getMessage());
-      return -1;
-    }
+    final PipelineHistoryRow row = getRow(timestamp);
+    return row != null ? row.getOriginalNumber() : -1;
   }
 
   /**
@@ -350,14 +415,93 @@ public class PipelineConfigHistoryProjectAction implements Action {
    * @return the buildNumber
    */
   public int getBuildNumber(String timestamp) {
+    final PipelineHistoryRow row = getRow(timestamp);
+    return row != null ? row.getBuildNumber() : -1;
+  }
+
+  /**
+   * Get what the history list shows about all revisions, read in a single pass.
+   *
+   * @return one row per revision, oldest first.
+   */
+  public List<PipelineHistoryRow> getRows() {
     try {
-      return getPipelineHistoryDescription(timestamp).getBuildNumber();
+      return PluginUtils.getHistoryDao().getRows(project);
     } catch (IOException e) {
-      LOG.log(Level.SEVERE, "Build number could not be acquired: {0}", e.getMessage());
-      return -1;
+      LOG.log(Level.SEVERE, "History rows could not be acquired: {0}", e.getMessage());
+      return Collections.emptyList();
     }
   }
 
+  /**
+   * Get a page of the history list, newest first.
+   *
+   * @param before the previous page's next cursor, or null or empty for the first page.
+   * @return the page, which is empty if the history could not be read.
+   */
+  public PipelineHistoryPage getPage(String before) {
+    try {
+      return PluginUtils.getHistoryDao().getPage(project,
+          before == null || before.isEmpty() ? null : before, PAGE_SIZE);
+    } catch (IOException e) {
+      LOG.log(Level.SEVERE, "History rows could not be acquired: {0}", e.getMessage());
+      return new PipelineHistoryPage(Collections.emptyList(), null);
+    }
+  }
+
+  /**
+   * Get what the history pages show about a single revision.
+   *
+   * <p>Within a Stapler request the rows of all revisions are read once and shared, since the
+   * pages ask for several properties of each revision they show.
+   *
+   * @param timestamp the config revision identifier
+   * @return the row, or null if there is no such revision.
+   */
+  @CheckForNull
+  public PipelineHistoryRow getRow(String timestamp) {
+    try {
+      final Map<String, PipelineHistoryRow> rows = getRowsOfRequest();
+      final PipelineHistoryRow row = rows != null
+          ? rows.get(timestamp)
+          : PluginUtils.getHistoryDao().getRow(project, timestamp);
+      if (row == null) {
+        LOG.log(Level.SEVERE, "Pipeline history for {0} not found", timestamp);
+      }
+      return row;
+    } catch (IOException e) {
+      LOG.log(Level.SEVERE, "History row of {0} could not be acquired: {1}",
+          new Object[] {timestamp, e.getMessage()});
+      return null;
+    }
+  }
+
+  /**
+   * Get the rows of all revisions by timestamp, shared by the current request.
+   *
+   * @return the rows, or null outside of a request.
+   * @throws IOException if the rows could not be read.
+   */
+  @SuppressWarnings("unchecked")
+  @CheckForNull
+  private Map<String, PipelineHistoryRow> getRowsOfRequest() throws IOException {
+    final StaplerRequest request = Stapler.getCurrentRequest();
+    if (request == null) {
+      return null;
+    }
+    final String attribute = ROWS_ATTRIBUTE + project.getFullName();
+    Map<String, PipelineHistoryRow> rows =
+        (Map<String, PipelineHistoryRow>) request.getAttribute(attribute);
+    if (rows == null) {
+      rows = new HashMap<>();
+      for (PipelineHistoryRow row : PluginUtils.getHistoryDao().getRows(project)) {
+        rows.put(row.getTimestamp(), row);
+      }
+      request.setAttribute(attribute, rows);
+    }
+    return rows;
+  }
+
 
   public boolean buildExists(int build) {
     return project.getBuildByNumber(build) != null;
@@ -380,80 +524,115 @@ public class PipelineConfigHistoryProjectAction implements Action {
    * @return whether the given revisions are unequal.
    */
   public boolean isAnyMatchUnequal(String timestamp1, String timestamp2) {
+    final PipelineConfigDiffSummary diffSummary = getDiffSummary(timestamp1, timestamp2);
+    if (diffSummary != null) {
+      return diffSummary.hasChanges();
+    }
     return getMatchingFiles(timestamp1, timestamp2)
         .stream()
+        .filter(match -> match.getKind() != Match.Kind.EQUAL)
         .anyMatch(match -> !getLines(match).isEmpty());
   }
 
   /**
-   * Calculate the revision file equality and return a list encapsulating that .
+   * Get the summary of the changes between two consecutive revisions, as computed when the
+   * later one was captured.
+   *
+   * @param timestamp1 the first config revision identifier
+   * @param timestamp2 the second config revision identifier
+   * @return the summary, or null if there is none for these revisions.
+   */
+  @CheckForNull
+  public PipelineConfigDiffSummary getDiffSummary(String timestamp1, String timestamp2) {
+    if (timestamp1 == null || timestamp2 == null) {
+      return null;
+    }
+    final String earlier = timestamp1.compareTo(timestamp2) <= 0 ? timestamp1 : timestamp2;
+    final String later = earlier.equals(timestamp1) ? timestamp2 : timestamp1;
+    final PipelineConfigDiffSummary diffSummary = getDiffSummary(later);
+    return diffSummary != null && diffSummary.getPreviousTimestamp().equals(earlier)
+        ? diffSummary
+        : null;
+  }
+
+  /**
+   * Get the summary of the changes of a revision against the revision before it.
+   *
+   * @param timestamp the config revision identifier
+   * @return the summary, or null if there is none or the revision it compares to is gone.
+   */
+  @CheckForNull
+  public PipelineConfigDiffSummary getDiffSummary(String timestamp) {
+    final PipelineHistoryRow row = getRow(timestamp);
+    return row != null ? row.getDiffSummary() : null;
+  }
+
+  /**
+   * Calculate the revision file equality and return a list encapsulating that.
+   *
+   * <p>The list is sorted by kind and then by relative path. Within a Stapler request it is
+   * computed once per pair of revisions and shared by all callers, since the diff pages ask for
+   * it more than once while rendering.
    *
    * @param timestamp1 the first config revision identifier
    * @param timestamp2 the second config revision identifier
    * @return the given revisions' matching files.
    */
+  @SuppressWarnings("unchecked")
   public List<Match> getMatchingFiles(String timestamp1, String timestamp2) {
-    List<Match> matches = new ArrayList<>();
+    final StaplerRequest request = Stapler.getCurrentRequest();
+    if (request == null) {
+      return computeMatchingFiles(timestamp1, timestamp2);
+    }
+    final String attribute = MATCHES_ATTRIBUTE + project.getFullName()
+        + "/" + timestamp1 + "/" + timestamp2;
+    List<Match> matches = (List<Match>) request.getAttribute(attribute);
+    if (matches == null) {
+      matches = computeMatchingFiles(timestamp1, timestamp2);
+      request.setAttribute(attribute, matches);
+    }
+    return matches;
+  }
 
+  private List<Match> computeMatchingFiles(String timestamp1, String timestamp2) {
     File revision1Dir = getRevision(timestamp1);
     File revision2Dir = getRevision(timestamp2);
 
-    List<File> allFiles1 = null;
-    List<File> allFiles2 = null;
+    SortedMap<String, File> files1;
+    SortedMap<String, File> files2;
     try {
-      allFiles1 = Arrays.asList(
-          DirectoryUtils.getAllFilesExceptHistoryXmlFromDirectory(revision1Dir)
-      );
-      allFiles2 = Arrays.asList(
-          DirectoryUtils.getAllFilesExceptHistoryXmlFromDirectory(revision2Dir)
-      );
+      files1 = PipelineHistoryFileManifest.getFiles(revision1Dir);
+      files2 = PipelineHistoryFileManifest.getFiles(revision2Dir);
     } catch (IOException e) {
       LOG.log(Level.SEVERE,
           "IOException occurred trying to obtain files from directory: {0}", e.getMessage());
       return Collections.emptyList();
     }
 
-    Set<File> remainingFiles1 = new HashSet<>(allFiles1);
-    Set<File> remainingFiles2 = new HashSet<>(allFiles2);
-
-    List<File> finalAllFiles2 = allFiles2;
-    allFiles1.forEach(file1 -> {
-      File[] matchingFiles = finalAllFiles2.stream()
-          .filter(file2 -> relativizedFileEquals(file1, file2, revision1Dir, revision2Dir))
-          .toArray(File[]::new);
-      if (matchingFiles.length == 0) {
-        //no matching file found, do nothing.
-      } else if (matchingFiles.length == 1) {
-        //found a unique match that is NOT the history xml file
+    List<Match> matches = new ArrayList<>(Math.max(files1.size(), files2.size()));
+    files1.forEach((relativePath, file1) -> {
+      File file2 = files2.remove(relativePath);
+      if (file2 == null) {
+        matches.add(new Match(file1, null, Match.Kind.SINGLE_1, relativePath));
+      } else if (fileContentEquals(file1, file2)) {
         //check for content equality
-        if (fileContentEquals(file1, matchingFiles[0])) {
-          matches.add(new Match(file1, matchingFiles[0], Match.Kind.EQUAL));
-        } else {
-          matches.add(new Match(file1, matchingFiles[0], Match.Kind.UNEQUAL));
-        }
-        //they can be deleted
-        remainingFiles1.remove(file1);
-        remainingFiles2.remove(matchingFiles[0]);
+        matches.add(new Match(file1, file2, Match.Kind.EQUAL, relativePath));
       } else {
-        LOG.log(Level.WARNING, "Found non-unique files!");
+        matches.add(new Match(file1, file2, Match.Kind.UNEQUAL, relativePath));
       }
     });
+    files2.forEach((relativePath, file2) ->
+        matches.add(new Match(null, file2, Match.Kind.SINGLE_2, relativePath)));
 
-    for (File file : remainingFiles1) {
-      matches.add(new Match(file, null, Match.Kind.SINGLE_1));
-    }
-    for (File file : remainingFiles2) {
-      matches.add(new Match(null, file, Match.Kind.SINGLE_2));
-    }
-
+    //stable, so matches of the same kind stay ordered by path
     matches.sort(Comparator.comparing(Match::getKind));
     //filter history xml
-    return matches
+    return Collections.unmodifiableList(matches
         .stream()
         .filter(match ->
             !match.getFileName().equals(PipelineConfigHistoryConsts.HISTORY_XML_FILENAME)
         )
-        .collect(Collectors.toList());
+        .collect(Collectors.toList()));
   }
 
   /**
@@ -464,12 +643,25 @@ public class PipelineConfigHistoryProjectAction implements Action {
    * @return the difference between the given files.
    */
   public final List<SideBySideView.Line> getLines(File file1, File file2) {
-    try {
-      return getLines(PluginUtils.fileToString(file1), PluginUtils.fileToString(file2));
-    } catch (IOException e) {
-      LOG.log(Level.WARNING, "File could not be read: {0}", e.getMessage());
-      return Collections.emptyList();
-    }
+    return getDiff(file1, file2).getLines();
+  }
+
+  /**
+   * Calculate the line-wise diff of the given files, along with whether it is approximate.
+   *
+   * @param file1 the first file
+   * @param file2 the second file
+   * @return the difference between the given files.
+   */
+  public final DiffCache.Diff getDiff(File file1, File file2) {
+    return getCachedDiff(file1, file2, false, () -> {
+      try {
+        return getDiff(PluginUtils.fileToString(file1), PluginUtils.fileToString(file2));
+      } catch (IOException e) {
+        LOG.log(Level.WARNING, "File could not be read: {0}", e.getMessage());
+        return new DiffCache.Diff(Collections.emptyList(), false);
+      }
+    });
   }
 
   /**
@@ -479,22 +671,75 @@ public class PipelineConfigHistoryProjectAction implements Action {
    * @return the diff.
    */
   public final List<SideBySideView.Line> getLines(Match match) {
+    return getDiff(match).getLines();
+  }
+
+  /**
+   * Calculate the line-wise diff of the files contained in the given match, along with whether
+   * it is approximate.
+   *
+   * @param match the match.
+   * @return the diff.
+   */
+  public final DiffCache.Diff getDiff(Match match) {
     if (match.getFileName().equals(PipelineConfigHistoryConsts.BUILD_XML_FILENAME)) {
-      return getLines(
+      return getCachedDiff(match.getFile1(), match.getFile2(), true, () -> getDiff(
           getScriptFromXmlFile(match.getFile1(), false),
           getScriptFromXmlFile(match.getFile2(), false)
-      );
+      ));
     } else {
-      try {
-        return getLines(
-            PluginUtils.fileToString(match.getFile1()),
-            PluginUtils.fileToString(match.getFile2())
-        );
-      } catch (IOException e) {
-        LOG.log(Level.WARNING, "File could not be read: {0}", e.getMessage());
-        return Collections.emptyList();
+      return getDiff(match.getFile1(), match.getFile2());
+    }
+  }
+
+  /**
+   * Get the diff of two revision files from the diff cache, computing it if needed.
+   * Files which aren't part of a revision are not cached.
+   *
+   * @param file1      the first file, might be null.
+   * @param file2      the second file, might be null.
+   * @param scriptOnly whether only the script of a build.xml is diffed.
+   * @param compute    computes the diff.
+   * @return the diff.
+   */
+  private DiffCache.Diff getCachedDiff(File file1, File file2, boolean scriptOnly,
+      Supplier<DiffCache.Diff> compute) {
+    final DiffCache.Key key = getDiffKey(file1, file2, scriptOnly);
+    return key == null ? compute.get() : DiffCache.get().getDiff(key, compute);
+  }
+
+  /**
+   * Get the diff cache's key of two revision files.
+   *
+   * @return the key, null if the files aren't the same file of two revisions.
+   */
+  @CheckForNull
+  private DiffCache.Key getDiffKey(File file1, File file2, boolean scriptOnly) {
+    final File revision1Dir = getRevisionDir(file1);
+    final File revision2Dir = getRevisionDir(file2);
+    if (revision1Dir == null || revision2Dir == null) {
+      return null;
+    }
+    final String path1 = revision1Dir.toPath().relativize(file1.toPath()).toString();
+    final String path2 = revision2Dir.toPath().relativize(file2.toPath()).toString();
+    if (!path1.equals(path2)) {
+      return null;
+    }
+    return new DiffCache.Key(project.getFullName(),
+        revision1Dir.getName(), revision2Dir.getName(), path1, scriptOnly);
+  }
+
+  private static File getRevisionDir(File file) {
+    if (file == null) {
+      return null;
+    }
+    for (File dir = file.getParentFile(); dir != null; dir = dir.getParentFile()) {
+      if (new File(dir, PipelineConfigHistoryConsts.HISTORY_XML_FILENAME).exists()
+          && PipelineHistoryFileFilter.getInstance().accept(dir)) {
+        return dir;
       }
     }
+    return null;
   }
 
   /**
@@ -505,20 +750,42 @@ public class PipelineConfigHistoryProjectAction implements Action {
    * @return the diff.
    */
   public final List<SideBySideView.Line> getLines(String file1Str, String file2Str) {
-    return new DiffLineGenerator(file1Str, file2Str).getLines();
+    return getDiff(file1Str, file2Str).getLines();
+  }
+
+  /**
+   * Calculate the line-wise diff of the given files (as \n-containing strings), along with
+   * whether it is approximate.
+   *
+   * @param file1Str the first file
+   * @param file2Str the second file
+   * @return the diff.
+   */
+  public final DiffCache.Diff getDiff(String file1Str, String file2Str) {
+    final DiffLineGenerator generator = new DiffLineGenerator(file1Str, file2Str);
+    final List<SideBySideView.Line> lines = generator.getLines();
+    return new DiffCache.Diff(lines, generator.getSingleLineViewLines(),
+        generator.isApproximate());
   }
 
   public final List<SingleLineView.Line> getSingleLineViewLines(File file1, File file2) {
-    try {
-      return getSingleLineViewLines(PluginUtils.fileToString(file1), PluginUtils.fileToString(file2));
-    } catch (IOException e) {
-      LOG.log(Level.WARNING, "File could not be read: {0}", e.getMessage());
-      return Collections.emptyList();
-    }
+    return getSingleLineViewLines(getDiff(file1, file2));
   }
 
   public final List<SingleLineView.Line> getSingleLineViewLines(Match match) {
-    return getSingleLineViewLines(getLines(match));
+    return getSingleLineViewLines(getDiff(match));
+  }
+
+  /**
+   * Get the single line view of a diff, which is built along with its side-by-side lines.
+   * Only diffs without one are converted from their side-by-side lines.
+   *
+   * @param diff the diff.
+   * @return the single line view lines.
+   */
+  public final List<SingleLineView.Line> getSingleLineViewLines(DiffCache.Diff diff) {
+    final List<SingleLineView.Line> lines = diff.getSingleLineViewLines();
+    return lines != null ? lines : getSingleLineViewLines(diff.getLines());
   }
 
   public final List<SingleLineView.Line> getSingleLineViewLines(List<SideBySideView.Line> unsortedLines) {
@@ -617,13 +884,13 @@ public class PipelineConfigHistoryProjectAction implements Action {
   }
 
   public final List<SingleLineView.Line> getSingleLineViewLines(String file1Str, String file2Str) {
-    List<SideBySideView.Line> unsortedLines = getLines(file1Str, file2Str);
-      return getSingleLineViewLines(unsortedLines);
+    return getSingleLineViewLines(getDiff(file1Str, file2Str));
   }
 
   /**
    * Show a diff file overview or all diffs combined in one page,
-   * depending on the showDiffsInOneSite-parameter.
+   * depending on the showDiffsInOneSite-parameter, or all diffs streamed into one page,
+   * if the streamDiffs-parameter is given.
    *
    * @param req the request containing the parameters
    * @param rsp the response.
@@ -635,15 +902,17 @@ public class PipelineConfigHistoryProjectAction implements Action {
 
     String showDiffsInOneSite = req.getParameter("showDiffsInOneSite");
 
-    if (PluginUtils.parsedDate(timestamp1).after(PluginUtils.parsedDate(timestamp2))) {
+    if (PipelineHistoryIdAllocator.compare(timestamp1, timestamp2) > 0) {
       timestamp1 = req.getParameter("timestamp2");
       timestamp2 = req.getParameter("timestamp1");
     }
+    if (req.getParameter("streamDiffs") != null) {
+      rsp.sendRedirect("streamAllDiffs?timestamp1=" + timestamp1
+          + "&timestamp2=" + timestamp2);
+      return;
+    }
     if (showDiffsInOneSite != null) {
-      boolean anyDiffExists =
-          getMatchingFiles(timestamp1, timestamp2)
-              .stream()
-              .anyMatch(match -> !getLines(match).isEmpty());
+      boolean anyDiffExists = isAnyMatchUnequal(timestamp1, timestamp2);
       rsp.sendRedirect("showAllDiffs?timestamp1=" + timestamp1
           + "&timestamp2=" + timestamp2 + "&anyDiffExists=" + anyDiffExists);
       return;
@@ -652,6 +921,123 @@ public class PipelineConfigHistoryProjectAction implements Action {
         + "&timestamp2=" + timestamp2);
   }
 
+  /**
+   * Stream the diffs of all files of two revisions as newline delimited JSON, see
+   * {@link DiffStreamWriter} for the format. The files are diffed one at a time and every hunk
+   * is flushed as soon as it is computed, so memory stays bounded by the largest file and the
+   * client can render the first files while the others are still being diffed.
+   *
+   * @param req the request containing the timestamp1, timestamp2 and optional context parameters
+   * @param rsp the response.
+   * @throws IOException if writing the response fails.
+   */
+  public void doDiffStream(StaplerRequest req, StaplerResponse rsp) throws IOException {
+    String timestamp1 = req.getParameter("timestamp1");
+    String timestamp2 = req.getParameter("timestamp2");
+    if (timestamp1 == null || timestamp2 == null
+        || getRevision(timestamp1) == null || getRevision(timestamp2) == null) {
+      rsp.sendError(StaplerResponse.SC_NOT_FOUND);
+      return;
+    }
+    if (PipelineHistoryIdAllocator.compare(timestamp1, timestamp2) > 0) {
+      final String swap = timestamp1;
+      timestamp1 = timestamp2;
+      timestamp2 = swap;
+    }
+    int context = DIFF_STREAM_CONTEXT;
+    final String contextParameter = req.getParameter("context");
+    if (contextParameter != null) {
+      try {
+        context = Math.min(Integer.parseInt(contextParameter), MAX_DIFF_STREAM_CONTEXT);
+      } catch (NumberFormatException e) {
+        rsp.sendError(StaplerResponse.SC_BAD_REQUEST, "context must be a number");
+        return;
+      }
+    }
+
+    rsp.setContentType("application/x-ndjson;charset=UTF-8");
+    final DiffStreamWriter writer = new DiffStreamWriter(rsp.getWriter(), context);
+    final String rootScriptName = getPipelineHistoryDescription(timestamp2).getRootScriptName();
+    // bounds the whole request, files diffed after it is used up get approximate diffs.
+    final DiffBudget budget = LineDiff.newBudget();
+    for (Match match : getMatchingFiles(timestamp1, timestamp2)) {
+      final boolean isBuildXml =
+          match.getFileName().equals(PipelineConfigHistoryConsts.BUILD_XML_FILENAME);
+      final String path = match.getRelativePath();
+      final String name = isBuildXml ? rootScriptName : path;
+      if (match.getKind() == Match.Kind.EQUAL) {
+        writer.writeFile(path, name, match.getKind());
+        continue;
+      }
+      writeStreamedDiff(writer, match, name, isBuildXml, budget);
+    }
+    writer.writeEnd();
+  }
+
+  /**
+   * Write the diff of a match, taking its edits from the diff cache if possible. The lines are
+   * then read while writing the hunks, otherwise the ones read for computing the edits are used.
+   */
+  private void writeStreamedDiff(DiffStreamWriter writer, Match match, String name,
+                                 boolean isBuildXml, DiffBudget budget) throws IOException {
+    final List<List<String>> computedLines = new ArrayList<>(2);
+    final Supplier<DiffCache.Diff> compute = () -> {
+      final List<String> original = LineDiff.splitLines(readForDiff(match.getFile1(), isBuildXml));
+      final List<String> revised = LineDiff.splitLines(readForDiff(match.getFile2(), isBuildXml));
+      computedLines.add(original);
+      computedLines.add(revised);
+      final LineDiff diff = LineDiff.compute(original, revised, budget);
+      return DiffCache.Diff.ofEdits(diff.getEdits(), diff.isApproximate());
+    };
+    final DiffCache.Key key = getDiffKey(match.getFile1(), match.getFile2(), isBuildXml);
+    final DiffCache.Diff diff =
+        key == null ? compute.get() : DiffCache.get().getDiff(key.edits(), compute);
+
+    final String path = match.getRelativePath();
+    if (!computedLines.isEmpty()) {
+      writer.writeFile(path, name, match.getKind(), computedLines.get(0).iterator(),
+          computedLines.get(1).iterator(), diff.getEdits(), diff.isApproximate());
+    } else if (isBuildXml) {
+      // only the script, it is extracted in memory anyway.
+      writer.writeFile(path, name, match.getKind(),
+          LineDiff.splitLines(readForDiff(match.getFile1(), true)).iterator(),
+          LineDiff.splitLines(readForDiff(match.getFile2(), true)).iterator(),
+          diff.getEdits(), diff.isApproximate());
+    } else {
+      try (Reader original = openForDiff(match.getFile1());
+           Reader revised = openForDiff(match.getFile2())) {
+        writer.writeFile(path, name, match.getKind(), LineDiff.readLines(original),
+            LineDiff.readLines(revised), diff.getEdits(), diff.isApproximate());
+      } catch (UncheckedIOException e) {
+        LOG.log(Level.WARNING, "File could not be read: {0}", e.getMessage());
+      }
+    }
+  }
+
+  private static Reader openForDiff(File file) throws IOException {
+    if (file == null) {
+      return new StringReader("");
+    }
+    return new BufferedReader(
+        new InputStreamReader(PipelineHistoryCompression.open(file), Charset.defaultCharset()));
+  }
+
+  private String readForDiff(File file, boolean isBuildXml) {
+    if (file == null) {
+      return "";
+    }
+    if (isBuildXml) {
+      final String script = getScriptFromXmlFile(file, false);
+      return script != null ? script : "";
+    }
+    try {
+      return PluginUtils.fileToString(file);
+    } catch (IOException e) {
+      LOG.log(Level.WARNING, "File could not be read: {0}", e.getMessage());
+      return "";
+    }
+  }
+
   private String escapeShebangLinesAndXml(List<String> lines) {
     StringBuilder resultBuilder = new StringBuilder();
 
@@ -690,19 +1076,12 @@ public class PipelineConfigHistoryProjectAction implements Action {
         .toString();
   }
 
-  private boolean relativizedFileEquals(File file1, File file2, File root1, File root2) {
-    return
-        root1.toPath().relativize(file1.toPath()).equals(
-            root2.toPath().relativize(file2.toPath())
-        );
-  }
-
   private boolean fileContentEquals(File file1, File file2) {
     //also checks for build xml!
     try {
       return (file1.getName().equals(PipelineConfigHistoryConsts.BUILD_XML_FILENAME))
           ? PluginUtils.scriptInXmlFileIsEqual(new XmlFile(file1), new XmlFile(file2))
-          : FileUtils.contentEquals(file1, file2);
+          : PluginUtils.fileContentEquals(file1, file2);
     } catch (IOException e) {
       LOG.log(Level.SEVERE, "IOException occured during file comparison: " + e.getMessage());
       return false;
@@ -0,0 +1,41 @@
+/*
+    Doc:
+        Loads further pages of the revision history on demand and appends them to the history
+        table, so the history page only renders the most recent revisions at first.
+        The link with id "pch-more-revisions-link" carries the cursor of the next page in its
+        "data-cursor" attribute. Without javascript, the link simply opens the next page.
+*/
+
+var moreRevisionsLink = document.getElementById("pch-more-revisions-link");
+
+function loadMoreRevisions(event) {
+    event.preventDefault();
+    var cursor = moreRevisionsLink.getAttribute("data-cursor");
+    var request = new XMLHttpRequest();
+    request.open("GET", "rowsPage?before=" + encodeURIComponent(cursor));
+    request.onload = function() {
+        if (request.status !== 200) {
+            // fall back to opening the next page.
+            window.location.href = moreRevisionsLink.href;
+            return;
+        }
+        var container = document.createElement("div");
+        container.innerHTML = request.responseText;
+        var page = container.getElementsByTagName("table")[0];
+        var tbody = document.getElementById("confighistory").tBodies[0];
+        var rows = page.tBodies[0].rows;
+        while (rows.length > 0) {
+            tbody.appendChild(rows[0]);
+        }
+        var nextCursor = page.getAttribute("data-next-cursor");
+        if (nextCursor) {
+            moreRevisionsLink.setAttribute("data-cursor", nextCursor);
+            moreRevisionsLink.href = "?before=" + encodeURIComponent(nextCursor);
+        } else {
+            document.getElementById("pch-more-revisions").style.display = "none";
+        }
+    };
+    request.send();
+}
+
+moreRevisionsLink.addEventListener("click", loadMoreRevisions);
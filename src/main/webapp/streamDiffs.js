@@ -0,0 +1,104 @@
+/*
+    Doc:
+        Renders the diffs of two revisions while they are streamed by the diffStream endpoint,
+        one newline delimited JSON record per file or hunk. Files and hunks are appended to the
+        element with id "pch-diff-stream" as soon as they arrive, so large diffs don't have to
+        be computed completely before the page shows anything.
+        The element carries the stream's url and the texts to show in its data attributes.
+*/
+
+var diffStream = document.getElementById("pch-diff-stream");
+var diffStreamStatus = document.getElementById("pch-diff-stream-status");
+var diffStreamTable = null;
+var diffStreamChanges = 0;
+
+var DIFF_STREAM_CSS_CLASSES = {" ": "diff_equal", "-": "diff_original", "+": "diff_revised"};
+
+function appendDiffStreamCell(row, text, cssClass) {
+    var cell = document.createElement("td");
+    cell.textContent = text;
+    if (cssClass) {
+        cell.className = cssClass;
+    }
+    row.appendChild(cell);
+    return cell;
+}
+
+function renderDiffStreamFile(record) {
+    diffStreamTable = document.createElement("table");
+    diffStreamTable.className = "center pch";
+    diffStreamTable.style.width = "100%";
+    var caption = document.createElement("caption");
+    caption.textContent = record.name + " (" + record.kind + ")";
+    diffStreamTable.appendChild(caption);
+    if (record.approximate) {
+        var note = diffStreamTable.insertRow(-1);
+        appendDiffStreamCell(note, diffStream.getAttribute("data-approximate"), "skipping")
+            .colSpan = 4;
+    }
+    diffStream.appendChild(diffStreamTable);
+}
+
+function renderDiffStreamHunk(record) {
+    diffStreamChanges++;
+    var header = diffStreamTable.insertRow(-1);
+    appendDiffStreamCell(header, "@@ -" + record.oldStart + "," + record.oldLines
+        + " +" + record.newStart + "," + record.newLines + " @@", "skipping").colSpan = 4;
+    var oldLine = record.oldStart;
+    var newLine = record.newStart;
+    for (var i = 0; i < record.lines.length; i++) {
+        var op = record.lines[i][0];
+        var row = diffStreamTable.insertRow(-1);
+        appendDiffStreamCell(row, op === "+" ? "" : oldLine++);
+        appendDiffStreamCell(row, op === "-" ? "" : newLine++);
+        appendDiffStreamCell(row, op);
+        var text = appendDiffStreamCell(row, record.lines[i][1], DIFF_STREAM_CSS_CLASSES[op]);
+        text.style.whiteSpace = "pre";
+        text.style.fontFamily = "monospace";
+        text.style.textAlign = "left";
+    }
+}
+
+function renderDiffStreamRecord(line) {
+    var record = JSON.parse(line);
+    if (record.type === "file") {
+        renderDiffStreamFile(record);
+    } else if (record.type === "hunk") {
+        renderDiffStreamHunk(record);
+    } else if (record.type === "end") {
+        diffStreamStatus.textContent = diffStreamChanges > 0
+            ? diffStream.getAttribute("data-caption")
+            : diffStream.getAttribute("data-no-changes");
+    }
+}
+
+function loadDiffStream() {
+    var request = new XMLHttpRequest();
+    var offset = 0;
+    // render every complete line received so far.
+    var consume = function() {
+        var end;
+        while ((end = request.responseText.indexOf("\n", offset)) >= 0) {
+            var line = request.responseText.substring(offset, end);
+            offset = end + 1;
+            if (line.length > 0) {
+                renderDiffStreamRecord(line);
+            }
+        }
+    };
+    request.open("GET", diffStream.getAttribute("data-url"));
+    request.onprogress = consume;
+    request.onload = function() {
+        if (request.status !== 200) {
+            diffStreamStatus.textContent = diffStream.getAttribute("data-failed");
+            return;
+        }
+        consume();
+    };
+    request.onerror = function() {
+        diffStreamStatus.textContent = diffStream.getAttribute("data-failed");
+    };
+    request.send();
+}
+
+loadDiffStream();
@@ -0,0 +1,90 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2019, Robin Schulz
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkinsci.plugins.pipelineConfigHistory;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.*;
+
+public class BuildXmlReaderTest {
+
+	@Rule
+	public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+	@Test
+	public void getScript() throws Exception {
+		File buildXml = write("<flow-build><execution><script>node { echo &apos;a&apos; }</script>"
+				+ "</execution></flow-build>");
+
+		assertEquals("node { echo 'a' }", BuildXmlReader.getScript(buildXml));
+	}
+
+	@Test
+	public void scriptsAreEqualAcrossChunks() throws Exception {
+		StringBuilder script = new StringBuilder();
+		for (int i = 0; i < 5000; i++) {
+			script.append("echo &quot;line ").append(i).append("&quot;\n");
+		}
+		File buildXml1 = write("<flow-build><execution><script>" + script + "</script></execution></flow-build>");
+		File buildXml2 = write("<flow-build><queueId>1</queueId><execution><result>SUCCESS</result><script>"
+				+ script + "</script></execution></flow-build>");
+		File buildXml3 = write("<flow-build><execution><script>" + script + "x</script></execution></flow-build>");
+
+		assertTrue(BuildXmlReader.scriptsAreEqual(buildXml1, buildXml2));
+		assertFalse(BuildXmlReader.scriptsAreEqual(buildXml1, buildXml3));
+		assertFalse(BuildXmlReader.scriptsAreEqual(buildXml3, buildXml1));
+	}
+
+	@Test
+	public void getOriginalNumber() throws Exception {
+		File buildXml = write("<flow-build><actions><originalNumber>42</originalNumber></actions>"
+				+ "<execution><script/></execution></flow-build>");
+
+		assertEquals(42, BuildXmlReader.getOriginalNumber(buildXml));
+	}
+
+	@Test(expected = IOException.class)
+	public void missingScript() throws Exception {
+		BuildXmlReader.getScript(write("<flow-build/>"));
+	}
+
+	@Test(expected = IOException.class)
+	public void missingOriginalNumber() throws Exception {
+		BuildXmlReader.getOriginalNumber(write("<flow-build><execution><script/></execution></flow-build>"));
+	}
+
+	private File write(String content) throws IOException {
+		File file = temporaryFolder.newFile();
+		FileUtils.writeStringToFile(file, "<?xml version='1.1' encoding='UTF-8'?>\n" + content,
+				StandardCharsets.UTF_8);
+		return file;
+	}
+}
@@ -33,6 +33,7 @@ import hudson.model.Job;
 import hudson.model.queue.QueueTaskFuture;
 import jenkins.model.ParameterizedJobMixIn;
 import org.apache.commons.lang.SystemUtils;
+import org.jenkinsci.plugins.pipelineConfigHistory.model.PipelineConfigHistoryCaptureQueue;
 import org.jenkinsci.plugins.workflow.cps.CpsFlowDefinition;
 import org.jenkinsci.plugins.workflow.job.WorkflowJob;
 import org.junit.Assert;
@@ -50,6 +51,7 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 
 import static org.junit.Assert.*;
@@ -468,6 +470,7 @@ public class NonScmWebITest {
 
     //WAIT
     System.out.println("Build completed: " + f.get());
+    assertTrue(PipelineConfigHistoryCaptureQueue.get().awaitIdle(30, TimeUnit.SECONDS));
   }
 
   private String indexUrl() throws IOException {
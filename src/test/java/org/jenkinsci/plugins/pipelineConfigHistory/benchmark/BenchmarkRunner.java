@@ -0,0 +1,64 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2019, Robin Schulz
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkinsci.plugins.pipelineConfigHistory.benchmark;
+
+import jenkins.benchmark.jmh.BenchmarkFinder;
+import org.junit.Test;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs all classes annotated with {@link jenkins.benchmark.jmh.JmhBenchmark}.
+ * Not picked up by the regular test run, use {@code mvn test -Dbenchmark}, and
+ * {@code -Dbenchmark.include=<regex>} to run only some of the benchmarks.
+ * The benchmark classes choose their mode and time unit, the gc profiler reports the
+ * allocation rate of each benchmark.
+ */
+public class BenchmarkRunner {
+
+	@Test
+	public void runJmhBenchmarks() throws Exception {
+		ChainedOptionsBuilder options = new OptionsBuilder()
+				.warmupIterations(3)
+				.measurementIterations(5)
+				.threads(1)
+				.forks(1)
+				.shouldFailOnError(true)
+				.shouldDoGC(true)
+				.addProfiler(GCProfiler.class)
+				.resultFormat(ResultFormatType.JSON)
+				.result("target/jmh-report.json");
+
+		String include = System.getProperty("benchmark.include");
+		if (include != null) {
+			options.include(include);
+		} else {
+			new BenchmarkFinder(getClass()).findBenchmarks(options);
+		}
+		new Runner(options.build()).run();
+	}
+}
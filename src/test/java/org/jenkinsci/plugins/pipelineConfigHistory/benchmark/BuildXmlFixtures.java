@@ -0,0 +1,118 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2019, Robin Schulz
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkinsci.plugins.pipelineConfigHistory.benchmark;
+
+import org.apache.commons.io.FileUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Generates build.xml files shaped like the ones workflow-job writes for long running
+ * pipelines: many actions before the execution, the script, and the flow metadata after it.
+ */
+final class BuildXmlFixtures {
+
+	private BuildXmlFixtures() {
+	}
+
+	/**
+	 * Write a build.xml.
+	 *
+	 * @param file        the target file.
+	 * @param scriptLines number of lines of the pipeline script.
+	 * @param nodes       number of flow nodes, which determines the size of the metadata.
+	 * @param variant     changes the last script line, so scripts of different variants differ.
+	 */
+	static void write(File file, int scriptLines, int nodes, int variant) throws IOException {
+		StringBuilder xml = new StringBuilder("<?xml version='1.1' encoding='UTF-8'?>\n")
+				.append("<flow-build plugin=\"workflow-job@2.32\">\n")
+				.append("  <actions>\n")
+				.append("    <hudson.model.CauseAction>\n")
+				.append("      <causeBag class=\"linked-hash-map\">\n")
+				.append("        <entry>\n")
+				.append("          <org.jenkinsci.plugins.workflow.cps.replay.ReplayCause plugin=\"workflow-cps@2.61\">\n")
+				.append("            <originalNumber>12</originalNumber>\n")
+				.append("          </org.jenkinsci.plugins.workflow.cps.replay.ReplayCause>\n")
+				.append("          <int>1</int>\n")
+				.append("        </entry>\n")
+				.append("      </causeBag>\n")
+				.append("    </hudson.model.CauseAction>\n");
+		for (int i = 0; i < nodes / 10; i++) {
+			xml.append("    <hudson.plugins.git.util.BuildData plugin=\"git@3.9.1\">\n")
+					.append("      <buildsByBranchName>\n")
+					.append("        <entry>\n")
+					.append("          <string>refs/remotes/origin/feature-").append(i).append("</string>\n")
+					.append("          <hudson.plugins.git.util.Build>\n")
+					.append("            <marked plugin=\"git-client@2.7.3\">\n")
+					.append("              <sha1>4d1f0c7e9a8b6c5d4e3f2a1b0c9d8e7f6a5b4c3").append(i % 10).append("</sha1>\n")
+					.append("            </marked>\n")
+					.append("            <hudsonBuildNumber>").append(i).append("</hudsonBuildNumber>\n")
+					.append("          </hudson.plugins.git.util.Build>\n")
+					.append("        </entry>\n")
+					.append("      </buildsByBranchName>\n")
+					.append("      <remoteUrls>\n")
+					.append("        <string>ssh://git@example.com/team/repository-").append(i).append(".git</string>\n")
+					.append("      </remoteUrls>\n")
+					.append("    </hudson.plugins.git.util.BuildData>\n");
+		}
+		xml.append("  </actions>\n")
+				.append("  <queueId>4711</queueId>\n")
+				.append("  <timestamp>1565000000000</timestamp>\n")
+				.append("  <startTime>1565000000042</startTime>\n")
+				.append("  <result>SUCCESS</result>\n")
+				.append("  <duration>123456</duration>\n")
+				.append("  <charset>UTF-8</charset>\n")
+				.append("  <keepLog>false</keepLog>\n")
+				.append("  <execution class=\"org.jenkinsci.plugins.workflow.cps.CpsFlowExecution\">\n")
+				.append("    <result>SUCCESS</result>\n")
+				.append("    <script>");
+		for (int i = 0; i < scriptLines - 1; i++) {
+			xml.append("        sh &apos;./gradlew test -Pmodule=").append(i)
+					.append(" &amp;&amp; echo &quot;done &lt;").append(i).append("&gt;&quot;&apos;\n");
+		}
+		xml.append("echo &apos;variant ").append(variant).append("&apos;</script>\n")
+				.append("    <loadedScripts class=\"map\"/>\n")
+				.append("    <durabilityHint>MAX_SURVIVABILITY</durabilityHint>\n")
+				.append("    <timings class=\"map\">\n");
+		for (int i = 0; i < nodes; i++) {
+			xml.append("      <entry>\n")
+					.append("        <string>node-").append(i).append("</string>\n")
+					.append("        <long>").append(1000L + i * 7L).append("</long>\n")
+					.append("      </entry>\n");
+		}
+		xml.append("    </timings>\n")
+				.append("    <sandbox>true</sandbox>\n")
+				.append("    <iota>").append(nodes).append("</iota>\n")
+				.append("    <head>1:").append(nodes).append("</head>\n")
+				.append("    <done>true</done>\n")
+				.append("    <resumeBlocked>false</resumeBlocked>\n")
+				.append("  </execution>\n")
+				.append("  <completed>true</completed>\n")
+				.append("  <checkouts class=\"hudson.util.PersistedList\"/>\n")
+				.append("</flow-build>\n");
+		FileUtils.writeStringToFile(file, xml.toString(), StandardCharsets.UTF_8);
+	}
+}
@@ -0,0 +1,127 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2019, Robin Schulz
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkinsci.plugins.pipelineConfigHistory.benchmark;
+
+import jenkins.benchmark.jmh.JmhBenchmark;
+import org.apache.commons.io.FileUtils;
+import org.jenkinsci.plugins.pipelineConfigHistory.BuildXmlReader;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.w3c.dom.Document;
+import org.w3c.dom.NodeList;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+import javax.xml.parsers.DocumentBuilderFactory;
+
+/**
+ * Compares the streaming build.xml access with the DOM based one it replaced.
+ */
+@JmhBenchmark
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class BuildXmlReaderBenchmark {
+
+	@Param({"100", "5000"})
+	public int scriptLines;
+
+	@Param({"1000", "50000"})
+	public int nodes;
+
+	private File dir;
+	private File buildXml;
+	private File sameScriptBuildXml;
+	private File otherScriptBuildXml;
+
+	@Setup(Level.Trial)
+	public void setup() throws IOException {
+		dir = Files.createTempDirectory("build-xml-benchmark").toFile();
+		buildXml = new File(dir, "build1.xml");
+		sameScriptBuildXml = new File(dir, "build2.xml");
+		otherScriptBuildXml = new File(dir, "build3.xml");
+		BuildXmlFixtures.write(buildXml, scriptLines, nodes, 0);
+		BuildXmlFixtures.write(sameScriptBuildXml, scriptLines, nodes + 1, 0);
+		BuildXmlFixtures.write(otherScriptBuildXml, scriptLines, nodes, 1);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws IOException {
+		FileUtils.deleteDirectory(dir);
+	}
+
+	@Benchmark
+	public boolean domScriptsAreEqual() throws Exception {
+		return domScript(buildXml).equals(domScript(sameScriptBuildXml));
+	}
+
+	@Benchmark
+	public boolean staxScriptsAreEqual() throws IOException {
+		return BuildXmlReader.scriptsAreEqual(buildXml, sameScriptBuildXml);
+	}
+
+	@Benchmark
+	public boolean domScriptsDiffer() throws Exception {
+		return domScript(buildXml).equals(domScript(otherScriptBuildXml));
+	}
+
+	@Benchmark
+	public boolean staxScriptsDiffer() throws IOException {
+		return BuildXmlReader.scriptsAreEqual(buildXml, otherScriptBuildXml);
+	}
+
+	@Benchmark
+	public int domOriginalNumber() throws Exception {
+		NodeList elements = domParse(buildXml).getElementsByTagName("originalNumber");
+		return Integer.parseInt(elements.item(0).getTextContent());
+	}
+
+	@Benchmark
+	public int staxOriginalNumber() throws IOException {
+		return BuildXmlReader.getOriginalNumber(buildXml);
+	}
+
+	/**
+	 * The code path before streaming: a new factory and a full DOM per call.
+	 */
+	private static Document domParse(File file) throws Exception {
+		DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+		factory.setIgnoringElementContentWhitespace(true);
+		return factory.newDocumentBuilder().parse(file);
+	}
+
+	private static String domScript(File file) throws Exception {
+		return domParse(file).getElementsByTagName("script").item(0).getTextContent();
+	}
+}
@@ -0,0 +1,85 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2019, Robin Schulz
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkinsci.plugins.pipelineConfigHistory.benchmark;
+
+import jenkins.benchmark.jmh.JmhBenchmark;
+import org.jenkinsci.plugins.pipelineConfigHistory.view.DiffLineGenerator;
+import org.jenkinsci.plugins.pipelineConfigHistory.view.PipelineConfigHistoryProjectAction;
+import org.jenkinsci.plugins.pipelineConfigHistory.view.SideBySideView;
+import org.jenkinsci.plugins.pipelineConfigHistory.view.SingleLineView;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the diff rendering pipeline of the history pages: the side by side lines
+ * computed by {@link DiffLineGenerator} and the single line view built from them.
+ */
+@JmhBenchmark
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class DiffRenderingBenchmark {
+
+	@Param({"100", "1000", "10000", "100000"})
+	public int lines;
+
+	@Param({"0.001", "0.01", "0.1"})
+	public double changeDensity;
+
+	@Param({"JENKINSFILE", "LIBRARY"})
+	public ScriptFixtures.Kind kind;
+
+	private String original;
+	private String revised;
+	private PipelineConfigHistoryProjectAction action;
+
+	@Setup(Level.Trial)
+	public void setup() {
+		List<String> script = ScriptFixtures.generate(kind, lines);
+		original = String.join("\n", script);
+		revised = String.join("\n", ScriptFixtures.change(script, changeDensity));
+		// the view methods don't touch the job.
+		action = new PipelineConfigHistoryProjectAction(null);
+	}
+
+	@Benchmark
+	public List<SideBySideView.Line> sideBySideLines() {
+		return new DiffLineGenerator(original, revised).getLines();
+	}
+
+	@Benchmark
+	public List<SingleLineView.Line> singleLineViewLines() {
+		return action.getSingleLineViewLines(original, revised);
+	}
+}
@@ -0,0 +1,107 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2019, Robin Schulz
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkinsci.plugins.pipelineConfigHistory.benchmark;
+
+import jenkins.benchmark.jmh.JmhBenchmark;
+import org.apache.commons.io.FileUtils;
+import org.jenkinsci.plugins.pipelineConfigHistory.BuildXmlReader;
+import org.jenkinsci.plugins.pipelineConfigHistory.model.PipelineHistoryCompression;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Write and read latency of compressed revisions per deflate level, against uncompressed ones.
+ * The stored sizes are printed during setup.
+ */
+@JmhBenchmark
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class RevisionCompressionBenchmark {
+
+	@Param({"1", "6", "9"})
+	public int level;
+
+	@Param({"1000", "50000"})
+	public int nodes;
+
+	private File dir;
+	private File buildXml;
+	private File compressedBuildXml;
+	private File target;
+
+	@Setup(Level.Trial)
+	public void setup() throws IOException {
+		dir = Files.createTempDirectory("revision-compression-benchmark").toFile();
+		buildXml = new File(dir, "build.xml");
+		compressedBuildXml = new PipelineHistoryCompression.CompressedFile(dir, "build.xml.compressed");
+		target = new File(dir, "target.xml");
+		BuildXmlFixtures.write(buildXml, 1000, nodes, 0);
+		PipelineHistoryCompression.compress(buildXml.toPath(), compressedBuildXml.toPath(), level);
+		System.out.printf("level %d, %d nodes: %d bytes stored as %d bytes%n",
+				level, nodes, buildXml.length(), compressedBuildXml.length());
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws IOException {
+		FileUtils.deleteDirectory(dir);
+	}
+
+	@Benchmark
+	public long writeUncompressed() throws IOException {
+		Files.deleteIfExists(target.toPath());
+		Files.copy(buildXml.toPath(), target.toPath());
+		return target.length();
+	}
+
+	@Benchmark
+	public long writeCompressed() throws IOException {
+		Files.deleteIfExists(target.toPath());
+		PipelineHistoryCompression.compress(buildXml.toPath(), target.toPath(), level);
+		return target.length();
+	}
+
+	@Benchmark
+	public String readScriptUncompressed() throws IOException {
+		return BuildXmlReader.getScript(buildXml);
+	}
+
+	@Benchmark
+	public String readScriptCompressed() throws IOException {
+		return BuildXmlReader.getScript(compressedBuildXml);
+	}
+}
@@ -0,0 +1,115 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2019, Robin Schulz
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkinsci.plugins.pipelineConfigHistory.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Generates Jenkinsfiles and shared library sources and changed revisions of them.
+ * Generation is seeded, so every run benchmarks the same input.
+ */
+final class ScriptFixtures {
+
+	/**
+	 * The kind of script to generate.
+	 */
+	enum Kind {
+		JENKINSFILE,
+		LIBRARY
+	}
+
+	private ScriptFixtures() {
+	}
+
+	/**
+	 * Generate a script.
+	 *
+	 * @param kind  Jenkinsfile or library.
+	 * @param lines the number of lines.
+	 * @return the script.
+	 */
+	static List<String> generate(Kind kind, int lines) {
+		final List<String> script = new ArrayList<>(lines);
+		final Random random = new Random(lines);
+		int block = 0;
+		while (script.size() < lines) {
+			if (kind == Kind.JENKINSFILE) {
+				script.add("    stage('stage " + block + "') {");
+				script.add("        steps {");
+				script.add("            sh './gradlew :module" + block + ":test --info'");
+				script.add("            echo \"finished module " + block + " with " + random.nextInt(100) + " tests\"");
+				script.add("            archiveArtifacts artifacts: 'module" + block + "/build/libs/*.jar'");
+				script.add("        }");
+				script.add("    }");
+			} else {
+				script.add("/**");
+				script.add(" * Deploys service " + block + ".");
+				script.add(" */");
+				script.add("def deploy" + block + "(Map config = [:]) {");
+				script.add("    def target = config.target ?: 'staging-" + random.nextInt(10) + "'");
+				script.add("    withCredentials([string(credentialsId: 'token-" + block + "', variable: 'TOKEN')]) {");
+				script.add("        sh \"curl -H 'Authorization: \\$TOKEN' https://${target}.example.com/deploy/" + block + "\"");
+				script.add("    }");
+				script.add("}");
+				script.add("");
+			}
+			block++;
+		}
+		return new ArrayList<>(script.subList(0, lines));
+	}
+
+	/**
+	 * Change a script. Every changed position is replaced, deleted or preceded by a new line
+	 * with equal probability.
+	 *
+	 * @param script        the original script.
+	 * @param changeDensity the fraction of lines to change.
+	 * @return the changed script.
+	 */
+	static List<String> change(List<String> script, double changeDensity) {
+		final List<String> changed = new ArrayList<>(script.size());
+		final Random random = new Random(script.size() * 31L);
+		for (int i = 0; i < script.size(); i++) {
+			if (random.nextDouble() >= changeDensity) {
+				changed.add(script.get(i));
+				continue;
+			}
+			switch (random.nextInt(3)) {
+				case 0:
+					changed.add(script.get(i).replace("module", "component") + " // changed " + i);
+					break;
+				case 1:
+					// deleted
+					break;
+				default:
+					changed.add("    echo 'inserted before line " + i + "'");
+					changed.add(script.get(i));
+					break;
+			}
+		}
+		return changed;
+	}
+}
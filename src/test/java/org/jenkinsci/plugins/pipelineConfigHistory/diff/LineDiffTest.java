@@ -0,0 +1,184 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2019, Robin Schulz
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkinsci.plugins.pipelineConfigHistory.diff;
+
+import difflib.Delta;
+import difflib.Patch;
+import org.junit.Test;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class LineDiffTest {
+
+	@Test
+	public void myersDiffIsMinimal() {
+		Random random = new Random(42);
+		for (int i = 0; i < 2000; i++) {
+			int[] a = randomIds(random, random.nextInt(25), 1 + random.nextInt(5));
+			int[] b = randomIds(random, random.nextInt(25), 1 + random.nextInt(5));
+
+			List<Edit> edits = new MyersDiff().diff(a, b, DiffBudget.unlimited());
+
+			assertEquals(a.length + b.length - 2 * lcsLength(a, b), applyAndCount(a, b, edits));
+		}
+	}
+
+	@Test
+	public void histogramDiffTransformsOriginalIntoRevised() {
+		Random random = new Random(42);
+		for (int i = 0; i < 2000; i++) {
+			int[] a = randomIds(random, random.nextInt(40), 1 + random.nextInt(8));
+			int[] b = randomIds(random, random.nextInt(40), 1 + random.nextInt(8));
+
+			applyAndCount(a, b, new HistogramDiff().diff(a, b, DiffBudget.unlimited()));
+		}
+	}
+
+	@Test
+	public void histogramDiffAnchorsOnUniqueLines() {
+		List<String> original = Arrays.asList("def a() {", "  x", "}", "def b() {", "  y", "}");
+		List<String> revised = Arrays.asList("def b() {", "  y", "}", "def a() {", "  x", "}");
+
+		List<Edit> edits = LineDiff.compute(original, revised, new HistogramDiff(),
+				DiffBudget.unlimited()).getEdits();
+
+		// method b is kept as a whole, method a is moved behind it.
+		assertEquals(Arrays.asList(new Edit(0, 3, 0, 0), new Edit(5, 5, 2, 5)), edits);
+	}
+
+	@Test
+	public void getPatch() {
+		List<String> original = Arrays.asList("a", "b", "c", "d", "e");
+		List<String> revised = Arrays.asList("a", "x", "c", "e", "f");
+
+		LineDiff diff = LineDiff.compute(original, revised);
+		Patch patch = diff.getPatch();
+
+		assertFalse(diff.isApproximate());
+		assertEquals(3, patch.getDeltas().size());
+		Delta change = (Delta) patch.getDeltas().get(0);
+		assertEquals(Delta.TYPE.CHANGE, change.getType());
+		assertEquals(1, change.getOriginal().getPosition());
+		assertEquals(Collections.singletonList("x"), change.getRevised().getLines());
+		assertEquals(Delta.TYPE.DELETE, ((Delta) patch.getDeltas().get(1)).getType());
+		assertEquals(Delta.TYPE.INSERT, ((Delta) patch.getDeltas().get(2)).getType());
+	}
+
+	@Test
+	public void tooManyLinesAreApproximated() {
+		List<String> original = Arrays.asList("a", "b", "c", "d", "e");
+		List<String> revised = Arrays.asList("a", "x", "c", "y", "e");
+
+		LineDiff diff = LineDiff.compute(original, revised, new MyersDiff(), new DiffBudget(0, 9));
+
+		assertTrue(diff.isApproximate());
+		assertEquals(Collections.singletonList(new Edit(1, 4, 1, 4)), diff.getEdits());
+	}
+
+	@Test
+	public void timeoutIsApproximated() {
+		Random random = new Random(42);
+		List<String> original = new ArrayList<>();
+		List<String> revised = new ArrayList<>();
+		original.add("header");
+		revised.add("header");
+		for (int i = 0; i < 200000; i++) {
+			original.add(Integer.toString(random.nextInt(1000000)));
+			revised.add(Integer.toString(random.nextInt(1000000)));
+		}
+
+		LineDiff diff = LineDiff.compute(original, revised, new MyersDiff(), new DiffBudget(1, 0));
+
+		assertTrue(diff.isApproximate());
+		assertEquals(Collections.singletonList(new Edit(1, 200001, 1, 200001)), diff.getEdits());
+	}
+
+	private static int[] randomIds(Random random, int length, int distinct) {
+		int[] ids = new int[length];
+		for (int i = 0; i < length; i++) {
+			ids[i] = random.nextInt(distinct);
+		}
+		return ids;
+	}
+
+	private static int lcsLength(int[] a, int[] b) {
+		int[][] lengths = new int[a.length + 1][b.length + 1];
+		for (int i = 1; i <= a.length; i++) {
+			for (int j = 1; j <= b.length; j++) {
+				lengths[i][j] = a[i - 1] == b[j - 1]
+						? lengths[i - 1][j - 1] + 1
+						: Math.max(lengths[i - 1][j], lengths[i][j - 1]);
+			}
+		}
+		return lengths[a.length][b.length];
+	}
+
+	/**
+	 * Apply the edits to a, assert that the result is b and return the number of lines edited.
+	 */
+	private static int applyAndCount(int[] a, int[] b, List<Edit> edits) {
+		List<Integer> result = new ArrayList<>();
+		int posA = 0;
+		int edited = 0;
+		for (Edit edit : edits) {
+			assertTrue("edits are ordered", edit.getBeginA() >= posA);
+			assertEquals("unchanged lines in between", edit.getBeginA() - posA,
+					edit.getBeginB() - result.size());
+			for (; posA < edit.getBeginA(); posA++) {
+				result.add(a[posA]);
+			}
+			for (int i = edit.getBeginB(); i < edit.getEndB(); i++) {
+				result.add(b[i]);
+			}
+			edited += edit.getEndA() - edit.getBeginA() + edit.getEndB() - edit.getBeginB();
+			posA = edit.getEndA();
+		}
+		for (; posA < a.length; posA++) {
+			result.add(a[posA]);
+		}
+		assertEquals(b.length, result.size());
+		for (int i = 0; i < b.length; i++) {
+			assertEquals(b[i], (int) result.get(i));
+		}
+		return edited;
+	}
+
+	@Test
+	public void readLinesMatchesSplitLines() {
+		for (String content : Arrays.asList("", "\n", "\n\n", "a", "a\n", "a\n\n\n", "\na\n\nb",
+				"a\r\nb\r\n", "a\n\nb\n\n")) {
+			List<String> lines = new ArrayList<>();
+			LineDiff.readLines(new StringReader(content)).forEachRemaining(lines::add);
+
+			assertEquals(content, LineDiff.splitLines(content), lines);
+		}
+	}
+}
@@ -23,6 +23,8 @@
  */
 package org.jenkinsci.plugins.pipelineConfigHistory.model;
 
+import org.jenkinsci.plugins.pipelineConfigHistory.BuildXmlReader;
+import org.jenkinsci.plugins.pipelineConfigHistory.PipelineConfigHistoryConsts;
 import org.jenkinsci.plugins.pipelineConfigHistory.PluginUtils;
 import org.jenkinsci.plugins.workflow.cps.CpsFlowDefinition;
 import org.jenkinsci.plugins.workflow.job.WorkflowJob;
@@ -31,9 +33,31 @@ import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
 import org.jvnet.hudson.test.JenkinsRule;
-
+import org.jvnet.hudson.test.MockFolder;
+
+import hudson.Functions;
+import hudson.XmlFile;
+import hudson.model.Items;
+import org.apache.commons.io.FileUtils;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.SortedMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
 
 import static org.awaitility.Awaitility.await;
 import static org.junit.Assert.*;
@@ -70,13 +94,15 @@ public class FilePipelineItemHistoryDaoTest {
 
 
 	private void createNewBuild(WorkflowJob workflowJob, String script) throws Exception {
-		pipelineProject.setDefinition(new CpsFlowDefinition(script, false));
+		workflowJob.setDefinition(new CpsFlowDefinition(script, false));
 
 		WorkflowRun oldRun = workflowJob.getLastBuild();
 
 		jenkinsRule.buildAndAssertSuccess(workflowJob);
 
 		await().until(() -> oldRun != workflowJob.getLastBuild());
+		// don't race with the history capture of the listener.
+		assertTrue(PipelineConfigHistoryCaptureQueue.get().awaitIdle(30, TimeUnit.SECONDS));
 
 		WorkflowRun lastRun = workflowJob.getLastBuild();
 		System.out.println("Build completed:" + lastRun + ": "
@@ -125,6 +151,64 @@ public class FilePipelineItemHistoryDaoTest {
 		assertEquals(4, PluginUtils.getHistoryDao().getRevisions(pipelineProject).size());
 	}
 
+	@Test
+	public void concurrentUpdatesOfTheSameJobAreSerialized() throws Exception {
+		final FilePipelineItemHistoryDao historyDao = (FilePipelineItemHistoryDao) PluginUtils.getHistoryDao();
+		final int jobCount = 3;
+		final int threadsPerJob = 8;
+		final int rounds = 5;
+
+		List<WorkflowJob> jobs = new ArrayList<>();
+		jobs.add(pipelineProject);
+		for (int i = 1; i < jobCount; i++) {
+			jobs.add(jenkinsRule.createProject(WorkflowJob.class, PIPELINE_NAME + i));
+		}
+		for (WorkflowJob job : jobs) {
+			createNewBuild(job, SCRIPT);
+			createNewBuild(job, SCRIPT_2);
+			assertEquals(2, historyDao.getRevisions(job).size());
+		}
+
+		ExecutorService executor = Executors.newFixedThreadPool(jobCount * threadsPerJob);
+		try {
+			for (int round = 0; round < rounds; round++) {
+				// all completions of a job in a round carry the same config, so only the first one changes the history.
+				final int buildNumber = round % 2 == 0 ? 1 : 2;
+				final CountDownLatch start = new CountDownLatch(1);
+				Map<WorkflowJob, List<Future<Boolean>>> updates = new HashMap<>();
+				for (WorkflowJob job : jobs) {
+					for (int t = 0; t < threadsPerJob; t++) {
+						updates.computeIfAbsent(job, key -> new ArrayList<>()).add(executor.submit(() -> {
+							start.await();
+							return historyDao.updateHistory(job, buildNumber);
+						}));
+					}
+				}
+				start.countDown();
+				for (Map.Entry<WorkflowJob, List<Future<Boolean>>> jobUpdates : updates.entrySet()) {
+					int changed = 0;
+					for (Future<Boolean> update : jobUpdates.getValue()) {
+						changed += update.get(60, TimeUnit.SECONDS) ? 1 : 0;
+					}
+					assertEquals(jobUpdates.getKey().getFullName(), 1, changed);
+				}
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+
+		for (WorkflowJob job : jobs) {
+			List<PipelineHistoryIndex.Entry> entries = historyDao.getIndex(job).getEntries();
+			assertEquals(2 + rounds, entries.size());
+			assertEquals(entries.size(), historyDao.getHistoryRootDirectory(job)
+					.listFiles(PipelineHistoryFileFilter.getInstance()).length);
+			// no two consecutive revisions with the same config.
+			for (int i = 1; i < entries.size(); i++) {
+				assertNotEquals(entries.get(i - 1).getContentHash(), entries.get(i).getContentHash());
+			}
+		}
+	}
+
 	@Test
 	public void deleteHistory() throws Exception {
 		PipelineItemHistoryDao historyDao = PluginUtils.getHistoryDao();
@@ -176,6 +260,52 @@ public class FilePipelineItemHistoryDaoTest {
 		assertEquals(formerSize, PluginUtils.getHistoryDao().getRevisions(pipelineProject).size());
 	}
 
+	@Test
+	public void changeHistoryLocationRenamesTheHistory() throws Exception {
+		createNewBuild(pipelineProject, SCRIPT);
+		File oldRevision = PluginUtils.getHistoryDao().getMostRecentRevision(pipelineProject);
+		File historyXml = new File(oldRevision, PipelineConfigHistoryConsts.HISTORY_XML_FILENAME);
+		String historyXmlContent = FileUtils.readFileToString(historyXml, StandardCharsets.UTF_8);
+
+		pipelineProject.renameTo(PIPELINE_NEW_NAME);
+
+		assertFalse(oldRevision.getParentFile().exists());
+		File newRevision = PluginUtils.getHistoryDao().getMostRecentRevision(pipelineProject);
+		assertEquals(oldRevision.getName(), newRevision.getName());
+		//history.xml is left as it is, the full name is taken from the job.
+		assertEquals(historyXmlContent, FileUtils.readFileToString(
+				new File(newRevision, PipelineConfigHistoryConsts.HISTORY_XML_FILENAME), StandardCharsets.UTF_8));
+		PipelineHistoryDescription description =
+				PluginUtils.getHistoryDao().getRevisions(pipelineProject).get(newRevision.getName());
+		assertEquals(PIPELINE_NEW_NAME, description.getFullName());
+		assertEquals(newRevision, PluginUtils.getHistoryDao().getRevision(description));
+	}
+
+	@Test
+	public void changeFolderHistoryLocationMovesAllJobsAtOnce() throws Exception {
+		MockFolder folder = jenkinsRule.createFolder("folder");
+		MockFolder target = jenkinsRule.createFolder("target");
+		WorkflowJob first = folder.createProject(WorkflowJob.class, "first");
+		WorkflowJob second = folder.createProject(WorkflowJob.class, "second");
+		createNewBuild(first, SCRIPT);
+		createNewBuild(second, SCRIPT_2);
+		File oldFolderDir = PluginUtils.getHistoryDao().getMostRecentRevision(first)
+				.getParentFile().getParentFile();
+		String firstRevision = PluginUtils.getHistoryDao().getMostRecentRevision(first).getName();
+
+		Items.move(folder, target);
+
+		assertFalse(oldFolderDir.exists());
+		assertEquals("target/folder/first", first.getFullName());
+		SortedMap<String, PipelineHistoryDescription> revisions =
+				PluginUtils.getHistoryDao().getRevisions(first);
+		assertEquals(Collections.singleton(firstRevision), revisions.keySet());
+		assertEquals("target/folder/first", revisions.get(firstRevision).getFullName());
+		assertTrue(new File(PluginUtils.getHistoryDao().getRevision(revisions.get(firstRevision)),
+				PipelineConfigHistoryConsts.BUILD_XML_FILENAME).isFile());
+		assertEquals(1, PluginUtils.getHistoryDao().getRevisions(second).size());
+	}
+
 	@Test
 	public void rename() throws Exception {
 		createNewBuild(pipelineProject, SCRIPT);
@@ -257,4 +387,488 @@ public class FilePipelineItemHistoryDaoTest {
 						.getName()
 		);
 	}
-}
\ No newline at end of file
+
+	@Test
+	public void indexIsRebuiltWhenMissing() throws Exception {
+		FilePipelineItemHistoryDao historyDao = (FilePipelineItemHistoryDao) PluginUtils.getHistoryDao();
+
+		createNewBuild(pipelineProject, SCRIPT);
+		historyDao.createHistory(pipelineProject, 1);
+		createNewBuild(pipelineProject, SCRIPT_2);
+		historyDao.updateHistory(pipelineProject, 2);
+
+		File indexFile = historyDao.getIndex(pipelineProject).getIndexFile();
+		assertTrue(indexFile.exists());
+		assertTrue(indexFile.delete());
+
+		SortedMap<String, PipelineHistoryDescription> revisions = historyDao.getRevisions(pipelineProject);
+		assertEquals(2, revisions.size());
+		assertEquals(1, revisions.get(revisions.firstKey()).getBuildNumber());
+		assertEquals(2, revisions.get(revisions.lastKey()).getBuildNumber());
+		assertTrue(indexFile.exists());
+	}
+
+	@Test
+	public void indexNoticesRevisionsDeletedByHand() throws Exception {
+		FilePipelineItemHistoryDao historyDao = (FilePipelineItemHistoryDao) PluginUtils.getHistoryDao();
+
+		createNewBuild(pipelineProject, SCRIPT);
+		historyDao.createHistory(pipelineProject, 1);
+		createNewBuild(pipelineProject, SCRIPT_2);
+		historyDao.updateHistory(pipelineProject, 2);
+		String firstTimestamp = historyDao.getRevisions(pipelineProject).firstKey();
+
+		// make sure the directory modification is not within the index' last modification.
+		Thread.sleep(1000);
+		FileUtils.deleteDirectory(historyDao.getRevision(pipelineProject, firstTimestamp));
+
+		assertEquals(1, historyDao.getRevisions(pipelineProject).size());
+		try {
+			historyDao.getRevision(pipelineProject, firstTimestamp);
+			fail("deleted revision still found.");
+		} catch (FileNotFoundException expected) {
+			//expected
+		}
+	}
+
+	@Test
+	public void indexIsParsedOnlyWhenChanged() throws Exception {
+		FilePipelineItemHistoryDao historyDao = (FilePipelineItemHistoryDao) PluginUtils.getHistoryDao();
+
+		createNewBuild(pipelineProject, SCRIPT);
+		historyDao.createHistory(pipelineProject, 1);
+
+		List<PipelineHistoryIndex.Entry> entries = historyDao.getIndex(pipelineProject).getEntries();
+		assertSame(entries, historyDao.getIndex(pipelineProject).getEntries());
+
+		createNewBuild(pipelineProject, SCRIPT_2);
+		historyDao.updateHistory(pipelineProject, 2);
+
+		List<PipelineHistoryIndex.Entry> updated = historyDao.getIndex(pipelineProject).getEntries();
+		assertEquals(entries.size() + 1, updated.size());
+		assertEquals(2, historyDao.getIndex(pipelineProject).getMostRecent().getBuildNumber());
+	}
+
+	@Test
+	public void indexRecordsContentHash() throws Exception {
+		FilePipelineItemHistoryDao historyDao = (FilePipelineItemHistoryDao) PluginUtils.getHistoryDao();
+
+		createNewBuild(pipelineProject, SCRIPT);
+		historyDao.createHistory(pipelineProject, 1);
+		createNewBuild(pipelineProject, SCRIPT_2);
+		historyDao.updateHistory(pipelineProject, 2);
+
+		List<PipelineHistoryIndex.Entry> entries = historyDao.getIndex(pipelineProject).getEntries();
+		assertEquals(2, entries.size());
+		assertNotNull(entries.get(0).getContentHash());
+		assertNotEquals(entries.get(0).getContentHash(), entries.get(1).getContentHash());
+		assertEquals(PipelineHistoryIndex.Entry.NO_REPLAY, entries.get(1).getReplayOrigin());
+	}
+
+	@Test
+	public void updateHistoryStoresDiffSummary() throws Exception {
+		FilePipelineItemHistoryDao historyDao = (FilePipelineItemHistoryDao) PluginUtils.getHistoryDao();
+
+		createNewBuild(pipelineProject, SCRIPT);
+		historyDao.createHistory(pipelineProject, 1);
+		createNewBuild(pipelineProject, SCRIPT_2);
+		historyDao.updateHistory(pipelineProject, 2);
+
+		List<PipelineHistoryIndex.Entry> entries = historyDao.getIndex(pipelineProject).getEntries();
+		assertNull(entries.get(0).getDiffSummary());
+		PipelineConfigDiffSummary indexed = entries.get(1).getDiffSummary();
+		assertEquals(entries.get(0).getTimestamp(), indexed.getPreviousTimestamp());
+		assertEquals(1, indexed.getChangedFileCount());
+		assertEquals(1, indexed.getAddedLines());
+		assertEquals(1, indexed.getRemovedLines());
+		assertTrue(indexed.isScriptChanged());
+		assertFalse(indexed.isLibsChanged());
+
+		XmlFile historyXml = new XmlFile(new File(historyDao.getRevision(pipelineProject,
+				entries.get(1).getTimestamp()), PipelineConfigHistoryConsts.HISTORY_XML_FILENAME));
+		PipelineConfigDiffSummary stored =
+				((PipelineHistoryDescription) historyXml.read()).getDiffSummary();
+		assertEquals(Collections.singletonList(PipelineConfigHistoryConsts.BUILD_XML_FILENAME),
+				stored.getChangedFiles());
+	}
+
+	@Test
+	public void purgeEntriesBefore() throws Exception {
+		FilePipelineItemHistoryDao historyDao = (FilePipelineItemHistoryDao) PluginUtils.getHistoryDao();
+
+		createNewBuild(pipelineProject, SCRIPT);
+		historyDao.createHistory(pipelineProject, 1);
+		createNewBuild(pipelineProject, SCRIPT_2);
+		historyDao.updateHistory(pipelineProject, 2);
+		List<PipelineHistoryIndex.Entry> entries = historyDao.getIndex(pipelineProject).getEntries();
+		String oldest = entries.get(0).getTimestamp();
+		String newest = entries.get(1).getTimestamp();
+
+		PipelineHistoryPurgeSummary summary = new PipelineHistoryPurgeSummary();
+		historyDao.purgeEntriesBefore(newest, pipelineProject,
+				new PipelineHistoryPurgeBudget(1000, 1024 * 1024 * 1024), summary);
+
+		assertEquals(1, summary.getJobCount());
+		assertEquals(1, summary.getPurgedCount());
+		assertTrue(summary.getPurgedBytes() > 0);
+		assertEquals(0, summary.getFailedCount());
+		assertFalse(new File(historyDao.getHistoryRootDirectory(pipelineProject), oldest).exists());
+		assertEquals(Collections.singletonList(newest), historyDao.getIndex(pipelineProject).getEntries()
+				.stream().map(PipelineHistoryIndex.Entry::getTimestamp).collect(Collectors.toList()));
+
+		// nothing is too old yet.
+		historyDao.purgeEntriesBefore(historyDao.getPurgeCutoff(1), pipelineProject,
+				PipelineHistoryPurgeBudget.unlimited(), summary);
+		assertEquals(2, summary.getJobCount());
+		assertEquals(1, summary.getPurgedCount());
+	}
+
+	@Test
+	public void updateHistoryAppendsToExpiryLog() throws Exception {
+		FilePipelineItemHistoryDao historyDao = (FilePipelineItemHistoryDao) PluginUtils.getHistoryDao();
+
+		createNewBuild(pipelineProject, SCRIPT);
+		historyDao.createHistory(pipelineProject, 1);
+		createNewBuild(pipelineProject, SCRIPT_2);
+		historyDao.updateHistory(pipelineProject, 2);
+
+		List<PipelineHistoryExpiryLog.Entry> logged =
+				historyDao.getExpiryLog().readExpired("9999-12-31_23-59-59");
+		assertEquals(historyDao.getIndex(pipelineProject).getEntries().stream()
+				.map(PipelineHistoryIndex.Entry::getTimestamp).collect(Collectors.toList()),
+				logged.stream().map(PipelineHistoryExpiryLog.Entry::getTimestamp).collect(Collectors.toList()));
+		assertTrue(logged.stream().allMatch(entry -> entry.getJobFullName().equals(PIPELINE_NAME)));
+	}
+
+	@Test
+	public void updateHistoryDropsExpiryLogWithoutMaxAge() throws Exception {
+		File historyRoot = new File(jenkinsRule.jenkins.getRootDir(), "unpurged-history");
+		FilePipelineItemHistoryDao historyDao = new FilePipelineItemHistoryDao(historyRoot, -1, false, false, false);
+
+		createNewBuild(pipelineProject, SCRIPT);
+		historyDao.createHistory(pipelineProject, 1);
+		historyDao.getExpiryLog().readExpired("9999-12-31_23-59-59");
+		assertTrue(historyDao.getExpiryLog().getLogFile().exists());
+
+		createNewBuild(pipelineProject, SCRIPT_2);
+		historyDao.updateHistory(pipelineProject, 2);
+		assertFalse(historyDao.getExpiryLog().getLogFile().exists());
+		// rebuilt once a max age is configured.
+		assertEquals(2, historyDao.getExpiryLog().readExpired("9999-12-31_23-59-59").size());
+	}
+
+	@Test
+	public void updateHistoryPublishesFromStaging() throws Exception {
+		FilePipelineItemHistoryDao historyDao = (FilePipelineItemHistoryDao) PluginUtils.getHistoryDao();
+		File stagingDir = new File(historyDao.getRootDirectory(), PipelineConfigHistoryConsts.STAGING_DIR);
+
+		createNewBuild(pipelineProject, SCRIPT);
+		historyDao.createHistory(pipelineProject, 1);
+		createNewBuild(pipelineProject, SCRIPT_2);
+		historyDao.updateHistory(pipelineProject, 2);
+
+		assertEquals(2, historyDao.getIndex(pipelineProject).getEntries().size());
+		assertEquals(0, stagingDir.list().length);
+
+		// a revision whose writing has been interrupted.
+		File interrupted = new File(stagingDir, "interrupted");
+		assertTrue(new File(interrupted, "libs").mkdirs());
+		FileUtils.write(new File(interrupted, PipelineConfigHistoryConsts.BUILD_XML_FILENAME), "<partial", StandardCharsets.UTF_8);
+
+		assertEquals(1, historyDao.deleteStagedRevisions());
+		assertFalse(interrupted.exists());
+		assertEquals(2, historyDao.getIndex(pipelineProject).getEntries().size());
+	}
+
+	@Test
+	public void backfillReplayOrigins() throws Exception {
+		FilePipelineItemHistoryDao historyDao = (FilePipelineItemHistoryDao) PluginUtils.getHistoryDao();
+
+		createNewBuild(pipelineProject, SCRIPT);
+		historyDao.createHistory(pipelineProject, 1);
+		String timestamp = historyDao.getIndex(pipelineProject).getMostRecent().getTimestamp();
+		XmlFile historyXml = new XmlFile(new File(historyDao.getRevision(pipelineProject, timestamp),
+				PipelineConfigHistoryConsts.HISTORY_XML_FILENAME));
+		PipelineHistoryDescription recorded = (PipelineHistoryDescription) historyXml.read();
+		assertTrue(recorded.hasReplayOrigin());
+		assertEquals(PipelineHistoryIndex.Entry.NO_REPLAY, recorded.getReplayOrigin());
+
+		// a revision captured before the replay origin was stored.
+		historyXml.write(new PipelineHistoryDescription(timestamp, pipelineProject.getFullName(),
+				recorded.getRootScriptName(), 1));
+		assertFalse(((PipelineHistoryDescription) historyXml.read()).hasReplayOrigin());
+		assertFalse(historyDao.isBuiltfromReplay(historyDao.getRevisions(pipelineProject).get(timestamp)));
+
+		assertEquals(1, historyDao.backfillReplayOrigins(pipelineProject));
+		assertTrue(((PipelineHistoryDescription) historyXml.read()).hasReplayOrigin());
+		assertEquals(0, historyDao.backfillReplayOrigins(pipelineProject));
+	}
+
+	@Test
+	public void getRows() throws Exception {
+		FilePipelineItemHistoryDao historyDao = (FilePipelineItemHistoryDao) PluginUtils.getHistoryDao();
+
+		createNewBuild(pipelineProject, SCRIPT);
+		historyDao.createHistory(pipelineProject, 1);
+		createNewBuild(pipelineProject, SCRIPT_2);
+		historyDao.updateHistory(pipelineProject, 2);
+
+		List<PipelineHistoryRow> rows = historyDao.getRows(pipelineProject);
+		assertEquals(2, rows.size());
+		assertEquals(1, rows.get(0).getBuildNumber());
+		assertEquals(2, rows.get(1).getBuildNumber());
+		assertFalse(rows.get(0).isBuiltFromReplay());
+		assertFalse(rows.get(1).isBuiltFromReplay());
+		assertNull(rows.get(0).getDiffSummary());
+		assertNotNull(rows.get(1).getDiffSummary());
+		// the revisions carry the replay origin, so it is not looked up in the index again.
+		assertTrue(historyDao.getRevisions(pipelineProject).get(rows.get(1).getTimestamp()).hasReplayOrigin());
+
+		PipelineHistoryRow row = historyDao.getRow(pipelineProject, rows.get(1).getTimestamp());
+		assertNotNull(row);
+		assertEquals(2, row.getBuildNumber());
+		assertNull(historyDao.getRow(pipelineProject, "1970-01-01_00-00-00"));
+	}
+
+	@Test
+	public void getPage() throws Exception {
+		FilePipelineItemHistoryDao historyDao = (FilePipelineItemHistoryDao) PluginUtils.getHistoryDao();
+
+		createNewBuild(pipelineProject, SCRIPT);
+		historyDao.createHistory(pipelineProject, 1);
+		createNewBuild(pipelineProject, SCRIPT_2);
+		historyDao.updateHistory(pipelineProject, 2);
+		createNewBuild(pipelineProject, SCRIPT_3);
+		historyDao.updateHistory(pipelineProject, 3);
+
+		PipelineHistoryPage firstPage = historyDao.getPage(pipelineProject, null, 2);
+		assertEquals(2, firstPage.getRows().size());
+		assertEquals(3, firstPage.getRows().get(0).getBuildNumber());
+		assertEquals(2, firstPage.getRows().get(1).getBuildNumber());
+		// the diff summary refers to a revision on the next page.
+		assertNotNull(firstPage.getRows().get(1).getDiffSummary());
+		assertTrue(firstPage.hasMore());
+		assertEquals(firstPage.getRows().get(1).getTimestamp(), firstPage.getNextCursor());
+
+		PipelineHistoryPage secondPage =
+				historyDao.getPage(pipelineProject, firstPage.getNextCursor(), 2);
+		assertEquals(1, secondPage.getRows().size());
+		assertEquals(1, secondPage.getRows().get(0).getBuildNumber());
+		assertFalse(secondPage.hasMore());
+		assertNull(secondPage.getNextCursor());
+
+		assertTrue(historyDao.getPage(pipelineProject, "1970-01-01_00-00-00", 2).getRows().isEmpty());
+		assertEquals(3, historyDao.getPage(pipelineProject, "9999-12-31_23-59-59", 5).getRows().size());
+	}
+
+	@Test
+	public void defaultRowsMatchTheIndex() throws Exception {
+		FilePipelineItemHistoryDao historyDao = (FilePipelineItemHistoryDao) PluginUtils.getHistoryDao();
+		PipelineItemHistoryDao revisionsOnly = new RevisionsOnlyDao(historyDao);
+
+		createNewBuild(pipelineProject, SCRIPT);
+		historyDao.createHistory(pipelineProject, 1);
+		createNewBuild(pipelineProject, SCRIPT_2);
+		historyDao.updateHistory(pipelineProject, 2);
+		createNewBuild(pipelineProject, SCRIPT_3);
+		historyDao.updateHistory(pipelineProject, 3);
+
+		assertRowsEqual(historyDao.getRows(pipelineProject), revisionsOnly.getRows(pipelineProject));
+		String timestamp = historyDao.getRows(pipelineProject).get(1).getTimestamp();
+		assertRowsEqual(Collections.singletonList(historyDao.getRow(pipelineProject, timestamp)),
+				Collections.singletonList(revisionsOnly.getRow(pipelineProject, timestamp)));
+		assertNull(revisionsOnly.getRow(pipelineProject, "1970-01-01_00-00-00"));
+
+		PipelineHistoryPage page = historyDao.getPage(pipelineProject, null, 2);
+		PipelineHistoryPage defaultPage = revisionsOnly.getPage(pipelineProject, null, 2);
+		assertRowsEqual(page.getRows(), defaultPage.getRows());
+		assertEquals(page.getNextCursor(), defaultPage.getNextCursor());
+		assertRowsEqual(historyDao.getPage(pipelineProject, page.getNextCursor(), 2).getRows(),
+				revisionsOnly.getPage(pipelineProject, defaultPage.getNextCursor(), 2).getRows());
+	}
+
+	private static void assertRowsEqual(List<PipelineHistoryRow> expected, List<PipelineHistoryRow> actual) {
+		assertEquals(expected.size(), actual.size());
+		for (int i = 0; i < expected.size(); i++) {
+			assertEquals(expected.get(i).getTimestamp(), actual.get(i).getTimestamp());
+			assertEquals(expected.get(i).getBuildNumber(), actual.get(i).getBuildNumber());
+			assertEquals(expected.get(i).getOriginalNumber(), actual.get(i).getOriginalNumber());
+			assertEquals(expected.get(i).getRootScriptName(), actual.get(i).getRootScriptName());
+			assertEquals(expected.get(i).getDiffSummary() != null, actual.get(i).getDiffSummary() != null);
+		}
+	}
+
+	/**
+	 * Only implements what the default methods need.
+	 */
+	private static class RevisionsOnlyDao implements PipelineItemHistoryDao {
+
+		private final PipelineItemHistoryDao delegate;
+
+		RevisionsOnlyDao(PipelineItemHistoryDao delegate) {
+			this.delegate = delegate;
+		}
+
+		@Override
+		public SortedMap<String, PipelineHistoryDescription> getRevisions(WorkflowJob workflowJob)
+				throws IOException {
+			return delegate.getRevisions(workflowJob);
+		}
+
+		@Override
+		public void createHistory(WorkflowJob workflowJob, int buildNumber) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public boolean updateHistory(WorkflowJob workflowJob, int buildNumber) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public void deleteHistory(WorkflowJob workflowJob) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public void changeHistoryLocation(WorkflowJob workflowJob, String oldFullName, String newFullName) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public File getRevision(WorkflowJob workflowJob, String identifier) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public File getRevision(PipelineHistoryDescription pipelineHistoryDescription) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public File getMostRecentRevision(WorkflowJob workflowJob) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public boolean isBuiltfromReplay(PipelineHistoryDescription pipelineHistoryDescription) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public int getOriginalBuildNumberFromReplay(PipelineHistoryDescription pipelineHistoryDescription) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public boolean isHistoryPresent(WorkflowJob workflowJob) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public void purgeEntriesByAge(int maxAge, WorkflowJob workflowJob) {
+			throw new UnsupportedOperationException();
+		}
+	}
+
+	@Test
+	public void deduplicateLibraries() throws Exception {
+		FilePipelineItemHistoryDao historyDao = new FilePipelineItemHistoryDao(
+				new File(jenkinsRule.jenkins.getRootDir(), "dedup-history"), -1, true);
+
+		createNewBuild(pipelineProject, SCRIPT);
+		writeLibrary(pipelineProject.getLastBuild(), "def call() {}");
+		historyDao.createHistory(pipelineProject, 1);
+
+		createNewBuild(pipelineProject, SCRIPT_2);
+		writeLibrary(pipelineProject.getLastBuild(), "def call() {}");
+		historyDao.updateHistory(pipelineProject, 2);
+
+		SortedMap<String, PipelineHistoryDescription> revisions = historyDao.getRevisions(pipelineProject);
+		assertEquals(2, revisions.size());
+		File revision2 = historyDao.getRevision(pipelineProject, revisions.lastKey());
+		File lib1 = new File(historyDao.getRevision(pipelineProject, revisions.firstKey()), "libs/lib/vars/a.groovy");
+		File lib2 = new File(revision2, "libs/lib/vars/a.groovy");
+		assertEquals("def call() {}", FileUtils.readFileToString(lib2, StandardCharsets.UTF_8));
+
+		PipelineHistoryDescription description =
+				(PipelineHistoryDescription) new XmlFile(new File(revision2, "history.xml")).read();
+		assertEquals(Collections.singleton("libs/lib/vars/a.groovy"), description.getLibsManifest().keySet());
+		assertTrue(historyDao.getBlobStore().getBlob(description.getLibsManifest().get("libs/lib/vars/a.groovy")).exists());
+		if (!Functions.isWindows()) {
+			assertTrue(Files.isSameFile(lib1.toPath(), lib2.toPath()));
+		}
+	}
+
+	@Test
+	public void compressRevisions() throws Exception {
+		File historyRoot = new File(jenkinsRule.jenkins.getRootDir(), "compressed-history");
+		FilePipelineItemHistoryDao plainDao = new FilePipelineItemHistoryDao(historyRoot, -1, false, false);
+		FilePipelineItemHistoryDao compressingDao = new FilePipelineItemHistoryDao(historyRoot, -1, false, true);
+
+		createNewBuild(pipelineProject, SCRIPT);
+		writeLibrary(pipelineProject.getLastBuild(), "def call() {}");
+		plainDao.createHistory(pipelineProject, 1);
+
+		createNewBuild(pipelineProject, SCRIPT_2);
+		writeLibrary(pipelineProject.getLastBuild(), "def call() {}");
+		compressingDao.updateHistory(pipelineProject, 2);
+
+		SortedMap<String, PipelineHistoryDescription> revisions = compressingDao.getRevisions(pipelineProject);
+		assertEquals(2, revisions.size());
+		File plain = compressingDao.getRevision(pipelineProject, revisions.firstKey());
+		File compressed = compressingDao.getRevision(pipelineProject, revisions.lastKey());
+		SortedMap<String, File> compressedFiles = PipelineHistoryFileManifest.getFiles(compressed);
+		File buildXml = compressedFiles.get(PipelineConfigHistoryConsts.BUILD_XML_FILENAME);
+		File lib = compressedFiles.get("libs/lib/vars/a.groovy");
+
+		// stored compressed, read uncompressed.
+		assertFalse(FileUtils.readFileToString(buildXml, StandardCharsets.UTF_8).contains("<script>"));
+		assertEquals(SCRIPT_2, BuildXmlReader.getScript(buildXml));
+		assertEquals("def call() {}", PluginUtils.fileToString(lib));
+
+		// compressed and uncompressed revisions compare by content.
+		File plainLib = PipelineHistoryFileManifest.getFiles(plain).get("libs/lib/vars/a.groovy");
+		assertFalse(plainLib instanceof PipelineHistoryCompression.CompressedFile);
+		assertTrue(PluginUtils.fileContentEquals(plainLib, lib));
+		PipelineConfigDiffSummary diffSummary = revisions.get(revisions.lastKey()).getDiffSummary();
+		assertTrue(diffSummary.isScriptChanged());
+		assertFalse(diffSummary.isLibsChanged());
+
+		// the index can be rebuilt from compressed revisions.
+		PipelineHistoryIndex.Entry indexed = compressingDao.getIndex(pipelineProject).getMostRecent();
+		compressingDao.getIndex(pipelineProject).invalidate();
+		assertEquals(indexed.getContentHash(),
+				compressingDao.getIndex(pipelineProject).getMostRecent().getContentHash());
+	}
+
+	@Test
+	public void migrateToBlobStore() throws Exception {
+		FilePipelineItemHistoryDao historyDao = new FilePipelineItemHistoryDao(
+				new File(jenkinsRule.jenkins.getRootDir(), "migrated-history"));
+
+		createNewBuild(pipelineProject, SCRIPT);
+		writeLibrary(pipelineProject.getLastBuild(), "def call() {}");
+		historyDao.createHistory(pipelineProject, 1);
+		createNewBuild(pipelineProject, SCRIPT_2);
+		writeLibrary(pipelineProject.getLastBuild(), "def call() {}");
+		historyDao.updateHistory(pipelineProject, 2);
+
+		assertEquals(2, historyDao.getBlobStore().migrate());
+		// already migrated
+		assertEquals(0, historyDao.getBlobStore().migrate());
+
+		for (String timestamp : historyDao.getRevisions(pipelineProject).keySet()) {
+			File revision = historyDao.getRevision(pipelineProject, timestamp);
+			PipelineHistoryDescription description =
+					(PipelineHistoryDescription) new XmlFile(new File(revision, "history.xml")).read();
+			assertNotNull(description.getLibsManifest());
+			assertEquals("def call() {}",
+					FileUtils.readFileToString(new File(revision, "libs/lib/vars/a.groovy"), StandardCharsets.UTF_8));
+		}
+	}
+
+	private void writeLibrary(WorkflowRun run, String content) throws Exception {
+		FileUtils.write(new File(run.getRootDir(), "libs/lib/vars/a.groovy"), content, StandardCharsets.UTF_8);
+	}
+}
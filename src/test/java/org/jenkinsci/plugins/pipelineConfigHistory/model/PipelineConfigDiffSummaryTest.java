@@ -0,0 +1,129 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2019, Robin Schulz
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkinsci.plugins.pipelineConfigHistory.model;
+
+import org.apache.commons.io.FileUtils;
+import org.jenkinsci.plugins.pipelineConfigHistory.diff.DiffBudget;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.*;
+
+public class PipelineConfigDiffSummaryTest {
+
+	@Rule
+	public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+	@Test
+	public void compute() throws Exception {
+		File revision1 = writeRevision("2019-01-01_00-00-00", "node {\necho 'a'\n}");
+		write(revision1, "libs/lib/vars/a.groovy", "def call() {\n}");
+		write(revision1, "libs/lib/vars/b.groovy", "def call() {\n}");
+		File revision2 = writeRevision("2019-01-02_00-00-00", "node {\necho 'b'\necho 'c'\n}");
+		write(revision2, "libs/lib/vars/a.groovy", "def call() {\n}");
+		write(revision2, "libs/lib/vars/c.groovy", "c");
+
+		PipelineConfigDiffSummary summary = PipelineConfigDiffSummary.compute(revision1, revision2);
+
+		assertEquals("2019-01-01_00-00-00", summary.getPreviousTimestamp());
+		assertEquals(Arrays.asList("build.xml", "libs/lib/vars/b.groovy", "libs/lib/vars/c.groovy"),
+				summary.getChangedFiles());
+		// build.xml: 2 added, 1 removed; b.groovy: 2 removed; c.groovy: 1 added.
+		assertEquals(3, summary.getAddedLines());
+		assertEquals(3, summary.getRemovedLines());
+		assertTrue(summary.isScriptChanged());
+		assertTrue(summary.isLibsChanged());
+		assertTrue(summary.hasChanges());
+	}
+
+	@Test
+	public void computeIgnoresEverythingButTheScript() throws Exception {
+		File revision1 = writeRevision("2019-01-01_00-00-00", "node {}");
+		File revision2 = writeRevision("2019-01-02_00-00-00", "node {}");
+		write(revision2, "build.xml", "<run><number>2</number><script>node {}</script></run>");
+
+		PipelineConfigDiffSummary summary = PipelineConfigDiffSummary.compute(revision1, revision2);
+
+		assertFalse(summary.hasChanges());
+		assertFalse(summary.isScriptChanged());
+		assertEquals(0, summary.getAddedLines());
+	}
+
+	@Test
+	public void computeFindsTheChangedFilesWhenTheBudgetIsExceeded() throws Exception {
+		File revision1 = writeRevision("2019-01-01_00-00-00", "node {\necho 'a'\n}");
+		write(revision1, "libs/lib/vars/a.groovy", "def call() {\n}");
+		write(revision1, "libs/lib/vars/b.groovy", "def call() {\n}");
+		File revision2 = writeRevision("2019-01-02_00-00-00", "node {\necho 'a'\n}");
+		write(revision2, "libs/lib/vars/a.groovy", "def call() {\n}");
+		write(revision2, "libs/lib/vars/b.groovy", "def call() {\necho 'b'\n}");
+
+		PipelineConfigDiffSummary summary =
+				PipelineConfigDiffSummary.compute(revision1, revision2, new DiffBudget(0, 1));
+
+		assertEquals(Collections.singletonList("libs/lib/vars/b.groovy"), summary.getChangedFiles());
+		assertFalse(summary.isScriptChanged());
+		assertTrue(summary.isLibsChanged());
+		assertTrue(summary.getAddedLines() >= 1);
+	}
+
+	@Test
+	public void indexField() {
+		PipelineConfigDiffSummary summary = new PipelineConfigDiffSummary("2019-01-01_00-00-00",
+				Arrays.asList("build.xml", "libs/a"), 5, 7, true, false);
+
+		PipelineConfigDiffSummary read =
+				PipelineConfigDiffSummary.fromIndexField(summary.toIndexField());
+
+		assertEquals("2019-01-01_00-00-00", read.getPreviousTimestamp());
+		assertNull(read.getChangedFiles());
+		assertEquals(2, read.getChangedFileCount());
+		assertEquals(5, read.getAddedLines());
+		assertEquals(7, read.getRemovedLines());
+		assertTrue(read.isScriptChanged());
+		assertFalse(read.isLibsChanged());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void corruptIndexField() {
+		PipelineConfigDiffSummary.fromIndexField("2019-01-01_00-00-00,1,2");
+	}
+
+	private File writeRevision(String timestamp, String script) throws Exception {
+		File revisionDir = temporaryFolder.newFolder(timestamp);
+		write(revisionDir, "build.xml", "<run><number>1</number><script>" + script + "</script></run>");
+		write(revisionDir, "history.xml", "<history/>");
+		return revisionDir;
+	}
+
+	private static void write(File revisionDir, String path, String content) throws Exception {
+		FileUtils.writeStringToFile(new File(revisionDir, path), content, StandardCharsets.UTF_8);
+	}
+}
@@ -0,0 +1,101 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2019, Robin Schulz
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkinsci.plugins.pipelineConfigHistory.model;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+
+import static org.junit.Assert.*;
+
+public class PipelineConfigDigestTest {
+
+	@Rule
+	public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+	@Test
+	public void scriptDigestIgnoresEverythingButTheScript() throws Exception {
+		File build1 = writeBuild("build1", "<run><number>1</number>"
+				+ "<execution><script>node { echo &quot;a&quot; }</script></execution></run>");
+		File build2 = writeBuild("build2", "<run><number>2</number><foo/>"
+				+ "<execution><script><![CDATA[node { echo \"a\" }]]></script></execution></run>");
+		File build3 = writeBuild("build3", "<run><number>3</number>"
+				+ "<execution><script>node { echo &quot;b&quot; }</script></execution></run>");
+
+		assertEquals(PipelineConfigDigest.of(build1).getScriptDigest(),
+				PipelineConfigDigest.of(build2).getScriptDigest());
+		assertNotEquals(PipelineConfigDigest.of(build1).getScriptDigest(),
+				PipelineConfigDigest.of(build3).getScriptDigest());
+	}
+
+	@Test
+	public void libsDigestKeepsTheFileDigests() throws Exception {
+		File build = writeBuild("build", "<run><script>node {}</script></run>");
+		File lib = new File(build, "libs/lib/vars/a.groovy");
+		FileUtils.writeStringToFile(lib, "def call() {}", StandardCharsets.UTF_8);
+
+		PipelineConfigDigest digest = PipelineConfigDigest.of(build);
+		assertEquals(Collections.singletonMap("lib/vars/a.groovy", PipelineConfigDigest.hash(lib.toPath())),
+				digest.getLibHashes());
+		assertEquals(PipelineConfigDigest.computeLibsDigest(new File(build, "libs")), digest.getLibsDigest());
+		assertNull(new PipelineConfigDigest(digest.getScriptDigest(), digest.getLibsDigest()).getLibHashes());
+
+		FileUtils.writeStringToFile(lib, "def call() { echo 'x' }", StandardCharsets.UTF_8);
+		assertNotEquals(digest.getLibsDigest(), PipelineConfigDigest.of(build).getLibsDigest());
+	}
+
+	@Test(expected = FileNotFoundException.class)
+	public void missingBuildXml() throws Exception {
+		PipelineConfigDigest.of(temporaryFolder.newFolder("empty"));
+	}
+
+	@Test
+	public void compressedRevisionHasTheDigestOfItsBuild() throws Exception {
+		File build = writeBuild("build", "<run><script>node {}</script></run>");
+		FileUtils.writeStringToFile(new File(build, "libs/lib/vars/a.groovy"), "def call() {}",
+				StandardCharsets.UTF_8);
+		File revision = new File(temporaryFolder.getRoot(), "revision");
+		PipelineHistoryCompression.compressDirectory(build.toPath(), revision.toPath());
+		PipelineHistoryFileManifest.write(revision, id -> true);
+
+		PipelineConfigDigest buildDigest = PipelineConfigDigest.of(build);
+		PipelineConfigDigest revisionDigest = PipelineConfigDigest.of(revision);
+		assertEquals(buildDigest.getScriptDigest(), revisionDigest.getScriptDigest());
+		assertEquals(buildDigest.getLibHashes(), revisionDigest.getLibHashes());
+		assertEquals(buildDigest.getLibsDigest(), revisionDigest.getLibsDigest());
+	}
+
+	private File writeBuild(String name, String buildXml) throws Exception {
+		File buildDir = temporaryFolder.newFolder(name);
+		FileUtils.writeStringToFile(new File(buildDir, "build.xml"),
+				"<?xml version='1.1' encoding='UTF-8'?>\n" + buildXml, StandardCharsets.UTF_8);
+		return buildDir;
+	}
+}
@@ -0,0 +1,180 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2019, Robin Schulz
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkinsci.plugins.pipelineConfigHistory.model;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class PipelineConfigHistoryCaptureQueueTest {
+
+	@Test
+	public void capturesOfOneJobKeepTheirOrder() throws Exception {
+		PipelineConfigHistoryCaptureQueue queue = new PipelineConfigHistoryCaptureQueue(4, 100);
+		List<Integer> order = Collections.synchronizedList(new ArrayList<>());
+
+		for (int i = 0; i < 50; i++) {
+			final int number = i;
+			queue.submit("job", () -> order.add(number));
+		}
+
+		assertTrue(queue.awaitIdle(10, TimeUnit.SECONDS));
+		assertEquals(50, order.size());
+		for (int i = 0; i < 50; i++) {
+			assertEquals(i, order.get(i).intValue());
+		}
+		assertEquals(50, queue.getCompletedCount());
+		assertEquals(0, queue.getPendingCount());
+	}
+
+	@Test
+	public void fullQueueThrottlesSubmitter() throws Exception {
+		PipelineConfigHistoryCaptureQueue queue = new PipelineConfigHistoryCaptureQueue(1, 1);
+		CountDownLatch release = new CountDownLatch(1);
+		AtomicInteger done = new AtomicInteger();
+
+		queue.submit("job1", () -> {
+			try {
+				release.await();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			done.incrementAndGet();
+		});
+		Thread submitter = new Thread(() -> queue.submit("job2", done::incrementAndGet));
+		submitter.start();
+
+		// the second capture can't be queued until the first one is done.
+		submitter.join(500);
+		assertTrue(submitter.isAlive());
+
+		release.countDown();
+		submitter.join(10000);
+		assertTrue(queue.awaitIdle(10, TimeUnit.SECONDS));
+		assertEquals(2, done.get());
+		assertEquals(1, queue.getThrottledCount());
+	}
+
+	@Test
+	public void failingCaptureDoesNotBlockTheJob() throws Exception {
+		PipelineConfigHistoryCaptureQueue queue = new PipelineConfigHistoryCaptureQueue(1, 10);
+		AtomicInteger done = new AtomicInteger();
+
+		queue.submit("job", () -> {
+			throw new IllegalStateException("expected");
+		});
+		queue.submit("job", done::incrementAndGet);
+
+		assertTrue(queue.awaitIdle(10, TimeUnit.SECONDS));
+		assertEquals(1, done.get());
+		assertEquals(1, queue.getFailedCount());
+	}
+
+	@Test
+	public void errorInCaptureDoesNotBlockTheJob() throws Exception {
+		PipelineConfigHistoryCaptureQueue queue = new PipelineConfigHistoryCaptureQueue(1, 10);
+		AtomicInteger done = new AtomicInteger();
+
+		queue.submit("job", () -> {
+			throw new LinkageError("expected");
+		});
+		queue.submit("job", done::incrementAndGet);
+
+		assertTrue(queue.awaitIdle(10, TimeUnit.SECONDS));
+		assertEquals(1, done.get());
+		assertEquals(1, queue.getFailedCount());
+		assertEquals(0, queue.getPendingCount());
+
+		// the job's queue is free for new captures.
+		queue.submit("job", done::incrementAndGet);
+		assertTrue(queue.awaitIdle(10, TimeUnit.SECONDS));
+		assertEquals(2, done.get());
+	}
+
+	@Test
+	public void shutdownRunsPendingCaptures() throws Exception {
+		PipelineConfigHistoryCaptureQueue queue = new PipelineConfigHistoryCaptureQueue(1, 100);
+		AtomicInteger done = new AtomicInteger();
+
+		for (int i = 0; i < 20; i++) {
+			queue.submit("job" + (i % 3), () -> {
+				try {
+					Thread.sleep(10);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				done.incrementAndGet();
+			});
+		}
+		queue.shutdown(30, TimeUnit.SECONDS);
+		assertEquals(20, done.get());
+
+		// submitted after shutdown: run right away.
+		queue.submit("job", done::incrementAndGet);
+		assertEquals(21, done.get());
+	}
+
+	@Test
+	public void fullQueueRunsCaptureRightAwayAfterTimeout() throws Exception {
+		PipelineConfigHistoryCaptureQueue queue = new PipelineConfigHistoryCaptureQueue(1, 1, 100);
+		CountDownLatch release = new CountDownLatch(1);
+		queue.submit("job1", () -> {
+			try {
+				release.await();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		});
+
+		List<Thread> threads = Collections.synchronizedList(new ArrayList<>());
+		queue.submit("job2", () -> threads.add(Thread.currentThread()));
+
+		assertEquals(Collections.singletonList(Thread.currentThread()), threads);
+		assertEquals(1, queue.getThrottledCount());
+		release.countDown();
+		assertTrue(queue.awaitIdle(10, TimeUnit.SECONDS));
+		assertEquals(2, queue.getCompletedCount());
+	}
+
+	@Test
+	public void nextJenkinsGetsANewQueue() throws Exception {
+		PipelineConfigHistoryCaptureQueue first = PipelineConfigHistoryCaptureQueue.get();
+		PipelineConfigHistoryCaptureQueue.drainOnShutdown();
+
+		PipelineConfigHistoryCaptureQueue second = PipelineConfigHistoryCaptureQueue.get();
+		assertNotSame(first, second);
+		List<Thread> threads = Collections.synchronizedList(new ArrayList<>());
+		second.submit("job", () -> threads.add(Thread.currentThread()));
+		assertTrue(second.awaitIdle(10, TimeUnit.SECONDS));
+		// run by a worker again.
+		assertNotSame(Thread.currentThread(), threads.get(0));
+	}
+}
@@ -36,6 +36,7 @@ import org.jvnet.hudson.test.JenkinsRule;
 
 import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.TimeUnit;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
@@ -91,5 +92,6 @@ public class PipelineConfigHistoryFlowExecutionListenerTest {
 
 		//WAIT
 		System.out.println("Build completed: " + f.get());
+		assertTrue(PipelineConfigHistoryCaptureQueue.get().awaitIdle(30, TimeUnit.SECONDS));
 	}
 }
\ No newline at end of file
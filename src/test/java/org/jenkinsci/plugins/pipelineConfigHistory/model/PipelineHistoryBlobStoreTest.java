@@ -0,0 +1,148 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2019, Robin Schulz
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkinsci.plugins.pipelineConfigHistory.model;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.SortedMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.*;
+
+public class PipelineHistoryBlobStoreTest {
+
+	@Rule
+	public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+	@Test
+	public void storeDirectory() throws Exception {
+		File historyRoot = temporaryFolder.newFolder("history");
+		File libs = temporaryFolder.newFolder("build", "libs");
+		FileUtils.write(new File(libs, "lib1/vars/a.groovy"), "def call() {}", StandardCharsets.UTF_8);
+		FileUtils.write(new File(libs, "lib2/vars/b.groovy"), "def call() {}", StandardCharsets.UTF_8);
+		FileUtils.write(new File(libs, "lib2/vars/c.groovy"), "def call() { echo 'c' }", StandardCharsets.UTF_8);
+		PipelineHistoryBlobStore blobStore = new PipelineHistoryBlobStore(historyRoot);
+
+		File revision1Libs = new File(historyRoot, "job/2020-01-01_00-00-00/libs");
+		File revision2Libs = new File(historyRoot, "job/2020-01-02_00-00-00/libs");
+		SortedMap<String, String> manifest1 = blobStore.storeDirectory(libs, revision1Libs, "libs");
+		SortedMap<String, String> manifest2 = blobStore.storeDirectory(libs, revision2Libs, "libs");
+
+		assertEquals(manifest1, manifest2);
+		assertEquals(3, manifest1.size());
+		assertEquals(manifest1.get("libs/lib1/vars/a.groovy"), manifest1.get("libs/lib2/vars/b.groovy"));
+		assertNotEquals(manifest1.get("libs/lib1/vars/a.groovy"), manifest1.get("libs/lib2/vars/c.groovy"));
+
+		// revisions contain ordinary files
+		assertEquals("def call() { echo 'c' }",
+				FileUtils.readFileToString(new File(revision2Libs, "lib2/vars/c.groovy"), StandardCharsets.UTF_8));
+		// identical content is stored once.
+		File[] blobDirs = blobStore.getBlobDir().listFiles();
+		assertNotNull(blobDirs);
+		int blobCount = 0;
+		for (File blobDir : blobDirs) {
+			blobCount += blobDir.list().length;
+		}
+		assertEquals(2, blobCount);
+	}
+
+	@Test
+	public void storeDirectoryReusesKnownDigests() throws Exception {
+		File historyRoot = temporaryFolder.newFolder("history");
+		File build = temporaryFolder.newFolder("build");
+		FileUtils.write(new File(build, "build.xml"), "<run><script>node {}</script></run>", StandardCharsets.UTF_8);
+		File libs = new File(build, "libs");
+		FileUtils.write(new File(libs, "lib1/vars/a.groovy"), "def call() {}", StandardCharsets.UTF_8);
+		FileUtils.write(new File(libs, "lib2/vars/c.groovy"), "def call() { echo 'c' }", StandardCharsets.UTF_8);
+		PipelineHistoryBlobStore blobStore = new PipelineHistoryBlobStore(historyRoot);
+
+		PipelineConfigDigest digest = PipelineConfigDigest.of(build);
+		SortedMap<String, String> manifest = blobStore.storeDirectory(libs,
+				new File(historyRoot, "job/2020-01-01_00-00-00/libs"), "libs", digest.getLibHashes());
+
+		assertEquals(blobStore.storeDirectory(libs,
+				new File(historyRoot, "job/2020-01-02_00-00-00/libs"), "libs"), manifest);
+		assertEquals(digest.getLibHashes().get("lib2/vars/c.groovy"), manifest.get("libs/lib2/vars/c.groovy"));
+		assertTrue(blobStore.getBlob(manifest.get("libs/lib1/vars/a.groovy")).isFile());
+	}
+
+	@Test
+	public void collectGarbageKeepsLinkedBlobs() throws Exception {
+		File historyRoot = temporaryFolder.newFolder("history");
+		File source = temporaryFolder.newFile("a.groovy");
+		FileUtils.write(source, "def call() {}", StandardCharsets.UTF_8);
+		PipelineHistoryBlobStore blobStore = new PipelineHistoryBlobStore(historyRoot);
+
+		File target = new File(historyRoot, "job/2020-01-01_00-00-00/libs/a.groovy");
+		String hash = blobStore.store(source, target);
+		File blob = blobStore.getBlob(hash);
+		// older than the grace period.
+		assertTrue(blob.setLastModified(System.currentTimeMillis() - 2 * 60 * 60 * 1000));
+
+		assertEquals(0, blobStore.collectGarbage());
+		assertTrue(blob.exists());
+
+		if (Files.isSameFile(blob.toPath(), target.toPath())) {
+			// hard links are supported, the blob is unreferenced after deleting the revision.
+			assertTrue(target.delete());
+			assertEquals(1, blobStore.collectGarbage());
+			assertFalse(blob.exists());
+		}
+	}
+
+	@Test
+	public void storeRestoresBlobCollectedBeforeLinking() throws Exception {
+		File historyRoot = temporaryFolder.newFolder("history");
+		File source = temporaryFolder.newFile("a.groovy");
+		FileUtils.write(source, "def call() {}", StandardCharsets.UTF_8);
+		AtomicBoolean collected = new AtomicBoolean();
+		PipelineHistoryBlobStore blobStore = new PipelineHistoryBlobStore(historyRoot) {
+			@Override
+			void link(Path blob, Path target) throws IOException {
+				// the garbage collection runs between the existence check and the link.
+				if (collected.compareAndSet(false, true)) {
+					Files.delete(blob);
+				}
+				super.link(blob, target);
+			}
+		};
+		blobStore.store(source, new File(historyRoot, "job/2020-01-01_00-00-00/libs/a.groovy"));
+		collected.set(false);
+
+		File target = new File(historyRoot, "job/2020-01-02_00-00-00/libs/a.groovy");
+		String hash = blobStore.store(source, target);
+
+		assertTrue(collected.get());
+		assertTrue(blobStore.getBlob(hash).isFile());
+		assertEquals("def call() {}", FileUtils.readFileToString(target, StandardCharsets.UTF_8));
+	}
+}
@@ -0,0 +1,105 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2019, Robin Schulz
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkinsci.plugins.pipelineConfigHistory.model;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.jenkinsci.plugins.pipelineConfigHistory.PluginUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.Assert.*;
+
+public class PipelineHistoryCompressionTest {
+
+	private static final String SCRIPT = "node {\n    echo 'Hello World'\n}\n";
+
+	@Rule
+	public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+	@Test
+	public void compressedFilesAreDecompressedOnRead() throws Exception {
+		File raw = temporaryFolder.newFile("Jenkinsfile");
+		FileUtils.write(raw, SCRIPT, StandardCharsets.UTF_8);
+		File compressed = new PipelineHistoryCompression.CompressedFile(temporaryFolder.getRoot(), "Jenkinsfile.stored");
+		PipelineHistoryCompression.compress(raw.toPath(), compressed.toPath());
+
+		byte[] stored = Files.readAllBytes(compressed.toPath());
+		assertEquals(GZIPInputStream.GZIP_MAGIC, (stored[0] & 0xff) | ((stored[1] & 0xff) << 8));
+		try (InputStream in = PipelineHistoryCompression.open(compressed)) {
+			assertEquals(SCRIPT, IOUtils.toString(in, StandardCharsets.UTF_8));
+		}
+		assertTrue(PluginUtils.fileContentEquals(raw, compressed));
+	}
+
+	@Test
+	public void uncompressedFilesAreReadAsTheyAre() throws Exception {
+		File raw = temporaryFolder.newFile("Jenkinsfile");
+		FileUtils.write(raw, SCRIPT, StandardCharsets.UTF_8);
+		try (InputStream in = PipelineHistoryCompression.open(raw)) {
+			assertEquals(SCRIPT, IOUtils.toString(in, StandardCharsets.UTF_8));
+		}
+
+		File empty = temporaryFolder.newFile("empty");
+		try (InputStream in = PipelineHistoryCompression.open(empty)) {
+			assertEquals(-1, in.read());
+		}
+	}
+
+	@Test
+	public void gzipFilesAreOnlyDecompressedIfStoredCompressed() throws Exception {
+		File raw = temporaryFolder.newFile("Jenkinsfile");
+		FileUtils.write(raw, SCRIPT, StandardCharsets.UTF_8);
+		// e.g. a library resource.
+		File gzipped = new File(temporaryFolder.getRoot(), "resource.gz");
+		PipelineHistoryCompression.compress(raw.toPath(), gzipped.toPath());
+
+		try (InputStream in = PipelineHistoryCompression.open(gzipped)) {
+			assertArrayEquals(Files.readAllBytes(gzipped.toPath()), IOUtils.toByteArray(in));
+		}
+		assertFalse(PluginUtils.fileContentEquals(raw, gzipped));
+	}
+
+	@Test
+	public void compressDirectory() throws Exception {
+		File libs = temporaryFolder.newFolder("libs");
+		FileUtils.write(new File(libs, "lib/vars/a.groovy"), "def call() {}", StandardCharsets.UTF_8);
+		FileUtils.write(new File(libs, "lib/resources/b.txt"), "", StandardCharsets.UTF_8);
+		File copy = new File(temporaryFolder.getRoot(), "copy");
+
+		PipelineHistoryCompression.compressDirectory(libs.toPath(), copy.toPath());
+
+		assertEquals("def call() {}",
+				PluginUtils.fileToString(new PipelineHistoryCompression.CompressedFile(copy, "lib/vars/a.groovy")));
+		assertEquals("",
+				PluginUtils.fileToString(new PipelineHistoryCompression.CompressedFile(copy, "lib/resources/b.txt")));
+	}
+}
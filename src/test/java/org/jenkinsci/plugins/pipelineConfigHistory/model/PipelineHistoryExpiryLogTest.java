@@ -0,0 +1,135 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2019, Robin Schulz
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkinsci.plugins.pipelineConfigHistory.model;
+
+import org.apache.commons.io.FileUtils;
+import org.jenkinsci.plugins.pipelineConfigHistory.PipelineConfigHistoryConsts;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.*;
+
+public class PipelineHistoryExpiryLogTest {
+
+	@Rule
+	public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+	private File historyRootDir;
+
+	private PipelineHistoryExpiryLog expiryLog;
+
+	@Before
+	public void setUp() throws Exception {
+		historyRootDir = temporaryFolder.newFolder("history");
+		createRevision("job", "2020-01-01_00-00-00");
+		createRevision("folder/job", "2019-01-01_00-00-00");
+		createRevision("job", "2022-01-01_00-00-00");
+		// not a job history.
+		createRevision(PipelineConfigHistoryConsts.BLOB_DIR, "2018-01-01_00-00-00");
+		expiryLog = new PipelineHistoryExpiryLog(historyRootDir);
+	}
+
+	private void createRevision(String jobFullName, String timestamp) throws Exception {
+		File revisionDir = new File(new File(historyRootDir, jobFullName), timestamp);
+		assertTrue(revisionDir.mkdirs());
+		assertTrue(new File(revisionDir, PipelineConfigHistoryConsts.BUILD_XML_FILENAME).createNewFile());
+	}
+
+	private static List<String> toStrings(List<PipelineHistoryExpiryLog.Entry> entries) {
+		return entries.stream()
+				.map(entry -> entry.getTimestamp() + " " + entry.getJobFullName())
+				.collect(Collectors.toList());
+	}
+
+	@Test
+	public void rebuildsOrderedByTimestamp() throws Exception {
+		assertFalse(expiryLog.getLogFile().exists());
+		assertEquals(Arrays.asList("2019-01-01_00-00-00 folder/job", "2020-01-01_00-00-00 job"),
+				toStrings(expiryLog.readExpired("2021-01-01_00-00-00")));
+		assertTrue(expiryLog.getLogFile().exists());
+		assertTrue(expiryLog.readExpired("2000-01-01_00-00-00").isEmpty());
+	}
+
+	@Test
+	public void appendAndRename() throws Exception {
+		expiryLog.readExpired("2000-01-01_00-00-00");
+		expiryLog.append("2023-01-01_00-00-00", "folder/other");
+		expiryLog.rename("folder", "renamed");
+
+		assertEquals(Arrays.asList("2019-01-01_00-00-00 renamed/job", "2020-01-01_00-00-00 job",
+				"2022-01-01_00-00-00 job", "2023-01-01_00-00-00 renamed/other"),
+				toStrings(expiryLog.readExpired("9999-12-31_23-59-59")));
+	}
+
+	@Test
+	public void removeHeadKeepsFailedJobs() throws Exception {
+		List<PipelineHistoryExpiryLog.Entry> expired = expiryLog.readExpired("2021-01-01_00-00-00");
+		expiryLog.removeHead(expired, Collections.singleton("job"));
+
+		assertEquals(Arrays.asList("2020-01-01_00-00-00 job", "2022-01-01_00-00-00 job"),
+				toStrings(expiryLog.readExpired("9999-12-31_23-59-59")));
+	}
+
+	@Test
+	public void removeHeadKeepsJobsRenamedMeanwhile() throws Exception {
+		List<PipelineHistoryExpiryLog.Entry> expired = expiryLog.readExpired("2021-01-01_00-00-00");
+		// renamed while the purge is running, so it missed the renamed job.
+		expiryLog.rename("folder", "renamed");
+		expiryLog.removeHead(expired, Collections.singleton("folder/job"));
+
+		assertEquals(Arrays.asList("2019-01-01_00-00-00 renamed/job", "2022-01-01_00-00-00 job"),
+				toStrings(expiryLog.readExpired("9999-12-31_23-59-59")));
+	}
+
+	@Test
+	public void renameOnlyAppendsAMoveRecord() throws Exception {
+		expiryLog.readExpired("2000-01-01_00-00-00");
+		String before = FileUtils.readFileToString(expiryLog.getLogFile(), StandardCharsets.UTF_8);
+		expiryLog.rename("folder", "renamed");
+		String after = FileUtils.readFileToString(expiryLog.getLogFile(), StandardCharsets.UTF_8);
+		// a job created by the old name later on.
+		expiryLog.append("2023-01-01_00-00-00", "folder/job");
+
+		assertTrue(after.startsWith(before));
+		assertEquals(1, after.substring(before.length()).split("\n").length);
+		List<String> expected = Arrays.asList("2019-01-01_00-00-00 renamed/job", "2020-01-01_00-00-00 job",
+				"2022-01-01_00-00-00 job", "2023-01-01_00-00-00 folder/job");
+		assertEquals(expected, toStrings(expiryLog.readExpired("9999-12-31_23-59-59")));
+
+		// removing the head folds the move into the lines.
+		expiryLog.removeHead(Collections.emptyList(), Collections.emptyList());
+		assertFalse(FileUtils.readFileToString(expiryLog.getLogFile(), StandardCharsets.UTF_8)
+				.contains("@moved"));
+		assertEquals(expected, toStrings(expiryLog.readExpired("9999-12-31_23-59-59")));
+	}
+}
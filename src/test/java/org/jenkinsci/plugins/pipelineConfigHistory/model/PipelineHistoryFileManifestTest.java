@@ -0,0 +1,121 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2019, Robin Schulz
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkinsci.plugins.pipelineConfigHistory.model;
+
+import org.apache.commons.io.FileUtils;
+import org.jenkinsci.plugins.pipelineConfigHistory.PipelineConfigHistoryConsts;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.ArrayList;
+
+import static org.junit.Assert.*;
+
+public class PipelineHistoryFileManifestTest {
+
+	@Rule
+	public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+	private File revisionDir;
+
+	@Before
+	public void setUp() throws Exception {
+		revisionDir = temporaryFolder.newFolder("2019-01-01_00-00-00");
+		FileUtils.write(new File(revisionDir, PipelineConfigHistoryConsts.BUILD_XML_FILENAME),
+				"<flow-build/>", StandardCharsets.UTF_8);
+		FileUtils.write(new File(revisionDir, "libs/lib/vars/step.groovy"), "step", StandardCharsets.UTF_8);
+	}
+
+	@Test
+	public void manifestListsTheRevisionFiles() throws Exception {
+		PipelineHistoryFileManifest.write(revisionDir);
+		FileUtils.write(new File(revisionDir, PipelineConfigHistoryConsts.HISTORY_XML_FILENAME),
+				"<history/>", StandardCharsets.UTF_8);
+
+		assertTrue(PipelineHistoryFileManifest.getManifestFile(revisionDir).isFile());
+		assertEquals(
+				Arrays.asList(PipelineConfigHistoryConsts.BUILD_XML_FILENAME, "libs/lib/vars/step.groovy"),
+				new ArrayList<>(PipelineHistoryFileManifest.getFiles(revisionDir).keySet())
+		);
+		assertEquals(
+				new File(revisionDir, "libs/lib/vars/step.groovy"),
+				PipelineHistoryFileManifest.getFiles(revisionDir).get("libs/lib/vars/step.groovy")
+		);
+	}
+
+	@Test
+	public void revisionsWithoutManifestAreWalked() throws Exception {
+		FileUtils.write(new File(revisionDir, PipelineConfigHistoryConsts.HISTORY_XML_FILENAME),
+				"<history/>", StandardCharsets.UTF_8);
+
+		assertEquals(
+				Arrays.asList(PipelineConfigHistoryConsts.BUILD_XML_FILENAME, "libs/lib/vars/step.groovy"),
+				new ArrayList<>(PipelineHistoryFileManifest.getFiles(revisionDir).keySet())
+		);
+	}
+
+	@Test
+	public void resolveStaysWithinTheRevision() throws Exception {
+		PipelineHistoryFileManifest.write(revisionDir);
+		FileUtils.write(new File(revisionDir, PipelineConfigHistoryConsts.HISTORY_XML_FILENAME),
+				"<history/>", StandardCharsets.UTF_8);
+		temporaryFolder.newFile("secret");
+
+		assertEquals(new File(revisionDir, "libs/lib/vars/step.groovy"),
+				PipelineHistoryFileManifest.resolve(revisionDir, "libs/lib/vars/step.groovy"));
+		assertNull(PipelineHistoryFileManifest.resolve(revisionDir, "../secret"));
+		assertNull(PipelineHistoryFileManifest.resolve(revisionDir, "libs"));
+		assertNull(PipelineHistoryFileManifest.resolve(revisionDir,
+				PipelineConfigHistoryConsts.HISTORY_XML_FILENAME));
+		assertNull(PipelineHistoryFileManifest.resolve(revisionDir,
+				PipelineConfigHistoryConsts.FILE_MANIFEST_FILENAME));
+		assertNull(PipelineHistoryFileManifest.resolve(revisionDir, "-12345"));
+	}
+
+	@Test
+	public void manifestRecordsCompressedFiles() throws Exception {
+		PipelineHistoryFileManifest.write(revisionDir,
+				id -> id.equals(PipelineConfigHistoryConsts.BUILD_XML_FILENAME));
+
+		assertTrue(PipelineHistoryFileManifest.getFiles(revisionDir).get(PipelineConfigHistoryConsts.BUILD_XML_FILENAME)
+				instanceof PipelineHistoryCompression.CompressedFile);
+		assertFalse(PipelineHistoryFileManifest.getFiles(revisionDir).get("libs/lib/vars/step.groovy")
+				instanceof PipelineHistoryCompression.CompressedFile);
+		assertTrue(PipelineHistoryFileManifest.resolve(revisionDir, PipelineConfigHistoryConsts.BUILD_XML_FILENAME)
+				instanceof PipelineHistoryCompression.CompressedFile);
+		assertFalse(PipelineHistoryFileManifest.resolve(revisionDir, "libs/lib/vars/step.groovy")
+				instanceof PipelineHistoryCompression.CompressedFile);
+	}
+
+	@Test
+	public void idIsRelativeToTheRevision() {
+		assertEquals("libs/lib/vars/step.groovy", PipelineHistoryFileManifest.getId(revisionDir,
+				new File(revisionDir, "libs/lib/vars/step.groovy")));
+	}
+}
@@ -0,0 +1,159 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2019, Robin Schulz
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkinsci.plugins.pipelineConfigHistory.model;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.*;
+
+public class PipelineHistoryIdAllocatorTest {
+
+	private static final long SECOND = 1000;
+
+	private final AtomicLong now =
+			new AtomicLong(PipelineHistoryIdAllocator.parseTimestamp("2019-06-01_12-00-00").getTime());
+
+	private final PipelineHistoryIdAllocator allocator = new PipelineHistoryIdAllocator(now::get);
+
+	@Test
+	public void addsSequenceWithinTheSameSecond() {
+		assertEquals("2019-06-01_12-00-00", allocator.next("job"));
+		assertEquals("2019-06-01_12-00-00_001", allocator.next("job"));
+		assertEquals("2019-06-01_12-00-00_002", allocator.next("job"));
+		now.addAndGet(SECOND);
+		assertEquals("2019-06-01_12-00-01", allocator.next("job"));
+	}
+
+	@Test
+	public void jobsDoNotShareSequences() {
+		assertEquals("2019-06-01_12-00-00", allocator.next("job"));
+		assertEquals("2019-06-01_12-00-00", allocator.next("other job"));
+	}
+
+	@Test
+	public void staysMonotonicWhenTheClockGoesBackwards() {
+		assertEquals("2019-06-01_12-00-00", allocator.next("job"));
+		now.addAndGet(-5 * SECOND);
+		assertEquals("2019-06-01_12-00-00_001", allocator.next("job"));
+	}
+
+	@Test
+	public void forgetsJobsOnceTheClockHasPassedThem() {
+		allocator.next("job");
+		allocator.next("deleted job");
+		assertEquals(2, allocator.size());
+		now.addAndGet(2 * SECOND);
+
+		assertEquals("2019-06-01_12-00-02", allocator.next("job"));
+		assertEquals(1, allocator.size());
+		assertEquals("2019-06-01_12-00-02_001", allocator.next("job"));
+	}
+
+	@Test
+	public void keepsJobsWithIdentifiersAheadOfTheClock() {
+		for (int i = 0; i <= PipelineHistoryIdAllocator.MAX_SEQUENCE; i++) {
+			allocator.next("job");
+		}
+		assertEquals("2019-06-01_12-00-01", allocator.next("job"));
+		now.addAndGet(SECOND);
+		allocator.next("other job");
+
+		assertEquals(2, allocator.size());
+		assertEquals("2019-06-01_12-00-01_001", allocator.next("job"));
+	}
+
+	@Test
+	public void movesToTheNextSecondWhenTheSequenceIsExhausted() {
+		for (int i = 0; i <= PipelineHistoryIdAllocator.MAX_SEQUENCE; i++) {
+			allocator.next("job");
+		}
+		assertEquals("2019-06-01_12-00-01", allocator.next("job"));
+	}
+
+	@Test
+	public void identifiersSortByCaptureOrder() {
+		List<String> ids = new ArrayList<>();
+		for (int i = 0; i < 20; i++) {
+			ids.add(allocator.next("job"));
+			if (i % 7 == 0) {
+				now.addAndGet(SECOND);
+			}
+		}
+		List<String> sorted = new ArrayList<>(ids);
+		Collections.sort(sorted);
+		assertEquals(ids, sorted);
+		for (int i = 1; i < ids.size(); i++) {
+			assertTrue(PipelineHistoryIdAllocator.compare(ids.get(i - 1), ids.get(i)) < 0);
+		}
+	}
+
+	@Test
+	public void concurrentCallersGetDistinctIdentifiers() throws Exception {
+		final int threads = 8;
+		final int perThread = 100;
+		final Set<String> ids = ConcurrentHashMap.newKeySet();
+		final CountDownLatch start = new CountDownLatch(1);
+		List<Thread> workers = new ArrayList<>();
+		for (int t = 0; t < threads; t++) {
+			Thread worker = new Thread(() -> {
+				try {
+					start.await();
+				} catch (InterruptedException e) {
+					return;
+				}
+				for (int i = 0; i < perThread; i++) {
+					ids.add(allocator.next("job"));
+				}
+			});
+			worker.start();
+			workers.add(worker);
+		}
+		start.countDown();
+		for (Thread worker : workers) {
+			worker.join();
+		}
+		assertEquals(threads * perThread, ids.size());
+	}
+
+	@Test
+	public void parsesBothFormats() {
+		assertEquals(PipelineHistoryIdAllocator.parseTimestamp("2019-06-01_12-00-00"),
+				PipelineHistoryIdAllocator.parseTimestamp("2019-06-01_12-00-00_001"));
+		assertEquals(0, PipelineHistoryIdAllocator.getSequence("2019-06-01_12-00-00"));
+		assertEquals(1, PipelineHistoryIdAllocator.getSequence("2019-06-01_12-00-00_001"));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void rejectsOtherSuffixes() {
+		PipelineHistoryIdAllocator.parseTimestamp("2019-06-01_12-00-00.tmp");
+	}
+}
@@ -0,0 +1,135 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2019, Robin Schulz
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkinsci.plugins.pipelineConfigHistory.model;
+
+import hudson.XmlFile;
+import org.apache.commons.io.FileUtils;
+import org.jenkinsci.plugins.pipelineConfigHistory.PipelineConfigHistoryConsts;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeTrue;
+
+public class PipelineHistoryIndexTest {
+
+	@Rule
+	public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+	@Test
+	public void busyIndexDoesNotBlockOtherJobs() throws Exception {
+		assumeTrue(PipelineHistoryJobLocks.STRIPES > 1);
+		PipelineHistoryIndex busy = new PipelineHistoryIndex(temporaryFolder.newFolder("busy"));
+		PipelineHistoryIndex other = null;
+		for (int i = 0; other == null || other.getLock() == busy.getLock(); i++) {
+			other = new PipelineHistoryIndex(new File(temporaryFolder.getRoot(), "job" + i));
+		}
+		final PipelineHistoryIndex otherIndex = other;
+		assertTrue(otherIndex.getJobHistoryDir().mkdir());
+		otherIndex.write(Collections.emptyList());
+
+		final CountDownLatch locked = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		ExecutorService executor = Executors.newFixedThreadPool(2);
+		try {
+			// e.g. a rebuild parsing every history.xml of a large history.
+			executor.submit(() -> {
+				synchronized (busy.getLock()) {
+					locked.countDown();
+					release.await();
+				}
+				return null;
+			});
+			assertTrue(locked.await(10, TimeUnit.SECONDS));
+
+			Future<Boolean> published = executor.submit(() -> otherIndex.publish(
+					temporaryFolder.newFolder("staging"), entry("2019-01-01_00-00-00")));
+			assertTrue(published.get(10, TimeUnit.SECONDS));
+			assertEquals(1, otherIndex.getEntries().size());
+		} finally {
+			release.countDown();
+			executor.shutdown();
+		}
+		assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+	}
+
+	@Test
+	public void publishedEntriesAreSorted() throws Exception {
+		PipelineHistoryIndex index = new PipelineHistoryIndex(temporaryFolder.newFolder("job"));
+		index.write(Collections.emptyList());
+		index.publish(temporaryFolder.newFolder("staging1"), entry("2019-01-01_00-00-02"));
+		index.publish(temporaryFolder.newFolder("staging2"), entry("2019-01-01_00-00-01"));
+
+		assertEquals(2, index.getEntries().size());
+		assertEquals("2019-01-01_00-00-01", index.getEntries().get(0).getTimestamp());
+		assertEquals("2019-01-01_00-00-02", index.getMostRecent().getTimestamp());
+		assertNotNull(index.find("2019-01-01_00-00-01"));
+		assertNull(index.find("2019-01-01_00-00-03"));
+	}
+
+	private static PipelineHistoryIndex.Entry entry(String timestamp) {
+		return new PipelineHistoryIndex.Entry(timestamp, 1, "Jenkinsfile",
+				PipelineHistoryIndex.Entry.NO_REPLAY, new PipelineConfigDigest("script", "libs"));
+	}
+
+	@Test
+	public void rebuildReadsCompressedRevisions() throws Exception {
+		File build = temporaryFolder.newFolder("build");
+		FileUtils.writeStringToFile(new File(build, PipelineConfigHistoryConsts.BUILD_XML_FILENAME),
+				"<flow-build><actions><hudson.model.CauseAction><causes>"
+						+ "<org.jenkinsci.plugins.workflow.cps.replay.ReplayCause>"
+						+ "<originalNumber>3</originalNumber>"
+						+ "</org.jenkinsci.plugins.workflow.cps.replay.ReplayCause>"
+						+ "</causes></hudson.model.CauseAction></actions>"
+						+ "<execution><script>node {}</script></execution></flow-build>",
+				StandardCharsets.UTF_8);
+		FileUtils.writeStringToFile(new File(build, "libs/lib/vars/a.groovy"), "def call() {}",
+				StandardCharsets.UTF_8);
+		File jobHistoryDir = temporaryFolder.newFolder("job");
+		File revision = new File(jobHistoryDir, "2019-01-01_00-00-00");
+		PipelineHistoryCompression.compressDirectory(build.toPath(), revision.toPath());
+		PipelineHistoryFileManifest.write(revision, id -> true);
+		// captured before digests and replay origins were stored, so both are read from the files.
+		new XmlFile(new File(revision, PipelineConfigHistoryConsts.HISTORY_XML_FILENAME))
+				.write(new PipelineHistoryDescription("2019-01-01_00-00-00", "job", "Jenkinsfile", 4));
+
+		List<PipelineHistoryIndex.Entry> entries = new PipelineHistoryIndex(jobHistoryDir).getEntries();
+
+		assertEquals(1, entries.size());
+		assertEquals(3, entries.get(0).getReplayOrigin());
+		assertEquals(PipelineConfigDigest.of(build).getContentHash(),
+				entries.get(0).getDigest().getContentHash());
+	}
+}
@@ -0,0 +1,126 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2019, Robin Schulz
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkinsci.plugins.pipelineConfigHistory.model;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class PipelineHistoryJobLocksTest {
+
+	@Test
+	public void roundsStripesUpToAPowerOfTwo() {
+		assertEquals(1, new PipelineHistoryJobLocks(0).getStripeCount());
+		assertEquals(64, new PipelineHistoryJobLocks(64).getStripeCount());
+		assertEquals(128, new PipelineHistoryJobLocks(100).getStripeCount());
+	}
+
+	@Test
+	public void sameJobIsLockedExclusively() throws Exception {
+		final PipelineHistoryJobLocks locks = new PipelineHistoryJobLocks(16);
+		final AtomicInteger inside = new AtomicInteger();
+		final AtomicInteger maxInside = new AtomicInteger();
+		final CountDownLatch start = new CountDownLatch(1);
+		List<Thread> threads = new ArrayList<>();
+		for (int t = 0; t < 8; t++) {
+			Thread thread = new Thread(() -> {
+				try {
+					start.await();
+				} catch (InterruptedException e) {
+					return;
+				}
+				for (int i = 0; i < 50; i++) {
+					try (PipelineHistoryJobLocks.Held ignored = locks.lock("folder/job")) {
+						maxInside.accumulateAndGet(inside.incrementAndGet(), Math::max);
+						Thread.yield();
+						inside.decrementAndGet();
+					}
+				}
+			});
+			thread.start();
+			threads.add(thread);
+		}
+		start.countDown();
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		assertEquals(1, maxInside.get());
+		assertEquals(400, locks.getAcquiredCount());
+	}
+
+	@Test
+	public void countsContention() throws Exception {
+		final PipelineHistoryJobLocks locks = new PipelineHistoryJobLocks(16);
+		final CountDownLatch locked = new CountDownLatch(1);
+		Thread waiter;
+		try (PipelineHistoryJobLocks.Held ignored = locks.lock("job")) {
+			waiter = new Thread(() -> {
+				locked.countDown();
+				locks.lock("job").close();
+			});
+			waiter.start();
+			locked.await();
+			Thread.sleep(100);
+		}
+		waiter.join();
+		assertEquals(1, locks.getContendedCount());
+		assertTrue(locks.getMaxWaitMillis() >= 50);
+	}
+
+	@Test
+	public void lockingSeveralJobsInAnyOrderDoesNotDeadlock() throws Exception {
+		final PipelineHistoryJobLocks locks = new PipelineHistoryJobLocks(64);
+		Thread forward = new Thread(() -> {
+			for (int i = 0; i < 1000; i++) {
+				locks.lock("a", "b").close();
+			}
+		});
+		Thread backward = new Thread(() -> {
+			for (int i = 0; i < 1000; i++) {
+				locks.lock("b", "a").close();
+			}
+		});
+		forward.start();
+		backward.start();
+		forward.join(TimeUnit.SECONDS.toMillis(30));
+		backward.join(TimeUnit.SECONDS.toMillis(30));
+		assertFalse(forward.isAlive() || backward.isAlive());
+	}
+
+	@Test
+	public void locksAreReentrant() {
+		final PipelineHistoryJobLocks locks = new PipelineHistoryJobLocks(1);
+		try (PipelineHistoryJobLocks.Held outer = locks.lock("job")) {
+			// a single stripe, so the other job maps to the same lock.
+			locks.lock("other job").close();
+		}
+		assertEquals(0, locks.getContendedCount());
+	}
+}
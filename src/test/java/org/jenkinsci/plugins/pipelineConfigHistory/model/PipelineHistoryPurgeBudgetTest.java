@@ -0,0 +1,63 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2019, Robin Schulz
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkinsci.plugins.pipelineConfigHistory.model;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class PipelineHistoryPurgeBudgetTest {
+
+	@Test
+	public void unlimitedDoesNotWait() throws Exception {
+		PipelineHistoryPurgeBudget budget = PipelineHistoryPurgeBudget.unlimited();
+		assertFalse(budget.isLimitingBytes());
+		long start = System.nanoTime();
+		budget.acquire(1000000, Long.MAX_VALUE);
+		assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 100);
+	}
+
+	@Test
+	public void pacesEntries() throws Exception {
+		PipelineHistoryPurgeBudget budget = new PipelineHistoryPurgeBudget(20, 0);
+		long start = System.nanoTime();
+		// the first one is free, the other 10 take 50 ms each.
+		for (int i = 0; i < 11; i++) {
+			budget.acquire(1, 0);
+		}
+		assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) >= 450);
+	}
+
+	@Test
+	public void pacesBytes() throws Exception {
+		PipelineHistoryPurgeBudget budget = new PipelineHistoryPurgeBudget(0, 1000);
+		assertTrue(budget.isLimitingBytes());
+		long start = System.nanoTime();
+		budget.acquire(1, 300);
+		budget.acquire(1, 0);
+		assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) >= 250);
+	}
+}
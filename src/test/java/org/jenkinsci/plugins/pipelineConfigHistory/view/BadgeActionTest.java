@@ -30,7 +30,9 @@ import static org.junit.Assert.assertTrue;
 
 import java.io.IOException;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
 
+import org.jenkinsci.plugins.pipelineConfigHistory.model.PipelineConfigHistoryCaptureQueue;
 import org.jenkinsci.plugins.workflow.cps.CpsFlowDefinition;
 import org.jenkinsci.plugins.workflow.job.WorkflowJob;
 import org.jenkinsci.plugins.workflow.job.WorkflowRun;
@@ -63,6 +65,7 @@ public class BadgeActionTest {
   public void testBadgeActionOneBuild() throws InterruptedException, ExecutionException {
     QueueTaskFuture<WorkflowRun> future = pipeline.scheduleBuild2(0, new CauseAction());
     WorkflowRun run = future.get();
+    awaitCaptures();
     assertNull(run.getAction(BadgeAction.class));
   }
 
@@ -70,9 +73,11 @@ public class BadgeActionTest {
   public void testBadgeActionTwoBuildsWithNoChanges() throws InterruptedException, ExecutionException {
     QueueTaskFuture<WorkflowRun> future = pipeline.scheduleBuild2(0, new CauseAction());
     WorkflowRun firstRun = future.get();
+    awaitCaptures();
 
     QueueTaskFuture<WorkflowRun> future2 = pipeline.scheduleBuild2(0, new CauseAction());
     WorkflowRun secondRun = future2.get();
+    awaitCaptures();
 
     assertNull(firstRun.getAction(BadgeAction.class));
     assertNull(secondRun.getAction(BadgeAction.class));
@@ -84,11 +89,13 @@ public class BadgeActionTest {
   public void testBadgeActionTwoBuildsWithChanges() throws InterruptedException, ExecutionException {
     QueueTaskFuture<WorkflowRun> future = pipeline.scheduleBuild2(0, new CauseAction());
     WorkflowRun firstRun = future.get();
+    awaitCaptures();
 
     pipeline.setDefinition(new CpsFlowDefinition(SCRIPT_2, false));
 
     QueueTaskFuture<WorkflowRun> future2 = pipeline.scheduleBuild2(0, new CauseAction());
     WorkflowRun secondRun = future2.get();
+    awaitCaptures();
 
     assertNull(firstRun.getAction(BadgeAction.class));
     assertNotNull(secondRun.getAction(BadgeAction.class));
@@ -104,6 +111,10 @@ public class BadgeActionTest {
       + "\\&anyDiffExists=true"));
   }
 	
+  private void awaitCaptures() throws InterruptedException {
+    assertTrue(PipelineConfigHistoryCaptureQueue.get().awaitIdle(30, TimeUnit.SECONDS));
+  }
+
   private WorkflowJob createWorkflowJob(String name, String script) throws IOException {
     WorkflowJob workflowJob = j.createProject(WorkflowJob.class, name);
     workflowJob.setDefinition(new CpsFlowDefinition(script, false));
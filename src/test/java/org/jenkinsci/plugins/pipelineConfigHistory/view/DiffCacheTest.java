@@ -0,0 +1,183 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2019, Robin Schulz
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkinsci.plugins.pipelineConfigHistory.view;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import org.jenkinsci.plugins.pipelineConfigHistory.diff.Edit;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class DiffCacheTest {
+
+	@Rule
+	public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+	private final AtomicInteger computed = new AtomicInteger();
+
+	@Test
+	public void computesEachDiffOnce() {
+		DiffCache sut = new DiffCache(1024 * 1024, null, 0);
+
+		List<SideBySideView.Line> lines = sut.get(key("build.xml"), () -> compute("a", "b"));
+
+		assertSame(lines, sut.get(key("build.xml"), () -> compute("a", "b")));
+		assertEquals(1, computed.get());
+		assertEquals(1, sut.getHitCount());
+		assertEquals(1, sut.getMissCount());
+	}
+
+	@Test
+	public void keysDistinguishScriptOnlyDiffs() {
+		DiffCache sut = new DiffCache(1024 * 1024, null, 0);
+
+		sut.get(new DiffCache.Key("job", "t1", "t2", "build.xml", true), () -> compute("a", "b"));
+		sut.get(new DiffCache.Key("job", "t1", "t2", "build.xml", false), () -> compute("a", "b"));
+
+		assertEquals(2, computed.get());
+	}
+
+	@Test
+	public void evictsLeastRecentlyUsedDiffs() {
+		List<SideBySideView.Line> lines = compute("a", "b");
+		DiffCache sut = new DiffCache(2 * DiffCache.weigh(lines), null, 0);
+
+		sut.get(key("1"), () -> compute("a", "b"));
+		sut.get(key("2"), () -> compute("a", "b"));
+		sut.get(key("1"), () -> compute("a", "b"));
+		sut.get(key("3"), () -> compute("a", "b"));
+		computed.set(0);
+
+		sut.get(key("1"), () -> compute("a", "b"));
+		assertEquals(0, computed.get());
+		sut.get(key("2"), () -> compute("a", "b"));
+		assertEquals(1, computed.get());
+		assertTrue(sut.getWeight() <= 2 * DiffCache.weigh(lines));
+	}
+
+	@Test
+	public void readsEvictedDiffsFromDisk() throws Exception {
+		File spillDir = temporaryFolder.newFolder("spill");
+		List<SideBySideView.Line> lines = compute("a\nb\nc", "a\nx\nc");
+		DiffCache sut = new DiffCache(DiffCache.weigh(lines), spillDir, 1024 * 1024);
+		computed.set(0);
+
+		sut.get(key("1"), () -> compute("a\nb\nc", "a\nx\nc"));
+		sut.get(key("2"), () -> compute("a\nb\nc", "a\nx\nc"));
+		assertEquals(1, spillDir.list().length);
+
+		List<SideBySideView.Line> spilled = sut.get(key("1"), () -> compute("a\nb\nc", "a\nx\nc"));
+
+		assertEquals(2, computed.get());
+		assertEquals(1, sut.getSpillHitCount());
+		assertEquals(lines.size(), spilled.size());
+		for (int i = 0; i < lines.size(); i++) {
+			assertLineEquals(lines.get(i), spilled.get(i));
+		}
+	}
+
+	@Test
+	public void keepsApproximateDiffsApproximate() throws Exception {
+		File spillDir = temporaryFolder.newFolder("spill");
+		DiffCache sut = new DiffCache(DiffCache.weigh(Collections.emptyList()), spillDir, 1024 * 1024);
+
+		assertTrue(sut.getDiff(key("1"), () -> new DiffCache.Diff(Collections.emptyList(), true))
+				.isApproximate());
+		assertTrue(sut.getDiff(key("1"), () -> {
+			throw new AssertionError("computed again");
+		}).isApproximate());
+
+		// evicts the first diff to disk.
+		assertFalse(sut.getDiff(key("2"), () -> new DiffCache.Diff(Collections.emptyList(), false))
+				.isApproximate());
+		assertTrue(sut.getDiff(key("1"), () -> new DiffCache.Diff(Collections.emptyList(), false))
+				.isApproximate());
+		assertEquals(1, sut.getSpillHitCount());
+	}
+
+	@Test
+	public void dropsOldestSpilledDiffs() throws Exception {
+		File spillDir = temporaryFolder.newFolder("spill");
+		DiffCache sut = new DiffCache(1, spillDir, 1);
+
+		sut.get(key("1"), () -> compute("a", "b"));
+		sut.get(key("2"), () -> compute("a", "b"));
+
+		assertEquals(0, spillDir.list().length);
+	}
+
+	private DiffCache.Key key(String path) {
+		return new DiffCache.Key("folder/job", "2019-01-01_00-00-00", "2019-01-02_00-00-00", path,
+				false);
+	}
+
+	private List<SideBySideView.Line> compute(String file1, String file2) {
+		computed.incrementAndGet();
+		return new DiffLineGenerator(file1, file2).getLines();
+	}
+
+	private static void assertLineEquals(SideBySideView.Line expected, SideBySideView.Line actual) {
+		assertEquals(expected.isSkipping(), actual.isSkipping());
+		assertEquals(expected.getTag(), actual.getTag());
+		assertItemEquals(expected.getLeft(), actual.getLeft());
+		assertItemEquals(expected.getRight(), actual.getRight());
+	}
+
+	private static void assertItemEquals(SideBySideView.Line.Item expected,
+										 SideBySideView.Line.Item actual) {
+		assertEquals(expected.getLineNumber(), actual.getLineNumber());
+		assertEquals(expected.getText(), actual.getText());
+		assertEquals(expected.getCssClass(), actual.getCssClass());
+	}
+
+	@Test
+	public void keepsEditsApartFromLinesButNotApproximateOnes() throws Exception {
+		File spillDir = temporaryFolder.newFolder("spill");
+		DiffCache sut = new DiffCache(1, spillDir, 1024 * 1024);
+		List<Edit> edits = Arrays.asList(new Edit(0, 1, 0, 2), new Edit(5, 5, 6, 7));
+
+		assertTrue(sut.getDiff(key("1").edits(), () -> DiffCache.Diff.ofEdits(edits, true)).isApproximate());
+		assertFalse(spillDir.exists());
+		sut.getDiff(key("1").edits(), () -> DiffCache.Diff.ofEdits(edits, false));
+		// too heavy for memory, so it is spilled right away.
+		assertEquals(1, spillDir.list().length);
+
+		DiffCache.Diff spilled = sut.getDiff(key("1").edits(), () -> {
+			throw new AssertionError("computed again");
+		});
+		assertEquals(edits, spilled.getEdits());
+		assertFalse(spilled.isApproximate());
+		assertNull(sut.getDiff(key("1"), () -> new DiffCache.Diff(Collections.emptyList(), false))
+				.getEdits());
+	}
+
+}
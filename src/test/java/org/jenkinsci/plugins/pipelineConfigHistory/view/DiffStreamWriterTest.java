@@ -0,0 +1,107 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2019, Robin Schulz
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkinsci.plugins.pipelineConfigHistory.view;
+
+import org.jenkinsci.plugins.pipelineConfigHistory.diff.LineDiff;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class DiffStreamWriterTest {
+
+	@Test
+	public void changesFarApartAreWrittenAsSeparateHunks() throws IOException {
+		List<String> original = Arrays.asList("a", "b", "c", "d", "e", "f", "g", "h", "i");
+		List<String> revised = Arrays.asList("A", "b", "c", "d", "e", "f", "g", "h", "I");
+
+		String[] records = write(1, original, revised);
+
+		assertEquals(4, records.length);
+		assertEquals("{\"type\":\"file\",\"path\":\"build.xml\",\"name\":\"Jenkinsfile\","
+				+ "\"kind\":\"UNEQUAL\",\"approximate\":false}", records[0]);
+		assertEquals("{\"type\":\"hunk\",\"oldStart\":1,\"oldLines\":2,\"newStart\":1,\"newLines\":2,"
+				+ "\"lines\":[[\"-\",\"a\"],[\"+\",\"A\"],[\" \",\"b\"]]}", records[1]);
+		assertEquals("{\"type\":\"hunk\",\"oldStart\":8,\"oldLines\":2,\"newStart\":8,\"newLines\":2,"
+				+ "\"lines\":[[\" \",\"h\"],[\"-\",\"i\"],[\"+\",\"I\"]]}", records[2]);
+		assertEquals("{\"type\":\"end\",\"files\":1}", records[3]);
+	}
+
+	@Test
+	public void changesWithOverlappingContextAreJoined() throws IOException {
+		List<String> original = Arrays.asList("a", "b", "c", "d", "e");
+		List<String> revised = Arrays.asList("a", "B", "c", "D", "e");
+
+		String[] records = write(1, original, revised);
+
+		assertEquals(3, records.length);
+		assertEquals("{\"type\":\"hunk\",\"oldStart\":1,\"oldLines\":5,\"newStart\":1,\"newLines\":5,"
+				+ "\"lines\":[[\" \",\"a\"],[\"-\",\"b\"],[\"+\",\"B\"],[\" \",\"c\"],"
+				+ "[\"-\",\"d\"],[\"+\",\"D\"],[\" \",\"e\"]]}", records[1]);
+	}
+
+	@Test
+	public void equalFilesHaveNoHunksAndTextIsEscaped() throws IOException {
+		StringWriter out = new StringWriter();
+		DiffStreamWriter writer = new DiffStreamWriter(out, 3);
+
+		writer.writeFile("libs/a\"b\\c.groovy", "a\"b\\c.groovy\u2028", Match.Kind.EQUAL);
+		writer.writeEnd();
+
+		assertEquals("{\"type\":\"file\",\"path\":\"libs/a\\\"b\\\\c.groovy\","
+				+ "\"name\":\"a\\\"b\\\\c.groovy\\u2028\",\"kind\":\"EQUAL\",\"approximate\":false}\n"
+				+ "{\"type\":\"end\",\"files\":1}\n", out.toString());
+	}
+
+	private static String[] write(int context, List<String> original, List<String> revised)
+			throws IOException {
+		StringWriter out = new StringWriter();
+		DiffStreamWriter writer = new DiffStreamWriter(out, context);
+		writer.writeFile("build.xml", "Jenkinsfile", Match.Kind.UNEQUAL, original, revised,
+				LineDiff.compute(original, revised));
+		writer.writeEnd();
+		return out.toString().split("\n");
+	}
+
+	@Test
+	public void linesAreReadWhileWritingTheHunks() throws IOException {
+		List<String> original = Arrays.asList("a", "b", "c", "d", "e", "f", "g", "h", "i");
+		List<String> revised = Arrays.asList("A", "b", "c", "d", "e", "f", "g", "h", "I");
+		StringWriter out = new StringWriter();
+		DiffStreamWriter writer = new DiffStreamWriter(out, 1);
+
+		writer.writeFile("build.xml", "Jenkinsfile", Match.Kind.UNEQUAL,
+				LineDiff.readLines(new StringReader("a\nb\nc\nd\ne\nf\ng\nh\ni\n")),
+				LineDiff.readLines(new StringReader("A\nb\nc\nd\ne\nf\ng\nh\nI\n")),
+				LineDiff.compute(original, revised).getEdits(), false);
+		writer.writeEnd();
+
+		assertEquals(String.join("\n", write(1, original, revised)) + "\n", out.toString());
+	}
+}
@@ -1,8 +1,11 @@
 package org.jenkinsci.plugins.pipelineConfigHistory.view;
 
+import difflib.DiffRow;
+import difflib.DiffUtils;
 import org.junit.Test;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 
@@ -69,6 +72,79 @@ public class GetDiffLinesTest {
 		assertEquals("diff_revised", right.getCssClass());
 	}
 
+	@Test
+	public void testGetFromPatch() {
+		List<String> original = new ArrayList<>();
+		for (int i = 1; i <= 20; i++) {
+			original.add("line " + i);
+		}
+		List<String> revised = new ArrayList<>(original);
+		revised.set(1, "line 2 changed");
+		revised.set(17, "line 18 changed");
+
+		List<SideBySideView.Line> result =
+				new GetDiffLines(original, revised, DiffUtils.diff(original, revised)).get();
+
+		// two hunks with three lines of context each, separated by a skipping line.
+		assertEquals(12, result.size());
+		assertEquals("1", result.get(0).getLeft().getLineNumber());
+		assertEquals(DiffRow.Tag.CHANGE, result.get(1).getTag());
+		assertEquals("2", result.get(1).getLeft().getLineNumber());
+		assertEquals("2", result.get(1).getRight().getLineNumber());
+		assertTrue(result.get(5).isSkipping());
+		assertEquals("15", result.get(6).getLeft().getLineNumber());
+		assertEquals(DiffRow.Tag.CHANGE, result.get(9).getTag());
+		assertEquals("18", result.get(9).getRight().getLineNumber());
+		assertEquals("20", result.get(11).getRight().getLineNumber());
+	}
+
+	@Test
+	public void testGetFromPatchAgainstEmptyFile() {
+		List<SideBySideView.Line> result = new DiffLineGenerator("", "a\n\nb").getLines();
+
+		assertEquals(3, result.size());
+		for (SideBySideView.Line line : result) {
+			assertEquals(DiffRow.Tag.INSERT, line.getTag());
+			assertNull(line.getLeft().getText());
+			assertEquals("", line.getLeft().getLineNumber());
+		}
+		assertEquals("", result.get(1).getRight().getText());
+		assertEquals("3", result.get(2).getRight().getLineNumber());
+	}
+
+	@Test
+	public void testSingleLineViewFromPatch() {
+		List<String> original = new ArrayList<>();
+		for (int i = 1; i <= 20; i++) {
+			original.add("line " + i);
+		}
+		List<String> revised = new ArrayList<>(original);
+		revised.set(1, "line 2 changed");
+		revised.add(2, "line 2a");
+		revised.remove(15);
+
+		GetDiffLines sut = new GetDiffLines(original, revised, DiffUtils.diff(original, revised));
+		List<SideBySideView.Line> lines = sut.get();
+		List<SingleLineView.Line> result = sut.getSingleLineViewLines();
+
+		// the same as converting the side-by-side lines afterwards.
+		List<SingleLineView.Line> converted =
+				new PipelineConfigHistoryProjectAction(null).getSingleLineViewLines(lines);
+		assertEquals(converted.size(), result.size());
+		for (int i = 0; i < result.size(); i++) {
+			assertEquals(converted.get(i).getKind(), result.get(i).getKind());
+			assertEquals(converted.get(i).getContent(), result.get(i).getContent());
+			assertEquals(converted.get(i).getLineNumLeft(), result.get(i).getLineNumLeft());
+			assertEquals(converted.get(i).getLineNumRight(), result.get(i).getLineNumRight());
+		}
+		// the deleted line of the change comes before both inserted ones.
+		assertEquals(SingleLineView.Line.Kind.EQUAL, result.get(0).getKind());
+		assertEquals(SingleLineView.Line.Kind.DELETE, result.get(1).getKind());
+		assertEquals(SingleLineView.Line.Kind.INSERT, result.get(2).getKind());
+		assertEquals(SingleLineView.Line.Kind.INSERT, result.get(3).getKind());
+		assertEquals("3", result.get(3).getLineNumRight());
+	}
+
 	GetDiffLines createGetDiffLines() throws IOException {
 		final List<String> lines = Arrays.asList(resourceString.split("\n"));
 		GetDiffLines sut = new GetDiffLines(lines);
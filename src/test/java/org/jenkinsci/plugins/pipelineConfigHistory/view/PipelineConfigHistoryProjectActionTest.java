@@ -28,7 +28,9 @@ import hudson.model.queue.QueueTaskFuture;
 import jenkins.model.ParameterizedJobMixIn;
 import org.apache.commons.io.FileUtils;
 import org.jenkinsci.plugins.pipelineConfigHistory.PipelineConfigHistoryConsts;
+import org.jenkinsci.plugins.pipelineConfigHistory.model.PipelineConfigHistoryCaptureQueue;
 import org.jenkinsci.plugins.pipelineConfigHistory.model.PipelineHistoryDescription;
+import org.jenkinsci.plugins.pipelineConfigHistory.model.PipelineHistoryFileManifest;
 import org.jenkinsci.plugins.workflow.cps.CpsFlowDefinition;
 import org.jenkinsci.plugins.workflow.cps.replay.ReplayAction;
 import org.jenkinsci.plugins.workflow.job.WorkflowJob;
@@ -40,12 +42,14 @@ import org.jvnet.hudson.test.JenkinsRule;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
 import java.io.File;
 import java.io.IOException;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 public class PipelineConfigHistoryProjectActionTest {
 
@@ -130,6 +134,23 @@ public class PipelineConfigHistoryProjectActionTest {
 		assertEquals(buildXml, sut.getFileByHashCode(timestamp, Integer.toString(buildXml.hashCode())));
 	}
 
+	@Test
+	public void getFileById() throws Exception {
+		createNewBuild(workflowJob, SCRIPT);
+
+		String timestamp = sut.getPipelineHistoryDescriptions().get(0).getTimestamp();
+		File revision = sut.getRevision(timestamp);
+		File buildXml = new File(revision, PipelineConfigHistoryConsts.BUILD_XML_FILENAME);
+
+		assertTrue(new File(revision, PipelineConfigHistoryConsts.FILE_MANIFEST_FILENAME).isFile());
+		assertEquals(PipelineConfigHistoryConsts.BUILD_XML_FILENAME, sut.getFileNameDisplayable(timestamp, buildXml));
+		assertEquals(buildXml, sut.getFileById(timestamp, PipelineConfigHistoryConsts.BUILD_XML_FILENAME));
+		//links of older versions
+		assertEquals(buildXml, sut.getFileById(timestamp, Integer.toString(buildXml.hashCode())));
+		assertNull(sut.getFileById(timestamp, PipelineConfigHistoryConsts.HISTORY_XML_FILENAME));
+		assertNull(sut.getFileById(timestamp, "../" + timestamp + "/" + PipelineConfigHistoryConsts.HISTORY_XML_FILENAME));
+	}
+
 	@Test
 	public void getFileContentByHashCode() throws Exception {
 		createNewBuild(workflowJob, SCRIPT);
@@ -259,6 +280,41 @@ public class PipelineConfigHistoryProjectActionTest {
 		assertEquals(Match.Kind.UNEQUAL, matches2_3.get(0).getKind());
 	}
 
+	@Test
+	public void getMatchingFilesJoinsByRelativePath() throws Exception {
+		createNewBuild(workflowJob, SCRIPT);
+		createNewBuild(workflowJob, SCRIPT_2);
+		createNewBuild(workflowJob, SCRIPT);
+
+		String timestamp1 = sut.getPipelineHistoryDescriptions().get(0).getTimestamp();
+		String timestamp3 = sut.getPipelineHistoryDescriptions().get(2).getTimestamp();
+		File revision1 = sut.getRevision(timestamp1);
+		File revision3 = sut.getRevision(timestamp3);
+
+		//same file name in different directories must not be matched with each other.
+		FileUtils.writeStringToFile(new File(revision1, "libs/a/vars/x.groovy"), "a", "UTF-8");
+		FileUtils.writeStringToFile(new File(revision1, "libs/b/vars/x.groovy"), "b", "UTF-8");
+		FileUtils.writeStringToFile(new File(revision3, "libs/b/vars/x.groovy"), "b2", "UTF-8");
+		FileUtils.writeStringToFile(new File(revision3, "libs/c/vars/z.groovy"), "c", "UTF-8");
+		FileUtils.writeStringToFile(new File(revision3, "libs/c/vars/y.groovy"), "c", "UTF-8");
+		PipelineHistoryFileManifest.write(revision1);
+		PipelineHistoryFileManifest.write(revision3);
+
+		List<Match> matches = sut.getMatchingFiles(timestamp1, timestamp3);
+
+		assertEquals(5, matches.size());
+		assertEquals(Match.Kind.UNEQUAL, matches.get(0).getKind());
+		assertEquals("libs/b/vars/x.groovy", matches.get(0).getRelativePath());
+		assertEquals(Match.Kind.EQUAL, matches.get(1).getKind());
+		assertEquals(PipelineConfigHistoryConsts.BUILD_XML_FILENAME, matches.get(1).getRelativePath());
+		assertEquals(Match.Kind.SINGLE_1, matches.get(2).getKind());
+		assertEquals("libs/a/vars/x.groovy", matches.get(2).getRelativePath());
+		assertEquals(Match.Kind.SINGLE_2, matches.get(3).getKind());
+		assertEquals("libs/c/vars/y.groovy", matches.get(3).getRelativePath());
+		assertEquals(Match.Kind.SINGLE_2, matches.get(4).getKind());
+		assertEquals("libs/c/vars/z.groovy", matches.get(4).getRelativePath());
+	}
+
 	@Test
 	public void getLines() throws Exception {
 		//this should test all three getLines()-methods.
@@ -307,6 +363,7 @@ public class PipelineConfigHistoryProjectActionTest {
 		WorkflowRun workflowRun_SCRIPT = workflowJob.getLastBuild();
 		createNewBuild(workflowJob, SCRIPT_2);
 		workflowRun_SCRIPT.getAction(ReplayAction.class).run(SCRIPT, Collections.emptyMap()).get();
+		awaitCaptures();
 
 		String timestamp1 = sut.getPipelineHistoryDescriptions().get(0).getTimestamp();
 		String timestamp2 = sut.getPipelineHistoryDescriptions().get(1).getTimestamp();
@@ -325,6 +382,7 @@ public class PipelineConfigHistoryProjectActionTest {
 		WorkflowRun workflowRun_SCRIPT = workflowJob.getLastBuild();
 		createNewBuild(workflowJob, SCRIPT_2);
 		workflowRun_SCRIPT.getAction(ReplayAction.class).run(SCRIPT, Collections.emptyMap()).get();
+		awaitCaptures();
 
 		String timestamp3 = sut.getPipelineHistoryDescriptions().get(2).getTimestamp();
 
@@ -337,6 +395,7 @@ public class PipelineConfigHistoryProjectActionTest {
 		WorkflowRun workflowRun_SCRIPT = workflowJob.getLastBuild();
 		createNewBuild(workflowJob, SCRIPT_2);
 		workflowRun_SCRIPT.getAction(ReplayAction.class).run(SCRIPT, Collections.emptyMap()).get();
+		awaitCaptures();
 
 		String timestamp1 = sut.getPipelineHistoryDescriptions().get(0).getTimestamp();
 		String timestamp2 = sut.getPipelineHistoryDescriptions().get(1).getTimestamp();
@@ -371,5 +430,10 @@ public class PipelineConfigHistoryProjectActionTest {
 
 		//WAIT
 		System.out.println("Build completed: " + f.get());
+		awaitCaptures();
+	}
+
+	private void awaitCaptures() throws InterruptedException {
+		assertTrue(PipelineConfigHistoryCaptureQueue.get().awaitIdle(30, TimeUnit.SECONDS));
 	}
 }
\ No newline at end of file